@@ -0,0 +1,384 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import net.rptools.dice.parser.DiceExprSyntaxException;
+import net.rptools.dice.roller.DiceRollers;
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.Token;
+
+/**
+ * Compiles large numbers of expressions, such as the macros of a campaign, in parallel on a {@link
+ * ForkJoinPool}.
+ *
+ * <p>Rather than throwing on the first expression that fails to compile each expression gets a
+ * {@link Result} holding either the compiled expression or the {@link Diagnostic}s explaining why
+ * it could not be compiled. An expression with syntax errors is not compiled even if the parser was
+ * able to recover from them.
+ *
+ * <p>The {@link DiceRollers} are initialised alongside the compilation so that the first roll does
+ * not have to wait for them.
+ */
+public final class BulkCompiler {
+
+  /** The number of expressions below which a task compiles them itself rather than splitting. */
+  private static final int SEQUENTIAL_THRESHOLD = 16;
+
+  /** A problem found while compiling an expression. */
+  public static final class Diagnostic {
+
+    /** The description of the problem. */
+    private final String message;
+
+    /** The position in the source of the problem. */
+    private final int position;
+
+    /**
+     * Creates a new <code>Diagnostic</code>.
+     *
+     * @param message The description of the problem.
+     * @param position The position in the source of the problem, or <code>-1</code> if unknown.
+     */
+    private Diagnostic(String message, int position) {
+      this.message = message;
+      this.position = position;
+    }
+
+    /**
+     * Returns the description of the problem.
+     *
+     * @return the description of the problem.
+     */
+    public String getMessage() {
+      return message;
+    }
+
+    /**
+     * Returns the position in the source of the problem.
+     *
+     * @return the position of the problem, or <code>-1</code> if it is not known.
+     */
+    public int getPosition() {
+      return position;
+    }
+
+    @Override
+    public String toString() {
+      return position < 0 ? message : position + ": " + message;
+    }
+  }
+
+  /** The outcome of compiling a single expression. */
+  public static final class Result {
+
+    /** The compiled expression, <code>null</code> if it could not be compiled. */
+    private final DiceExpression expression;
+
+    /** The problems found while compiling the expression. */
+    private final List<Diagnostic> diagnostics;
+
+    /**
+     * Creates a new <code>Result</code>.
+     *
+     * @param expression The compiled expression, <code>null</code> if it could not be compiled.
+     * @param diagnostics The problems found while compiling the expression.
+     */
+    private Result(DiceExpression expression, List<Diagnostic> diagnostics) {
+      this.expression = expression;
+      this.diagnostics = List.copyOf(diagnostics);
+    }
+
+    /**
+     * Returns the compiled expression.
+     *
+     * @return the compiled expression, or empty if it could not be compiled.
+     */
+    public Optional<DiceExpression> getExpression() {
+      return Optional.ofNullable(expression);
+    }
+
+    /**
+     * Returns the problems found while compiling the expression.
+     *
+     * @return the problems found while compiling the expression.
+     */
+    public List<Diagnostic> getDiagnostics() {
+      return diagnostics;
+    }
+
+    /**
+     * Returns if the expression was compiled.
+     *
+     * @return <code>true</code> if the expression was compiled.
+     */
+    public boolean isSuccess() {
+      return expression != null;
+    }
+  }
+
+  private BulkCompiler() {}
+
+  /**
+   * Compiles expressions with the default options on the common {@link ForkJoinPool}.
+   *
+   * @param sources The source of each expression by key.
+   * @param <K> The type of the keys.
+   * @return the result of compiling each expression by key, in the iteration order of the sources.
+   */
+  public static <K> Map<K, Result> compile(Map<K, String> sources) {
+    return compile(sources, CompileOptions.DEFAULT, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Compiles expressions in parallel.
+   *
+   * @param sources The source of each expression by key.
+   * @param options The options used to compile the expressions.
+   * @param pool The pool the expressions are compiled on.
+   * @param <K> The type of the keys.
+   * @return the result of compiling each expression by key, in the iteration order of the sources.
+   */
+  public static <K> Map<K, Result> compile(
+      Map<K, String> sources, CompileOptions options, ForkJoinPool pool) {
+    List<K> keys = new ArrayList<>(sources.keySet());
+    List<String> texts = new ArrayList<>(keys.size());
+    for (K key : keys) {
+      texts.add(sources.get(key));
+    }
+
+    Result[] results = new Result[keys.size()];
+    pool.invoke(new CompileTask(texts, null, options, results, 0, results.length));
+
+    Map<K, Result> compiled = new LinkedHashMap<>();
+    for (int i = 0; i < results.length; i++) {
+      compiled.put(keys.get(i), results[i]);
+    }
+    return compiled;
+  }
+
+  /**
+   * Compiles a stream of expressions with the default options on the common {@link ForkJoinPool}.
+   *
+   * @param sources The sources of the expressions.
+   * @return the result of compiling each expression, in the order of the stream.
+   */
+  public static List<Result> compile(Stream<String> sources) {
+    return compile(sources, CompileOptions.DEFAULT, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Compiles a stream of expressions in parallel.
+   *
+   * @param sources The sources of the expressions.
+   * @param options The options used to compile the expressions.
+   * @param pool The pool the expressions are compiled on.
+   * @return the result of compiling each expression, in the order of the stream.
+   */
+  public static List<Result> compile(
+      Stream<String> sources, CompileOptions options, ForkJoinPool pool) {
+    List<String> texts = sources.collect(Collectors.toList());
+    Result[] results = new Result[texts.size()];
+    pool.invoke(new CompileTask(texts, null, options, results, 0, results.length));
+    return Collections.unmodifiableList(Arrays.asList(results));
+  }
+
+  /**
+   * Compiles every regular file in a directory and its sub directories, each file holding a single
+   * expression encoded as UTF-8. The files are read in parallel as part of compiling them, a file
+   * that can not be read gets a {@link Diagnostic} rather than failing the whole directory.
+   *
+   * @param directory The directory to compile.
+   * @param options The options used to compile the expressions.
+   * @param pool The pool the expressions are compiled on.
+   * @return the result of compiling each file by path, in the order the paths sort.
+   * @throws IOException if the directory can not be listed.
+   */
+  public static Map<Path, Result> compileDirectory(
+      Path directory, CompileOptions options, ForkJoinPool pool) throws IOException {
+    List<Path> paths;
+    try (Stream<Path> walk = Files.walk(directory)) {
+      paths = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+    }
+
+    Result[] results = new Result[paths.size()];
+    pool.invoke(new CompileTask(null, paths, options, results, 0, results.length));
+
+    Map<Path, Result> compiled = new LinkedHashMap<>();
+    for (int i = 0; i < results.length; i++) {
+      compiled.put(paths.get(i), results[i]);
+    }
+    return compiled;
+  }
+
+  /**
+   * Compiles a single expression.
+   *
+   * @param source The source of the expression.
+   * @param options The options used to compile the expression.
+   * @return the result of compiling the expression.
+   */
+  static Result compileOne(String source, CompileOptions options) {
+    List<Diagnostic> diagnostics = new ArrayList<>();
+    var errorListener =
+        new BaseErrorListener() {
+          @Override
+          public void syntaxError(
+              Recognizer<?, ?> recognizer,
+              Object offendingSymbol,
+              int line,
+              int charPositionInLine,
+              String msg,
+              RecognitionException e) {
+            // Lexer errors have no token, only the line and the column in the line.
+            int position =
+                offendingSymbol instanceof Token
+                    ? ((Token) offendingSymbol).getStartIndex()
+                    : offset(source, line, charPositionInLine);
+            diagnostics.add(new Diagnostic(msg, position));
+          }
+        };
+
+    DiceExpression expression;
+    try {
+      expression = DiceExpression.fromString(source, options, errorListener);
+    } catch (DiceExprSyntaxException e) {
+      diagnostics.add(new Diagnostic(e.getMessage(), e.getPosition()));
+      expression = null;
+    } catch (RuntimeException e) {
+      diagnostics.add(new Diagnostic(String.valueOf(e.getMessage()), -1));
+      expression = null;
+    }
+    return new Result(diagnostics.isEmpty() ? expression : null, diagnostics);
+  }
+
+  /**
+   * Returns the offset in the source of a line and column, as reported by ANTLR.
+   *
+   * @param source The source of the expression.
+   * @param line The line, starting at 1.
+   * @param column The column in the line, starting at 0.
+   * @return the offset in the source, or <code>-1</code> if the source has no such line.
+   */
+  static int offset(String source, int line, int column) {
+    int lineStart = 0;
+    for (int i = 1; i < line; i++) {
+      lineStart = source.indexOf('\n', lineStart) + 1;
+      if (lineStart == 0) {
+        return -1;
+      }
+    }
+    return line < 1 || column < 0 ? -1 : Math.min(lineStart + column, source.length());
+  }
+
+  /** Task that compiles a range of the expressions, splitting it until it is small enough. */
+  private static final class CompileTask extends RecursiveAction {
+
+    /** The sources of the expressions, <code>null</code> if they are read from files. */
+    private final List<String> sources;
+
+    /** The files holding the expressions, <code>null</code> if the sources are given. */
+    private final List<Path> paths;
+
+    /** The options used to compile the expressions. */
+    private final CompileOptions options;
+
+    /** The array the results are stored in. */
+    private final Result[] results;
+
+    /** The index of the first expression to compile. */
+    private final int from;
+
+    /** The index after the last expression to compile. */
+    private final int to;
+
+    private CompileTask(
+        List<String> sources,
+        List<Path> paths,
+        CompileOptions options,
+        Result[] results,
+        int from,
+        int to) {
+      this.sources = sources;
+      this.paths = paths;
+      this.options = options;
+      this.results = results;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (from == 0 && to == results.length) {
+        // Initialise the dice rollers while the expressions are being compiled.
+        ForkJoinTask<?> rollers = ForkJoinTask.adapt(DiceRollers::getInstance).fork();
+        computeRange();
+        rollers.join();
+      } else {
+        computeRange();
+      }
+    }
+
+    /** Compiles the range, splitting it in two if it is too large. */
+    private void computeRange() {
+      if (to - from <= SEQUENTIAL_THRESHOLD) {
+        for (int i = from; i < to; i++) {
+          results[i] = compileEntry(i);
+        }
+      } else {
+        int mid = (from + to) >>> 1;
+        invokeAll(
+            new CompileTask(sources, paths, options, results, from, mid),
+            new CompileTask(sources, paths, options, results, mid, to));
+      }
+    }
+
+    /**
+     * Compiles a single expression, reading it from its file if needed.
+     *
+     * @param index The index of the expression.
+     * @return the result of compiling the expression.
+     */
+    private Result compileEntry(int index) {
+      if (sources != null) {
+        return compileOne(sources.get(index), options);
+      }
+      String source;
+      try {
+        source = Files.readString(paths.get(index), StandardCharsets.UTF_8);
+      } catch (IOException e) {
+        return new Result(null, List.of(new Diagnostic("Unable to read file: " + e, -1)));
+      }
+      return compileOne(source, options);
+    }
+  }
+}
@@ -0,0 +1,466 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice;
+
+import java.util.Objects;
+import net.rptools.dice.result.ArithmeticMode;
+
+/** The options used when compiling a {@link DiceExpression}. */
+public final class CompileOptions {
+
+  /** The strategy used by the parser to predict which alternative of a rule to take. */
+  public enum PredictionStrategy {
+    /** Full LL prediction for every input. */
+    LL,
+    /**
+     * Try the faster SLL prediction first, bailing out on the first syntax error, and only re-parse
+     * with full LL prediction if that fails.
+     */
+    SLL_THEN_LL
+  }
+
+  /** The parser used to build the expression trees. */
+  public enum ParserBackend {
+    /** The ANTLR generated parser and parse tree visitors. */
+    ANTLR,
+    /**
+     * The hand written {@link net.rptools.dice.parser.RecursiveDescentDiceParser} which builds the
+     * expression trees directly from the source. It does not use the prediction strategy.
+     */
+    RECURSIVE_DESCENT
+  }
+
+  /** How the expression trees are evaluated by the tree interpreter. */
+  public enum EvaluationStrategy {
+    /** Each node evaluates its children by recursion. */
+    RECURSIVE,
+    /**
+     * The {@link net.rptools.dice.expressiontree.IterativeEvaluator} walks the trees with an
+     * explicit stack, so that deep trees can not overflow the stack of the thread.
+     *
+     * <p>Only executing and formatting the results avoid recursion. Compiling still recurses once
+     * for each level of nesting, which {@link DiceInputLimits#getMaxNestingDepth()} bounds. An
+     * expression that compiles can then be executed by threads with much smaller stacks.
+     */
+    ITERATIVE
+  }
+
+  /** The default number of executions after which an expression is compiled to bytecode. */
+  public static final int DEFAULT_BYTECODE_THRESHOLD = 1000;
+
+  /**
+   * The default number of executions after which an expression is compiled for the {@link
+   * net.rptools.dice.vm.DiceVirtualMachine}.
+   */
+  public static final int DEFAULT_VM_THRESHOLD = 16;
+
+  /** The default options. */
+  public static final CompileOptions DEFAULT =
+      new CompileOptions(
+          PredictionStrategy.LL,
+          ParserBackend.ANTLR,
+          true,
+          DEFAULT_BYTECODE_THRESHOLD,
+          DEFAULT_VM_THRESHOLD,
+          DiceInputLimits.DEFAULT,
+          EvaluationStrategy.RECURSIVE,
+          ArithmeticMode.INT,
+          -1,
+          DiceExecutionLimits.UNLIMITED);
+
+  /** The prediction strategy used by the parser. */
+  private final PredictionStrategy predictionStrategy;
+
+  /** The parser used to build the expression trees. */
+  private final ParserBackend parserBackend;
+
+  /** Are constant subtrees of the expression folded into values when compiling. */
+  private final boolean constantFolding;
+
+  /** The number of executions after which the expression is compiled to bytecode. */
+  private final int bytecodeThreshold;
+
+  /** The number of executions after which the expression is compiled for the virtual machine. */
+  private final int vmThreshold;
+
+  /** The limits the source is checked against before it is parsed. */
+  private final DiceInputLimits inputLimits;
+
+  /** How the expression trees are evaluated by the tree interpreter. */
+  private final EvaluationStrategy evaluationStrategy;
+
+  /** The arithmetic used for operations on integers. */
+  private final ArithmeticMode arithmeticMode;
+
+  /** The number of statements from which independent statements are executed concurrently. */
+  private final int parallelThreshold;
+
+  /** The limits on the work done by each execution. */
+  private final DiceExecutionLimits executionLimits;
+
+  /**
+   * Creates a new <code>CompileOptions</code>.
+   *
+   * @param prediction The prediction strategy used by the parser.
+   * @param backend The parser used to build the expression trees.
+   * @param folding Are constant subtrees folded into values.
+   * @param threshold The number of executions after which the expression is compiled to bytecode.
+   * @param vm The number of executions after which the expression is compiled for the virtual
+   *     machine.
+   * @param limits The limits the source is checked against before it is parsed.
+   * @param evaluation How the expression trees are evaluated by the tree interpreter.
+   * @param arithmetic The arithmetic used for operations on integers.
+   * @param parallel The number of statements from which independent statements are executed
+   *     concurrently.
+   * @param execution The limits on the work done by each execution.
+   */
+  private CompileOptions(
+      PredictionStrategy prediction,
+      ParserBackend backend,
+      boolean folding,
+      int threshold,
+      int vm,
+      DiceInputLimits limits,
+      EvaluationStrategy evaluation,
+      ArithmeticMode arithmetic,
+      int parallel,
+      DiceExecutionLimits execution) {
+    predictionStrategy = Objects.requireNonNull(prediction);
+    parserBackend = Objects.requireNonNull(backend);
+    constantFolding = folding;
+    bytecodeThreshold = threshold;
+    vmThreshold = vm;
+    inputLimits = Objects.requireNonNull(limits);
+    evaluationStrategy = Objects.requireNonNull(evaluation);
+    arithmeticMode = Objects.requireNonNull(arithmetic);
+    parallelThreshold = parallel;
+    executionLimits = Objects.requireNonNull(execution);
+  }
+
+  /**
+   * Returns the prediction strategy used by the parser.
+   *
+   * @return the prediction strategy used by the parser.
+   */
+  public PredictionStrategy getPredictionStrategy() {
+    return predictionStrategy;
+  }
+
+  /**
+   * Returns a copy of these options with a different prediction strategy.
+   *
+   * @param prediction The prediction strategy to use.
+   * @return the new options.
+   */
+  public CompileOptions withPredictionStrategy(PredictionStrategy prediction) {
+    return new CompileOptions(
+        prediction,
+        parserBackend,
+        constantFolding,
+        bytecodeThreshold,
+        vmThreshold,
+        inputLimits,
+        evaluationStrategy,
+        arithmeticMode,
+        parallelThreshold,
+        executionLimits);
+  }
+
+  /**
+   * Returns the parser used to build the expression trees.
+   *
+   * @return the parser used to build the expression trees.
+   */
+  public ParserBackend getParserBackend() {
+    return parserBackend;
+  }
+
+  /**
+   * Returns a copy of these options with a different parser.
+   *
+   * @param backend The parser to use.
+   * @return the new options.
+   */
+  public CompileOptions withParserBackend(ParserBackend backend) {
+    return new CompileOptions(
+        predictionStrategy,
+        backend,
+        constantFolding,
+        bytecodeThreshold,
+        vmThreshold,
+        inputLimits,
+        evaluationStrategy,
+        arithmeticMode,
+        parallelThreshold,
+        executionLimits);
+  }
+
+  /**
+   * Returns if constant subtrees of the expression are folded into values when compiling.
+   *
+   * @return <code>true</code> if constant subtrees are folded.
+   * @see net.rptools.dice.expressiontree.ConstantFolder
+   */
+  public boolean isConstantFolding() {
+    return constantFolding;
+  }
+
+  /**
+   * Returns a copy of these options with constant folding turned on or off.
+   *
+   * @param folding Should constant subtrees be folded into values.
+   * @return the new options.
+   */
+  public CompileOptions withConstantFolding(boolean folding) {
+    return new CompileOptions(
+        predictionStrategy,
+        parserBackend,
+        folding,
+        bytecodeThreshold,
+        vmThreshold,
+        inputLimits,
+        evaluationStrategy,
+        arithmeticMode,
+        parallelThreshold,
+        executionLimits);
+  }
+
+  /**
+   * Returns the number of times an expression is executed by the tree interpreter before it is
+   * compiled to bytecode, a negative number means it is never compiled.
+   *
+   * @return the number of executions before the expression is compiled.
+   * @see net.rptools.dice.compiler.DiceExpressionCompiler
+   */
+  public int getBytecodeThreshold() {
+    return bytecodeThreshold;
+  }
+
+  /**
+   * Returns a copy of these options with a different bytecode compilation threshold.
+   *
+   * @param threshold The number of executions before the expression is compiled to bytecode, 0 to
+   *     compile it before the first execution or a negative number to never compile it.
+   * @return the new options.
+   */
+  public CompileOptions withBytecodeThreshold(int threshold) {
+    return new CompileOptions(
+        predictionStrategy,
+        parserBackend,
+        constantFolding,
+        threshold,
+        vmThreshold,
+        inputLimits,
+        evaluationStrategy,
+        arithmeticMode,
+        parallelThreshold,
+        executionLimits);
+  }
+
+  /**
+   * Returns the limits the source of an expression is checked against before it is parsed.
+   *
+   * @return the limits on the source.
+   */
+  public DiceInputLimits getInputLimits() {
+    return inputLimits;
+  }
+
+  /**
+   * Returns a copy of these options with different limits on the source. Sources that exceed the
+   * limits are rejected with a {@link net.rptools.dice.parser.DiceInputRejectedException} before
+   * they are parsed.
+   *
+   * @param limits The limits the source is checked against.
+   * @return the new options.
+   */
+  public CompileOptions withInputLimits(DiceInputLimits limits) {
+    return new CompileOptions(
+        predictionStrategy,
+        parserBackend,
+        constantFolding,
+        bytecodeThreshold,
+        vmThreshold,
+        limits,
+        evaluationStrategy,
+        arithmeticMode,
+        parallelThreshold,
+        executionLimits);
+  }
+
+  /**
+   * Returns how the expression trees are evaluated by the tree interpreter.
+   *
+   * @return the evaluation strategy.
+   */
+  public EvaluationStrategy getEvaluationStrategy() {
+    return evaluationStrategy;
+  }
+
+  /**
+   * Returns a copy of these options with a different evaluation strategy.
+   *
+   * @param evaluation How the expression trees are evaluated by the tree interpreter.
+   * @return the new options.
+   */
+  public CompileOptions withEvaluationStrategy(EvaluationStrategy evaluation) {
+    return new CompileOptions(
+        predictionStrategy,
+        parserBackend,
+        constantFolding,
+        bytecodeThreshold,
+        vmThreshold,
+        inputLimits,
+        evaluation,
+        arithmeticMode,
+        parallelThreshold,
+        executionLimits);
+  }
+
+  /**
+   * Returns the number of times an expression is executed by the tree interpreter before it is
+   * compiled for the {@link net.rptools.dice.vm.DiceVirtualMachine}, a negative number means it is
+   * never compiled for it. Once an expression has been compiled to bytecode the virtual machine is
+   * no longer used.
+   *
+   * @return the number of executions before the expression is compiled for the virtual machine.
+   */
+  public int getVmThreshold() {
+    return vmThreshold;
+  }
+
+  /**
+   * Returns a copy of these options with a different virtual machine compilation threshold.
+   *
+   * @param threshold The number of executions before the expression is compiled for the virtual
+   *     machine, 0 to compile it before the first execution or a negative number to never compile
+   *     it.
+   * @return the new options.
+   */
+  public CompileOptions withVmThreshold(int threshold) {
+    return new CompileOptions(
+        predictionStrategy,
+        parserBackend,
+        constantFolding,
+        bytecodeThreshold,
+        threshold,
+        inputLimits,
+        evaluationStrategy,
+        arithmeticMode,
+        parallelThreshold,
+        executionLimits);
+  }
+
+  /**
+   * Returns the arithmetic used for operations on integers. The default is {@link
+   * ArithmeticMode#INT}, 32 bit integers which wrap around on overflow.
+   *
+   * @return the arithmetic used for operations on integers.
+   */
+  public ArithmeticMode getArithmeticMode() {
+    return arithmeticMode;
+  }
+
+  /**
+   * Returns a copy of these options with a different arithmetic for operations on integers.
+   *
+   * @param arithmetic The arithmetic to use.
+   * @return the new options.
+   */
+  public CompileOptions withArithmeticMode(ArithmeticMode arithmetic) {
+    return new CompileOptions(
+        predictionStrategy,
+        parserBackend,
+        constantFolding,
+        bytecodeThreshold,
+        vmThreshold,
+        inputLimits,
+        evaluationStrategy,
+        arithmetic,
+        parallelThreshold,
+        executionLimits);
+  }
+
+  /**
+   * Returns the number of statements an expression must have before statements that do not share
+   * any variables are executed concurrently, a negative number means they are always executed one
+   * after another. Expressions that are executed concurrently are always run by the tree
+   * interpreter and are not compiled for the virtual machine or to bytecode. The default is to
+   * never execute statements concurrently, as the symbol table must then allow its variables to be
+   * read by several threads at once.
+   *
+   * <p>When a statement executed concurrently fails, every statement before it has been executed
+   * and the first failure in the order of the statements is reported. The assignments of the
+   * statements after it are discarded, even if they were already executed because they did not
+   * depend on any earlier statement.
+   *
+   * @return the number of statements from which independent statements are executed concurrently.
+   */
+  public int getParallelThreshold() {
+    return parallelThreshold;
+  }
+
+  /**
+   * Returns a copy of these options with a different threshold for executing statements
+   * concurrently.
+   *
+   * @param threshold The number of statements from which independent statements are executed
+   *     concurrently, or a negative number to always execute them one after another.
+   * @return the new options.
+   */
+  public CompileOptions withParallelThreshold(int threshold) {
+    return new CompileOptions(
+        predictionStrategy,
+        parserBackend,
+        constantFolding,
+        bytecodeThreshold,
+        vmThreshold,
+        inputLimits,
+        evaluationStrategy,
+        arithmeticMode,
+        threshold,
+        executionLimits);
+  }
+
+  /**
+   * Returns the limits on the work done by each execution of an expression. The default is {@link
+   * DiceExecutionLimits#UNLIMITED}.
+   *
+   * @return the limits on the work done by each execution.
+   */
+  public DiceExecutionLimits getExecutionLimits() {
+    return executionLimits;
+  }
+
+  /**
+   * Returns a copy of these options with different limits on the work done by each execution.
+   *
+   * @param limits The limits on the work done by each execution.
+   * @return the new options.
+   */
+  public CompileOptions withExecutionLimits(DiceExecutionLimits limits) {
+    return new CompileOptions(
+        predictionStrategy,
+        parserBackend,
+        constantFolding,
+        bytecodeThreshold,
+        vmThreshold,
+        inputLimits,
+        evaluationStrategy,
+        arithmeticMode,
+        parallelThreshold,
+        limits);
+  }
+}
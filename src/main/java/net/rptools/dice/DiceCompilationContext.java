@@ -0,0 +1,168 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice;
+
+import java.util.List;
+import net.rptools.dice.expressiontree.DiceExpressionNode;
+import net.rptools.dice.expressiontree.DiceExpressionSource;
+import net.rptools.dice.visitor.DiceRollVisitor;
+import org.antlr.v4.runtime.ANTLRErrorListener;
+import org.antlr.v4.runtime.BailErrorStrategy;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ConsoleErrorListener;
+import org.antlr.v4.runtime.DefaultErrorStrategy;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+import org.antlr.v4.runtime.tree.ParseTree;
+
+/**
+ * The lexer, parser and visitor used to compile expressions with ANTLR.
+ *
+ * <p>Each thread has its own context which is reset between uses rather than creating new instances
+ * for every expression that is compiled.
+ */
+final class DiceCompilationContext {
+
+  /** The context for each thread. */
+  private static final ThreadLocal<DiceCompilationContext> CONTEXT =
+      ThreadLocal.withInitial(DiceCompilationContext::new);
+
+  /** Empty input the lexer is left reading so it does not hold on to the last source compiled. */
+  private final CharStream empty = CharStreams.fromString("");
+
+  /** The lexer that splits the source into tokens. */
+  private final DiceExprLexer lexer = new DiceExprLexer(empty);
+
+  /** The buffer of tokens pulled from the lexer. */
+  private final CommonTokenStream tokens = new CommonTokenStream(lexer);
+
+  /** The parser that feeds off the tokens buffer. */
+  private final DiceExprParser parser = new DiceExprParser(tokens);
+
+  /** The visitor that converts the parse tree into expression trees. */
+  private final DiceRollVisitor visitor = new DiceRollVisitor();
+
+  /** The error strategy used for full LL parsing. */
+  private final DefaultErrorStrategy defaultErrorStrategy = new DefaultErrorStrategy();
+
+  /** The error strategy used for the first pass of two stage parsing. */
+  private final BailErrorStrategy bailErrorStrategy = new BailErrorStrategy();
+
+  /** Is the context currently being used. */
+  private boolean inUse;
+
+  private DiceCompilationContext() {}
+
+  /**
+   * Returns the context for the current thread. If the context for the thread is already in use a
+   * new context is returned.
+   *
+   * @return the context.
+   */
+  static DiceCompilationContext current() {
+    DiceCompilationContext context = CONTEXT.get();
+    return context.inUse ? new DiceCompilationContext() : context;
+  }
+
+  /**
+   * Parses the source of an expression, or part of it.
+   *
+   * @param source The source of the expression.
+   * @param start The offset in the source to start parsing at.
+   * @param end The offset in the source to stop parsing at.
+   * @param options The options used to compile the expression.
+   * @param errorListener The listener syntax errors are reported to, or <code>null</code> to report
+   *     them to the console.
+   * @return the expression trees for each of the statements in the source.
+   */
+  List<DiceExpressionNode> parse(
+      DiceExpressionSource source,
+      int start,
+      int end,
+      CompileOptions options,
+      ANTLRErrorListener errorListener) {
+    String text = source.getText();
+    CharStream charStream =
+        CharStreams.fromString(
+            start == 0 && end == text.length() ? text : text.substring(start, end));
+    inUse = true;
+    try {
+      lexer.setInputStream(charStream);
+      lexer.removeErrorListeners();
+      lexer.addErrorListener(errorListener == null ? ConsoleErrorListener.INSTANCE : errorListener);
+      tokens.setTokenSource(lexer);
+      parser.setTokenStream(tokens);
+
+      ParseTree parseTree;
+      if (options.getPredictionStrategy() == CompileOptions.PredictionStrategy.SLL_THEN_LL) {
+        parseTree = parseTwoStage(errorListener);
+      } else {
+        useFullLL(errorListener);
+        parseTree = parser.diceRolls();
+      }
+
+      visitor.setSource(source, start);
+      visitor.visit(parseTree);
+      return List.copyOf(visitor.getExpressionTrees());
+    } finally {
+      visitor.reset();
+      // Do not hold on to the caller's error listener.
+      lexer.removeErrorListeners();
+      parser.removeErrorListeners();
+      lexer.setInputStream(empty);
+      tokens.setTokenSource(lexer);
+      parser.setTokenStream(tokens);
+      inUse = false;
+    }
+  }
+
+  /**
+   * Parses the tokens using SLL prediction with an error strategy that bails out on the first
+   * syntax error, and if that fails rewinds and parses again with full LL prediction and the
+   * default error reporting and recovery.
+   *
+   * @param errorListener The listener syntax errors are reported to, or <code>null</code> to report
+   *     them to the console.
+   * @return the parse tree.
+   */
+  private ParseTree parseTwoStage(ANTLRErrorListener errorListener) {
+    parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+    parser.removeErrorListeners();
+    parser.setErrorHandler(bailErrorStrategy);
+    try {
+      return parser.diceRolls();
+    } catch (ParseCancellationException e) {
+      tokens.seek(0);
+      parser.reset();
+      useFullLL(errorListener);
+      return parser.diceRolls();
+    }
+  }
+
+  /**
+   * Sets up the parser for full LL prediction with the default error reporting and recovery.
+   *
+   * @param errorListener The listener syntax errors are reported to, or <code>null</code> to report
+   *     them to the console.
+   */
+  private void useFullLL(ANTLRErrorListener errorListener) {
+    parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+    parser.removeErrorListeners();
+    parser.addErrorListener(errorListener == null ? ConsoleErrorListener.INSTANCE : errorListener);
+    parser.setErrorHandler(defaultErrorStrategy);
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice;
+
+import java.time.Duration;
+
+/**
+ * Limits on the work done by a single execution of a dice expression, checked while it is executed.
+ * They stop a single expression from an untrusted user, such as <code>99999999d99999999
+ * </code> or <code>'x' * 2000000000</code>, from tying up a thread or running out of memory.
+ *
+ * @see net.rptools.dice.expressiontree.DiceExecutionBudget
+ */
+public final class DiceExecutionLimits {
+
+  /** No limits. */
+  public static final DiceExecutionLimits UNLIMITED =
+      new DiceExecutionLimits(Long.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE, null);
+
+  /** Limits suitable for expressions typed in by users of a public service. */
+  public static final DiceExecutionLimits UNTRUSTED =
+      new DiceExecutionLimits(10_000, 65_536, 100_000, Duration.ofSeconds(1));
+
+  /** The maximum number of dice rolled. */
+  private final long maxDice;
+
+  /** The maximum number of characters in a string result. */
+  private final int maxStringLength;
+
+  /** The maximum number of nodes evaluated. */
+  private final long maxNodeEvaluations;
+
+  /** The maximum time the execution can take, <code>null</code> if there is no limit. */
+  private final Duration maxTime;
+
+  /**
+   * Creates a new <code>DiceExecutionLimits</code>.
+   *
+   * @param dice The maximum number of dice rolled.
+   * @param stringLength The maximum number of characters in a string result.
+   * @param evaluations The maximum number of nodes evaluated.
+   * @param time The maximum time the execution can take, <code>null</code> if there is no limit.
+   */
+  private DiceExecutionLimits(long dice, int stringLength, long evaluations, Duration time) {
+    maxDice = checkLimit(dice);
+    maxStringLength = (int) checkLimit(stringLength);
+    maxNodeEvaluations = checkLimit(evaluations);
+    if (time != null && time.isNegative()) {
+      throw new IllegalArgumentException("Limit can not be negative: " + time);
+    }
+    maxTime = time;
+  }
+
+  private static long checkLimit(long limit) {
+    if (limit < 0) {
+      throw new IllegalArgumentException("Limit can not be negative: " + limit);
+    }
+    return limit;
+  }
+
+  /**
+   * Returns the maximum number of dice rolled.
+   *
+   * @return the maximum number of dice rolled.
+   */
+  public long getMaxDice() {
+    return maxDice;
+  }
+
+  /**
+   * Returns a copy of these limits with a different maximum number of dice.
+   *
+   * @param dice The maximum number of dice rolled.
+   * @return the new limits.
+   * @throws IllegalArgumentException if the limit is negative.
+   */
+  public DiceExecutionLimits withMaxDice(long dice) {
+    return new DiceExecutionLimits(dice, maxStringLength, maxNodeEvaluations, maxTime);
+  }
+
+  /**
+   * Returns the maximum number of characters in a string result.
+   *
+   * @return the maximum number of characters in a string result.
+   */
+  public int getMaxStringLength() {
+    return maxStringLength;
+  }
+
+  /**
+   * Returns a copy of these limits with a different maximum string length.
+   *
+   * @param stringLength The maximum number of characters in a string result.
+   * @return the new limits.
+   * @throws IllegalArgumentException if the limit is negative.
+   */
+  public DiceExecutionLimits withMaxStringLength(int stringLength) {
+    return new DiceExecutionLimits(maxDice, stringLength, maxNodeEvaluations, maxTime);
+  }
+
+  /**
+   * Returns the maximum number of nodes evaluated.
+   *
+   * @return the maximum number of nodes evaluated.
+   */
+  public long getMaxNodeEvaluations() {
+    return maxNodeEvaluations;
+  }
+
+  /**
+   * Returns a copy of these limits with a different maximum number of node evaluations.
+   *
+   * @param evaluations The maximum number of nodes evaluated.
+   * @return the new limits.
+   * @throws IllegalArgumentException if the limit is negative.
+   */
+  public DiceExecutionLimits withMaxNodeEvaluations(long evaluations) {
+    return new DiceExecutionLimits(maxDice, maxStringLength, evaluations, maxTime);
+  }
+
+  /**
+   * Returns the maximum time the execution can take.
+   *
+   * @return the maximum time, or <code>null</code> if there is no limit.
+   */
+  public Duration getMaxTime() {
+    return maxTime;
+  }
+
+  /**
+   * Returns a copy of these limits with a different maximum time.
+   *
+   * @param time The maximum time the execution can take, <code>null</code> for no limit.
+   * @return the new limits.
+   * @throws IllegalArgumentException if the limit is negative.
+   */
+  public DiceExecutionLimits withMaxTime(Duration time) {
+    return new DiceExecutionLimits(maxDice, maxStringLength, maxNodeEvaluations, time);
+  }
+
+  /**
+   * Returns if these limits do not restrict the execution at all.
+   *
+   * @return <code>true</code> if there are no limits.
+   */
+  public boolean isUnlimited() {
+    return maxDice == Long.MAX_VALUE
+        && maxStringLength == Integer.MAX_VALUE
+        && maxNodeEvaluations == Long.MAX_VALUE
+        && maxTime == null;
+  }
+}
@@ -14,67 +14,601 @@
  */
 package net.rptools.dice;
 
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.rptools.dice.analysis.DiceDistribution;
+import net.rptools.dice.analysis.DiceDistributionCalculator;
+import net.rptools.dice.batch.DiceBatchEvaluator;
+import net.rptools.dice.batch.DiceBatchResult;
+import net.rptools.dice.compiler.CompiledDiceExpression;
+import net.rptools.dice.compiler.DiceExpressionCompiler;
+import net.rptools.dice.expressiontree.ConstantFolder;
+import net.rptools.dice.expressiontree.DiceCancellationToken;
+import net.rptools.dice.expressiontree.DiceEvalFrame;
+import net.rptools.dice.expressiontree.DiceExecutionBudget;
+import net.rptools.dice.expressiontree.DiceExecutionCancelledException;
+import net.rptools.dice.expressiontree.DiceExecutionLimitException;
+import net.rptools.dice.expressiontree.DiceExpressionNode;
+import net.rptools.dice.expressiontree.DiceExpressionSource;
+import net.rptools.dice.expressiontree.DiceRollDiceExpressionNode;
+import net.rptools.dice.expressiontree.DiceVariableSlots;
+import net.rptools.dice.expressiontree.IterativeEvaluator;
 import net.rptools.dice.expressiontree.ResultDetails;
+import net.rptools.dice.expressiontree.TopLevelExpressionNode;
+import net.rptools.dice.expressiontree.VariableSlotResolver;
+import net.rptools.dice.parser.DiceInputGuard;
+import net.rptools.dice.parser.RecursiveDescentDiceParser;
+import net.rptools.dice.result.DieRoll;
 import net.rptools.dice.result.ResultFormatter;
-import net.rptools.dice.expressiontree.DiceExpressionNode;
+import net.rptools.dice.roller.arguments.DiceRollerArgument;
+import net.rptools.dice.serialization.DiceExpressionReader;
+import net.rptools.dice.serialization.DiceExpressionWriter;
 import net.rptools.dice.symbols.DiceExpressionSymbolTable;
-import net.rptools.dice.visitor.DiceRollVisitor;
+import net.rptools.dice.vm.DiceProgram;
+import net.rptools.dice.vm.DiceProgramCompiler;
+import net.rptools.dice.vm.DiceVirtualMachine;
+import org.antlr.v4.runtime.ANTLRErrorListener;
 import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.CharStreams;
-import org.antlr.v4.runtime.CommonTokenStream;
-import org.antlr.v4.runtime.tree.ParseTree;
-import org.antlr.v4.runtime.tree.ParseTreeWalker;
+import org.antlr.v4.runtime.misc.Interval;
 
 public class DiceExpression {
 
-  private final DiceRollVisitor visitor;
   private final List<DiceExpressionNode> roots;
 
-  private DiceExpression(CharStream charStream) {
-    // Create a lexer that feeds off of input CharStream
-    DiceExprLexer lexer = new DiceExprLexer(charStream);
+  /** The source of the expression, <code>null</code> if it is not known. */
+  private final DiceExpressionSource source;
+
+  /** The options the expression was compiled with. */
+  private final CompileOptions options;
+
+  /** The layout of the slots of the variables the expression refers to. */
+  private final DiceVariableSlots slots;
+
+  /** The number of nodes evaluated by each execution of the expression. */
+  private final long nodeCount;
+
+  /** The number of executions after which the expression is compiled to bytecode. */
+  private final int bytecodeThreshold;
+
+  /** The number of executions after which the expression is compiled for the virtual machine. */
+  private final int vmThreshold;
+
+  /**
+   * The levels of statements that are executed concurrently, <code>null</code> if the statements
+   * are executed one after another.
+   */
+  private final List<int[]> schedule;
+
+  /** The number of times the expression has been executed by the tree interpreter. */
+  private final AtomicInteger interpretedExecutions = new AtomicInteger();
+
+  /** The expression compiled for the virtual machine, once it has been executed often enough. */
+  private volatile DiceProgram program;
 
-    // create a buffer of tokens pulled from the lexer
-    CommonTokenStream tokens = new CommonTokenStream(lexer);
+  /** The expression compiled to bytecode, once it has been executed often enough. */
+  private volatile CompiledDiceExpression compiled;
 
-    // create a parser that feeds off the tokens buffer
-    DiceExprParser parser = new DiceExprParser(tokens);
+  /**
+   * The evaluator for batch executions, or <code>null</code> if the expression can not be executed
+   * in batches. It is only valid once {@link #batchEvaluatorPrepared} has been set.
+   */
+  private volatile DiceBatchEvaluator batchEvaluator;
 
-    ParseTree parseTree = parser.diceRolls();
+  /** Whether the evaluator for batch executions has been prepared. */
+  private volatile boolean batchEvaluatorPrepared;
+
+  /** The distributions of the results of the statements, once they have been calculated. */
+  private volatile List<DiceDistribution> distributions;
+
+  /**
+   * Creates a new <code>DiceExpression</code>.
+   *
+   * @param source The source of the expression, <code>null</code> if it is not known.
+   * @param roots The trees of the statements of the expression.
+   * @param options The options used to compile the expression.
+   * @param fold Whether constant folding should be applied to the trees if the options ask for it,
+   *     <code>false</code> if it has already been done.
+   */
+  private DiceExpression(
+      DiceExpressionSource source,
+      List<DiceExpressionNode> roots,
+      CompileOptions options,
+      boolean fold) {
+    var resolver =
+        VariableSlotResolver.resolve(
+            fold && options.isConstantFolding()
+                ? ConstantFolder.fold(roots, options.getArithmeticMode())
+                : roots);
+    this.roots = resolver.getRoots();
+    this.source = source;
+    this.options = options;
+    slots = resolver.getSlots();
+    long count = 0;
+    for (var root : this.roots) {
+      count += countNodes(root);
+    }
+    nodeCount = count;
+    bytecodeThreshold = options.getBytecodeThreshold();
+    vmThreshold = options.getVmThreshold();
+    int parallelThreshold = options.getParallelThreshold();
+    schedule =
+        parallelThreshold >= 0 && this.roots.size() >= parallelThreshold
+            ? ParallelStatementExecutor.schedule(this.roots)
+            : null;
+  }
+
+  /**
+   * Counts the nodes of a tree, including the trees of the values of roller arguments.
+   *
+   * @param root The root of the tree.
+   * @return the number of nodes in the tree.
+   */
+  private static long countNodes(DiceExpressionNode root) {
+    long count = 0;
+    Deque<DiceExpressionNode> pending = new ArrayDeque<>();
+    pending.push(root);
+    while (!pending.isEmpty()) {
+      var node = pending.pop();
+      count++;
+      if (node instanceof DiceRollDiceExpressionNode) {
+        for (DiceRollerArgument argument :
+            ((DiceRollDiceExpressionNode) node).getRollerArguments()) {
+          argument.getValueNode().ifPresent(pending::push);
+        }
+      }
+      node.getChildren().forEach(pending::push);
+    }
+    return count;
+  }
+
+  /**
+   * Parses the source of an expression, or part of it, with the parser selected by the options.
+   *
+   * @param source The source of the expression.
+   * @param start The offset in the source to start parsing at.
+   * @param end The offset in the source to stop parsing at.
+   * @param options The options used to compile the expression.
+   * @param errorListener The listener ANTLR syntax errors are reported to, or <code>null</code> to
+   *     report them to the console.
+   * @return the expression trees for each of the statements in the part of the source.
+   */
+  static List<DiceExpressionNode> parse(
+      DiceExpressionSource source,
+      int start,
+      int end,
+      CompileOptions options,
+      ANTLRErrorListener errorListener) {
+    if (options.getParserBackend() == CompileOptions.ParserBackend.RECURSIVE_DESCENT) {
+      return RecursiveDescentDiceParser.parse(source, start, end);
+    }
 
-    // Create a generic parse expressiontree walker that can trigger callbacks
-    ParseTreeWalker walker = new ParseTreeWalker();
+    return DiceCompilationContext.current().parse(source, start, end, options, errorListener);
+  }
 
-    visitor = new DiceRollVisitor();
-    visitor.visit(parseTree);
+  /**
+   * Returns the text of a char stream.
+   *
+   * @param charStream The char stream.
+   * @return the text of the char stream.
+   */
+  private static String text(CharStream charStream) {
+    return charStream.size() == 0 ? "" : charStream.getText(Interval.of(0, charStream.size() - 1));
+  }
 
-    roots = visitor.getExpressionTrees();
+  /**
+   * Compiles a script, parsing its statements concurrently if there are many of them. The
+   * statements are still executed in order.
+   *
+   * @param script The text of the script.
+   * @param options The options used to compile the script.
+   * @return the compiled script.
+   */
+  private static DiceExpression fromScript(String script, CompileOptions options) {
+    DiceInputGuard.check(script, options.getInputLimits());
+    var source = new DiceExpressionSource(script);
+    return new DiceExpression(source, ParallelScriptParser.parse(source, options), options, true);
   }
 
   public static DiceExpression fromString(String expr) {
-    return new DiceExpression(CharStreams.fromString(expr));
+    return fromString(expr, CompileOptions.DEFAULT);
+  }
+
+  public static DiceExpression fromString(String expr, CompileOptions options) {
+    return fromString(expr, options, null);
+  }
+
+  /**
+   * Compiles an expression, reporting any syntax errors found by the ANTLR parser to a listener.
+   *
+   * @param expr The source of the expression.
+   * @param options The options used to compile the expression.
+   * @param errorListener The listener ANTLR syntax errors are reported to, or <code>null</code> to
+   *     report them to the console.
+   * @return the compiled expression.
+   */
+  static DiceExpression fromString(
+      String expr, CompileOptions options, ANTLRErrorListener errorListener) {
+    DiceInputGuard.check(expr, options.getInputLimits());
+    var source = new DiceExpressionSource(expr);
+    return new DiceExpression(
+        source, parse(source, 0, expr.length(), options, errorListener), options, true);
   }
 
   public static DiceExpression fromFile(String filename) throws IOException {
-    return new DiceExpression(CharStreams.fromFileName(filename));
+    return fromFile(filename, CompileOptions.DEFAULT);
+  }
+
+  public static DiceExpression fromFile(String filename, CompileOptions options)
+      throws IOException {
+    return fromScript(text(CharStreams.fromFileName(filename)), options);
   }
 
   public static DiceExpression fromInputStream(InputStream inputStream) throws IOException {
-    return new DiceExpression(CharStreams.fromStream(inputStream));
+    return fromInputStream(inputStream, CompileOptions.DEFAULT);
+  }
+
+  public static DiceExpression fromInputStream(InputStream inputStream, CompileOptions options)
+      throws IOException {
+    return fromScript(text(CharStreams.fromStream(inputStream)), options);
+  }
+
+  /**
+   * Loads an expression written by {@link #writeTo(DataOutput)} or {@link #toBytes()} without
+   * parsing its source. The expression is read from the current position of the buffer, which is
+   * left just after the expression so that several expressions can be read one after another.
+   *
+   * @param buffer The buffer to read the expression from.
+   * @return the loaded expression.
+   * @throws IllegalArgumentException if the buffer does not hold a valid expression.
+   */
+  public static DiceExpression fromBytes(ByteBuffer buffer) {
+    return fromBytes(buffer, CompileOptions.DEFAULT);
+  }
+
+  /**
+   * Loads an expression written by {@link #writeTo(DataOutput)} or {@link #toBytes()} without
+   * parsing its source. The expression is read from the current position of the buffer, which is
+   * left just after the expression so that several expressions can be read one after another.
+   *
+   * @param buffer The buffer to read the expression from.
+   * @param options The options used to compile the loaded expression, the parser options are
+   *     ignored.
+   * @return the loaded expression.
+   * @throws IllegalArgumentException if the buffer does not hold a valid expression.
+   */
+  public static DiceExpression fromBytes(ByteBuffer buffer, CompileOptions options) {
+    var roots = DiceExpressionReader.read(buffer);
+    return new DiceExpression(commonSource(roots), roots, options, true);
+  }
+
+  /**
+   * Returns the source that all of the statements were parsed from.
+   *
+   * @param roots The trees of the statements.
+   * @return the source shared by the statements, or <code>null</code> if they do not share one.
+   */
+  private static DiceExpressionSource commonSource(List<DiceExpressionNode> roots) {
+    DiceExpressionSource common = null;
+    for (var root : roots) {
+      if (!(root instanceof TopLevelExpressionNode)) {
+        return null;
+      }
+      var source = ((TopLevelExpressionNode) root).getSource();
+      if (common != null && common != source) {
+        return null;
+      }
+      common = source;
+    }
+    return common;
+  }
+
+  /**
+   * Returns the source of the expression.
+   *
+   * @return the source of the expression, or empty if it is not known.
+   */
+  public Optional<String> getSource() {
+    return source == null ? Optional.empty() : Optional.of(source.getText());
+  }
+
+  /**
+   * Compiles the expression that results from replacing part of the source of this expression. Only
+   * the statements that the edit touches are parsed again, the trees of the other statements are
+   * reused, which makes this much cheaper than compiling the edited source from scratch for scripts
+   * with many statements. The new expression is compiled with the same options.
+   *
+   * @param start The offset in the source of the start of the text to replace.
+   * @param end The offset in the source after the end of the text to replace.
+   * @param replacement The text to replace it with.
+   * @return the compiled edited expression.
+   * @throws IllegalStateException if the source of this expression is not known.
+   * @throws IndexOutOfBoundsException if the range is not within the source.
+   */
+  public DiceExpression edit(int start, int end, String replacement) {
+    if (source == null) {
+      throw new IllegalStateException("The source of the expression is not known.");
+    }
+    var edited = IncrementalParser.reparse(source, roots, start, end, replacement, options);
+    return new DiceExpression(edited.getSource(), edited.getRoots(), options, false);
+  }
+
+  /**
+   * Writes the compiled expression in a compact binary form that can be loaded by {@link
+   * #fromBytes(ByteBuffer)}.
+   *
+   * @param out The output to write to.
+   * @throws IOException if the output can not be written to.
+   */
+  public void writeTo(DataOutput out) throws IOException {
+    DiceExpressionWriter.write(roots, out);
+  }
+
+  /**
+   * Returns the compiled expression in a compact binary form that can be loaded by {@link
+   * #fromBytes(ByteBuffer)}.
+   *
+   * @return the encoded expression.
+   */
+  public byte[] toBytes() {
+    return DiceExpressionWriter.toBytes(roots);
+  }
+
+  /**
+   * Executes the expression. The compiled expression is not modified by execution so it can be
+   * executed by several threads at the same time, the results of each execution are held in the
+   * returned frame. Statements that do not share variables may be executed concurrently, see {@link
+   * CompileOptions#getParallelThreshold()}. The work done is limited by the {@link
+   * CompileOptions#getExecutionLimits()} the expression was compiled with.
+   *
+   * @param symbolTable The symbol table used to resolve symbols.
+   * @return the frame holding the results of the execution.
+   * @throws DiceExecutionLimitException if the execution exceeds the limits.
+   */
+  public DiceEvalFrame execute(DiceExpressionSymbolTable symbolTable) {
+    return execute(symbolTable, DiceCancellationToken.NONE);
+  }
+
+  /**
+   * Executes the expression until it is completed or a token is cancelled. A cancelled execution
+   * stops at the next node boundary or while rolling dice, and the returned frame holds the results
+   * of the statements that were completed, which {@link #format(DiceEvalFrame, ResultFormatter)}
+   * formats as usual. {@link DiceEvalFrame#isCancelled()} tells if the execution was stopped.
+   *
+   * @param symbolTable The symbol table used to resolve symbols.
+   * @param cancellation The token that stops the execution when it is cancelled.
+   * @return the frame holding the results of the execution.
+   * @throws DiceExecutionLimitException if the execution exceeds the limits.
+   */
+  public DiceEvalFrame execute(
+      DiceExpressionSymbolTable symbolTable, DiceCancellationToken cancellation) {
+    var limits = options.getExecutionLimits();
+    return execute(
+        symbolTable,
+        limits.isUnlimited() ? DiceExecutionBudget.UNLIMITED : new DiceExecutionBudget(limits),
+        cancellation);
+  }
+
+  /**
+   * Executes the expression, charging the work done to a budget. Every node of the expression is
+   * charged before the execution starts, dice are charged as they are rolled. The budget can be
+   * shared by several executions to limit the work they do together.
+   *
+   * @param symbolTable The symbol table used to resolve symbols.
+   * @param budget The budget the work done by the execution is charged to.
+   * @return the frame holding the results of the execution.
+   * @throws DiceExecutionLimitException if the execution exceeds the limits of the budget.
+   */
+  public DiceEvalFrame execute(DiceExpressionSymbolTable symbolTable, DiceExecutionBudget budget) {
+    return execute(symbolTable, budget, DiceCancellationToken.NONE);
+  }
+
+  /**
+   * Executes the expression, charging the work done to a budget, until it is completed or a token
+   * is cancelled.
+   *
+   * @param symbolTable The symbol table used to resolve symbols.
+   * @param budget The budget the work done by the execution is charged to.
+   * @param cancellation The token that stops the execution when it is cancelled.
+   * @return the frame holding the results of the execution.
+   * @throws DiceExecutionLimitException if the execution exceeds the limits of the budget.
+   * @see #execute(DiceExpressionSymbolTable, DiceCancellationToken)
+   */
+  public DiceEvalFrame execute(
+      DiceExpressionSymbolTable symbolTable,
+      DiceExecutionBudget budget,
+      DiceCancellationToken cancellation) {
+    budget.chargeEvaluations(nodeCount);
+    var frame =
+        new DiceEvalFrame(symbolTable, slots, options.getArithmeticMode(), budget, cancellation);
+    try {
+      run(frame);
+    } catch (DiceExecutionCancelledException e) {
+      // The frame is marked as cancelled and holds the results of the completed statements.
+    } finally {
+      frame.flushVariables();
+    }
+    return frame;
+  }
+
+  /**
+   * Evaluates the statements in a frame with the tier the expression has reached.
+   *
+   * @param frame The frame of the execution.
+   */
+  private void run(DiceEvalFrame frame) {
+    if (schedule != null) {
+      ParallelStatementExecutor.execute(roots, schedule, frame, options.getEvaluationStrategy());
+      return;
+    }
+
+    var code = compiled;
+    var vmProgram = program;
+    if (code == null && interpretedExecutions.get() <= Math.max(bytecodeThreshold, vmThreshold)) {
+      // Only the one execution that reaches a threshold compiles, if the expression can not be
+      // compiled it is run by the previous tier from then on.
+      int executions = interpretedExecutions.getAndIncrement();
+      if (executions == bytecodeThreshold) {
+        code = DiceExpressionCompiler.compile(roots).orElse(null);
+        compiled = code;
+      } else if (executions == vmThreshold && vmProgram == null) {
+        vmProgram = DiceProgramCompiler.compile(roots).orElse(null);
+        program = vmProgram;
+      }
+    }
+
+    if (code != null) {
+      code.execute(frame);
+    } else if (vmProgram != null) {
+      DiceVirtualMachine.execute(vmProgram, frame);
+    } else if (options.getEvaluationStrategy() == CompileOptions.EvaluationStrategy.ITERATIVE) {
+      for (var root : roots) {
+        IterativeEvaluator.evaluate(root, frame);
+      }
+    } else {
+      for (var root : roots) {
+        root.evaluate(frame);
+      }
+    }
   }
 
-  public void execute(DiceExpressionSymbolTable symbolTable) {
+  /**
+   * Returns if the expression has been compiled for the virtual machine.
+   *
+   * @return <code>true</code> if the expression has been compiled for the virtual machine.
+   */
+  boolean isVmCompiled() {
+    return program != null;
+  }
+
+  /**
+   * Returns if the expression can be executed in batches by {@link
+   * #executeBatch(DiceExpressionSymbolTable, int)}.
+   *
+   * @return <code>true</code> if the expression can be executed in batches.
+   */
+  public boolean supportsBatchExecution() {
+    return batchEvaluator().isPresent();
+  }
+
+  /**
+   * Executes the expression for many iterations in one pass, returning the result of each statement
+   * in each iteration without the details of the dice rolled. This is much faster than executing
+   * the expression once for each iteration, see {@link DiceBatchEvaluator} for the expressions that
+   * are supported. The work done by all of the iterations together is limited by the {@link
+   * CompileOptions#getExecutionLimits()} the expression was compiled with.
+   *
+   * @param symbolTable The symbol table used to resolve the variables that are not assigned by the
+   *     expression, it is not modified.
+   * @param iterations The number of iterations.
+   * @return the results of the statements in each iteration.
+   * @throws UnsupportedOperationException if the expression can not be executed in batches.
+   * @throws DiceExecutionLimitException if the execution exceeds the limits.
+   */
+  public DiceBatchResult executeBatch(DiceExpressionSymbolTable symbolTable, int iterations) {
+    var evaluator =
+        batchEvaluator()
+            .orElseThrow(
+                () ->
+                    new UnsupportedOperationException(
+                        "The expression can not be executed in batches."));
+    var limits = options.getExecutionLimits();
+    var budget =
+        limits.isUnlimited() ? DiceExecutionBudget.UNLIMITED : new DiceExecutionBudget(limits);
+    budget.chargeEvaluations(nodeCount * Math.max(iterations, 0));
+    return evaluator.evaluate(symbolTable, iterations, budget);
+  }
+
+  /**
+   * Returns the evaluator for batch executions, preparing it the first time it is needed.
+   *
+   * @return the evaluator, or empty if the expression can not be executed in batches.
+   */
+  private Optional<DiceBatchEvaluator> batchEvaluator() {
+    if (!batchEvaluatorPrepared) {
+      // Racing threads prepare equal evaluators, so it does not matter which one is kept.
+      batchEvaluator = DiceBatchEvaluator.compile(roots, options.getArithmeticMode()).orElse(null);
+      batchEvaluatorPrepared = true;
+    }
+    return Optional.ofNullable(batchEvaluator);
+  }
+
+  /**
+   * Returns the exact probability distribution of the result of each statement, calculated without
+   * rolling any dice. See {@link DiceDistributionCalculator} for the expressions whose distribution
+   * can be calculated.
+   *
+   * @return the distribution of each statement, or empty if the distribution of a statement can not
+   *     be calculated.
+   * @throws IllegalArgumentException if a dice roll is invalid, or a distribution is too large to
+   *     calculate.
+   */
+  public Optional<List<DiceDistribution>> getDistributions() {
+    var result = distributions;
+    if (result == null) {
+      var calculated = new ArrayList<DiceDistribution>(roots.size());
+      for (var root : roots) {
+        var distribution = DiceDistributionCalculator.calculate(root);
+        if (distribution.isEmpty()) {
+          return Optional.empty();
+        }
+        calculated.add(distribution.get());
+      }
+      result = List.copyOf(calculated);
+      distributions = result;
+    }
+    return Optional.of(result);
+  }
+
+  /**
+   * Returns the exact probability distribution of the number of kept dice with a flag in each
+   * statement, such as the number of successes of <code>8d10(s&gt;=7)</code>. See {@link
+   * DiceDistributionCalculator#calculateFlagCount(DiceExpressionNode, DieRoll.DieRollFlags)}.
+   *
+   * @param flag The flag whose dice are counted.
+   * @return the distribution of the count in each statement, or empty if the distribution of a
+   *     statement can not be calculated.
+   * @throws IllegalArgumentException if a dice roll is invalid, or a distribution is too large to
+   *     calculate.
+   */
+  public Optional<List<DiceDistribution>> getDistributions(DieRoll.DieRollFlags flag) {
+    var result = new ArrayList<DiceDistribution>(roots.size());
     for (var root : roots) {
-      root.evaluate(symbolTable);
+      var distribution = DiceDistributionCalculator.calculateFlagCount(root, flag);
+      if (distribution.isEmpty()) {
+        return Optional.empty();
+      }
+      result.add(distribution.get());
     }
+    return Optional.of(List.copyOf(result));
+  }
+
+  /**
+   * Returns if the expression has been compiled to bytecode.
+   *
+   * @return <code>true</code> if the expression has been compiled to bytecode.
+   */
+  boolean isCompiled() {
+    return compiled != null;
   }
 
-  public Optional<String> format(ResultFormatter formatter) {
+  /**
+   * Formats the results of an execution of this expression.
+   *
+   * @param frame The frame returned by {@link #execute(DiceExpressionSymbolTable)}.
+   * @param formatter The formatter used to format the results.
+   * @return the formatted results.
+   */
+  public Optional<String> format(DiceEvalFrame frame, ResultFormatter formatter) {
     var results = new ResultDetails();
-    return results.format(roots, formatter);
+    return results.format(roots, frame, formatter);
   }
 }
@@ -0,0 +1,307 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * A bounded least recently used cache of compiled {@link DiceExpression}s keyed by their source
+ * text.
+ *
+ * <p>The cache is bounded both by the number of entries and by the total weight of the entries,
+ * where the weight of an entry is the length of its source text. When either bound is exceeded the
+ * least recently used entries are evicted until the cache is back within its bounds.
+ *
+ * <p>Expressions are compiled outside of the cache lock so a slow compile does not block lookups of
+ * other expressions, this means that two threads asking for the same uncached source at the same
+ * time may both compile it, in which case the first one stored wins.
+ */
+public class DiceExpressionCache {
+
+  /** A point in time snapshot of the statistics for a {@link DiceExpressionCache}. */
+  public static final class Statistics {
+
+    /** The number of lookups that were found in the cache. */
+    private final long hits;
+
+    /** The number of lookups that were not found in the cache. */
+    private final long misses;
+
+    /** The number of entries that have been evicted from the cache. */
+    private final long evictions;
+
+    /** The number of entries in the cache. */
+    private final int entries;
+
+    /** The total weight of the entries in the cache. */
+    private final long weight;
+
+    /**
+     * Creates a new <code>Statistics</code> snapshot.
+     *
+     * @param hits The number of lookups that were found in the cache.
+     * @param misses The number of lookups that were not found in the cache.
+     * @param evictions The number of entries evicted from the cache.
+     * @param entries The number of entries in the cache.
+     * @param weight The total weight of the entries in the cache.
+     */
+    private Statistics(long hits, long misses, long evictions, int entries, long weight) {
+      this.hits = hits;
+      this.misses = misses;
+      this.evictions = evictions;
+      this.entries = entries;
+      this.weight = weight;
+    }
+
+    /**
+     * Returns the number of lookups that were found in the cache.
+     *
+     * @return the number of lookups that were found in the cache.
+     */
+    public long getHits() {
+      return hits;
+    }
+
+    /**
+     * Returns the number of lookups that were not found in the cache.
+     *
+     * @return the number of lookups that were not found in the cache.
+     */
+    public long getMisses() {
+      return misses;
+    }
+
+    /**
+     * Returns the number of entries that have been evicted from the cache.
+     *
+     * @return the number of entries that have been evicted from the cache.
+     */
+    public long getEvictions() {
+      return evictions;
+    }
+
+    /**
+     * Returns the number of entries in the cache.
+     *
+     * @return the number of entries in the cache.
+     */
+    public int getEntries() {
+      return entries;
+    }
+
+    /**
+     * Returns the total weight of the entries in the cache.
+     *
+     * @return the total weight of the entries in the cache.
+     */
+    public long getWeight() {
+      return weight;
+    }
+
+    /**
+     * Returns the ratio of lookups that were found in the cache.
+     *
+     * @return the ratio of lookups found in the cache, or <code>0</code> if there have been none.
+     */
+    public double getHitRate() {
+      long lookups = hits + misses;
+      return lookups == 0 ? 0.0 : (double) hits / lookups;
+    }
+
+    @Override
+    public String toString() {
+      return "hits="
+          + hits
+          + ", misses="
+          + misses
+          + ", evictions="
+          + evictions
+          + ", entries="
+          + entries
+          + ", weight="
+          + weight;
+    }
+  }
+
+  /** The maximum number of entries that the cache will hold. */
+  private final int maximumEntries;
+
+  /** The maximum total weight of the entries the cache will hold. */
+  private final long maximumWeight;
+
+  /** The function used to compile source text that is not in the cache. */
+  private final Function<String, DiceExpression> compiler;
+
+  /** The cached expressions, in least recently used order. */
+  private final LinkedHashMap<String, DiceExpression> expressions =
+      new LinkedHashMap<>(16, 0.75f, true);
+
+  /** The total weight of the cached expressions. */
+  private long weight;
+
+  /** The number of lookups found in the cache. */
+  private long hits;
+
+  /** The number of lookups not found in the cache. */
+  private long misses;
+
+  /** The number of entries evicted from the cache. */
+  private long evictions;
+
+  /**
+   * Creates a new <code>DiceExpressionCache</code> that compiles with {@link
+   * DiceExpression#fromString(String)}.
+   *
+   * @param maxEntries The maximum number of entries to hold.
+   * @param maxWeight The maximum total length of the source text of the entries to hold.
+   * @throws IllegalArgumentException if either bound is not positive.
+   */
+  public DiceExpressionCache(int maxEntries, long maxWeight) {
+    this(maxEntries, maxWeight, DiceExpression::fromString);
+  }
+
+  /**
+   * Creates a new <code>DiceExpressionCache</code>.
+   *
+   * @param maxEntries The maximum number of entries to hold.
+   * @param maxWeight The maximum total length of the source text of the entries to hold.
+   * @param compileFunction The function used to compile source text that is not in the cache.
+   * @throws IllegalArgumentException if either bound is not positive.
+   */
+  public DiceExpressionCache(
+      int maxEntries, long maxWeight, Function<String, DiceExpression> compileFunction) {
+    if (maxEntries <= 0) {
+      throw new IllegalArgumentException("Maximum entries must be positive.");
+    }
+    if (maxWeight <= 0) {
+      throw new IllegalArgumentException("Maximum weight must be positive.");
+    }
+    maximumEntries = maxEntries;
+    maximumWeight = maxWeight;
+    compiler = Objects.requireNonNull(compileFunction);
+  }
+
+  /**
+   * Returns the compiled expression for the source text, compiling and caching it if it is not
+   * already cached.
+   *
+   * @param source The source text of the expression.
+   * @return the compiled expression.
+   */
+  public DiceExpression get(String source) {
+    Objects.requireNonNull(source);
+    synchronized (this) {
+      DiceExpression expression = expressions.get(source);
+      if (expression != null) {
+        hits++;
+        return expression;
+      }
+      misses++;
+    }
+
+    DiceExpression compiled = compiler.apply(source);
+
+    synchronized (this) {
+      DiceExpression existing = expressions.get(source);
+      if (existing != null) {
+        return existing;
+      }
+      if (weigh(source) <= maximumWeight) {
+        expressions.put(source, compiled);
+        weight += weigh(source);
+        evict();
+      }
+    }
+    return compiled;
+  }
+
+  /**
+   * Returns the compiled expression for the source text if it is cached. This does not compile the
+   * expression if it is not present.
+   *
+   * @param source The source text of the expression.
+   * @return the compiled expression if it is cached.
+   */
+  public synchronized Optional<DiceExpression> getIfPresent(String source) {
+    DiceExpression expression = expressions.get(source);
+    if (expression == null) {
+      misses++;
+    } else {
+      hits++;
+    }
+    return Optional.ofNullable(expression);
+  }
+
+  /**
+   * Removes the compiled expression for the source text from the cache.
+   *
+   * @param source The source text of the expression.
+   */
+  public synchronized void invalidate(String source) {
+    if (expressions.remove(source) != null) {
+      weight -= weigh(source);
+    }
+  }
+
+  /** Removes all the compiled expressions from the cache. */
+  public synchronized void invalidateAll() {
+    expressions.clear();
+    weight = 0;
+  }
+
+  /**
+   * Returns the number of compiled expressions in the cache.
+   *
+   * @return the number of compiled expressions in the cache.
+   */
+  public synchronized int size() {
+    return expressions.size();
+  }
+
+  /**
+   * Returns a snapshot of the statistics for the cache.
+   *
+   * @return a snapshot of the statistics for the cache.
+   */
+  public synchronized Statistics getStatistics() {
+    return new Statistics(hits, misses, evictions, expressions.size(), weight);
+  }
+
+  /** Evicts the least recently used entries until the cache is within its bounds. */
+  private void evict() {
+    Iterator<Map.Entry<String, DiceExpression>> iterator = expressions.entrySet().iterator();
+    while ((expressions.size() > maximumEntries || weight > maximumWeight) && iterator.hasNext()) {
+      String source = iterator.next().getKey();
+      iterator.remove();
+      weight -= weigh(source);
+      evictions++;
+    }
+  }
+
+  /**
+   * Returns the weight of an entry.
+   *
+   * @param source The source text of the entry.
+   * @return the weight of the entry.
+   */
+  private static long weigh(String source) {
+    return Math.max(1, source.length());
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice;
+
+/**
+ * Limits on the size of the source of a dice expression, checked before it is parsed. They bound
+ * the cost of parsing and protect the recursive parsers from running out of stack on deeply nested
+ * input, which is needed when expressions come from untrusted users.
+ *
+ * @see net.rptools.dice.parser.DiceInputGuard
+ */
+public final class DiceInputLimits {
+
+  /**
+   * The maximum nesting depth of the {@link #DEFAULT} limits. It is far deeper than expressions
+   * written by hand, and shallow enough that the parsers and the passes over the trees, which
+   * recurse once for each level, can compile the expression on a thread with a 1MB stack.
+   */
+  public static final int DEFAULT_MAX_NESTING_DEPTH = 256;
+
+  /**
+   * No limits. Sources nested deeply enough can overflow the stack of the thread compiling them.
+   */
+  public static final DiceInputLimits UNLIMITED =
+      new DiceInputLimits(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+
+  /**
+   * The default limits, which only limit the nesting depth to {@link #DEFAULT_MAX_NESTING_DEPTH}.
+   */
+  public static final DiceInputLimits DEFAULT =
+      new DiceInputLimits(Integer.MAX_VALUE, Integer.MAX_VALUE, DEFAULT_MAX_NESTING_DEPTH);
+
+  /** Limits suitable for expressions typed in by users of a public service. */
+  public static final DiceInputLimits UNTRUSTED = new DiceInputLimits(4096, 1024, 32);
+
+  /** The maximum number of characters in the source. */
+  private final int maxLength;
+
+  /** The maximum number of tokens in the source. */
+  private final int maxTokens;
+
+  /** The maximum depth that groups and unary operators can be nested to. */
+  private final int maxNestingDepth;
+
+  /**
+   * Creates a new <code>DiceInputLimits</code>.
+   *
+   * @param length The maximum number of characters in the source.
+   * @param tokens The maximum number of tokens in the source.
+   * @param depth The maximum depth that groups and unary operators can be nested to.
+   */
+  private DiceInputLimits(int length, int tokens, int depth) {
+    maxLength = checkLimit(length);
+    maxTokens = checkLimit(tokens);
+    maxNestingDepth = checkLimit(depth);
+  }
+
+  private static int checkLimit(int limit) {
+    if (limit < 0) {
+      throw new IllegalArgumentException("Limit can not be negative: " + limit);
+    }
+    return limit;
+  }
+
+  /**
+   * Returns the maximum number of characters in the source.
+   *
+   * @return the maximum number of characters in the source.
+   */
+  public int getMaxLength() {
+    return maxLength;
+  }
+
+  /**
+   * Returns a copy of these limits with a different maximum number of characters.
+   *
+   * @param length The maximum number of characters in the source.
+   * @return the new limits.
+   * @throws IllegalArgumentException if the limit is negative.
+   */
+  public DiceInputLimits withMaxLength(int length) {
+    return new DiceInputLimits(length, maxTokens, maxNestingDepth);
+  }
+
+  /**
+   * Returns the maximum number of tokens in the source.
+   *
+   * @return the maximum number of tokens in the source.
+   */
+  public int getMaxTokens() {
+    return maxTokens;
+  }
+
+  /**
+   * Returns a copy of these limits with a different maximum number of tokens.
+   *
+   * @param tokens The maximum number of tokens in the source.
+   * @return the new limits.
+   * @throws IllegalArgumentException if the limit is negative.
+   */
+  public DiceInputLimits withMaxTokens(int tokens) {
+    return new DiceInputLimits(maxLength, tokens, maxNestingDepth);
+  }
+
+  /**
+   * Returns the maximum depth that groups and unary operators can be nested to.
+   *
+   * @return the maximum depth that groups and unary operators can be nested to.
+   */
+  public int getMaxNestingDepth() {
+    return maxNestingDepth;
+  }
+
+  /**
+   * Returns a copy of these limits with a different maximum nesting depth.
+   *
+   * @param depth The maximum depth that groups and unary operators can be nested to.
+   * @return the new limits.
+   * @throws IllegalArgumentException if the limit is negative.
+   */
+  public DiceInputLimits withMaxNestingDepth(int depth) {
+    return new DiceInputLimits(maxLength, maxTokens, depth);
+  }
+
+  /**
+   * Returns if these limits do not restrict the input at all.
+   *
+   * @return <code>true</code> if there are no limits.
+   */
+  public boolean isUnlimited() {
+    return maxLength == Integer.MAX_VALUE
+        && maxTokens == Integer.MAX_VALUE
+        && maxNestingDepth == Integer.MAX_VALUE;
+  }
+}
@@ -37,9 +37,9 @@ public class DiceTest {
       diceExpression = DiceExpression.fromFile(args[0]);
     }
 
-    diceExpression.execute(symbolTable);
-    diceExpression.format(new PlainResultFormatter()).ifPresent(System.out::println);
-    diceExpression.format(new HTMLResultFormatter()).ifPresent(System.out::println);
+    var frame = diceExpression.execute(symbolTable);
+    diceExpression.format(frame, new PlainResultFormatter()).ifPresent(System.out::println);
+    diceExpression.format(frame, new HTMLResultFormatter()).ifPresent(System.out::println);
 
     System.out.println("Local Variables");
     symbolTable
@@ -0,0 +1,217 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice;
+
+import java.util.ArrayList;
+import java.util.List;
+import net.rptools.dice.expressiontree.ConstantFolder;
+import net.rptools.dice.expressiontree.DiceExpressionNode;
+import net.rptools.dice.expressiontree.DiceExpressionSource;
+import net.rptools.dice.expressiontree.TopLevelExpressionNode;
+import net.rptools.dice.parser.DiceInputGuard;
+
+/**
+ * Re-parses an edited expression by parsing only the statements that the edit touches and reusing
+ * the trees of the other statements.
+ *
+ * <p>The statements that are parsed again run from the last statement that starts at or before the
+ * start of the edit to the first statement that ends at or after the end of the edit, so an edit to
+ * the separator between two statements parses both of them again. If that part of the source has a
+ * string or comment that is not closed within it the edit could change how the rest of the source
+ * is split into tokens, so the whole source is parsed again instead.
+ */
+final class IncrementalParser {
+
+  /** The edited source. */
+  private final DiceExpressionSource source;
+
+  /** The trees of the statements of the edited source. */
+  private final List<DiceExpressionNode> roots;
+
+  /** The number of statements that were parsed again. */
+  private final int parsedStatements;
+
+  private IncrementalParser(
+      DiceExpressionSource source, List<DiceExpressionNode> roots, int parsedStatements) {
+    this.source = source;
+    this.roots = roots;
+    this.parsedStatements = parsedStatements;
+  }
+
+  /**
+   * Re-parses an edited expression.
+   *
+   * @param oldSource The source before the edit.
+   * @param oldRoots The trees of the statements before the edit, after any optimizations.
+   * @param start The offset in the old source of the start of the edited text.
+   * @param end The offset in the old source after the end of the edited text.
+   * @param replacement The text that replaces the edited text.
+   * @param options The options used to compile the expression.
+   * @return the parser holding the trees for the edited source, with the new trees optimized in the
+   *     same way as the old ones.
+   * @throws IndexOutOfBoundsException if the edited range is not within the old source.
+   * @throws net.rptools.dice.parser.DiceInputRejectedException if the edited source exceeds the
+   *     input limits of the options.
+   */
+  static IncrementalParser reparse(
+      DiceExpressionSource oldSource,
+      List<DiceExpressionNode> oldRoots,
+      int start,
+      int end,
+      String replacement,
+      CompileOptions options) {
+    String oldText = oldSource.getText();
+    if (start < 0 || end > oldText.length() || start > end) {
+      throw new IndexOutOfBoundsException("Invalid edit range " + start + " to " + end);
+    }
+    String text = oldText.substring(0, start) + replacement + oldText.substring(end);
+    DiceInputGuard.check(text, options.getInputLimits());
+    var source = new DiceExpressionSource(text);
+    int delta = replacement.length() - (end - start);
+
+    int count = oldRoots.size();
+    int[] starts = new int[count];
+    int[] ends = new int[count];
+    for (int i = 0; i < count; i++) {
+      if (!(oldRoots.get(i) instanceof TopLevelExpressionNode)
+          || ((TopLevelExpressionNode) oldRoots.get(i)).getSource() != oldSource) {
+        return parseAll(source, options);
+      }
+      var topLevel = (TopLevelExpressionNode) oldRoots.get(i);
+      starts[i] = topLevel.getStart();
+      ends[i] = topLevel.getEnd();
+    }
+
+    int first = -1;
+    while (first + 1 < count && starts[first + 1] <= start) {
+      first++;
+    }
+    int last = first < 0 ? 0 : first;
+    while (last < count && ends[last] < end) {
+      last++;
+    }
+
+    int regionStart = first < 0 ? 0 : starts[first];
+    int regionEnd = last == count ? text.length() : ends[last] + delta;
+    int firstReparsed = Math.max(first, 0);
+    int lastReparsed = Math.min(last, count - 1);
+    if (!isClosed(text, regionStart, regionEnd)) {
+      return parseAll(source, options);
+    }
+
+    List<DiceExpressionNode> parsed =
+        DiceExpression.parse(source, regionStart, regionEnd, options, null);
+    if (options.isConstantFolding()) {
+      parsed = ConstantFolder.fold(parsed, options.getArithmeticMode());
+    }
+
+    List<DiceExpressionNode> roots = new ArrayList<>(count - 1 + parsed.size());
+    for (int i = 0; i < firstReparsed; i++) {
+      roots.add(rebase((TopLevelExpressionNode) oldRoots.get(i), source, 0));
+    }
+    roots.addAll(parsed);
+    for (int i = lastReparsed + 1; i < count; i++) {
+      roots.add(rebase((TopLevelExpressionNode) oldRoots.get(i), source, delta));
+    }
+    return new IncrementalParser(source, List.copyOf(roots), parsed.size());
+  }
+
+  /**
+   * Parses the whole of an edited source.
+   *
+   * @param source The edited source.
+   * @param options The options used to compile the expression.
+   * @return the parser holding the trees for the edited source.
+   */
+  private static IncrementalParser parseAll(DiceExpressionSource source, CompileOptions options) {
+    List<DiceExpressionNode> roots =
+        DiceExpression.parse(source, 0, source.length(), options, null);
+    if (options.isConstantFolding()) {
+      roots = ConstantFolder.fold(roots, options.getArithmeticMode());
+    }
+    return new IncrementalParser(source, roots, roots.size());
+  }
+
+  /**
+   * Moves the statement of a reused tree to its position in the edited source. The nodes below the
+   * statement keep referring to the source they were parsed from, which still holds their text.
+   *
+   * @param topLevel The statement to move.
+   * @param source The edited source.
+   * @param delta The distance the statement has moved.
+   * @return the moved statement.
+   */
+  private static TopLevelExpressionNode rebase(
+      TopLevelExpressionNode topLevel, DiceExpressionSource source, int delta) {
+    return new TopLevelExpressionNode(
+        source, topLevel.getStart() + delta, topLevel.getEnd() + delta, topLevel.getChild());
+  }
+
+  /**
+   * Returns if every string and comment that starts in part of a source also ends in it.
+   *
+   * @param text The source.
+   * @param start The offset of the start of the part.
+   * @param end The offset after the end of the part.
+   * @return <code>true</code> if there are no strings or comments left open.
+   */
+  private static boolean isClosed(String text, int start, int end) {
+    int i = start;
+    while (i < end) {
+      char c = text.charAt(i);
+      if (c == '\'' || c == '"') {
+        i = DiceExpressionSource.skipString(text, i, end);
+        if (i < 0) {
+          return false;
+        }
+      } else if (c == '/' && i + 1 < end && text.charAt(i + 1) == '*') {
+        i = DiceExpressionSource.skipComment(text, i, end);
+        if (i < 0) {
+          return false;
+        }
+      } else {
+        i++;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the edited source.
+   *
+   * @return the edited source.
+   */
+  DiceExpressionSource getSource() {
+    return source;
+  }
+
+  /**
+   * Returns the trees of the statements of the edited source.
+   *
+   * @return the trees of the statements.
+   */
+  List<DiceExpressionNode> getRoots() {
+    return roots;
+  }
+
+  /**
+   * Returns the number of statements that were parsed again.
+   *
+   * @return the number of statements that were parsed again.
+   */
+  int getParsedStatements() {
+    return parsedStatements;
+  }
+}
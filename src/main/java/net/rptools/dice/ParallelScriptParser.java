@@ -0,0 +1,201 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import net.rptools.dice.expressiontree.DiceExpressionNode;
+import net.rptools.dice.expressiontree.DiceExpressionSource;
+
+/**
+ * Parses scripts with many statements by splitting the source at the top level <code>;</code>
+ * separators and parsing batches of statements concurrently. The separators are found with a simple
+ * scan that skips strings, comments and groups, so the statements are the same as the ones a parse
+ * of the whole source finds. The trees are returned in the order of the statements in the source.
+ *
+ * <p>Scripts that are too small to benefit, or that can not be split safely because they have an
+ * unterminated string, comment or group, or an empty statement, are parsed in one go so that any
+ * errors are reported the same way.
+ */
+final class ParallelScriptParser {
+
+  /** The number of statements below which the script is parsed on the calling thread. */
+  static final int PARALLEL_THRESHOLD = 64;
+
+  /** The number of statements parsed together by a single task. */
+  private static final int BATCH_SIZE = 32;
+
+  private ParallelScriptParser() {}
+
+  /**
+   * Parses a script.
+   *
+   * @param source The source of the script.
+   * @param options The options used to compile the script.
+   * @return the trees of the statements of the script, in order.
+   */
+  static List<DiceExpressionNode> parse(DiceExpressionSource source, CompileOptions options) {
+    return parse(source, options, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Parses a script.
+   *
+   * @param source The source of the script.
+   * @param options The options used to compile the script.
+   * @param pool The pool used to parse the statements.
+   * @return the trees of the statements of the script, in order.
+   */
+  static List<DiceExpressionNode> parse(
+      DiceExpressionSource source, CompileOptions options, ForkJoinPool pool) {
+    int[] bounds = split(source.getText());
+    if (bounds == null || bounds.length / 2 < PARALLEL_THRESHOLD) {
+      return DiceExpression.parse(source, 0, source.length(), options, null);
+    }
+
+    int statements = bounds.length / 2;
+    @SuppressWarnings("unchecked")
+    List<DiceExpressionNode>[] batches = new List[(statements + BATCH_SIZE - 1) / BATCH_SIZE];
+    pool.invoke(new ParseTask(source, options, bounds, batches, 0, batches.length));
+
+    List<DiceExpressionNode> roots = new ArrayList<>(statements);
+    for (var batch : batches) {
+      roots.addAll(batch);
+    }
+    return List.copyOf(roots);
+  }
+
+  /**
+   * Finds the statements of a script.
+   *
+   * @param text The text of the script.
+   * @return the start and end offsets of each statement, not including the separators, or <code>
+   *     null</code> if the script can not be split safely.
+   */
+  static int[] split(String text) {
+    int[] bounds = new int[16];
+    int count = 0;
+    int start = 0;
+    int depth = 0;
+    boolean content = false;
+    int len = text.length();
+    int i = 0;
+    while (i < len) {
+      char c = text.charAt(i);
+      if (c == '\'' || c == '"') {
+        i = DiceExpressionSource.skipString(text, i, len);
+        if (i < 0) {
+          return null;
+        }
+        content = true;
+        continue;
+      } else if (c == '/' && i + 1 < len && text.charAt(i + 1) == '*') {
+        i = DiceExpressionSource.skipComment(text, i, len);
+        if (i < 0) {
+          return null;
+        }
+        continue;
+      } else if (c == '(' || c == '{') {
+        depth++;
+        content = true;
+      } else if (c == ')' || c == '}') {
+        if (--depth < 0) {
+          return null;
+        }
+        content = true;
+      } else if (c == ';' && depth == 0) {
+        if (!content) {
+          return null;
+        }
+        if (count + 2 > bounds.length) {
+          bounds = Arrays.copyOf(bounds, bounds.length * 2);
+        }
+        bounds[count++] = start;
+        bounds[count++] = i;
+        start = i + 1;
+        content = false;
+      } else if (!Character.isWhitespace(c)) {
+        content = true;
+      }
+      i++;
+    }
+    if (depth != 0) {
+      return null;
+    }
+    if (content) {
+      if (count + 2 > bounds.length) {
+        bounds = Arrays.copyOf(bounds, bounds.length + 2);
+      }
+      bounds[count++] = start;
+      bounds[count++] = len;
+    }
+    return Arrays.copyOf(bounds, count);
+  }
+
+  /** Task that parses a range of batches of statements. */
+  private static final class ParseTask extends RecursiveAction {
+
+    /** The source of the script. */
+    private final DiceExpressionSource source;
+
+    /** The options used to compile the script. */
+    private final CompileOptions options;
+
+    /** The start and end offsets of each statement. */
+    private final int[] bounds;
+
+    /** The array the trees of each batch are stored in. */
+    private final List<DiceExpressionNode>[] batches;
+
+    /** The index of the first batch to parse. */
+    private final int from;
+
+    /** The index after the last batch to parse. */
+    private final int to;
+
+    private ParseTask(
+        DiceExpressionSource source,
+        CompileOptions options,
+        int[] bounds,
+        List<DiceExpressionNode>[] batches,
+        int from,
+        int to) {
+      this.source = source;
+      this.options = options;
+      this.bounds = bounds;
+      this.batches = batches;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from == 1) {
+        int first = from * BATCH_SIZE;
+        int last = Math.min(first + BATCH_SIZE, bounds.length / 2) - 1;
+        batches[from] =
+            DiceExpression.parse(source, bounds[2 * first], bounds[2 * last + 1], options, null);
+      } else {
+        int mid = (from + to) >>> 1;
+        invokeAll(
+            new ParseTask(source, options, bounds, batches, from, mid),
+            new ParseTask(source, options, bounds, batches, mid, to));
+      }
+    }
+  }
+}
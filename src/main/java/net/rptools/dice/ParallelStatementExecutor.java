@@ -0,0 +1,358 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import net.rptools.dice.expressiontree.AssignmentDiceExpressionNode;
+import net.rptools.dice.expressiontree.BinaryDiceExpressionNode;
+import net.rptools.dice.expressiontree.ChainDiceExpressionNode;
+import net.rptools.dice.expressiontree.DiceEvalFrame;
+import net.rptools.dice.expressiontree.DiceExecutionCancelledException;
+import net.rptools.dice.expressiontree.DiceExecutionLimitException;
+import net.rptools.dice.expressiontree.DiceExpressionNode;
+import net.rptools.dice.expressiontree.DiceRollDiceExpressionNode;
+import net.rptools.dice.expressiontree.GroupDiceExpressionNode;
+import net.rptools.dice.expressiontree.IterativeEvaluator;
+import net.rptools.dice.expressiontree.ResolveSymbolDiceExpressionNode;
+import net.rptools.dice.expressiontree.TopLevelExpressionNode;
+import net.rptools.dice.expressiontree.UnaryDiceExpressionNode;
+import net.rptools.dice.expressiontree.ValueDiceExpressionNode;
+import net.rptools.dice.roller.arguments.DiceRollerArgument;
+
+/**
+ * Executes the statements of a script that do not depend on each other concurrently.
+ *
+ * <p>The statements are split into levels by the variables they read and assign. A statement is
+ * placed in the level after the last earlier statement that assigns a variable it reads, or that
+ * reads or assigns a variable it assigns, so the statements in a level never share a variable that
+ * one of them assigns. Statements that contain nodes whose effects are not known, such as
+ * instructions, are placed in a level of their own after every earlier statement, and every later
+ * statement is placed after them.
+ *
+ * <p>The levels are executed one after another. Each statement is evaluated in its own frame forked
+ * from the frame of the execution, and large levels are split into batches that are evaluated on a
+ * {@link ForkJoinPool}. A fork is only joined once every statement before it has been joined, so
+ * the variables are assigned in the same order as they would be by executing the statements one
+ * after another. The forks of later levels see the assignments of the forks that are still waiting
+ * to be joined.
+ *
+ * <p>When a statement fails, the statements before it are joined or, if they are in later levels,
+ * executed in order on the calling thread, then the fork of the failed statement is joined and the
+ * first failure in the order of the statements is reported. The forks of the statements after it
+ * are discarded, even those executed in an earlier level, so the variables are left as they would
+ * be by executing the statements one after another. The dice rolled by the discarded statements
+ * stay charged to the {@link net.rptools.dice.expressiontree.DiceExecutionBudget} of the
+ * execution. A statement that fails by exceeding the budget or by being cancelled is reported
+ * straight away, without joining the statements that are still waiting.
+ */
+final class ParallelStatementExecutor {
+
+  /** The number of statements evaluated together by a single task. */
+  private static final int BATCH_SIZE = 32;
+
+  private ParallelStatementExecutor() {}
+
+  /**
+   * Splits the statements of a script into levels that can be executed concurrently.
+   *
+   * @param roots The trees of the statements.
+   * @return the indices of the statements in each level, in order, or <code>null</code> if no level
+   *     has enough statements to be worth executing concurrently.
+   */
+  static List<int[]> schedule(List<DiceExpressionNode> roots) {
+    Map<String, Integer> lastRead = new HashMap<>();
+    Map<String, Integer> lastWrite = new HashMap<>();
+    List<List<Integer>> levels = new ArrayList<>();
+    int barrier = -1;
+    for (int i = 0; i < roots.size(); i++) {
+      Set<String> reads = new HashSet<>();
+      Set<String> writes = new HashSet<>();
+      int level;
+      if (analyse(roots.get(i), reads, writes)) {
+        level = barrier + 1;
+        for (String variable : reads) {
+          level = Math.max(level, lastWrite.getOrDefault(variable, -1) + 1);
+        }
+        for (String variable : writes) {
+          level = Math.max(level, lastWrite.getOrDefault(variable, -1) + 1);
+          level = Math.max(level, lastRead.getOrDefault(variable, -1) + 1);
+        }
+      } else {
+        level = levels.size();
+        barrier = level;
+      }
+      for (String variable : reads) {
+        lastRead.merge(variable, level, Math::max);
+      }
+      for (String variable : writes) {
+        lastWrite.put(variable, level);
+      }
+      if (level == levels.size()) {
+        levels.add(new ArrayList<>());
+      }
+      levels.get(level).add(i);
+    }
+
+    List<int[]> schedule = new ArrayList<>(levels.size());
+    boolean concurrent = false;
+    for (var level : levels) {
+      schedule.add(level.stream().mapToInt(Integer::intValue).toArray());
+      concurrent |= level.size() > BATCH_SIZE;
+    }
+    return concurrent ? List.copyOf(schedule) : null;
+  }
+
+  /**
+   * Collects the variables that a node and its children read and assign.
+   *
+   * @param node The node to analyse.
+   * @param reads The set the scoped names of the variables read are added to.
+   * @param writes The set the scoped names of the variables assigned are added to.
+   * @return <code>false</code> if the node contains a node whose effects are not known.
+   */
+  private static boolean analyse(DiceExpressionNode node, Set<String> reads, Set<String> writes) {
+    if (node instanceof ResolveSymbolDiceExpressionNode) {
+      reads.add(((ResolveSymbolDiceExpressionNode) node).getVariableName());
+    } else if (node instanceof AssignmentDiceExpressionNode) {
+      writes.add(((AssignmentDiceExpressionNode) node).getVariableName());
+    } else if (node instanceof DiceRollDiceExpressionNode) {
+      for (DiceRollerArgument argument : ((DiceRollDiceExpressionNode) node).getRollerArguments()) {
+        var value = argument.getValueNode();
+        if (value.isPresent() && !analyse(value.get(), reads, writes)) {
+          return false;
+        }
+      }
+    } else if (!(node instanceof BinaryDiceExpressionNode
+        || node instanceof ChainDiceExpressionNode
+        || node instanceof UnaryDiceExpressionNode
+        || node instanceof GroupDiceExpressionNode
+        || node instanceof TopLevelExpressionNode
+        || node instanceof ValueDiceExpressionNode)) {
+      return false;
+    }
+    for (var child : node.getChildren()) {
+      if (!analyse(child, reads, writes)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Executes the statements of a script.
+   *
+   * @param roots The trees of the statements.
+   * @param schedule The levels returned by {@link #schedule(List)}.
+   * @param frame The frame of the execution.
+   * @param strategy How the trees are evaluated.
+   */
+  static void execute(
+      List<DiceExpressionNode> roots,
+      List<int[]> schedule,
+      DiceEvalFrame frame,
+      CompileOptions.EvaluationStrategy strategy) {
+    execute(roots, schedule, frame, strategy, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Executes the statements of a script.
+   *
+   * @param roots The trees of the statements.
+   * @param schedule The levels returned by {@link #schedule(List)}.
+   * @param frame The frame of the execution.
+   * @param strategy How the trees are evaluated.
+   * @param pool The pool used to execute the statements.
+   */
+  static void execute(
+      List<DiceExpressionNode> roots,
+      List<int[]> schedule,
+      DiceEvalFrame frame,
+      CompileOptions.EvaluationStrategy strategy,
+      ForkJoinPool pool) {
+    // The forks of the statements that have been executed but not joined, by statement.
+    var waiting = new TreeMap<Integer, DiceEvalFrame>();
+    int joined = 0;
+    for (int[] level : schedule) {
+      var forks = frame.fork(level.length, new ArrayList<>(waiting.values()));
+      int batches = (level.length + BATCH_SIZE - 1) / BATCH_SIZE;
+      var failures = new RuntimeException[batches];
+      var failed = new int[batches];
+      var task = new ExecuteTask(roots, level, forks, failures, failed, strategy, 0, batches);
+      if (batches == 1) {
+        // A single batch is not worth handing to the pool, so it is evaluated on this thread.
+        task.invoke();
+      } else {
+        pool.invoke(task);
+      }
+
+      int batch = 0;
+      while (batch < batches && failures[batch] == null) {
+        batch++;
+      }
+      for (var failure : failures) {
+        if (failure instanceof DiceExecutionCancelledException) {
+          // Stop in the frame of the execution too, so that it is marked as cancelled. The
+          // statements that are waiting to be joined are not kept.
+          frame.checkCancelled();
+          throw failure;
+        } else if (failure instanceof DiceExecutionLimitException) {
+          throw failure;
+        }
+      }
+      int last = batch == batches ? level.length : failed[batch];
+      for (int i = 0; i < last; i++) {
+        waiting.put(level[i], forks[i]);
+      }
+      if (batch < batches) {
+        // The batches after the failed one are discarded without being run again, so that their
+        // dice are not charged to the budget a second time.
+        executeBefore(roots, waiting, joined, level[last], frame, strategy);
+        frame.join(forks[last]);
+        throw failures[batch];
+      }
+      while (!waiting.isEmpty() && waiting.firstKey() == joined) {
+        frame.join(waiting.pollFirstEntry().getValue());
+        joined++;
+      }
+    }
+  }
+
+  /**
+   * Joins or evaluates the statements before a failed statement that have not been joined yet, one
+   * after another, so that every statement before it has been executed when its failure is
+   * reported. The statements that have not been executed are in later levels than the failed
+   * statement, so they do not share a variable that one of them assigns with it or with the
+   * statements after it that are waiting to be joined. If one of them fails, its failure is
+   * reported instead, as it would be by executing the statements in order.
+   *
+   * @param roots The trees of the statements.
+   * @param waiting The forks of the statements that have been executed but not joined.
+   * @param joined The index of the first statement that has not been joined.
+   * @param failed The index of the statement that failed.
+   * @param frame The frame of the execution.
+   * @param strategy How the trees are evaluated.
+   */
+  private static void executeBefore(
+      List<DiceExpressionNode> roots,
+      Map<Integer, DiceEvalFrame> waiting,
+      int joined,
+      int failed,
+      DiceEvalFrame frame,
+      CompileOptions.EvaluationStrategy strategy) {
+    for (int i = joined; i < failed; i++) {
+      var fork = waiting.remove(i);
+      if (fork != null) {
+        frame.join(fork);
+      } else {
+        evaluate(roots.get(i), frame, strategy);
+      }
+    }
+  }
+
+  /**
+   * Evaluates a statement.
+   *
+   * @param root The tree of the statement.
+   * @param frame The frame the statement is evaluated in.
+   * @param strategy How the tree is evaluated.
+   */
+  private static void evaluate(
+      DiceExpressionNode root, DiceEvalFrame frame, CompileOptions.EvaluationStrategy strategy) {
+    if (strategy == CompileOptions.EvaluationStrategy.ITERATIVE) {
+      IterativeEvaluator.evaluate(root, frame);
+    } else {
+      root.evaluate(frame);
+    }
+  }
+
+  /** Task that evaluates a range of batches of the statements of a level. */
+  private static final class ExecuteTask extends RecursiveAction {
+
+    /** The trees of the statements. */
+    private final List<DiceExpressionNode> roots;
+
+    /** The indices of the statements of the level. */
+    private final int[] level;
+
+    /** The frames each statement of the level is evaluated in. */
+    private final DiceEvalFrame[] forks;
+
+    /** The exception each batch failed with, or <code>null</code> if it did not fail. */
+    private final RuntimeException[] failures;
+
+    /** The index in the level of the statement each failed batch failed at. */
+    private final int[] failed;
+
+    /** How the trees are evaluated. */
+    private final CompileOptions.EvaluationStrategy strategy;
+
+    /** The index of the first batch to evaluate. */
+    private final int from;
+
+    /** The index after the last batch to evaluate. */
+    private final int to;
+
+    private ExecuteTask(
+        List<DiceExpressionNode> roots,
+        int[] level,
+        DiceEvalFrame[] forks,
+        RuntimeException[] failures,
+        int[] failed,
+        CompileOptions.EvaluationStrategy strategy,
+        int from,
+        int to) {
+      this.roots = roots;
+      this.level = level;
+      this.forks = forks;
+      this.failures = failures;
+      this.failed = failed;
+      this.strategy = strategy;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from == 1) {
+        int first = from * BATCH_SIZE;
+        int last = Math.min(first + BATCH_SIZE, level.length);
+        for (int i = first; i < last; i++) {
+          try {
+            evaluate(roots.get(level[i]), forks[i], strategy);
+          } catch (RuntimeException e) {
+            // Keep the failure instead of throwing it, so that every batch has finished when the
+            // level returns.
+            failures[from] = e;
+            failed[from] = i;
+            return;
+          }
+        }
+      } else {
+        int mid = (from + to) >>> 1;
+        invokeAll(
+            new ExecuteTask(roots, level, forks, failures, failed, strategy, from, mid),
+            new ExecuteTask(roots, level, forks, failures, failed, strategy, mid, to));
+      }
+    }
+  }
+}
@@ -0,0 +1,446 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.analysis;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The probability distribution of an integer outcome, held as a histogram of the probability of
+ * each value from {@link #getMin()} to {@link #getMax()}.
+ *
+ * <p>Distributions are immutable and are combined by convolution, so they are exact up to the
+ * rounding of the probabilities. Integers do not wrap around or overflow, the values are those of
+ * the mathematical operations. To keep the calculation bounded a distribution may have at most
+ * {@link #MAX_OUTCOMES} values and a single operation may do at most {@link #MAX_WORK} steps.
+ */
+public final class DiceDistribution {
+
+  /** The largest number of values from the smallest to the largest in a distribution. */
+  public static final int MAX_OUTCOMES = 1 << 20;
+
+  /** The largest number of steps a single operation on distributions may take. */
+  public static final long MAX_WORK = 1L << 28;
+
+  /** The difference in probability that is ignored when looking up percentiles. */
+  private static final double TOLERANCE = 1e-12;
+
+  /** The smallest value. */
+  private final long min;
+
+  /** The probability of each value, starting from the smallest. */
+  private final double[] probabilities;
+
+  /**
+   * Creates a new <code>DiceDistribution</code>, trimming the values that have no probability from
+   * either end.
+   *
+   * @param min The value of the first probability.
+   * @param probabilities The probability of each value, which is not copied.
+   */
+  private DiceDistribution(long min, double[] probabilities) {
+    int first = 0;
+    int last = probabilities.length - 1;
+    while (first < last && probabilities[first] == 0) {
+      first++;
+    }
+    while (last > first && probabilities[last] == 0) {
+      last--;
+    }
+    this.min = min + first;
+    this.probabilities =
+        first == 0 && last == probabilities.length - 1
+            ? probabilities
+            : Arrays.copyOfRange(probabilities, first, last + 1);
+  }
+
+  /**
+   * Returns the distribution of a constant.
+   *
+   * @param value The constant.
+   * @return the distribution that always gives the constant.
+   */
+  public static DiceDistribution constant(long value) {
+    return new DiceDistribution(value, new double[] {1});
+  }
+
+  /**
+   * Returns a distribution from its probabilities.
+   *
+   * @param min The value of the first probability.
+   * @param probabilities The probability of each value, which is not copied.
+   * @return the distribution.
+   */
+  static DiceDistribution of(long min, double[] probabilities) {
+    return new DiceDistribution(min, probabilities);
+  }
+
+  /**
+   * Returns the distribution of a fair die.
+   *
+   * @param sides The number of sides of the die, numbered from 1.
+   * @return the distribution of a roll of the die.
+   * @throws IllegalArgumentException if the number of sides is not positive or too large.
+   */
+  public static DiceDistribution die(int sides) {
+    checkSides(sides);
+    double[] probabilities = new double[sides];
+    Arrays.fill(probabilities, 1.0 / sides);
+    return new DiceDistribution(1, probabilities);
+  }
+
+  /**
+   * Returns the distribution of the sum of a number of fair dice, where both the number of dice and
+   * the number of sides may vary.
+   *
+   * @param dice The distribution of the number of dice.
+   * @param sides The distribution of the number of sides.
+   * @return the distribution of the total of the dice.
+   * @throws IllegalArgumentException if the number of dice can be negative, the number of sides can
+   *     be less than one, or the distribution is too large to calculate.
+   */
+  public static DiceDistribution roll(DiceDistribution dice, DiceDistribution sides) {
+    if (dice.getMin() < 0) {
+      throw new IllegalArgumentException("Number of dice can not be negative.");
+    }
+    long maxDice = dice.getMax();
+    long maxSides = sides.getMax();
+    checkSides(sides.getMin());
+    checkSides(maxSides);
+    checkOutcomes((double) maxDice * maxSides - dice.min + 1);
+    checkWork(sides.size() * (double) maxDice * ((double) maxDice * (maxSides - 1) + 2) / 2);
+
+    // The total is indexed from the smallest number of dice, as each die adds at least 1.
+    var total = new double[(int) (maxDice * maxSides - dice.min + 1)];
+    for (int s = 0; s < sides.size(); s++) {
+      double sideProbability = sides.probabilities[s];
+      if (sideProbability == 0) {
+        continue;
+      }
+      int faces = (int) (sides.min + s);
+      // The distribution of the sum of n dice, built up one die at a time, starting from n = 0
+      // whose sum is always 0. Its smallest value is n, which is where it is added to the total.
+      double[] sum = {1};
+      for (long n = 0; n <= maxDice; n++) {
+        double p = sideProbability * dice.getProbability(n);
+        if (p != 0) {
+          for (int i = 0; i < sum.length; i++) {
+            total[(int) (n - dice.min) + i] += p * sum[i];
+          }
+        }
+        if (n < maxDice) {
+          sum = addDie(sum, faces);
+        }
+      }
+    }
+    return new DiceDistribution(dice.min, total);
+  }
+
+  /**
+   * Returns the mixture of distributions, the distribution of a value that is taken from one of
+   * them chosen at random.
+   *
+   * @param parts The distributions.
+   * @param weights The probability of each distribution being chosen.
+   * @return the mixed distribution.
+   */
+  static DiceDistribution mix(List<DiceDistribution> parts, List<Double> weights) {
+    long low = parts.stream().mapToLong(DiceDistribution::getMin).min().orElse(0);
+    long high = parts.stream().mapToLong(DiceDistribution::getMax).max().orElse(0);
+    checkOutcomes((double) high - low + 1);
+    double[] result = new double[(int) (high - low + 1)];
+    for (int i = 0; i < parts.size(); i++) {
+      var part = parts.get(i);
+      double weight = weights.get(i);
+      for (int j = 0; j < part.size(); j++) {
+        result[(int) (part.min - low) + j] += weight * part.probabilities[j];
+      }
+    }
+    return new DiceDistribution(low, result);
+  }
+
+  /**
+   * Adds a fair die to the distribution of a sum, using a sliding window over the probabilities.
+   *
+   * @param sum The probabilities of the sum.
+   * @param sides The number of sides of the die.
+   * @return the probabilities of the sum with the die added, whose smallest value is one more.
+   */
+  private static double[] addDie(double[] sum, int sides) {
+    double[] result = new double[sum.length + sides - 1];
+    double window = 0;
+    for (int j = 0; j < result.length; j++) {
+      if (j < sum.length) {
+        window += sum[j];
+      }
+      if (j >= sides) {
+        window -= sum[j - sides];
+      }
+      result[j] = window / sides;
+    }
+    return result;
+  }
+
+  /**
+   * Returns the distribution of the sum of a value from this distribution and an independent value
+   * from another.
+   *
+   * @param other The other distribution.
+   * @return the distribution of the sum.
+   * @throws IllegalArgumentException if the distribution is too large to calculate.
+   */
+  public DiceDistribution add(DiceDistribution other) {
+    checkOutcomes((double) size() + other.size() - 1);
+    checkWork((double) size() * other.size());
+    double[] result = new double[size() + other.size() - 1];
+    for (int i = 0; i < size(); i++) {
+      double p = probabilities[i];
+      if (p == 0) {
+        continue;
+      }
+      for (int j = 0; j < other.size(); j++) {
+        result[i + j] += p * other.probabilities[j];
+      }
+    }
+    return new DiceDistribution(Math.addExact(min, other.min), result);
+  }
+
+  /**
+   * Returns the distribution of the sum of a number of independent values from this distribution.
+   *
+   * @param count The number of values, which must not be negative.
+   * @return the distribution of the sum.
+   * @throws IllegalArgumentException if the distribution is too large to calculate.
+   */
+  DiceDistribution repeat(long count) {
+    // Sums of powers of two copies, as in exponentiation by squaring.
+    var result = constant(0);
+    var power = this;
+    while (count > 0) {
+      if ((count & 1) != 0) {
+        result = result.add(power);
+      }
+      count >>>= 1;
+      if (count > 0) {
+        power = power.add(power);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the distribution of the difference of a value from this distribution and an independent
+   * value from another.
+   *
+   * @param other The distribution of the value that is subtracted.
+   * @return the distribution of the difference.
+   * @throws IllegalArgumentException if the distribution is too large to calculate.
+   */
+  public DiceDistribution subtract(DiceDistribution other) {
+    return add(other.negate());
+  }
+
+  /**
+   * Returns the distribution of the product of a value from this distribution and an independent
+   * value from another.
+   *
+   * @param other The other distribution.
+   * @return the distribution of the product.
+   * @throws IllegalArgumentException if the distribution is too large to calculate.
+   */
+  public DiceDistribution multiply(DiceDistribution other) {
+    checkWork((double) size() * other.size());
+    long[] corners = {
+      Math.multiplyExact(min, other.min),
+      Math.multiplyExact(min, other.getMax()),
+      Math.multiplyExact(getMax(), other.min),
+      Math.multiplyExact(getMax(), other.getMax())
+    };
+    long low = Arrays.stream(corners).min().getAsLong();
+    long high = Arrays.stream(corners).max().getAsLong();
+    checkOutcomes((double) high - low + 1);
+    double[] result = new double[(int) (high - low + 1)];
+    for (int i = 0; i < size(); i++) {
+      double p = probabilities[i];
+      if (p == 0) {
+        continue;
+      }
+      long value = min + i;
+      for (int j = 0; j < other.size(); j++) {
+        result[(int) (value * (other.min + j) - low)] += p * other.probabilities[j];
+      }
+    }
+    return new DiceDistribution(low, result);
+  }
+
+  /**
+   * Returns the distribution of the negated values of this distribution.
+   *
+   * @return the negated distribution.
+   */
+  public DiceDistribution negate() {
+    double[] result = new double[size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = probabilities[result.length - 1 - i];
+    }
+    return new DiceDistribution(Math.negateExact(getMax()), result);
+  }
+
+  /**
+   * Returns the smallest value with a probability.
+   *
+   * @return the smallest value.
+   */
+  public long getMin() {
+    return min;
+  }
+
+  /**
+   * Returns the largest value with a probability.
+   *
+   * @return the largest value.
+   */
+  public long getMax() {
+    return min + probabilities.length - 1;
+  }
+
+  /**
+   * Returns the probability of a value.
+   *
+   * @param value The value.
+   * @return the probability of the value, which is 0 outside of the distribution.
+   */
+  public double getProbability(long value) {
+    if (value < min || value > getMax()) {
+      return 0;
+    }
+    return probabilities[(int) (value - min)];
+  }
+
+  /**
+   * Returns the probability of each value from {@link #getMin()} to {@link #getMax()}.
+   *
+   * @return the probabilities, the first of which is that of the smallest value.
+   */
+  public double[] getProbabilities() {
+    return probabilities.clone();
+  }
+
+  /**
+   * Returns the probability of a value or any smaller value.
+   *
+   * @param value The value.
+   * @return the cumulative probability of the value.
+   */
+  public double getCumulativeProbability(long value) {
+    double cumulative = 0;
+    for (int i = 0; i < probabilities.length && min + i <= value; i++) {
+      cumulative += probabilities[i];
+    }
+    return cumulative;
+  }
+
+  /**
+   * Returns the mean of the distribution.
+   *
+   * @return the mean.
+   */
+  public double getMean() {
+    return min + offsetMean();
+  }
+
+  /**
+   * Returns the variance of the distribution.
+   *
+   * @return the variance.
+   */
+  public double getVariance() {
+    // Calculated from the offsets from the smallest value so large values do not lose precision.
+    double mean = offsetMean();
+    double variance = 0;
+    for (int i = 0; i < probabilities.length; i++) {
+      variance += probabilities[i] * (i - mean) * (i - mean);
+    }
+    return variance;
+  }
+
+  /**
+   * Returns the standard deviation of the distribution.
+   *
+   * @return the standard deviation.
+   */
+  public double getStandardDeviation() {
+    return Math.sqrt(getVariance());
+  }
+
+  /**
+   * Returns a percentile of the distribution, the smallest value whose cumulative probability is at
+   * least a fraction.
+   *
+   * @param fraction The fraction, from 0 to 1, so 0.5 gives the median.
+   * @return the value at the percentile.
+   * @throws IllegalArgumentException if the fraction is not from 0 to 1.
+   */
+  public long getPercentile(double fraction) {
+    if (!(fraction >= 0 && fraction <= 1)) {
+      throw new IllegalArgumentException("Percentile must be from 0 to 1: " + fraction);
+    }
+    double cumulative = 0;
+    for (int i = 0; i < probabilities.length; i++) {
+      cumulative += probabilities[i];
+      if (cumulative >= fraction - TOLERANCE) {
+        return min + i;
+      }
+    }
+    return getMax();
+  }
+
+  /**
+   * Returns the number of values from the smallest to the largest.
+   *
+   * @return the number of values.
+   */
+  int size() {
+    return probabilities.length;
+  }
+
+  private double offsetMean() {
+    double mean = 0;
+    for (int i = 0; i < probabilities.length; i++) {
+      mean += probabilities[i] * i;
+    }
+    return mean;
+  }
+
+  private static void checkSides(long sides) {
+    if (sides < 1) {
+      throw new IllegalArgumentException("Number of sides must be at least 1.");
+    }
+    checkOutcomes(sides);
+  }
+
+  static void checkOutcomes(double outcomes) {
+    if (outcomes > MAX_OUTCOMES) {
+      throw new IllegalArgumentException(
+          "Distribution would have more than " + MAX_OUTCOMES + " values.");
+    }
+  }
+
+  static void checkWork(double work) {
+    if (work > MAX_WORK) {
+      throw new IllegalArgumentException("Distribution would take too long to calculate.");
+    }
+  }
+}
@@ -0,0 +1,356 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.analysis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import net.rptools.dice.expressiontree.BinaryDiceExpressionNode;
+import net.rptools.dice.expressiontree.ChainDiceExpressionNode;
+import net.rptools.dice.expressiontree.DiceExpressionNode;
+import net.rptools.dice.expressiontree.DiceRollDiceExpressionNode;
+import net.rptools.dice.expressiontree.GroupDiceExpressionNode;
+import net.rptools.dice.expressiontree.TopLevelExpressionNode;
+import net.rptools.dice.expressiontree.UnaryDiceExpressionNode;
+import net.rptools.dice.expressiontree.ValueDiceExpressionNode;
+import net.rptools.dice.result.DiceResultType;
+import net.rptools.dice.result.DieRoll;
+import net.rptools.dice.roller.DiceRollers;
+import net.rptools.dice.roller.StandardDiceRoller;
+import net.rptools.dice.roller.arguments.CriticalDiceRollerArgument;
+import net.rptools.dice.roller.arguments.DiceRollerArgument;
+import net.rptools.dice.roller.arguments.FailDiceRollerArgument;
+import net.rptools.dice.roller.arguments.FumbleDiceRollerArgument;
+import net.rptools.dice.roller.arguments.KeepRollerArgument;
+import net.rptools.dice.roller.arguments.SuccessDiceRollerArgument;
+
+/**
+ * Calculates the exact {@link DiceDistribution} of expression trees without rolling any dice.
+ *
+ * <p>Integer constants, rolls of the {@link StandardDiceRoller} and the <code>+</code>, <code>-
+ * </code> and <code>*</code> operators on them can be calculated. Rolls may have one keep or drop
+ * argument, whose distribution is calculated from the order statistics of the dice, and arguments
+ * that flag dice as successes, failures, criticals or fumbles, whose counts can be calculated by
+ * {@link #calculateFlagCount(DiceExpressionNode, DieRoll.DieRollFlags)}. Each dice roll in a tree
+ * is independent of the others, so the operands of an operator are combined by convolution. Trees
+ * with anything else, such as variables whose values may be shared between operands, can not be
+ * calculated.
+ */
+public final class DiceDistributionCalculator {
+
+  private DiceDistributionCalculator() {}
+
+  /**
+   * Calculates the distribution of the result of an expression tree.
+   *
+   * @param node The root of the tree.
+   * @return the distribution, or empty if the tree contains something that can not be calculated.
+   * @throws IllegalArgumentException if a dice roll is invalid, or the distribution is too large to
+   *     calculate.
+   */
+  public static Optional<DiceDistribution> calculate(DiceExpressionNode node) {
+    if (!supports(node)) {
+      return Optional.empty();
+    }
+    return Optional.of(distribution(node));
+  }
+
+  /**
+   * Calculates the distribution of the number of kept dice that have a flag, such as the number of
+   * successes, counted over all of the dice rolls of an expression tree. The flags are set by the
+   * success, failure, critical and fumble arguments of the rolls.
+   *
+   * @param node The root of the tree.
+   * @param flag The flag whose dice are counted.
+   * @return the distribution of the count, or empty if the tree contains something that can not be
+   *     calculated, or a dice roll whose number of dice or sides depends on other dice rolls.
+   * @throws IllegalArgumentException if a dice roll is invalid, or the distribution is too large to
+   *     calculate.
+   */
+  public static Optional<DiceDistribution> calculateFlagCount(
+      DiceExpressionNode node, DieRoll.DieRollFlags flag) {
+    var rolls = new ArrayList<DiceRollDiceExpressionNode>();
+    if (!supports(node) || !collectRolls(node, rolls)) {
+      return Optional.empty();
+    }
+    // The rolls do not depend on each other, so their counts are independent.
+    var count = DiceDistribution.constant(0);
+    for (var roll : rolls) {
+      long dice = distribution(roll.getNumberOfDice()).getMin();
+      long sides = distribution(roll.getNumberOfSides()).getMin();
+      count = count.add(roll(roll, dice, sides, flag));
+    }
+    return Optional.of(count);
+  }
+
+  /**
+   * Collects the dice rolls of a tree.
+   *
+   * @param node The root of the tree.
+   * @param rolls The list the rolls are added to.
+   * @return <code>false</code> if the number of dice or sides of a roll depends on another roll.
+   */
+  private static boolean collectRolls(
+      DiceExpressionNode node, List<DiceRollDiceExpressionNode> rolls) {
+    if (node instanceof DiceRollDiceExpressionNode) {
+      var roll = (DiceRollDiceExpressionNode) node;
+      var nested = new ArrayList<DiceRollDiceExpressionNode>();
+      collectRolls(roll.getNumberOfDice(), nested);
+      collectRolls(roll.getNumberOfSides(), nested);
+      rolls.add(roll);
+      return nested.isEmpty();
+    }
+    for (var child : node.getChildren()) {
+      if (!collectRolls(child, rolls)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns if the distribution of a tree can be calculated.
+   *
+   * @param node The root of the tree.
+   * @return <code>true</code> if the distribution can be calculated.
+   */
+  private static boolean supports(DiceExpressionNode node) {
+    if (node instanceof ValueDiceExpressionNode) {
+      var value = ((ValueDiceExpressionNode) node).getValue();
+      return value.getType() == DiceResultType.INTEGER && !value.isBigInteger();
+    } else if (node instanceof BinaryDiceExpressionNode) {
+      var binary = (BinaryDiceExpressionNode) node;
+      return supportsOperator(binary.getOperator())
+          && supports(binary.getLeft())
+          && supports(binary.getRight());
+    } else if (node instanceof ChainDiceExpressionNode) {
+      var chain = (ChainDiceExpressionNode) node;
+      return chain.getOperators().stream().allMatch(DiceDistributionCalculator::supportsOperator)
+          && chain.getOperands().stream().allMatch(DiceDistributionCalculator::supports);
+    } else if (node instanceof UnaryDiceExpressionNode) {
+      var unary = (UnaryDiceExpressionNode) node;
+      return "-".equals(unary.getOperator()) && supports(unary.getOperand());
+    } else if (node instanceof GroupDiceExpressionNode) {
+      return supports(((GroupDiceExpressionNode) node).getGrouped());
+    } else if (node instanceof TopLevelExpressionNode) {
+      return supports(((TopLevelExpressionNode) node).getChild());
+    } else if (node instanceof DiceRollDiceExpressionNode) {
+      var dice = (DiceRollDiceExpressionNode) node;
+      return DiceRollers.getInstance().getDiceRoller(dice.getDiceName())
+              instanceof StandardDiceRoller
+          && supportsArguments(dice.getRollerArguments())
+          && supports(dice.getNumberOfDice())
+          && supports(dice.getNumberOfSides());
+    }
+    return false;
+  }
+
+  /**
+   * Returns if the distribution of a roll with arguments can be calculated, which needs the
+   * arguments to be at most one keep or drop argument and any number of arguments that flag dice,
+   * all with constant values.
+   *
+   * @param arguments The arguments of the roll.
+   * @return <code>true</code> if the distribution can be calculated.
+   */
+  private static boolean supportsArguments(List<DiceRollerArgument> arguments) {
+    int keeps = 0;
+    for (var argument : arguments) {
+      if (argument instanceof KeepRollerArgument) {
+        keeps++;
+      } else if (!(argument instanceof SuccessDiceRollerArgument
+          || argument instanceof FailDiceRollerArgument
+          || argument instanceof CriticalDiceRollerArgument
+          || argument instanceof FumbleDiceRollerArgument)) {
+        return false;
+      }
+      if (!argument.getValueNode().map(v -> v instanceof ValueDiceExpressionNode).orElse(true)) {
+        return false;
+      }
+    }
+    return keeps <= 1;
+  }
+
+  private static boolean supportsOperator(String operator) {
+    return "+".equals(operator) || "-".equals(operator) || "*".equals(operator);
+  }
+
+  /**
+   * Calculates the distribution of a tree that is supported.
+   *
+   * @param node The root of the tree.
+   * @return the distribution.
+   */
+  private static DiceDistribution distribution(DiceExpressionNode node) {
+    if (node instanceof ValueDiceExpressionNode) {
+      return DiceDistribution.constant(((ValueDiceExpressionNode) node).getValue().getLongValue());
+    } else if (node instanceof BinaryDiceExpressionNode) {
+      var binary = (BinaryDiceExpressionNode) node;
+      return operate(
+          binary.getOperator(), distribution(binary.getLeft()), distribution(binary.getRight()));
+    } else if (node instanceof ChainDiceExpressionNode) {
+      var chain = (ChainDiceExpressionNode) node;
+      var operands = chain.getOperands();
+      var operators = chain.getOperators();
+      var result = distribution(operands.get(0));
+      for (int i = 0; i < operators.size(); i++) {
+        result = operate(operators.get(i), result, distribution(operands.get(i + 1)));
+      }
+      return result;
+    } else if (node instanceof UnaryDiceExpressionNode) {
+      return distribution(((UnaryDiceExpressionNode) node).getOperand()).negate();
+    } else if (node instanceof GroupDiceExpressionNode) {
+      return distribution(((GroupDiceExpressionNode) node).getGrouped());
+    } else if (node instanceof TopLevelExpressionNode) {
+      return distribution(((TopLevelExpressionNode) node).getChild());
+    }
+    var dice = (DiceRollDiceExpressionNode) node;
+    var numberOfDice = distribution(dice.getNumberOfDice());
+    var numberOfSides = distribution(dice.getNumberOfSides());
+    KeepRollerArgument keep = null;
+    for (var argument : dice.getRollerArguments()) {
+      if (argument instanceof KeepRollerArgument) {
+        keep = (KeepRollerArgument) argument.resolveConstant();
+      }
+    }
+    if (keep == null) {
+      // Arguments that only flag dice do not change the total.
+      return DiceDistribution.roll(numberOfDice, numberOfSides);
+    }
+
+    // Each number of dice and sides is calculated separately, so the limit on the work applies to
+    // all of them together.
+    DiceDistribution.checkWork((double) numberOfDice.size() * numberOfSides.size());
+    double work = 0;
+    for (long n = numberOfDice.getMin(); n <= numberOfDice.getMax(); n++) {
+      for (long s = numberOfSides.getMin(); s <= numberOfSides.getMax(); s++) {
+        if (numberOfDice.getProbability(n) * numberOfSides.getProbability(s) != 0) {
+          work += keepWork(keep, n, s);
+        }
+      }
+    }
+    DiceDistribution.checkWork(work);
+
+    var parts = new ArrayList<DiceDistribution>();
+    var weights = new ArrayList<Double>();
+    for (long n = numberOfDice.getMin(); n <= numberOfDice.getMax(); n++) {
+      for (long s = numberOfSides.getMin(); s <= numberOfSides.getMax(); s++) {
+        double weight = numberOfDice.getProbability(n) * numberOfSides.getProbability(s);
+        if (weight != 0) {
+          parts.add(roll(dice, n, s, null));
+          weights.add(weight);
+        }
+      }
+    }
+    return DiceDistribution.mix(parts, weights);
+  }
+
+  /**
+   * Returns the number of steps that calculating the total of a roll with a keep or drop argument
+   * takes, or <code>0</code> if the roll is invalid, as it then fails before doing any work.
+   *
+   * @param keep The keep or drop argument.
+   * @param dice The number of dice.
+   * @param sides The number of sides of the dice.
+   * @return the number of steps.
+   */
+  private static double keepWork(KeepRollerArgument keep, long dice, long sides) {
+    if (dice < 0
+        || sides < 1
+        || dice > DiceDistribution.MAX_OUTCOMES
+        || sides > DiceDistribution.MAX_OUTCOMES) {
+      return 0;
+    }
+    int kept = (int) dice - keep.getNumberToDrop((int) dice);
+    if (kept <= 0 || kept > dice) {
+      return 0;
+    }
+    return OrderStatistics.work((int) dice, (int) sides, kept, (int) sides);
+  }
+
+  /**
+   * Returns the distribution of a roll of a fixed number of dice with the arguments of a node.
+   *
+   * @param node The dice roll.
+   * @param dice The number of dice.
+   * @param sides The number of sides of the dice.
+   * @param flag The flag whose kept dice are counted, or <code>null</code> for the total of the
+   *     kept dice.
+   * @return the distribution of the total or the count.
+   * @throws IllegalArgumentException if the roll is invalid or too large to calculate.
+   */
+  private static DiceDistribution roll(
+      DiceRollDiceExpressionNode node, long dice, long sides, DieRoll.DieRollFlags flag) {
+    if (dice < 0) {
+      throw new IllegalArgumentException("Number of dice can not be negative.");
+    }
+    if (sides < 1) {
+      throw new IllegalArgumentException("Number of sides must be at least 1.");
+    }
+    DiceDistribution.checkOutcomes(dice);
+    DiceDistribution.checkOutcomes(sides);
+
+    KeepRollerArgument keep = null;
+    var flags = new ArrayList<DiceRollerArgument>();
+    for (var argument : node.getRollerArguments()) {
+      if (argument instanceof KeepRollerArgument) {
+        keep = (KeepRollerArgument) argument.resolveConstant();
+      } else {
+        flags.add(argument.resolveConstant());
+      }
+    }
+    // The flags of a die only depend on its face, so the amount each face adds can be worked out
+    // once, applying the arguments in the same order as the roller does.
+    int[] faceValues = new int[(int) sides];
+    for (int face = 1; face <= sides; face++) {
+      var roll = new DieRoll(face, (int) sides);
+      for (var argument : flags) {
+        roll = argument.applyToRoll(roll);
+      }
+      faceValues[face - 1] = flag == null ? face : roll.getFlags().contains(flag) ? 1 : 0;
+    }
+
+    if (keep != null) {
+      int drop = keep.getNumberToDrop((int) dice);
+      if (drop < 0) {
+        throw new IllegalArgumentException("Can not keep more dice than are rolled.");
+      } else if (drop >= dice) {
+        return DiceDistribution.constant(0);
+      }
+      return OrderStatistics.keep(
+          (int) dice, (int) sides, (int) dice - drop, keep.dropsLowest(), faceValues);
+    } else if (flag == null) {
+      return DiceDistribution.roll(
+          DiceDistribution.constant(dice), DiceDistribution.constant(sides));
+    }
+    double[] die = new double[2];
+    for (int value : faceValues) {
+      die[value] += 1.0 / sides;
+    }
+    return DiceDistribution.of(0, die).repeat(dice);
+  }
+
+  private static DiceDistribution operate(
+      String operator, DiceDistribution left, DiceDistribution right) {
+    switch (operator) {
+      case "+":
+        return left.add(right);
+      case "-":
+        return left.subtract(right);
+      default:
+        return left.multiply(right);
+    }
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.analysis;
+
+/**
+ * Calculates the distributions of rolls where only some of the dice are kept.
+ *
+ * <p>Rather than enumerating the <code>sides<sup>dice</sup></code> outcomes, the faces are visited
+ * from the end whose dice are kept, choosing how many of the dice show each face. The state is the
+ * number of dice that have been given a face and the total of the kept dice among them, and the
+ * number of ways to choose which dice show a face is a binomial coefficient, so the work is
+ * polynomial in the number of dice and sides.
+ */
+final class OrderStatistics {
+
+  private OrderStatistics() {}
+
+  /**
+   * Returns the number of steps that {@link #keep(int, int, int, boolean, int[])} takes.
+   *
+   * @param dice The number of dice rolled.
+   * @param sides The number of sides of the dice.
+   * @param keep The number of dice kept.
+   * @param maxValue The largest amount a kept die adds to the total.
+   * @return the number of steps.
+   */
+  static double work(int dice, int sides, int keep, int maxValue) {
+    return (double) sides * dice * (dice + 1) / 2 * ((double) keep * maxValue + 1);
+  }
+
+  /**
+   * Returns the distribution of the total of the kept dice of a roll.
+   *
+   * @param dice The number of dice rolled.
+   * @param sides The number of sides of the dice, numbered from 1.
+   * @param keep The number of dice kept, from 0 to the number of dice.
+   * @param highest Whether the highest dice are kept, otherwise the lowest.
+   * @param faceValues The amount a kept die adds to the total for each face, starting from face 1,
+   *     which must not be negative.
+   * @return the distribution of the total.
+   * @throws IllegalArgumentException if the distribution is too large to calculate.
+   */
+  static DiceDistribution keep(int dice, int sides, int keep, boolean highest, int[] faceValues) {
+    int maxValue = 0;
+    for (int value : faceValues) {
+      maxValue = Math.max(maxValue, value);
+    }
+    DiceDistribution.checkOutcomes((double) keep * maxValue + 1);
+    DiceDistribution.checkWork(work(dice, sides, keep, maxValue));
+    int totals = keep * maxValue + 1;
+
+    double[] logFactorials = new double[dice + 1];
+    for (int i = 2; i <= dice; i++) {
+      logFactorials[i] = logFactorials[i - 1] + Math.log(i);
+    }
+    double logFace = -Math.log(sides);
+
+    // ways[j][t] is the probability of the faces visited so far being shown by exactly j given
+    // dice, with the kept dice among them totalling t.
+    double[][] ways = new double[dice + 1][totals];
+    ways[0][0] = 1;
+    for (int f = 0; f < sides; f++) {
+      int value = faceValues[highest ? sides - 1 - f : f];
+      double[][] next = new double[dice + 1][totals];
+      for (int j = 0; j <= dice; j++) {
+        for (int t = 0; t < totals; t++) {
+          double p = ways[j][t];
+          if (p == 0) {
+            continue;
+          }
+          int remaining = dice - j;
+          for (int c = 0; c <= remaining; c++) {
+            // Choose which c of the remaining dice show this face.
+            double choose =
+                Math.exp(
+                    logFactorials[remaining]
+                        - logFactorials[c]
+                        - logFactorials[remaining - c]
+                        + c * logFace);
+            int kept = Math.min(c, Math.max(keep - j, 0));
+            next[j + c][t + kept * value] += p * choose;
+          }
+        }
+      }
+      ways = next;
+    }
+    return DiceDistribution.of(0, ways[dice]);
+  }
+}
@@ -0,0 +1,469 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.batch;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import net.rptools.dice.expressiontree.AssignmentDiceExpressionNode;
+import net.rptools.dice.expressiontree.BinaryDiceExpressionNode;
+import net.rptools.dice.expressiontree.ChainDiceExpressionNode;
+import net.rptools.dice.expressiontree.DiceExecutionBudget;
+import net.rptools.dice.expressiontree.DiceExpressionNode;
+import net.rptools.dice.expressiontree.DiceRollDiceExpressionNode;
+import net.rptools.dice.expressiontree.GroupDiceExpressionNode;
+import net.rptools.dice.expressiontree.ResolveSymbolDiceExpressionNode;
+import net.rptools.dice.expressiontree.TopLevelExpressionNode;
+import net.rptools.dice.expressiontree.UnaryDiceExpressionNode;
+import net.rptools.dice.expressiontree.ValueDiceExpressionNode;
+import net.rptools.dice.result.ArithmeticMode;
+import net.rptools.dice.result.DiceExprResult;
+import net.rptools.dice.result.DiceResultType;
+import net.rptools.dice.roller.DiceRoller;
+import net.rptools.dice.roller.DiceRollers;
+import net.rptools.dice.symbols.DiceExpressionSymbolTable;
+
+/**
+ * Evaluates expression trees for many iterations in one pass.
+ *
+ * <p>The trees are evaluated column-wise: each node is evaluated once for all of the iterations,
+ * giving an array holding its value in each iteration, and each dice roll asks its {@link
+ * DiceRoller} for the totals of all of the iterations at once with {@link
+ * DiceRoller#rollTotals(String, int[], int[])}. No results or details are kept for the individual
+ * iterations, only the columns of the statements are returned.
+ *
+ * <p>Only numeric expressions can be evaluated: constants, variables, the arithmetic operators and
+ * dice rolls without arguments, in the {@link ArithmeticMode#INT} or {@link ArithmeticMode#LONG}
+ * arithmetic. Each column is either all integers or all doubles, so an integer raised to a power
+ * that is negative in any iteration gives doubles in all of them. Variables that are not assigned
+ * by the expression are read once from the symbol table and assignments are not written back to it.
+ */
+public final class DiceBatchEvaluator {
+
+  /** The trees of the statements. */
+  private final List<DiceExpressionNode> roots;
+
+  /** Whether integers wrap around as 32 bit integers, or overflow throws as 64 bit integers. */
+  private final boolean intArithmetic;
+
+  private DiceBatchEvaluator(List<DiceExpressionNode> roots, boolean intArithmetic) {
+    this.roots = roots;
+    this.intArithmetic = intArithmetic;
+  }
+
+  /**
+   * Prepares expression trees for evaluation in batches.
+   *
+   * @param roots The roots of the expression trees, in the order they are executed.
+   * @param mode The arithmetic used for operations on integers.
+   * @return the evaluator, or empty if the trees contain something that can not be evaluated in
+   *     batches.
+   */
+  public static Optional<DiceBatchEvaluator> compile(
+      Collection<DiceExpressionNode> roots, ArithmeticMode mode) {
+    if (mode == ArithmeticMode.BIG_INTEGER) {
+      return Optional.empty();
+    }
+    for (var root : roots) {
+      if (!supports(root)) {
+        return Optional.empty();
+      }
+    }
+    return Optional.of(new DiceBatchEvaluator(List.copyOf(roots), mode == ArithmeticMode.INT));
+  }
+
+  /**
+   * Returns if a tree can be evaluated in batches.
+   *
+   * @param node The root of the tree.
+   * @return <code>true</code> if the tree can be evaluated.
+   */
+  private static boolean supports(DiceExpressionNode node) {
+    if (node instanceof ValueDiceExpressionNode) {
+      var value = ((ValueDiceExpressionNode) node).getValue();
+      return (value.getType() == DiceResultType.INTEGER && !value.isBigInteger())
+          || value.getType() == DiceResultType.DOUBLE;
+    } else if (node instanceof BinaryDiceExpressionNode) {
+      var binary = (BinaryDiceExpressionNode) node;
+      return supportsOperator(binary.getOperator())
+          && supports(binary.getLeft())
+          && supports(binary.getRight());
+    } else if (node instanceof ChainDiceExpressionNode) {
+      var chain = (ChainDiceExpressionNode) node;
+      return chain.getOperators().stream().allMatch(DiceBatchEvaluator::supportsOperator)
+          && chain.getOperands().stream().allMatch(DiceBatchEvaluator::supports);
+    } else if (node instanceof UnaryDiceExpressionNode) {
+      var unary = (UnaryDiceExpressionNode) node;
+      return "-".equals(unary.getOperator()) && supports(unary.getOperand());
+    } else if (node instanceof GroupDiceExpressionNode) {
+      return supports(((GroupDiceExpressionNode) node).getGrouped());
+    } else if (node instanceof TopLevelExpressionNode) {
+      return supports(((TopLevelExpressionNode) node).getChild());
+    } else if (node instanceof ResolveSymbolDiceExpressionNode) {
+      return true;
+    } else if (node instanceof AssignmentDiceExpressionNode) {
+      return supports(((AssignmentDiceExpressionNode) node).getRhs());
+    } else if (node instanceof DiceRollDiceExpressionNode) {
+      var dice = (DiceRollDiceExpressionNode) node;
+      return dice.getRollerArguments().isEmpty()
+          && DiceRollers.getInstance().getDiceRoller(dice.getDiceName()) != null
+          && supports(dice.getNumberOfDice())
+          && supports(dice.getNumberOfSides());
+    }
+    return false;
+  }
+
+  private static boolean supportsOperator(String operator) {
+    switch (operator) {
+      case "+":
+      case "-":
+      case "*":
+      case "/":
+      case "^":
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Evaluates the statements for a number of iterations.
+   *
+   * @param symbolTable The symbol table used to resolve the variables that are not assigned by the
+   *     expression.
+   * @param iterations The number of iterations.
+   * @param budget The budget the dice rolled are charged to.
+   * @return the results of the statements.
+   * @throws IllegalArgumentException if a variable is not a number, or a number of dice or sides
+   *     does not fit in an integer.
+   * @throws ArithmeticException if an integer is divided by zero or, in the {@link
+   *     ArithmeticMode#LONG} arithmetic, a result overflows.
+   * @throws net.rptools.dice.expressiontree.DiceExecutionLimitException if the evaluation exceeds
+   *     the limits of the budget.
+   */
+  public DiceBatchResult evaluate(
+      DiceExpressionSymbolTable symbolTable, int iterations, DiceExecutionBudget budget) {
+    if (iterations < 0) {
+      throw new IllegalArgumentException("Number of iterations can not be negative.");
+    }
+    var batch = new Batch(symbolTable, iterations, budget);
+    long[][] integers = new long[roots.size()][];
+    double[][] doubles = new double[roots.size()][];
+    for (int i = 0; i < roots.size(); i++) {
+      var column = batch.evaluate(roots.get(i));
+      integers[i] = column.integers;
+      doubles[i] = column.doubles;
+    }
+    return new DiceBatchResult(iterations, integers, doubles);
+  }
+
+  /** The values of a node in each iteration, either integers or doubles. */
+  private static final class Column {
+
+    /** The integer values, <code>null</code> if the values are doubles. */
+    private final long[] integers;
+
+    /** The double values, <code>null</code> if the values are integers. */
+    private final double[] doubles;
+
+    private Column(long[] integers, double[] doubles) {
+      this.integers = integers;
+      this.doubles = doubles;
+    }
+
+    private static Column of(long[] integers) {
+      return new Column(integers, null);
+    }
+
+    private static Column of(double[] doubles) {
+      return new Column(null, doubles);
+    }
+
+    private boolean isInteger() {
+      return integers != null;
+    }
+
+    private double[] asDoubles() {
+      if (doubles != null) {
+        return doubles;
+      }
+      double[] values = new double[integers.length];
+      for (int i = 0; i < values.length; i++) {
+        values[i] = integers[i];
+      }
+      return values;
+    }
+  }
+
+  /** The state of one evaluation. */
+  private final class Batch {
+
+    /** The symbol table used to resolve variables. */
+    private final DiceExpressionSymbolTable symbolTable;
+
+    /** The number of iterations. */
+    private final int iterations;
+
+    /** The budget the dice rolled are charged to. */
+    private final DiceExecutionBudget budget;
+
+    /** The values of the variables that have been assigned or read, by their prefixed names. */
+    private final Map<String, Column> variables = new HashMap<>();
+
+    private Batch(
+        DiceExpressionSymbolTable symbolTable, int iterations, DiceExecutionBudget budget) {
+      this.symbolTable = symbolTable;
+      this.iterations = iterations;
+      this.budget = budget;
+    }
+
+    private Column evaluate(DiceExpressionNode node) {
+      budget.checkTime();
+      if (node instanceof ValueDiceExpressionNode) {
+        return constant(((ValueDiceExpressionNode) node).getValue(), "Value");
+      } else if (node instanceof BinaryDiceExpressionNode) {
+        var binary = (BinaryDiceExpressionNode) node;
+        return operate(
+            binary.getOperator(), evaluate(binary.getLeft()), evaluate(binary.getRight()));
+      } else if (node instanceof ChainDiceExpressionNode) {
+        var chain = (ChainDiceExpressionNode) node;
+        var operands = chain.getOperands();
+        var operators = chain.getOperators();
+        var column = evaluate(operands.get(0));
+        for (int i = 0; i < operators.size(); i++) {
+          column = operate(operators.get(i), column, evaluate(operands.get(i + 1)));
+        }
+        return column;
+      } else if (node instanceof UnaryDiceExpressionNode) {
+        return negate(evaluate(((UnaryDiceExpressionNode) node).getOperand()));
+      } else if (node instanceof GroupDiceExpressionNode) {
+        return evaluate(((GroupDiceExpressionNode) node).getGrouped());
+      } else if (node instanceof TopLevelExpressionNode) {
+        return evaluate(((TopLevelExpressionNode) node).getChild());
+      } else if (node instanceof ResolveSymbolDiceExpressionNode) {
+        var resolve = (ResolveSymbolDiceExpressionNode) node;
+        var column = variables.get(resolve.getVariableName());
+        if (column == null) {
+          column =
+              constant(
+                  symbolTable.getVariableValue(resolve.getScope(), resolve.getName()),
+                  "Variable " + resolve.getVariableName());
+          variables.put(resolve.getVariableName(), column);
+        }
+        return column;
+      } else if (node instanceof AssignmentDiceExpressionNode) {
+        var assignment = (AssignmentDiceExpressionNode) node;
+        var column = evaluate(assignment.getRhs());
+        variables.put(assignment.getVariableName(), column);
+        return column;
+      } else if (node instanceof DiceRollDiceExpressionNode) {
+        return roll((DiceRollDiceExpressionNode) node);
+      }
+      throw new UnsupportedOperationException(
+          "Can not evaluate " + node.getClass().getSimpleName() + " in batches.");
+    }
+
+    /**
+     * Returns a column with the same value in each iteration.
+     *
+     * @param value The value.
+     * @param what What the value is, for the error message.
+     * @return the column.
+     * @throws IllegalArgumentException if the value is not a number.
+     */
+    private Column constant(DiceExprResult value, String what) {
+      if (value != null && value.getType() == DiceResultType.INTEGER && !value.isBigInteger()) {
+        long[] integers = new long[iterations];
+        Arrays.fill(integers, intArithmetic ? value.getIntValue() : value.getLongValue());
+        return Column.of(integers);
+      } else if (value != null && value.getType() == DiceResultType.DOUBLE) {
+        double[] doubles = new double[iterations];
+        Arrays.fill(doubles, value.getDoubleValue());
+        return Column.of(doubles);
+      }
+      throw new IllegalArgumentException(what + " is not a number.");
+    }
+
+    private Column roll(DiceRollDiceExpressionNode node) {
+      int[] dice = counts(evaluate(node.getNumberOfDice()));
+      int[] sides = counts(evaluate(node.getNumberOfSides()));
+      long total = 0;
+      for (int count : dice) {
+        total += Math.max(count, 0);
+      }
+      budget.chargeDice((int) Math.min(total, Integer.MAX_VALUE));
+
+      int[] totals =
+          DiceRollers.getInstance()
+              .getDiceRoller(node.getDiceName())
+              .rollTotals(node.getDiceName(), dice, sides);
+      long[] integers = new long[iterations];
+      for (int i = 0; i < iterations; i++) {
+        integers[i] = totals[i];
+      }
+      return Column.of(integers);
+    }
+
+    /**
+     * Returns the numbers of dice or sides in a column, truncating doubles to integers as {@link
+     * DiceExprResult#getExactIntResult()} does when the expression is executed.
+     *
+     * @param column The column.
+     * @return the numbers as integers.
+     * @throws IllegalArgumentException if a number does not fit in an integer.
+     */
+    private int[] counts(Column column) {
+      int[] counts = new int[iterations];
+      for (int i = 0; i < iterations; i++) {
+        long value = column.isInteger() ? column.integers[i] : (long) column.doubles[i];
+        counts[i] = column.isInteger() ? (int) value : (int) column.doubles[i];
+        if (counts[i] != value) {
+          throw new IllegalArgumentException(value + " is too large to be used as a count.");
+        }
+      }
+      return counts;
+    }
+
+    private Column operate(String operator, Column left, Column right) {
+      if (left.isInteger() && right.isInteger()) {
+        return operateIntegers(operator, left.integers, right.integers);
+      }
+      double[] a = left.asDoubles();
+      double[] b = right.asDoubles();
+      double[] result = new double[iterations];
+      switch (operator) {
+        case "+":
+          for (int i = 0; i < iterations; i++) {
+            result[i] = a[i] + b[i];
+          }
+          break;
+        case "-":
+          for (int i = 0; i < iterations; i++) {
+            result[i] = a[i] - b[i];
+          }
+          break;
+        case "*":
+          for (int i = 0; i < iterations; i++) {
+            result[i] = a[i] * b[i];
+          }
+          break;
+        case "/":
+          for (int i = 0; i < iterations; i++) {
+            result[i] = a[i] / b[i];
+          }
+          break;
+        default:
+          for (int i = 0; i < iterations; i++) {
+            result[i] = Math.pow(a[i], b[i]);
+          }
+          break;
+      }
+      return Column.of(result);
+    }
+
+    private Column operateIntegers(String operator, long[] a, long[] b) {
+      long[] result = new long[iterations];
+      switch (operator) {
+        case "+":
+          for (int i = 0; i < iterations; i++) {
+            result[i] = intArithmetic ? (int) (a[i] + b[i]) : Math.addExact(a[i], b[i]);
+          }
+          break;
+        case "-":
+          for (int i = 0; i < iterations; i++) {
+            result[i] = intArithmetic ? (int) (a[i] - b[i]) : Math.subtractExact(a[i], b[i]);
+          }
+          break;
+        case "*":
+          for (int i = 0; i < iterations; i++) {
+            result[i] = intArithmetic ? (int) (a[i] * b[i]) : Math.multiplyExact(a[i], b[i]);
+          }
+          break;
+        case "/":
+          for (int i = 0; i < iterations; i++) {
+            if (!intArithmetic && a[i] == Long.MIN_VALUE && b[i] == -1) {
+              throw new ArithmeticException("long overflow");
+            }
+            result[i] = intArithmetic ? (int) (a[i] / b[i]) : a[i] / b[i];
+          }
+          break;
+        default:
+          for (int i = 0; i < iterations; i++) {
+            if (b[i] < 0) {
+              return operate(operator, Column.of(a), Column.of(Column.of(b).asDoubles()));
+            }
+          }
+          for (int i = 0; i < iterations; i++) {
+            result[i] = intArithmetic ? intPower((int) a[i], b[i]) : longPower(a[i], b[i]);
+          }
+          break;
+      }
+      return Column.of(result);
+    }
+
+    private Column negate(Column operand) {
+      if (!operand.isInteger()) {
+        double[] result = new double[iterations];
+        for (int i = 0; i < iterations; i++) {
+          result[i] = -operand.doubles[i];
+        }
+        return Column.of(result);
+      }
+      long[] result = new long[iterations];
+      for (int i = 0; i < iterations; i++) {
+        long value = operand.integers[i];
+        result[i] = intArithmetic ? (int) -value : Math.negateExact(value);
+      }
+      return Column.of(result);
+    }
+  }
+
+  /**
+   * Raises a 32 bit integer to a non negative power, wrapping around on overflow as {@link
+   * ArithmeticMode#INT} does.
+   */
+  private static int intPower(int base, long exponent) {
+    int result = 1;
+    while (exponent != 0) {
+      if ((exponent & 1) != 0) {
+        result *= base;
+      }
+      exponent >>>= 1;
+      base *= base;
+    }
+    return result;
+  }
+
+  /**
+   * Raises a 64 bit integer to a non negative power, throwing on overflow as {@link
+   * ArithmeticMode#LONG} does.
+   */
+  private static long longPower(long base, long exponent) {
+    long result = 1;
+    while (true) {
+      if ((exponent & 1) != 0) {
+        result = Math.multiplyExact(result, base);
+      }
+      exponent >>>= 1;
+      if (exponent == 0) {
+        return result;
+      }
+      base = Math.multiplyExact(base, base);
+    }
+  }
+}
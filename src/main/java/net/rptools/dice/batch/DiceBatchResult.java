@@ -0,0 +1,106 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.batch;
+
+/**
+ * The results of evaluating the statements of an expression for many iterations. The result of each
+ * statement is a column holding one value for each iteration, either integers or doubles.
+ */
+public final class DiceBatchResult {
+
+  /** The number of iterations that were evaluated. */
+  private final int iterations;
+
+  /** The integer results of each statement, <code>null</code> for statements with doubles. */
+  private final long[][] integers;
+
+  /** The double results of each statement, <code>null</code> for statements with integers. */
+  private final double[][] doubles;
+
+  /**
+   * Creates a new <code>DiceBatchResult</code>.
+   *
+   * @param iterations The number of iterations that were evaluated.
+   * @param integers The integer results of each statement, <code>null</code> for statements with
+   *     doubles.
+   * @param doubles The double results of each statement, <code>null</code> for statements with
+   *     integers.
+   */
+  DiceBatchResult(int iterations, long[][] integers, double[][] doubles) {
+    this.iterations = iterations;
+    this.integers = integers;
+    this.doubles = doubles;
+  }
+
+  /**
+   * Returns the number of iterations that were evaluated.
+   *
+   * @return the number of iterations.
+   */
+  public int getIterations() {
+    return iterations;
+  }
+
+  /**
+   * Returns the number of statements in the expression.
+   *
+   * @return the number of statements.
+   */
+  public int getStatementCount() {
+    return integers.length;
+  }
+
+  /**
+   * Returns if the results of a statement are integers.
+   *
+   * @param statement The index of the statement.
+   * @return <code>true</code> if the results are integers, <code>false</code> if they are doubles.
+   */
+  public boolean isInteger(int statement) {
+    return integers[statement] != null;
+  }
+
+  /**
+   * Returns the integer results of a statement.
+   *
+   * @param statement The index of the statement.
+   * @return the result of the statement in each iteration.
+   * @throws IllegalArgumentException if the results of the statement are doubles.
+   */
+  public long[] getIntegerResults(int statement) {
+    if (integers[statement] == null) {
+      throw new IllegalArgumentException("Statement " + statement + " does not give integers.");
+    }
+    return integers[statement].clone();
+  }
+
+  /**
+   * Returns the results of a statement as doubles, converting integer results.
+   *
+   * @param statement The index of the statement.
+   * @return the result of the statement in each iteration.
+   */
+  public double[] getDoubleResults(int statement) {
+    if (doubles[statement] != null) {
+      return doubles[statement].clone();
+    }
+    var values = integers[statement];
+    double[] result = new double[values.length];
+    for (int i = 0; i < values.length; i++) {
+      result[i] = values[i];
+    }
+    return result;
+  }
+}
@@ -0,0 +1,502 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.compiler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A minimal writer for JVM class files, only supporting what is needed for the code generated by
+ * {@link DiceExpressionCompiler}: fields, and methods made up of straight line code without
+ * branches or exception handlers, which means no stack map frames are needed.
+ */
+final class ClassFileWriter {
+
+  /* Access flags. */
+  static final int ACC_PUBLIC = 0x0001;
+  static final int ACC_FINAL = 0x0010;
+  static final int ACC_SUPER = 0x0020;
+
+  /* Opcodes. */
+  static final int ACONST_NULL = 0x01;
+  static final int BIPUSH = 0x10;
+  static final int SIPUSH = 0x11;
+  static final int LDC = 0x12;
+  static final int LDC_W = 0x13;
+  static final int ALOAD = 0x19;
+  static final int AALOAD = 0x32;
+  static final int ASTORE = 0x3a;
+  static final int POP = 0x57;
+  static final int DUP = 0x59;
+  static final int RETURN = 0xb1;
+  static final int GETSTATIC = 0xb2;
+  static final int GETFIELD = 0xb4;
+  static final int PUTFIELD = 0xb5;
+  static final int INVOKEVIRTUAL = 0xb6;
+  static final int INVOKESPECIAL = 0xb7;
+  static final int INVOKESTATIC = 0xb8;
+  static final int INVOKEINTERFACE = 0xb9;
+  static final int CHECKCAST = 0xc0;
+
+  /* Constant pool tags. */
+  private static final int CONSTANT_UTF8 = 1;
+  private static final int CONSTANT_CLASS = 7;
+  private static final int CONSTANT_STRING = 8;
+  private static final int CONSTANT_FIELDREF = 9;
+  private static final int CONSTANT_METHODREF = 10;
+  private static final int CONSTANT_INTERFACE_METHODREF = 11;
+  private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+  /** The class file version for Java 11. */
+  private static final int MAJOR_VERSION = 55;
+
+  /** The constant pool entries, already encoded. */
+  private final ByteArrayOutputStream constantPool = new ByteArrayOutputStream();
+
+  /** The index of each entry in the constant pool, to avoid adding the same entry twice. */
+  private final Map<String, Integer> constantIndexes = new HashMap<>();
+
+  /** The index the next constant pool entry will be given. */
+  private int nextConstantIndex = 1;
+
+  /** The encoded fields. */
+  private final List<byte[]> fields = new ArrayList<>();
+
+  /** The encoded methods. */
+  private final List<byte[]> methods = new ArrayList<>();
+
+  /** The internal name of the class being written. */
+  private final String className;
+
+  /** The internal name of the super class. */
+  private final String superName;
+
+  /** The internal names of the implemented interfaces. */
+  private final String[] interfaces;
+
+  /**
+   * Creates a new <code>ClassFileWriter</code> for a public final class.
+   *
+   * @param name The internal name of the class.
+   * @param superName The internal name of the super class.
+   * @param interfaces The internal names of the implemented interfaces.
+   */
+  ClassFileWriter(String name, String superName, String... interfaces) {
+    className = name;
+    this.superName = superName;
+    this.interfaces = interfaces;
+  }
+
+  /**
+   * Returns the internal name of a class, as used in class files.
+   *
+   * @param cl The class.
+   * @return the internal name of the class.
+   */
+  static String internalName(Class<?> cl) {
+    return cl.getName().replace('.', '/');
+  }
+
+  /**
+   * Returns the descriptor of a type.
+   *
+   * @param cl The class of the type.
+   * @return the descriptor of the type.
+   */
+  static String descriptor(Class<?> cl) {
+    return MethodType.methodType(cl).toMethodDescriptorString().substring(2);
+  }
+
+  /**
+   * Returns the descriptor of a method.
+   *
+   * @param returnType The return type of the method.
+   * @param parameterTypes The parameter types of the method.
+   * @return the descriptor of the method.
+   */
+  static String descriptor(Class<?> returnType, Class<?>... parameterTypes) {
+    return MethodType.methodType(returnType, parameterTypes).toMethodDescriptorString();
+  }
+
+  /**
+   * Returns the internal name of the class being written.
+   *
+   * @return the internal name of the class.
+   */
+  String getClassName() {
+    return className;
+  }
+
+  /**
+   * Adds a field to the class.
+   *
+   * @param access The access flags of the field.
+   * @param name The name of the field.
+   * @param desc The descriptor of the type of the field.
+   */
+  void addField(int access, String name, String desc) {
+    var out = new ByteArrayOutputStream();
+    var data = new DataOutputStream(out);
+    try {
+      data.writeShort(access);
+      data.writeShort(utf8(name));
+      data.writeShort(utf8(desc));
+      data.writeShort(0);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    fields.add(out.toByteArray());
+  }
+
+  /**
+   * Adds a method to the class.
+   *
+   * @param access The access flags of the method.
+   * @param name The name of the method.
+   * @param desc The descriptor of the method.
+   * @param code The code of the method.
+   * @param maxLocals The number of local variable slots used, including the parameters.
+   */
+  void addMethod(int access, String name, String desc, Code code, int maxLocals) {
+    var out = new ByteArrayOutputStream();
+    var data = new DataOutputStream(out);
+    try {
+      data.writeShort(access);
+      data.writeShort(utf8(name));
+      data.writeShort(utf8(desc));
+      data.writeShort(1);
+      byte[] bytecode = code.toByteArray();
+      data.writeShort(utf8("Code"));
+      data.writeInt(12 + bytecode.length);
+      data.writeShort(code.getMaxStack());
+      data.writeShort(maxLocals);
+      data.writeInt(bytecode.length);
+      data.write(bytecode);
+      data.writeShort(0); // exception table
+      data.writeShort(0); // attributes
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    methods.add(out.toByteArray());
+  }
+
+  /**
+   * Returns the bytes of the class file.
+   *
+   * @return the bytes of the class file.
+   */
+  byte[] toByteArray() {
+    int thisIndex = classRef(className);
+    int superIndex = classRef(superName);
+    int[] interfaceIndexes = new int[interfaces.length];
+    for (int i = 0; i < interfaces.length; i++) {
+      interfaceIndexes[i] = classRef(interfaces[i]);
+    }
+
+    var out = new ByteArrayOutputStream();
+    var data = new DataOutputStream(out);
+    try {
+      data.writeInt(0xCAFEBABE);
+      data.writeShort(0);
+      data.writeShort(MAJOR_VERSION);
+      data.writeShort(nextConstantIndex);
+      constantPool.writeTo(data);
+      data.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+      data.writeShort(thisIndex);
+      data.writeShort(superIndex);
+      data.writeShort(interfaceIndexes.length);
+      for (int index : interfaceIndexes) {
+        data.writeShort(index);
+      }
+      data.writeShort(fields.size());
+      for (byte[] field : fields) {
+        data.write(field);
+      }
+      data.writeShort(methods.size());
+      for (byte[] method : methods) {
+        data.write(method);
+      }
+      data.writeShort(0); // attributes
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return out.toByteArray();
+  }
+
+  /*
+   * Constant pool.
+   */
+
+  int utf8(String value) {
+    return constant(
+        "U" + value,
+        data -> {
+          data.writeByte(CONSTANT_UTF8);
+          data.writeUTF(value);
+        });
+  }
+
+  int classRef(String internalName) {
+    int name = utf8(internalName);
+    return constant(
+        "C" + internalName,
+        data -> {
+          data.writeByte(CONSTANT_CLASS);
+          data.writeShort(name);
+        });
+  }
+
+  int string(String value) {
+    int utf8 = utf8(value);
+    return constant(
+        "S" + value,
+        data -> {
+          data.writeByte(CONSTANT_STRING);
+          data.writeShort(utf8);
+        });
+  }
+
+  int fieldRef(String owner, String name, String desc) {
+    return memberRef(CONSTANT_FIELDREF, owner, name, desc);
+  }
+
+  int methodRef(String owner, String name, String desc) {
+    return memberRef(CONSTANT_METHODREF, owner, name, desc);
+  }
+
+  int interfaceMethodRef(String owner, String name, String desc) {
+    return memberRef(CONSTANT_INTERFACE_METHODREF, owner, name, desc);
+  }
+
+  private int memberRef(int tag, String owner, String name, String desc) {
+    int ownerIndex = classRef(owner);
+    int nameIndex = utf8(name);
+    int descIndex = utf8(desc);
+    int nameAndType =
+        constant(
+            "N" + name + ' ' + desc,
+            data -> {
+              data.writeByte(CONSTANT_NAME_AND_TYPE);
+              data.writeShort(nameIndex);
+              data.writeShort(descIndex);
+            });
+    return constant(
+        "M" + tag + owner + '.' + name + ' ' + desc,
+        data -> {
+          data.writeByte(tag);
+          data.writeShort(ownerIndex);
+          data.writeShort(nameAndType);
+        });
+  }
+
+  /** Writes a constant pool entry. */
+  @FunctionalInterface
+  private interface ConstantEncoder {
+    void encode(DataOutputStream data) throws IOException;
+  }
+
+  private int constant(String key, ConstantEncoder encoder) {
+    Integer index = constantIndexes.get(key);
+    if (index != null) {
+      return index;
+    }
+    if (nextConstantIndex > 0xffff) {
+      throw new IllegalStateException("Too many constants in class " + className);
+    }
+    try {
+      encoder.encode(new DataOutputStream(constantPool));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    index = nextConstantIndex++;
+    constantIndexes.put(key, index);
+    return index;
+  }
+
+  /**
+   * The bytecode of a method, keeping track of the depth of the operand stack. Only straight line
+   * code is supported.
+   */
+  final class Code {
+
+    /** The bytecode. */
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    /** The current depth of the operand stack. */
+    private int stack;
+
+    /** The maximum depth of the operand stack. */
+    private int maxStack;
+
+    /**
+     * Returns the number of bytes of code written so far.
+     *
+     * @return the number of bytes of code.
+     */
+    int size() {
+      return bytes.size();
+    }
+
+    int getMaxStack() {
+      return maxStack;
+    }
+
+    byte[] toByteArray() {
+      return bytes.toByteArray();
+    }
+
+    private void adjustStack(int delta) {
+      stack += delta;
+      maxStack = Math.max(maxStack, stack);
+    }
+
+    private void u1(int value) {
+      bytes.write(value);
+    }
+
+    private void u2(int value) {
+      bytes.write(value >>> 8);
+      bytes.write(value);
+    }
+
+    /**
+     * Writes an instruction that takes no operands.
+     *
+     * @param opcode The opcode of the instruction.
+     * @param stackDelta The change to the depth of the operand stack.
+     */
+    Code op(int opcode, int stackDelta) {
+      u1(opcode);
+      adjustStack(stackDelta);
+      return this;
+    }
+
+    Code aload(int local) {
+      if (local <= 3) {
+        u1(0x2a + local);
+      } else {
+        u1(ALOAD);
+        u1(local);
+      }
+      adjustStack(1);
+      return this;
+    }
+
+    Code astore(int local) {
+      if (local <= 3) {
+        u1(0x4b + local);
+      } else {
+        u1(ASTORE);
+        u1(local);
+      }
+      adjustStack(-1);
+      return this;
+    }
+
+    Code pushInt(int value) {
+      if (value >= -1 && value <= 5) {
+        u1(0x03 + value);
+      } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+        u1(BIPUSH);
+        u1(value);
+      } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+        u1(SIPUSH);
+        u2(value);
+      } else {
+        throw new IllegalArgumentException("Integer constant out of range: " + value);
+      }
+      adjustStack(1);
+      return this;
+    }
+
+    Code ldcString(String value) {
+      int index = string(value);
+      if (index <= 0xff) {
+        u1(LDC);
+        u1(index);
+      } else {
+        u1(LDC_W);
+        u2(index);
+      }
+      adjustStack(1);
+      return this;
+    }
+
+    Code checkcast(String internalName) {
+      u1(CHECKCAST);
+      u2(classRef(internalName));
+      return this;
+    }
+
+    Code getstatic(String owner, String name, String desc) {
+      u1(GETSTATIC);
+      u2(fieldRef(owner, name, desc));
+      adjustStack(1);
+      return this;
+    }
+
+    Code getfield(String owner, String name, String desc) {
+      u1(GETFIELD);
+      u2(fieldRef(owner, name, desc));
+      return this;
+    }
+
+    Code putfield(String owner, String name, String desc) {
+      u1(PUTFIELD);
+      u2(fieldRef(owner, name, desc));
+      adjustStack(-2);
+      return this;
+    }
+
+    /**
+     * Writes a method invocation. Only methods whose parameters each take a single slot are
+     * supported.
+     *
+     * @param opcode One of {@link #INVOKEVIRTUAL}, {@link #INVOKESPECIAL}, {@link #INVOKESTATIC} or
+     *     {@link #INVOKEINTERFACE}.
+     * @param owner The internal name of the class declaring the method.
+     * @param name The name of the method.
+     * @param returnType The return type of the method.
+     * @param parameterTypes The parameter types of the method.
+     */
+    Code invoke(
+        int opcode, String owner, String name, Class<?> returnType, Class<?>... parameterTypes) {
+      for (Class<?> type : parameterTypes) {
+        if (type == long.class || type == double.class) {
+          throw new IllegalArgumentException("Two slot parameters are not supported");
+        }
+      }
+      String desc = descriptor(returnType, parameterTypes);
+      int argSlots = parameterTypes.length + (opcode == INVOKESTATIC ? 0 : 1);
+      u1(opcode);
+      if (opcode == INVOKEINTERFACE) {
+        u2(interfaceMethodRef(owner, name, desc));
+        u1(argSlots);
+        u1(0);
+      } else {
+        u2(methodRef(owner, name, desc));
+      }
+      adjustStack(-argSlots + (returnType == void.class ? 0 : 1));
+      return this;
+    }
+  }
+}
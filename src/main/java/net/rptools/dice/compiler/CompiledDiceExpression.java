@@ -0,0 +1,32 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.compiler;
+
+import net.rptools.dice.expressiontree.DiceEvalFrame;
+
+/**
+ * An expression compiled into JVM bytecode by {@link DiceExpressionCompiler}. Executing it has the
+ * same effect on the frame and symbol table as evaluating each of the expression trees it was
+ * compiled from in turn.
+ */
+public interface CompiledDiceExpression {
+
+  /**
+   * Executes the compiled expression.
+   *
+   * @param frame The frame for the execution.
+   */
+  void execute(DiceEvalFrame frame);
+}
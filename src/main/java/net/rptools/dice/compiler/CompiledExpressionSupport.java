@@ -0,0 +1,120 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.compiler;
+
+import java.util.ArrayList;
+import java.util.List;
+import net.rptools.dice.expressiontree.DiceEvalFrame;
+import net.rptools.dice.result.DiceExprResult;
+import net.rptools.dice.roller.arguments.DiceRollerArgument;
+
+/**
+ * Helper methods called by the code generated by {@link DiceExpressionCompiler} and by the {@link
+ * net.rptools.dice.vm.DiceVirtualMachine}. These are public as the generated classes are defined in
+ * their own class loader and the virtual machine is in another package, they are not intended to be
+ * called directly.
+ */
+public final class CompiledExpressionSupport {
+
+  private CompiledExpressionSupport() {}
+
+  /**
+   * Returns the number of dice to roll.
+   *
+   * @param result The result of evaluating the number of dice.
+   * @return the number of dice.
+   * @throws IllegalArgumentException if the result is not a number or does not fit in an integer.
+   */
+  public static int numberOfDice(DiceExprResult result) {
+    return result
+        .getExactIntResult()
+        .orElseThrow(() -> new IllegalArgumentException("Number of dice is missing."));
+  }
+
+  /**
+   * Returns the number of sides of the dice to roll.
+   *
+   * @param result The result of evaluating the number of sides.
+   * @return the number of sides.
+   * @throws IllegalArgumentException if the result is not a number or does not fit in an integer.
+   */
+  public static int numberOfSides(DiceExprResult result) {
+    return result
+        .getExactIntResult()
+        .orElseThrow(() -> new IllegalArgumentException("Number of sides is missing."));
+  }
+
+  /**
+   * Returns the number of sides of the dice to roll, then charges the dice about to be rolled to
+   * the budget of the execution. This is the order the expression tree checks them in.
+   *
+   * @param dice The number of dice.
+   * @param sides The result of evaluating the number of sides.
+   * @param frame The frame for the execution.
+   * @return the number of sides.
+   * @throws IllegalArgumentException if the number of sides is not a number or does not fit in an
+   *     integer.
+   * @throws net.rptools.dice.expressiontree.DiceExecutionLimitException if the budget is exceeded.
+   */
+  public static int chargeRoll(int dice, DiceExprResult sides, DiceEvalFrame frame) {
+    int numberOfSides = numberOfSides(sides);
+    frame.getBudget().chargeDice(dice);
+    return numberOfSides;
+  }
+
+  /**
+   * Adds two results, checking the length of any string built against the budget of the execution.
+   *
+   * @param left The value to the left of the operator.
+   * @param right The value to the right of the operator.
+   * @param frame The frame for the execution.
+   * @return the result of the addition.
+   */
+  public static DiceExprResult add(DiceExprResult left, DiceExprResult right, DiceEvalFrame frame) {
+    frame.getBudget().checkOperation("+", left, right);
+    return DiceExprResult.add(left, right, frame.getArithmeticMode());
+  }
+
+  /**
+   * Multiplies two results, checking the length of any string built against the budget of the
+   * execution.
+   *
+   * @param left The value to the left of the operator.
+   * @param right The value to the right of the operator.
+   * @param frame The frame for the execution.
+   * @return the result of the multiplication.
+   */
+  public static DiceExprResult multiply(
+      DiceExprResult left, DiceExprResult right, DiceEvalFrame frame) {
+    frame.getBudget().checkOperation("*", left, right);
+    return DiceExprResult.multiply(left, right, frame.getArithmeticMode());
+  }
+
+  /**
+   * Evaluates the arguments for a dice roll.
+   *
+   * @param arguments The arguments to evaluate.
+   * @param frame The frame for the execution.
+   * @return the evaluated arguments.
+   */
+  public static List<DiceRollerArgument> evaluateArguments(
+      List<DiceRollerArgument> arguments, DiceEvalFrame frame) {
+    List<DiceRollerArgument> args = new ArrayList<>(arguments.size());
+    for (DiceRollerArgument argument : arguments) {
+      args.add(argument.evaluate(frame));
+    }
+    return args;
+  }
+}
@@ -0,0 +1,436 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.compiler;
+
+import static net.rptools.dice.compiler.ClassFileWriter.*;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import net.rptools.dice.expressiontree.AssignmentDiceExpressionNode;
+import net.rptools.dice.expressiontree.BinaryDiceExpressionNode;
+import net.rptools.dice.expressiontree.ChainDiceExpressionNode;
+import net.rptools.dice.expressiontree.DiceEvalFrame;
+import net.rptools.dice.expressiontree.DiceExpressionNode;
+import net.rptools.dice.expressiontree.DiceRollDiceExpressionNode;
+import net.rptools.dice.expressiontree.GroupDiceExpressionNode;
+import net.rptools.dice.expressiontree.InstructionDiceExpressionNode;
+import net.rptools.dice.expressiontree.ResolveSymbolDiceExpressionNode;
+import net.rptools.dice.expressiontree.TopLevelExpressionNode;
+import net.rptools.dice.expressiontree.UnaryDiceExpressionNode;
+import net.rptools.dice.expressiontree.ValueDiceExpressionNode;
+import net.rptools.dice.result.ArithmeticMode;
+import net.rptools.dice.result.DiceExprResult;
+import net.rptools.dice.roller.DiceRoller;
+import net.rptools.dice.roller.DiceRollers;
+import net.rptools.dice.symbols.DiceEvalScope;
+
+/**
+ * Compiles expression trees into a JVM class so that they can be executed without going through
+ * {@link DiceExpressionNode#evaluate(DiceEvalFrame)} for every node.
+ *
+ * <p>The generated code is straight line code that calls the {@link DiceExprResult} operations, the
+ * variables of the {@link DiceEvalFrame} and the {@link DiceRoller}s directly and records the
+ * result of every node in the frame just as the nodes themselves do, so the frame can be formatted
+ * in the same way. Constants such as values, nodes and dice rollers are passed to the generated
+ * class when it is created and held in final fields.
+ *
+ * <p>Each generated class is defined in its own class loader so that it can be unloaded once the
+ * expression it was compiled from is no longer used.
+ */
+public final class DiceExpressionCompiler {
+
+  /**
+   * The largest method, in bytes of bytecode, that will be generated. HotSpot does not JIT compile
+   * methods larger than this by default so larger expressions are left to the tree interpreter.
+   */
+  private static final int MAX_CODE_SIZE = 8000;
+
+  /** The package the generated classes are placed in. */
+  private static final String GENERATED_PACKAGE = "net/rptools/dice/compiler/generated/";
+
+  /* Internal names of the classes used by the generated code. */
+  private static final String OBJECT = internalName(Object.class);
+  private static final String FRAME = internalName(DiceEvalFrame.class);
+  private static final String RESULT = internalName(DiceExprResult.class);
+  private static final String SCOPE = internalName(DiceEvalScope.class);
+  private static final String ROLLER = internalName(DiceRoller.class);
+  private static final String SUPPORT = internalName(CompiledExpressionSupport.class);
+
+  /** The local variable holding the frame. */
+  private static final int FRAME_LOCAL = 1;
+
+  /** The local variable used to hold a result while it is recorded in the frame. */
+  private static final int RESULT_LOCAL = 2;
+
+  /** Used to give each generated class a unique name. */
+  private static final AtomicLong classCounter = new AtomicLong();
+
+  /** The writer for the generated class. */
+  private final ClassFileWriter writer;
+
+  /** The code of the execute method. */
+  private final ClassFileWriter.Code code;
+
+  /** The constants passed to the generated class. */
+  private final List<Object> constants = new ArrayList<>();
+
+  /** The types of the fields holding the constants. */
+  private final List<Class<?>> constantTypes = new ArrayList<>();
+
+  /** The index of each of the constants. */
+  private final Map<Object, Integer> constantIndexes = new IdentityHashMap<>();
+
+  private DiceExpressionCompiler() {
+    writer =
+        new ClassFileWriter(
+            GENERATED_PACKAGE + "DiceExpression$" + classCounter.incrementAndGet(),
+            OBJECT,
+            internalName(CompiledDiceExpression.class));
+    code = writer.new Code();
+  }
+
+  /**
+   * Compiles expression trees into a {@link CompiledDiceExpression}.
+   *
+   * @param roots The roots of the expression trees, in the order they are executed.
+   * @return the compiled expression, or empty if the trees contain something that can not be
+   *     compiled, in which case they should be evaluated by the tree interpreter.
+   */
+  public static Optional<CompiledDiceExpression> compile(Collection<DiceExpressionNode> roots) {
+    return new DiceExpressionCompiler().compileRoots(roots);
+  }
+
+  private Optional<CompiledDiceExpression> compileRoots(Collection<DiceExpressionNode> roots) {
+    for (var root : roots) {
+      if (!emit(root)) {
+        return Optional.empty();
+      }
+      code.op(POP, -1);
+      if (code.size() > MAX_CODE_SIZE) {
+        return Optional.empty();
+      }
+    }
+    code.op(RETURN, 0);
+
+    writer.addMethod(
+        ACC_PUBLIC, "execute", descriptor(void.class, DiceEvalFrame.class), code, RESULT_LOCAL + 1);
+    writeConstructor();
+
+    byte[] classFile = writer.toByteArray();
+    try {
+      var loader = new GeneratedClassLoader();
+      Class<?> generated = loader.define(writer.getClassName().replace('/', '.'), classFile);
+      return Optional.of(
+          (CompiledDiceExpression)
+              generated.getConstructor(Object[].class).newInstance((Object) constants.toArray()));
+    } catch (ReflectiveOperationException | LinkageError e) {
+      return Optional.empty();
+    }
+  }
+
+  /** Writes the fields holding the constants, and the constructor that sets them. */
+  private void writeConstructor() {
+    var init = writer.new Code();
+    init.aload(0).invoke(INVOKESPECIAL, OBJECT, "<init>", void.class);
+    for (int i = 0; i < constants.size(); i++) {
+      String desc = descriptor(constantTypes.get(i));
+      writer.addField(ACC_PUBLIC | ACC_FINAL, fieldName(i), desc);
+      init.aload(0)
+          .aload(1)
+          .pushInt(i)
+          .op(AALOAD, -1)
+          .checkcast(internalName(constantTypes.get(i)))
+          .putfield(writer.getClassName(), fieldName(i), desc);
+    }
+    init.op(RETURN, 0);
+    writer.addMethod(ACC_PUBLIC, "<init>", descriptor(void.class, Object[].class), init, 2);
+  }
+
+  private static String fieldName(int index) {
+    return "c" + index;
+  }
+
+  /**
+   * Writes the code to load a constant.
+   *
+   * @param value The value of the constant.
+   * @param type The type of the constant.
+   */
+  private void loadConstant(Object value, Class<?> type) {
+    Integer index = constantIndexes.get(value);
+    if (index == null) {
+      index = constants.size();
+      constants.add(value);
+      constantTypes.add(type);
+      constantIndexes.put(value, index);
+    }
+    code.aload(0).getfield(writer.getClassName(), fieldName(index), descriptor(type));
+  }
+
+  /**
+   * Writes the code to record the result on the top of the stack as the result of a node, leaving
+   * the result on the stack.
+   *
+   * @param node The node the result is for.
+   */
+  private void recordResult(DiceExpressionNode node) {
+    code.astore(RESULT_LOCAL).aload(FRAME_LOCAL);
+    loadConstant(node, DiceExpressionNode.class);
+    code.aload(RESULT_LOCAL)
+        .invoke(
+            INVOKEVIRTUAL,
+            FRAME,
+            "setResult",
+            void.class,
+            DiceExpressionNode.class,
+            DiceExprResult.class)
+        .aload(RESULT_LOCAL);
+  }
+
+  /**
+   * Returns the method of {@link DiceExprResult} that implements a binary operator.
+   *
+   * @param operator The binary operator.
+   * @return the name of the method, or <code>null</code> if the operator can not be compiled.
+   */
+  private static String operatorMethod(String operator) {
+    switch (operator) {
+      case "+":
+        return "add";
+      case "-":
+        return "subtract";
+      case "*":
+        return "multiply";
+      case "/":
+        return "divide";
+      case "^":
+        return "power";
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Writes the code to apply a binary operator to the two results on the top of the stack.
+   *
+   * @param method The method of {@link DiceExprResult} that implements the operator.
+   */
+  private void invokeOperator(String method) {
+    if ("add".equals(method) || "multiply".equals(method)) {
+      // These can build strings, so go through the support methods that check their length.
+      code.aload(FRAME_LOCAL)
+          .invoke(
+              INVOKESTATIC,
+              SUPPORT,
+              method,
+              DiceExprResult.class,
+              DiceExprResult.class,
+              DiceExprResult.class,
+              DiceEvalFrame.class);
+      return;
+    }
+    loadArithmeticMode();
+    code.invoke(
+        INVOKESTATIC,
+        RESULT,
+        method,
+        DiceExprResult.class,
+        DiceExprResult.class,
+        DiceExprResult.class,
+        ArithmeticMode.class);
+  }
+
+  /** Writes the code to push the arithmetic mode of the frame. */
+  private void loadArithmeticMode() {
+    code.aload(FRAME_LOCAL).invoke(INVOKEVIRTUAL, FRAME, "getArithmeticMode", ArithmeticMode.class);
+  }
+
+  /**
+   * Writes the code to evaluate a node, leaving the result on the stack.
+   *
+   * @param node The node to evaluate.
+   * @return <code>false</code> if the node can not be compiled.
+   */
+  private boolean emit(DiceExpressionNode node) {
+    // Give up as soon as the method is too large, a single long chain would otherwise run out of
+    // room in the constant pool before the size is checked at the end of the statement.
+    if (code.size() > MAX_CODE_SIZE) {
+      return false;
+    }
+    if (node instanceof ValueDiceExpressionNode) {
+      loadConstant(((ValueDiceExpressionNode) node).getValue(), DiceExprResult.class);
+    } else if (node instanceof BinaryDiceExpressionNode) {
+      var binary = (BinaryDiceExpressionNode) node;
+      String method = operatorMethod(binary.getOperator());
+      if (method == null || !emit(binary.getLeft()) || !emit(binary.getRight())) {
+        return false;
+      }
+      invokeOperator(method);
+      recordResult(node);
+    } else if (node instanceof ChainDiceExpressionNode) {
+      var chain = (ChainDiceExpressionNode) node;
+      var operators = chain.getOperators();
+      var operands = chain.getOperands();
+      String[] methods = new String[operators.size()];
+      for (int i = 0; i < methods.length; i++) {
+        methods[i] = operatorMethod(operators.get(i));
+        if (methods[i] == null) {
+          return false;
+        }
+      }
+      if (!emit(operands.get(0))) {
+        return false;
+      }
+      for (int i = 0; i < methods.length; i++) {
+        if (!emit(operands.get(i + 1))) {
+          return false;
+        }
+        invokeOperator(methods[i]);
+      }
+      recordResult(node);
+    } else if (node instanceof UnaryDiceExpressionNode) {
+      var unary = (UnaryDiceExpressionNode) node;
+      if (!"-".equals(unary.getOperator()) || !emit(unary.getOperand())) {
+        return false;
+      }
+      loadArithmeticMode();
+      code.invoke(
+          INVOKESTATIC,
+          RESULT,
+          "negate",
+          DiceExprResult.class,
+          DiceExprResult.class,
+          ArithmeticMode.class);
+      recordResult(node);
+    } else if (node instanceof GroupDiceExpressionNode) {
+      if (!emit(((GroupDiceExpressionNode) node).getGrouped())) {
+        return false;
+      }
+      recordResult(node);
+    } else if (node instanceof TopLevelExpressionNode) {
+      if (!emit(((TopLevelExpressionNode) node).getChild())) {
+        return false;
+      }
+      recordResult(node);
+    } else if (node instanceof ResolveSymbolDiceExpressionNode) {
+      var resolve = (ResolveSymbolDiceExpressionNode) node;
+      code.aload(FRAME_LOCAL)
+          .getstatic(SCOPE, resolve.getScope().name(), descriptor(DiceEvalScope.class))
+          .ldcString(resolve.getName())
+          .pushInt(resolve.getSlot())
+          .invoke(
+              INVOKEVIRTUAL,
+              FRAME,
+              "getVariableValue",
+              DiceExprResult.class,
+              DiceEvalScope.class,
+              String.class,
+              int.class);
+      recordResult(node);
+    } else if (node instanceof AssignmentDiceExpressionNode) {
+      var assignment = (AssignmentDiceExpressionNode) node;
+      if (!emit(assignment.getRhs())) {
+        return false;
+      }
+      code.astore(RESULT_LOCAL)
+          .aload(FRAME_LOCAL)
+          .getstatic(SCOPE, assignment.getScope().name(), descriptor(DiceEvalScope.class))
+          .ldcString(assignment.getName())
+          .pushInt(assignment.getSlot())
+          .aload(RESULT_LOCAL)
+          .invoke(
+              INVOKEVIRTUAL,
+              FRAME,
+              "setVariableValue",
+              void.class,
+              DiceEvalScope.class,
+              String.class,
+              int.class,
+              DiceExprResult.class)
+          .aload(RESULT_LOCAL);
+      recordResult(node);
+    } else if (node instanceof DiceRollDiceExpressionNode) {
+      var dice = (DiceRollDiceExpressionNode) node;
+      DiceRoller roller = DiceRollers.getInstance().getDiceRoller(dice.getDiceName());
+      if (roller == null) {
+        return false;
+      }
+      loadConstant(roller, DiceRoller.class);
+      code.ldcString(dice.getDiceName());
+      if (!emit(dice.getNumberOfDice())) {
+        return false;
+      }
+      // The number of dice is kept under the number of sides, which is evaluated before the dice
+      // are charged, as in the tree.
+      code.invoke(INVOKESTATIC, SUPPORT, "numberOfDice", int.class, DiceExprResult.class)
+          .op(DUP, 1);
+      if (!emit(dice.getNumberOfSides())) {
+        return false;
+      }
+      code.aload(FRAME_LOCAL)
+          .invoke(
+              INVOKESTATIC,
+              SUPPORT,
+              "chargeRoll",
+              int.class,
+              int.class,
+              DiceExprResult.class,
+              DiceEvalFrame.class);
+      loadConstant(dice.getRollerArguments(), List.class);
+      code.aload(FRAME_LOCAL)
+          .invoke(
+              INVOKESTATIC,
+              SUPPORT,
+              "evaluateArguments",
+              List.class,
+              List.class,
+              DiceEvalFrame.class)
+          .aload(FRAME_LOCAL)
+          .invoke(
+              INVOKEINTERFACE,
+              ROLLER,
+              "roll",
+              DiceExprResult.class,
+              String.class,
+              int.class,
+              int.class,
+              Collection.class,
+              DiceEvalFrame.class);
+      recordResult(node);
+    } else if (node instanceof InstructionDiceExpressionNode) {
+      code.op(ACONST_NULL, 1);
+    } else {
+      return false;
+    }
+    return true;
+  }
+
+  /** The class loader each generated class is defined in. */
+  private static final class GeneratedClassLoader extends ClassLoader {
+
+    GeneratedClassLoader() {
+      super(DiceExpressionCompiler.class.getClassLoader());
+    }
+
+    Class<?> define(String name, byte[] classFile) {
+      return defineClass(name, classFile, 0, classFile.length);
+    }
+  }
+}
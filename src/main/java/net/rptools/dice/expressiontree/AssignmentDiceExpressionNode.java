@@ -18,7 +18,6 @@ import java.util.Collection;
 import java.util.Collections;
 import net.rptools.dice.result.DiceExprResult;
 import net.rptools.dice.symbols.DiceEvalScope;
-import net.rptools.dice.symbols.DiceExpressionSymbolTable;
 
 /** Represents the node used to assign a value to a symbol. */
 public class AssignmentDiceExpressionNode implements DiceExpressionNode {
@@ -32,8 +31,8 @@ public class AssignmentDiceExpressionNode implements DiceExpressionNode {
   /** The right hand side of the assignment expression. */
   private final DiceExpressionNode rhs;
 
-  /** The evaluated value of this node. */
-  private DiceExprResult result;
+  /** The slot of the symbol in the frame, or <code>-1</code> if it has not been resolved. */
+  private final int slot;
 
   /**
    * Creates a new node used to assign a value to a symbol.
@@ -44,21 +43,30 @@ public class AssignmentDiceExpressionNode implements DiceExpressionNode {
    */
   public AssignmentDiceExpressionNode(
       String symbol, DiceEvalScope symbolScope, DiceExpressionNode rhs) {
+    this(symbol, symbolScope, rhs, -1);
+  }
+
+  /**
+   * Creates a new node used to assign a value to a symbol that has been given a slot in the frame.
+   *
+   * @param symbol The name of the symbol.
+   * @param symbolScope The scope of the symbol.
+   * @param rhs The right hand side of the assignment.
+   * @param slot The slot of the symbol, see {@link DiceVariableSlots}.
+   */
+  public AssignmentDiceExpressionNode(
+      String symbol, DiceEvalScope symbolScope, DiceExpressionNode rhs, int slot) {
     name = symbol;
     scope = symbolScope;
     this.rhs = rhs;
+    this.slot = slot;
   }
 
   @Override
-  public DiceExprResult evaluate(DiceExpressionSymbolTable symbolTable)
-      throws UnsupportedOperationException {
-    result = rhs.evaluate(symbolTable);
-    symbolTable.setVariableValue(scope, name, result);
-    return result;
-  }
-
-  @Override
-  public DiceExprResult getExprResult() {
+  public DiceExprResult evaluate(DiceEvalFrame frame) throws UnsupportedOperationException {
+    DiceExprResult result = rhs.evaluate(frame);
+    frame.setVariableValue(scope, name, slot, result);
+    frame.setResult(this, result);
     return result;
   }
 
@@ -67,15 +75,48 @@ public class AssignmentDiceExpressionNode implements DiceExpressionNode {
     return Collections.singletonList(rhs);
   }
 
-  String getName() {
+  /**
+   * Returns the name of the symbol.
+   *
+   * @return the name of the symbol.
+   */
+  public String getName() {
     return name;
   }
 
-  String getVariableName() {
+  /**
+   * Returns the name of the symbol prefixed by its scope.
+   *
+   * @return the name of the symbol prefixed by its scope.
+   */
+  public String getVariableName() {
     return getScope().getScopePrefix() + getName();
   }
 
-  DiceEvalScope getScope() {
+  /**
+   * Returns the scope of the symbol.
+   *
+   * @return the scope of the symbol.
+   */
+  public DiceEvalScope getScope() {
     return scope;
   }
+
+  /**
+   * Returns the right hand side of the assignment.
+   *
+   * @return the right hand side of the assignment.
+   */
+  public DiceExpressionNode getRhs() {
+    return rhs;
+  }
+
+  /**
+   * Returns the slot of the symbol in the frame.
+   *
+   * @return the slot of the symbol, or <code>-1</code> if it has not been resolved.
+   */
+  public int getSlot() {
+    return slot;
+  }
 }
@@ -16,24 +16,34 @@ package net.rptools.dice.expressiontree;
 
 import java.util.Arrays;
 import java.util.Collection;
+import net.rptools.dice.result.ArithmeticMode;
 import net.rptools.dice.result.DiceExprResult;
-import net.rptools.dice.symbols.DiceExpressionSymbolTable;
 
-/** Node that represents a binary operation in the dice roll script. */
+/**
+ * Node that represents a binary operation in the dice roll script.
+ *
+ * <p>The node specializes its operator to the types of the operands it sees, see {@link
+ * BinarySpecialization}. The specialization is only a cache that does not change the results of
+ * evaluating the node, so the node can still be shared between threads: a thread that sees an out
+ * of date specialization just specializes it again.
+ */
 public class BinaryDiceExpressionNode implements DiceExpressionNode {
 
   /** The operator that this represents. */
   private final String operator;
 
-  /** The result of the expression. */
-  private DiceExprResult diceExprResult;
-
   /** The node representing what is on the left of the operator. */
   private final DiceExpressionNode left;
 
   /** The node representing what is on the right of the operator. */
   private final DiceExpressionNode right;
 
+  /** If the operator can be evaluated. */
+  private final boolean supported;
+
+  /** The implementation of the operator for the operand types seen so far. */
+  private BinarySpecialization specialization = BinarySpecialization.UNINITIALIZED;
+
   /**
    * Creates a new node for a binary operation.
    *
@@ -42,14 +52,10 @@ public class BinaryDiceExpressionNode implements DiceExpressionNode {
    * @param right What is to the right of the operator.
    */
   public BinaryDiceExpressionNode(String op, DiceExpressionNode left, DiceExpressionNode right) {
-    operator = op;
+    operator = op.intern();
     this.left = left;
     this.right = right;
-  }
-
-  @Override
-  public DiceExprResult getExprResult() {
-    return diceExprResult;
+    supported = isSupported(operator);
   }
 
   @Override
@@ -58,28 +64,112 @@ public class BinaryDiceExpressionNode implements DiceExpressionNode {
   }
 
   @Override
-  public DiceExprResult evaluate(DiceExpressionSymbolTable symbolTable)
-      throws UnsupportedOperationException {
-    switch (operator) {
+  public DiceExprResult evaluate(DiceEvalFrame frame) throws UnsupportedOperationException {
+    if (!supported) {
+      throw new UnsupportedOperationException("Unknown binary operator: " + operator);
+    }
+    DiceExprResult leftValue = left.evaluate(frame);
+    DiceExprResult rightValue = right.evaluate(frame);
+    frame.getBudget().checkOperation(operator, leftValue, rightValue);
+    DiceExprResult diceExprResult = operate(frame.getArithmeticMode(), leftValue, rightValue);
+    frame.setResult(this, diceExprResult);
+    return diceExprResult;
+  }
+
+  /**
+   * Applies the operator of this node to its evaluated operands, specializing it if the operands
+   * are not of the types seen so far.
+   *
+   * @param mode The arithmetic used for integers.
+   * @param leftValue The value to the left of the operator.
+   * @param rightValue The value to the right of the operator.
+   * @return the result of the operation.
+   */
+  DiceExprResult operate(ArithmeticMode mode, DiceExprResult leftValue, DiceExprResult rightValue) {
+    var current = specialization;
+    DiceExprResult result = current.apply(mode, leftValue, rightValue);
+    if (result == null) {
+      current = current.respecialize(operator, leftValue, rightValue);
+      specialization = current;
+      result = current.apply(mode, leftValue, rightValue);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the implementation that the operator has been specialized to.
+   *
+   * @return the specialization of the operator.
+   */
+  BinarySpecialization getSpecialization() {
+    return specialization;
+  }
+
+  /**
+   * Returns if a binary operator can be evaluated.
+   *
+   * @param op The binary operator.
+   * @return <code>true</code> if the operator can be evaluated.
+   */
+  public static boolean isSupported(String op) {
+    switch (op) {
       case "+":
-        diceExprResult =
-            DiceExprResult.add(left.evaluate(symbolTable), right.evaluate(symbolTable));
-        break;
       case "-":
-        diceExprResult =
-            DiceExprResult.subtract(left.evaluate(symbolTable), right.evaluate(symbolTable));
-        break;
       case "*":
-        diceExprResult =
-            DiceExprResult.multiply(left.evaluate(symbolTable), right.evaluate(symbolTable));
-        break;
       case "/":
-        diceExprResult =
-            DiceExprResult.divide(left.evaluate(symbolTable), right.evaluate(symbolTable));
-        break;
+      case "^":
+        return true;
       default:
-        throw new UnsupportedOperationException("Unknown binary operator: " + operator);
+        return false;
     }
-    return diceExprResult;
+  }
+
+  /**
+   * Returns the precedence of a binary operator, operators with a higher precedence bind more
+   * tightly.
+   *
+   * @param op The binary operator.
+   * @return the precedence of the operator, or 0 if it is not a binary operator.
+   */
+  public static int precedence(String op) {
+    switch (op) {
+      case "^":
+        return 3;
+      case "*":
+      case "/":
+        return 2;
+      case "+":
+      case "-":
+        return 1;
+      default:
+        return 0;
+    }
+  }
+
+  /**
+   * Returns the operator that this node represents.
+   *
+   * @return the operator that this node represents.
+   */
+  public String getOperator() {
+    return operator;
+  }
+
+  /**
+   * Returns the node to the left of the operator.
+   *
+   * @return the node to the left of the operator.
+   */
+  public DiceExpressionNode getLeft() {
+    return left;
+  }
+
+  /**
+   * Returns the node to the right of the operator.
+   *
+   * @return the node to the right of the operator.
+   */
+  public DiceExpressionNode getRight() {
+    return right;
   }
 }
@@ -0,0 +1,276 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.expressiontree;
+
+import net.rptools.dice.result.ArithmeticMode;
+import net.rptools.dice.result.DiceExprResult;
+import net.rptools.dice.result.DiceResultType;
+
+/**
+ * The implementation of a binary operator that a {@link BinaryDiceExpressionNode} or {@link
+ * ChainDiceExpressionNode} has specialized to from the types of the operands it has seen.
+ *
+ * <p>Each operator starts out {@link #UNINITIALIZED} and is specialized the first time it is
+ * evaluated, to integer arithmetic in the {@link ArithmeticMode} of the evaluation if both operands
+ * are integers, to numeric arithmetic if both are numbers, and to the generic operations of {@link
+ * DiceExprResult} otherwise. A specialization returns <code>null</code> when its operands do not
+ * match the types it is specialized for, in which case the operator is specialized again to a more
+ * general implementation. Specializations only ever get more general so an operator whose operand
+ * types change back and forth does not keep being specialized. Whatever the specialization the
+ * result is the same as that of the generic operation.
+ */
+enum BinarySpecialization {
+  /** The operator has not been evaluated yet. */
+  UNINITIALIZED(null, 0) {
+    @Override
+    DiceExprResult apply(ArithmeticMode mode, DiceExprResult left, DiceExprResult right) {
+      return null;
+    }
+  },
+
+  /** Addition of two integers. */
+  INT_ADD("+", 1) {
+    @Override
+    DiceExprResult apply(ArithmeticMode mode, DiceExprResult left, DiceExprResult right) {
+      if (left.getType() != DiceResultType.INTEGER || right.getType() != DiceResultType.INTEGER) {
+        return null;
+      }
+      return mode.add(left, right);
+    }
+  },
+
+  /** Subtraction of two integers. */
+  INT_SUBTRACT("-", 1) {
+    @Override
+    DiceExprResult apply(ArithmeticMode mode, DiceExprResult left, DiceExprResult right) {
+      if (left.getType() != DiceResultType.INTEGER || right.getType() != DiceResultType.INTEGER) {
+        return null;
+      }
+      return mode.subtract(left, right);
+    }
+  },
+
+  /** Multiplication of two integers. */
+  INT_MULTIPLY("*", 1) {
+    @Override
+    DiceExprResult apply(ArithmeticMode mode, DiceExprResult left, DiceExprResult right) {
+      if (left.getType() != DiceResultType.INTEGER || right.getType() != DiceResultType.INTEGER) {
+        return null;
+      }
+      return mode.multiply(left, right);
+    }
+  },
+
+  /** Division of two integers. */
+  INT_DIVIDE("/", 1) {
+    @Override
+    DiceExprResult apply(ArithmeticMode mode, DiceExprResult left, DiceExprResult right) {
+      if (left.getType() != DiceResultType.INTEGER || right.getType() != DiceResultType.INTEGER) {
+        return null;
+      }
+      return mode.divide(left, right);
+    }
+  },
+
+  /** Exponentiation of two integers. */
+  INT_POWER("^", 1) {
+    @Override
+    DiceExprResult apply(ArithmeticMode mode, DiceExprResult left, DiceExprResult right) {
+      if (left.getType() != DiceResultType.INTEGER || right.getType() != DiceResultType.INTEGER) {
+        return null;
+      }
+      return mode.power(left, right);
+    }
+  },
+
+  /** Addition of two numbers which may be integers or doubles. */
+  NUMBER_ADD("+", 2) {
+    @Override
+    DiceExprResult apply(ArithmeticMode mode, DiceExprResult left, DiceExprResult right) {
+      int types = numberTypes(left, right);
+      if (types == INTS) {
+        return mode.add(left, right);
+      } else if (types == DOUBLES) {
+        return DiceExprResult.getDoubleResult(left.getDoubleValue() + right.getDoubleValue());
+      }
+      return null;
+    }
+  },
+
+  /** Subtraction of two numbers which may be integers or doubles. */
+  NUMBER_SUBTRACT("-", 2) {
+    @Override
+    DiceExprResult apply(ArithmeticMode mode, DiceExprResult left, DiceExprResult right) {
+      int types = numberTypes(left, right);
+      if (types == INTS) {
+        return mode.subtract(left, right);
+      } else if (types == DOUBLES) {
+        return DiceExprResult.getDoubleResult(left.getDoubleValue() - right.getDoubleValue());
+      }
+      return null;
+    }
+  },
+
+  /** Multiplication of two numbers which may be integers or doubles. */
+  NUMBER_MULTIPLY("*", 2) {
+    @Override
+    DiceExprResult apply(ArithmeticMode mode, DiceExprResult left, DiceExprResult right) {
+      int types = numberTypes(left, right);
+      if (types == INTS) {
+        return mode.multiply(left, right);
+      } else if (types == DOUBLES) {
+        return DiceExprResult.getDoubleResult(left.getDoubleValue() * right.getDoubleValue());
+      }
+      return null;
+    }
+  },
+
+  /** Division of two numbers which may be integers or doubles. */
+  NUMBER_DIVIDE("/", 2) {
+    @Override
+    DiceExprResult apply(ArithmeticMode mode, DiceExprResult left, DiceExprResult right) {
+      int types = numberTypes(left, right);
+      if (types == INTS) {
+        return mode.divide(left, right);
+      } else if (types == DOUBLES) {
+        return DiceExprResult.getDoubleResult(left.getDoubleValue() / right.getDoubleValue());
+      }
+      return null;
+    }
+  },
+
+  /** Exponentiation of two numbers which may be integers or doubles. */
+  NUMBER_POWER("^", 2) {
+    @Override
+    DiceExprResult apply(ArithmeticMode mode, DiceExprResult left, DiceExprResult right) {
+      int types = numberTypes(left, right);
+      if (types == INTS) {
+        return mode.power(left, right);
+      } else if (types == DOUBLES) {
+        return DiceExprResult.getDoubleResult(
+            Math.pow(left.getDoubleValue(), right.getDoubleValue()));
+      }
+      return null;
+    }
+  },
+
+  /** Addition of any values. */
+  GENERIC_ADD("+", 3) {
+    @Override
+    DiceExprResult apply(ArithmeticMode mode, DiceExprResult left, DiceExprResult right) {
+      return DiceExprResult.add(left, right, mode);
+    }
+  },
+
+  /** Subtraction of any values. */
+  GENERIC_SUBTRACT("-", 3) {
+    @Override
+    DiceExprResult apply(ArithmeticMode mode, DiceExprResult left, DiceExprResult right) {
+      return DiceExprResult.subtract(left, right, mode);
+    }
+  },
+
+  /** Multiplication of any values. */
+  GENERIC_MULTIPLY("*", 3) {
+    @Override
+    DiceExprResult apply(ArithmeticMode mode, DiceExprResult left, DiceExprResult right) {
+      return DiceExprResult.multiply(left, right, mode);
+    }
+  },
+
+  /** Division of any values. */
+  GENERIC_DIVIDE("/", 3) {
+    @Override
+    DiceExprResult apply(ArithmeticMode mode, DiceExprResult left, DiceExprResult right) {
+      return DiceExprResult.divide(left, right, mode);
+    }
+  },
+
+  /** Exponentiation of any values. */
+  GENERIC_POWER("^", 3) {
+    @Override
+    DiceExprResult apply(ArithmeticMode mode, DiceExprResult left, DiceExprResult right) {
+      return DiceExprResult.power(left, right, mode);
+    }
+  };
+
+  /** Both operands are integers. */
+  private static final int INTS = 1;
+
+  /** Both operands are numbers and at least one of them is a double. */
+  private static final int DOUBLES = 2;
+
+  /** At least one of the operands is not a number. */
+  private static final int OTHER = 3;
+
+  /** The operator that is implemented, or <code>null</code> if not yet specialized. */
+  private final String operator;
+
+  /** How general the specialization is, operators are only specialized to higher levels. */
+  private final int level;
+
+  BinarySpecialization(String operator, int level) {
+    this.operator = operator;
+    this.level = level;
+  }
+
+  /**
+   * Applies the operator to its operands.
+   *
+   * @param mode The arithmetic used for integers.
+   * @param left The value to the left of the operator.
+   * @param right The value to the right of the operator.
+   * @return the result of the operation, or <code>null</code> if the operands are not of the types
+   *     that this is specialized for.
+   */
+  abstract DiceExprResult apply(ArithmeticMode mode, DiceExprResult left, DiceExprResult right);
+
+  /**
+   * Returns the specialization to use for operands that this specialization does not handle.
+   *
+   * @param op The binary operator, which must be supported.
+   * @param left The value to the left of the operator.
+   * @param right The value to the right of the operator.
+   * @return the new specialization, which handles the operands.
+   */
+  BinarySpecialization respecialize(String op, DiceExprResult left, DiceExprResult right) {
+    int newLevel = Math.max(level, numberTypes(left, right));
+    for (var specialization : values()) {
+      if (op.equals(specialization.operator) && specialization.level == newLevel) {
+        return specialization;
+      }
+    }
+    throw new UnsupportedOperationException("Unknown binary operator: " + op);
+  }
+
+  /**
+   * Classifies the types of two operands.
+   *
+   * @param left The value to the left of the operator.
+   * @param right The value to the right of the operator.
+   * @return {@link #INTS}, {@link #DOUBLES} or {@link #OTHER}.
+   */
+  private static int numberTypes(DiceExprResult left, DiceExprResult right) {
+    var leftType = left.getType();
+    var rightType = right.getType();
+    if (leftType == DiceResultType.INTEGER && rightType == DiceResultType.INTEGER) {
+      return INTS;
+    } else if ((leftType == DiceResultType.INTEGER || leftType == DiceResultType.DOUBLE)
+        && (rightType == DiceResultType.INTEGER || rightType == DiceResultType.DOUBLE)) {
+      return DOUBLES;
+    }
+    return OTHER;
+  }
+}
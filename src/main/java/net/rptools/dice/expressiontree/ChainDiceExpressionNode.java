@@ -0,0 +1,179 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.expressiontree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import net.rptools.dice.result.ArithmeticMode;
+import net.rptools.dice.result.DiceExprResult;
+
+/**
+ * Node that represents a chain of binary operations of the same precedence, such as <code>
+ * 1 + 2 - 3 + 4</code>, which are evaluated from left to right. It is equivalent to a left leaning
+ * tree of {@link BinaryDiceExpressionNode}s, but long chains, which are common in generated
+ * scripts, can be built and evaluated without recursing once for each operator.
+ *
+ * <p>Like {@link BinaryDiceExpressionNode} each operator of the chain is specialized to the types
+ * of its operands, see {@link BinarySpecialization}.
+ */
+public class ChainDiceExpressionNode implements DiceExpressionNode {
+
+  /** The operands of the chain, in order. */
+  private final List<DiceExpressionNode> operands;
+
+  /** The operators between each of the operands. */
+  private final List<String> operators;
+
+  /** If all the operators can be evaluated. */
+  private final boolean supported;
+
+  /** The implementation of each operator for the operand types seen so far. */
+  private final BinarySpecialization[] specializations;
+
+  /**
+   * Creates a new node for a chain of binary operations.
+   *
+   * @param operands The operands of the chain, in order.
+   * @param operators The operators between each of the operands.
+   * @throws IllegalArgumentException if there is not one more operand than operators, or there are
+   *     less than two operators.
+   */
+  public ChainDiceExpressionNode(List<DiceExpressionNode> operands, List<String> operators) {
+    if (operators.size() < 2 || operands.size() != operators.size() + 1) {
+      throw new IllegalArgumentException(
+          "Invalid chain of "
+              + operands.size()
+              + " operands and "
+              + operators.size()
+              + " operators");
+    }
+    this.operands = List.copyOf(operands);
+    List<String> interned = new ArrayList<>(operators.size());
+    for (String op : operators) {
+      interned.add(op.intern());
+    }
+    this.operators = List.copyOf(interned);
+    supported = this.operators.stream().allMatch(BinaryDiceExpressionNode::isSupported);
+    specializations = new BinarySpecialization[operators.size()];
+    Arrays.fill(specializations, BinarySpecialization.UNINITIALIZED);
+  }
+
+  /**
+   * Creates the node for a chain of binary operations, which is a {@link BinaryDiceExpressionNode}
+   * if there is only a single operator.
+   *
+   * @param operands The operands of the chain, in order.
+   * @param operators The operators between each of the operands.
+   * @return the node for the chain.
+   * @throws IllegalArgumentException if there is not one more operand than operators, or there are
+   *     no operators.
+   */
+  public static DiceExpressionNode of(List<DiceExpressionNode> operands, List<String> operators) {
+    if (operators.size() == 1 && operands.size() == 2) {
+      return new BinaryDiceExpressionNode(operators.get(0), operands.get(0), operands.get(1));
+    }
+    return new ChainDiceExpressionNode(operands, operators);
+  }
+
+  @Override
+  public Collection<DiceExpressionNode> getChildren() {
+    return operands;
+  }
+
+  @Override
+  public DiceExprResult evaluate(DiceEvalFrame frame) throws UnsupportedOperationException {
+    checkSupported();
+    ArithmeticMode mode = frame.getArithmeticMode();
+    DiceExecutionBudget budget = frame.getBudget();
+    DiceExprResult diceExprResult = operands.get(0).evaluate(frame);
+    for (int i = 0; i < specializations.length; i++) {
+      DiceExprResult right = operands.get(i + 1).evaluate(frame);
+      budget.checkOperation(operators.get(i), diceExprResult, right);
+      diceExprResult = operate(i, mode, diceExprResult, right);
+    }
+    frame.setResult(this, diceExprResult);
+    return diceExprResult;
+  }
+
+  /**
+   * Checks that all the operators of the chain can be evaluated.
+   *
+   * @throws UnsupportedOperationException if an operator can not be evaluated.
+   */
+  void checkSupported() {
+    if (supported) {
+      return;
+    }
+    // The equivalent tree checks each operator on the way down to the first operand, so the last
+    // unsupported operator is the one reported.
+    for (int i = operators.size() - 1; i >= 0; i--) {
+      if (!BinaryDiceExpressionNode.isSupported(operators.get(i))) {
+        throw new UnsupportedOperationException("Unknown binary operator: " + operators.get(i));
+      }
+    }
+  }
+
+  /**
+   * Applies one of the operators of the chain to its evaluated operands, specializing it if the
+   * operands are not of the types seen so far.
+   *
+   * @param index The index of the operator.
+   * @param mode The arithmetic used for integers.
+   * @param left The value to the left of the operator.
+   * @param right The value to the right of the operator.
+   * @return the result of the operation.
+   */
+  DiceExprResult operate(
+      int index, ArithmeticMode mode, DiceExprResult left, DiceExprResult right) {
+    var current = specializations[index];
+    DiceExprResult result = current.apply(mode, left, right);
+    if (result == null) {
+      current = current.respecialize(operators.get(index), left, right);
+      specializations[index] = current;
+      result = current.apply(mode, left, right);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the implementation that an operator of the chain has been specialized to.
+   *
+   * @param index The index of the operator.
+   * @return the specialization of the operator.
+   */
+  BinarySpecialization getSpecialization(int index) {
+    return specializations[index];
+  }
+
+  /**
+   * Returns the operands of the chain.
+   *
+   * @return the operands of the chain, in order.
+   */
+  public List<DiceExpressionNode> getOperands() {
+    return operands;
+  }
+
+  /**
+   * Returns the operators of the chain.
+   *
+   * @return the operators between each of the operands.
+   */
+  public List<String> getOperators() {
+    return operators;
+  }
+}
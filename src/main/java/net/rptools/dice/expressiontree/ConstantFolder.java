@@ -0,0 +1,204 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.expressiontree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import net.rptools.dice.DiceExecutionLimits;
+import net.rptools.dice.result.ArithmeticMode;
+import net.rptools.dice.result.DiceExprResult;
+import net.rptools.dice.roller.arguments.DiceRollerArgument;
+
+/**
+ * Optimization pass that replaces the parts of an expression tree that do not depend on dice rolls
+ * or symbols with {@link ValueDiceExpressionNode}s holding their result, and evaluates constant
+ * {@link DiceRollerArgument}s ahead of time.
+ *
+ * <p>Only binary, chain, unary and group nodes are folded. These nodes take no part in formatting
+ * the results, and the {@link TopLevelExpressionNode} and {@link DiceRollDiceExpressionNode} nodes
+ * keep the original text of the expression, so the formatted output of a folded tree is the same as
+ * that of the original. Subtrees that fail to evaluate are left alone so that the error is still
+ * reported when the expression is executed. So are subtrees that build strings longer than {@link
+ * #MAX_STRING_LENGTH}, so that they are only built, and checked against the {@link
+ * net.rptools.dice.DiceExecutionLimits} of the execution, when the expression is executed.
+ */
+public final class ConstantFolder {
+
+  /** The maximum length of the strings that are folded. */
+  public static final int MAX_STRING_LENGTH = 4096;
+
+  /** Frame used to evaluate constant subtrees, constants never refer to the symbol table. */
+  private final DiceEvalFrame frame;
+
+  /**
+   * Creates a new <code>ConstantFolder</code>.
+   *
+   * @param mode The arithmetic the expression is evaluated with.
+   */
+  private ConstantFolder(ArithmeticMode mode) {
+    frame =
+        new DiceEvalFrame(
+            null,
+            DiceVariableSlots.EMPTY,
+            mode,
+            new DiceExecutionBudget(
+                DiceExecutionLimits.UNLIMITED.withMaxStringLength(MAX_STRING_LENGTH)));
+  }
+
+  /**
+   * Folds the constant subtrees of a list of expression trees that are evaluated with {@link
+   * ArithmeticMode#INT}.
+   *
+   * @param roots The roots of the expression trees.
+   * @return the folded expression trees.
+   */
+  public static List<DiceExpressionNode> fold(List<DiceExpressionNode> roots) {
+    return fold(roots, ArithmeticMode.INT);
+  }
+
+  /**
+   * Folds the constant subtrees of a list of expression trees.
+   *
+   * @param roots The roots of the expression trees.
+   * @param mode The arithmetic the expression trees are evaluated with.
+   * @return the folded expression trees.
+   */
+  public static List<DiceExpressionNode> fold(List<DiceExpressionNode> roots, ArithmeticMode mode) {
+    var folder = new ConstantFolder(mode);
+    List<DiceExpressionNode> folded = new ArrayList<>(roots.size());
+    for (var root : roots) {
+      folded.add(folder.foldNode(root));
+    }
+    return List.copyOf(folded);
+  }
+
+  /**
+   * Folds the constant subtrees of an expression tree that is evaluated with {@link
+   * ArithmeticMode#INT}.
+   *
+   * @param root The root of the expression tree.
+   * @return the folded expression tree.
+   */
+  public static DiceExpressionNode fold(DiceExpressionNode root) {
+    return new ConstantFolder(ArithmeticMode.INT).foldNode(root);
+  }
+
+  /**
+   * Folds a node and its children.
+   *
+   * @param node The node to fold.
+   * @return the folded node, which is the same node if nothing could be folded.
+   */
+  private DiceExpressionNode foldNode(DiceExpressionNode node) {
+    if (node instanceof BinaryDiceExpressionNode) {
+      var binary = (BinaryDiceExpressionNode) node;
+      var left = foldNode(binary.getLeft());
+      var right = foldNode(binary.getRight());
+      if (left != binary.getLeft() || right != binary.getRight()) {
+        binary = new BinaryDiceExpressionNode(binary.getOperator(), left, right);
+      }
+      return isConstant(left) && isConstant(right) ? evaluateConstant(binary) : binary;
+    } else if (node instanceof ChainDiceExpressionNode) {
+      var chain = (ChainDiceExpressionNode) node;
+      var operands = foldNodes(chain.getOperands());
+      if (operands != chain.getOperands()) {
+        chain = new ChainDiceExpressionNode(operands, chain.getOperators());
+      }
+      return operands.stream().allMatch(ConstantFolder::isConstant)
+          ? evaluateConstant(chain)
+          : chain;
+    } else if (node instanceof UnaryDiceExpressionNode) {
+      var unary = (UnaryDiceExpressionNode) node;
+      var operand = foldNode(unary.getOperand());
+      if (operand != unary.getOperand()) {
+        unary = new UnaryDiceExpressionNode(unary.getOperator(), operand);
+      }
+      return isConstant(operand) ? evaluateConstant(unary) : unary;
+    } else if (node instanceof GroupDiceExpressionNode) {
+      var group = (GroupDiceExpressionNode) node;
+      var grouped = foldNode(group.getGrouped());
+      if (grouped != group.getGrouped()) {
+        group = new GroupDiceExpressionNode(group.getGroupingType(), grouped);
+      }
+      return isConstant(grouped) ? evaluateConstant(group) : group;
+    } else if (node instanceof TopLevelExpressionNode) {
+      var topLevel = (TopLevelExpressionNode) node;
+      var child = foldNode(topLevel.getChild());
+      return child == topLevel.getChild()
+          ? topLevel
+          : new TopLevelExpressionNode(
+              topLevel.getSource(), topLevel.getStart(), topLevel.getEnd(), child);
+    } else if (node instanceof AssignmentDiceExpressionNode) {
+      var assignment = (AssignmentDiceExpressionNode) node;
+      var rhs = foldNode(assignment.getRhs());
+      return rhs == assignment.getRhs()
+          ? assignment
+          : new AssignmentDiceExpressionNode(assignment.getName(), assignment.getScope(), rhs);
+    } else if (node instanceof DiceRollDiceExpressionNode) {
+      var dice = (DiceRollDiceExpressionNode) node;
+      return new DiceRollDiceExpressionNode(
+          dice.getDiceName(),
+          foldNode(dice.getNumberOfDice()),
+          foldNode(dice.getNumberOfSides()),
+          dice.getRollerArguments().stream()
+              .map(DiceRollerArgument::resolveConstant)
+              .collect(Collectors.toList()),
+          dice.getSource(),
+          dice.getStart(),
+          dice.getEnd());
+    } else {
+      return node;
+    }
+  }
+
+  /**
+   * Folds a list of nodes and their children.
+   *
+   * @param nodes The nodes to fold.
+   * @return the folded nodes, which is the same list if nothing could be folded.
+   */
+  private List<DiceExpressionNode> foldNodes(List<DiceExpressionNode> nodes) {
+    List<DiceExpressionNode> folded = new ArrayList<>(nodes.size());
+    boolean changed = false;
+    for (var node : nodes) {
+      var foldedNode = foldNode(node);
+      changed |= foldedNode != node;
+      folded.add(foldedNode);
+    }
+    return changed ? folded : nodes;
+  }
+
+  /**
+   * Evaluates a node whose children are all constants.
+   *
+   * @param node The node to evaluate.
+   * @return a {@link ValueDiceExpressionNode} holding the result, or the node if it can not be
+   *     evaluated.
+   */
+  private DiceExpressionNode evaluateConstant(DiceExpressionNode node) {
+    DiceExprResult result;
+    try {
+      result = node.evaluate(frame);
+    } catch (RuntimeException e) {
+      return node;
+    }
+    return new ValueDiceExpressionNode(result);
+  }
+
+  private static boolean isConstant(DiceExpressionNode node) {
+    return node instanceof ValueDiceExpressionNode;
+  }
+}
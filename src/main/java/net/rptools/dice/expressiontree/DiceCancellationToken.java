@@ -0,0 +1,83 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.expressiontree;
+
+import java.time.Duration;
+
+/**
+ * Signals that the executions of dice expressions using it should stop. A token is cancelled either
+ * explicitly by {@link #cancel()}, from any thread, or once its deadline has passed.
+ *
+ * <p>Executions check the token each time a node has been evaluated and while dice are being
+ * rolled, and stop by throwing a {@link DiceExecutionCancelledException} from the frame. {@link
+ * net.rptools.dice.DiceExpression} catches it and returns the frame with the results of the
+ * statements that were completed.
+ */
+public final class DiceCancellationToken {
+
+  /** A token that is never cancelled. */
+  public static final DiceCancellationToken NONE = new DiceCancellationToken(false, 0);
+
+  /** Whether the token has a deadline. */
+  private final boolean hasDeadline;
+
+  /** The value of {@link System#nanoTime()} at which the token is cancelled. */
+  private final long deadline;
+
+  /** Whether the token has been cancelled explicitly. */
+  private volatile boolean cancelled;
+
+  /** Creates a new <code>DiceCancellationToken</code> that is only cancelled explicitly. */
+  public DiceCancellationToken() {
+    this(false, 0);
+  }
+
+  private DiceCancellationToken(boolean hasDeadline, long deadline) {
+    this.hasDeadline = hasDeadline;
+    this.deadline = deadline;
+  }
+
+  /**
+   * Creates a token that is cancelled once a timeout has passed, or earlier by {@link #cancel()}.
+   *
+   * @param timeout The time from now after which the token is cancelled.
+   * @return the new token.
+   */
+  public static DiceCancellationToken withTimeout(Duration timeout) {
+    return new DiceCancellationToken(true, System.nanoTime() + timeout.toNanos());
+  }
+
+  /**
+   * Cancels the token.
+   *
+   * @throws UnsupportedOperationException if this is {@link #NONE}.
+   */
+  public void cancel() {
+    if (this == NONE) {
+      throw new UnsupportedOperationException(
+          "The token that is never cancelled can not be cancelled.");
+    }
+    cancelled = true;
+  }
+
+  /**
+   * Returns if the token has been cancelled or its deadline has passed.
+   *
+   * @return <code>true</code> if executions using the token should stop.
+   */
+  public boolean isCancelled() {
+    return cancelled || (hasDeadline && System.nanoTime() - deadline >= 0);
+  }
+}
@@ -0,0 +1,500 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.expressiontree;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import net.rptools.dice.result.ArithmeticMode;
+import net.rptools.dice.result.DiceExprResult;
+import net.rptools.dice.symbols.DiceEvalScope;
+import net.rptools.dice.symbols.DiceExpressionSymbolTable;
+import net.rptools.dice.symbols.DiceVariableHandle;
+
+/**
+ * Holds the state of a single execution of an expression tree.
+ *
+ * <p>{@link DiceExpressionNode}s are immutable and can be shared between threads, so the results of
+ * evaluating them are kept in the frame rather than in the nodes themselves. A frame must only be
+ * used by one thread at a time.
+ *
+ * <p>Variables that have been given a slot by {@link VariableSlotResolver} are kept in the frame.
+ * {@link DiceEvalScope#LOCAL} variables are read from the symbol table the first time they are used
+ * and are only written back to it by {@link #flushVariables()}, other variables are read and
+ * written through a {@link DiceVariableHandle} so that they are only looked up once.
+ *
+ * <p>Statements that do not share variables can be evaluated concurrently in frames created by
+ * {@link #fork()}. A forked frame reads variables through its parent but keeps all of the variables
+ * it assigns to itself until they are merged back into the parent by {@link #join(DiceEvalFrame)},
+ * so the symbol table is only read while the forks are running. Forks can also be created that see
+ * the assignments of other forks that have not been joined yet, so that statements that depend on
+ * them can be evaluated before it is known whether those assignments are kept.
+ */
+public class DiceEvalFrame {
+
+  /** The symbol table used to resolve symbols. */
+  private final DiceExpressionSymbolTable symbolTable;
+
+  /** The results of the nodes that have been evaluated. */
+  private final Map<DiceExpressionNode, DiceExprResult> results = new IdentityHashMap<>();
+
+  /** The layout of the variable slots. */
+  private final DiceVariableSlots slots;
+
+  /** The arithmetic used for operations on integers. */
+  private final ArithmeticMode arithmeticMode;
+
+  /** The budget the work done by the execution is charged to. */
+  private final DiceExecutionBudget budget;
+
+  /** The token that stops the execution when it is cancelled. */
+  private final DiceCancellationToken cancellation;
+
+  /** Whether the execution in this frame was stopped because the token was cancelled. */
+  private boolean cancelled;
+
+  /** The values of the local variables in each slot. */
+  private final DiceExprResult[] locals;
+
+  /** Whether the local variable in each slot has been read from the symbol table or assigned. */
+  private final boolean[] loaded;
+
+  /** Whether the local variable in each slot has been assigned. */
+  private final boolean[] dirty;
+
+  /** The handles for the non local variables in each slot, created when first used. */
+  private final DiceVariableHandle[] handles;
+
+  /** The frame this frame was forked from, <code>null</code> if it was not forked. */
+  private final DiceEvalFrame parent;
+
+  /**
+   * The variables without a slot that have been assigned in a forked frame, in the order they were
+   * first assigned. <code>null</code> if the frame was not forked.
+   */
+  private final Map<DiceEvalScope, Map<String, DiceExprResult>> assigned;
+
+  /**
+   * The variables without a slot assigned in the forks this frame sees that have not been joined,
+   * <code>null</code> if it sees none. It is shared by the frames forked together and never changed.
+   */
+  private final Map<DiceEvalScope, Map<String, DiceExprResult>> unjoined;
+
+  /**
+   * Creates a new <code>DiceEvalFrame</code> where all variables are resolved by name.
+   *
+   * @param symbolTable The symbol table used to resolve symbols.
+   */
+  public DiceEvalFrame(DiceExpressionSymbolTable symbolTable) {
+    this(symbolTable, DiceVariableSlots.EMPTY);
+  }
+
+  /**
+   * Creates a new <code>DiceEvalFrame</code>.
+   *
+   * @param symbolTable The symbol table used to resolve symbols.
+   * @param slots The layout of the variable slots.
+   */
+  public DiceEvalFrame(DiceExpressionSymbolTable symbolTable, DiceVariableSlots slots) {
+    this(symbolTable, slots, ArithmeticMode.INT);
+  }
+
+  /**
+   * Creates a new <code>DiceEvalFrame</code>.
+   *
+   * @param symbolTable The symbol table used to resolve symbols.
+   * @param slots The layout of the variable slots.
+   * @param arithmeticMode The arithmetic used for operations on integers.
+   */
+  public DiceEvalFrame(
+      DiceExpressionSymbolTable symbolTable,
+      DiceVariableSlots slots,
+      ArithmeticMode arithmeticMode) {
+    this(symbolTable, slots, arithmeticMode, DiceExecutionBudget.UNLIMITED);
+  }
+
+  /**
+   * Creates a new <code>DiceEvalFrame</code>.
+   *
+   * @param symbolTable The symbol table used to resolve symbols.
+   * @param slots The layout of the variable slots.
+   * @param arithmeticMode The arithmetic used for operations on integers.
+   * @param budget The budget the work done by the execution is charged to.
+   */
+  public DiceEvalFrame(
+      DiceExpressionSymbolTable symbolTable,
+      DiceVariableSlots slots,
+      ArithmeticMode arithmeticMode,
+      DiceExecutionBudget budget) {
+    this(symbolTable, slots, arithmeticMode, budget, DiceCancellationToken.NONE);
+  }
+
+  /**
+   * Creates a new <code>DiceEvalFrame</code>.
+   *
+   * @param symbolTable The symbol table used to resolve symbols.
+   * @param slots The layout of the variable slots.
+   * @param arithmeticMode The arithmetic used for operations on integers.
+   * @param budget The budget the work done by the execution is charged to.
+   * @param cancellation The token that stops the execution when it is cancelled.
+   */
+  public DiceEvalFrame(
+      DiceExpressionSymbolTable symbolTable,
+      DiceVariableSlots slots,
+      ArithmeticMode arithmeticMode,
+      DiceExecutionBudget budget,
+      DiceCancellationToken cancellation) {
+    this.symbolTable = symbolTable;
+    this.slots = slots;
+    this.arithmeticMode = Objects.requireNonNull(arithmeticMode);
+    this.budget = Objects.requireNonNull(budget);
+    this.cancellation = Objects.requireNonNull(cancellation);
+    int size = slots.size();
+    locals = new DiceExprResult[size];
+    loaded = new boolean[size];
+    dirty = new boolean[size];
+    handles = new DiceVariableHandle[size];
+    parent = null;
+    assigned = null;
+    unjoined = null;
+  }
+
+  /**
+   * Creates a new <code>DiceEvalFrame</code> forked from another frame.
+   *
+   * @param parent The frame to fork.
+   * @param locals The values of the local variables the fork sees in each slot.
+   * @param loaded Whether the local variable in each slot has a value the fork sees.
+   * @param unjoined The variables without a slot assigned in forks that have not been joined, or
+   *     <code>null</code> if there are none.
+   */
+  private DiceEvalFrame(
+      DiceEvalFrame parent,
+      DiceExprResult[] locals,
+      boolean[] loaded,
+      Map<DiceEvalScope, Map<String, DiceExprResult>> unjoined) {
+    symbolTable = parent.symbolTable;
+    slots = parent.slots;
+    arithmeticMode = parent.arithmeticMode;
+    budget = parent.budget;
+    cancellation = parent.cancellation;
+    this.locals = locals.clone();
+    this.loaded = loaded.clone();
+    dirty = new boolean[locals.length];
+    handles = new DiceVariableHandle[locals.length];
+    this.parent = parent;
+    assigned = new EnumMap<>(DiceEvalScope.class);
+    this.unjoined = unjoined;
+  }
+
+  /**
+   * Creates a frame that can evaluate statements on another thread. The fork sees the variables of
+   * this frame as they are now, the variables assigned in it are only visible to this frame once
+   * the fork has been joined. This frame must not be used while any of its forks are running.
+   *
+   * @return the forked frame.
+   * @throws IllegalStateException if this frame is itself a fork.
+   */
+  public DiceEvalFrame fork() {
+    if (parent != null) {
+      throw new IllegalStateException("A forked frame can not be forked again.");
+    }
+    return new DiceEvalFrame(this, locals, loaded, null);
+  }
+
+  /**
+   * Creates frames that can evaluate statements on other threads and that see the variables
+   * assigned in forks of this frame that have not been joined yet, as well as the variables of this
+   * frame. This lets statements that depend on statements that have been evaluated be evaluated
+   * before the assignments of those statements are kept. A variable assigned in more than one of
+   * the unjoined forks has the value assigned in the last of them.
+   *
+   * @param count The number of frames to create.
+   * @param unjoined The forks of this frame whose assignments are seen, in the order of the
+   *     statements they evaluated.
+   * @return the forked frames.
+   * @throws IllegalStateException if this frame is itself a fork.
+   * @throws IllegalArgumentException if one of the unjoined frames was not forked from this frame.
+   */
+  public DiceEvalFrame[] fork(int count, List<DiceEvalFrame> unjoined) {
+    if (parent != null) {
+      throw new IllegalStateException("A forked frame can not be forked again.");
+    }
+    var seenLocals = locals;
+    var seenLoaded = loaded;
+    Map<DiceEvalScope, Map<String, DiceExprResult>> seen = null;
+    if (!unjoined.isEmpty()) {
+      seenLocals = locals.clone();
+      seenLoaded = loaded.clone();
+      seen = new EnumMap<>(DiceEvalScope.class);
+      for (var fork : unjoined) {
+        if (fork.parent != this) {
+          throw new IllegalArgumentException("The frame was not forked from this frame.");
+        }
+        for (int i = 0; i < fork.dirty.length; i++) {
+          if (fork.dirty[i]) {
+            seenLocals[i] = fork.locals[i];
+            seenLoaded[i] = true;
+          }
+        }
+        for (var scope : fork.assigned.entrySet()) {
+          seen.computeIfAbsent(scope.getKey(), s -> new HashMap<>()).putAll(scope.getValue());
+        }
+      }
+    }
+    var forks = new DiceEvalFrame[count];
+    for (int i = 0; i < count; i++) {
+      forks[i] = new DiceEvalFrame(this, seenLocals, seenLoaded, seen);
+    }
+    return forks;
+  }
+
+  /**
+   * Merges the results and the variable assignments of a forked frame into this frame. Forks should
+   * be joined in the order of the statements they evaluated so that the assignments are made in the
+   * same order as they would be by evaluating the statements in this frame.
+   *
+   * @param fork The frame returned by {@link #fork()}.
+   * @throws IllegalArgumentException if the frame was not forked from this frame.
+   */
+  public void join(DiceEvalFrame fork) {
+    if (fork.parent != this) {
+      throw new IllegalArgumentException("The frame was not forked from this frame.");
+    }
+    results.putAll(fork.results);
+    for (int i = 0; i < fork.dirty.length; i++) {
+      if (fork.dirty[i]) {
+        setVariableValue(slots.getScope(i), slots.getName(i), i, fork.locals[i]);
+      }
+    }
+    for (var scope : fork.assigned.entrySet()) {
+      for (var variable : scope.getValue().entrySet()) {
+        symbolTable.setVariableValue(scope.getKey(), variable.getKey(), variable.getValue());
+      }
+    }
+  }
+
+  /**
+   * Returns the symbol table used to resolve symbols.
+   *
+   * @return the symbol table used to resolve symbols.
+   */
+  public DiceExpressionSymbolTable getSymbolTable() {
+    return symbolTable;
+  }
+
+  /**
+   * Returns the arithmetic used for operations on integers.
+   *
+   * @return the arithmetic used for operations on integers.
+   */
+  public ArithmeticMode getArithmeticMode() {
+    return arithmeticMode;
+  }
+
+  /**
+   * Returns the budget the work done by the execution is charged to.
+   *
+   * @return the budget of the execution.
+   */
+  public DiceExecutionBudget getBudget() {
+    return budget;
+  }
+
+  /**
+   * Returns the token that stops the execution when it is cancelled.
+   *
+   * @return the cancellation token of the execution.
+   */
+  public DiceCancellationToken getCancellationToken() {
+    return cancellation;
+  }
+
+  /**
+   * Stops the execution if its token has been cancelled. This is checked each time the result of a
+   * node is recorded, dice rollers that do a lot of work should also call it from time to time.
+   *
+   * @throws DiceExecutionCancelledException if the token has been cancelled.
+   */
+  public void checkCancelled() {
+    if (cancellation.isCancelled()) {
+      cancelled = true;
+      throw new DiceExecutionCancelledException();
+    }
+  }
+
+  /**
+   * Returns if the execution in this frame was stopped because its token was cancelled, in which
+   * case only some of the nodes have results.
+   *
+   * @return <code>true</code> if the execution was cancelled.
+   */
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  /**
+   * Returns the result of evaluating a node in this frame.
+   *
+   * @param node The node to return the result of.
+   * @return the result of the node, or <code>null</code> if it has not been evaluated.
+   */
+  public DiceExprResult getResult(DiceExpressionNode node) {
+    return results.get(node);
+  }
+
+  /**
+   * Records the result of evaluating a node in this frame, then stops the execution if it has been
+   * cancelled.
+   *
+   * @param node The node that was evaluated.
+   * @param result The result of evaluating the node.
+   * @throws DiceExecutionCancelledException if the token of the execution has been cancelled.
+   */
+  public void setResult(DiceExpressionNode node, DiceExprResult result) {
+    results.put(node, result);
+    checkCancelled();
+  }
+
+  /**
+   * Returns if a node has been evaluated in this frame.
+   *
+   * @param node The node to check.
+   * @return <code>true</code> if the result of the node has been recorded, even if it is <code>
+   *     null</code>.
+   */
+  public boolean hasResult(DiceExpressionNode node) {
+    return results.containsKey(node);
+  }
+
+  /**
+   * Returns the value of a variable.
+   *
+   * @param scope The scope of the variable.
+   * @param name The name of the variable.
+   * @param slot The slot of the variable, or <code>-1</code> if it has not been resolved.
+   * @return the value of the variable, or <code>null</code> if it has not been set.
+   */
+  public DiceExprResult getVariableValue(DiceEvalScope scope, String name, int slot) {
+    slot = checkSlot(scope, name, slot);
+    if (slot < 0) {
+      if (assigned != null) {
+        var values = assigned.get(scope);
+        if (values != null && values.containsKey(name)) {
+          return values.get(name);
+        }
+      }
+      if (unjoined != null) {
+        var values = unjoined.get(scope);
+        if (values != null && values.containsKey(name)) {
+          return values.get(name);
+        }
+      }
+      return symbolTable.getVariableValue(scope, name);
+    }
+    if (scope != DiceEvalScope.LOCAL && parent == null) {
+      return handle(slot).get();
+    }
+    if (!loaded[slot]) {
+      locals[slot] =
+          scope == DiceEvalScope.LOCAL
+              ? symbolTable.getVariableValue(scope, slots.getName(slot))
+              : handle(slot).get();
+      loaded[slot] = true;
+    }
+    return locals[slot];
+  }
+
+  /**
+   * Sets the value of a variable.
+   *
+   * @param scope The scope of the variable.
+   * @param name The name of the variable.
+   * @param slot The slot of the variable, or <code>-1</code> if it has not been resolved.
+   * @param value The value to set the variable to.
+   */
+  public void setVariableValue(DiceEvalScope scope, String name, int slot, DiceExprResult value) {
+    slot = checkSlot(scope, name, slot);
+    if (slot < 0) {
+      if (assigned != null) {
+        assigned.computeIfAbsent(scope, s -> new LinkedHashMap<>()).put(name, value);
+      } else {
+        symbolTable.setVariableValue(scope, name, value);
+      }
+    } else if (scope != DiceEvalScope.LOCAL && parent == null) {
+      handle(slot).set(value);
+    } else {
+      locals[slot] = value;
+      loaded[slot] = true;
+      dirty[slot] = true;
+    }
+  }
+
+  /**
+   * Writes the local variables that have been assigned in this frame back to the symbol table.
+   *
+   * @throws IllegalStateException if this frame is a fork, whose variables are written by {@link
+   *     #join(DiceEvalFrame)}.
+   */
+  public void flushVariables() {
+    if (parent != null) {
+      throw new IllegalStateException("The variables of a forked frame are written by join.");
+    }
+    for (int i = 0; i < dirty.length; i++) {
+      if (dirty[i]) {
+        symbolTable.setVariableValue(DiceEvalScope.LOCAL, slots.getName(i), locals[i]);
+        dirty[i] = false;
+      }
+    }
+  }
+
+  /**
+   * Checks that a slot refers to a variable, looking the slot up by name if it does not.
+   *
+   * @param scope The scope of the variable.
+   * @param name The name of the variable.
+   * @param slot The slot of the variable, or <code>-1</code> if it has not been resolved.
+   * @return the slot of the variable in this frame, or <code>-1</code> if it has none.
+   */
+  private int checkSlot(DiceEvalScope scope, String name, int slot) {
+    // Slot names are interned, so a resolved node for this layout can be checked by identity.
+    if (slot >= 0
+        && slot < slots.size()
+        && slots.getName(slot) == name
+        && slots.getScope(slot) == scope) {
+      return slot;
+    }
+    return slots.getSlot(scope, name);
+  }
+
+  /**
+   * Returns the handle for the non local variable in a slot.
+   *
+   * @param slot The slot of the variable.
+   * @return the handle for the variable.
+   */
+  private DiceVariableHandle handle(int slot) {
+    var handle = handles[slot];
+    if (handle == null) {
+      handle = symbolTable.getVariableHandle(slots.getScope(slot), slots.getName(slot));
+      handles[slot] = handle;
+    }
+    return handle;
+  }
+}
@@ -0,0 +1,188 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.expressiontree;
+
+import java.util.concurrent.atomic.AtomicLong;
+import net.rptools.dice.DiceExecutionLimits;
+import net.rptools.dice.expressiontree.DiceExecutionLimitException.Reason;
+import net.rptools.dice.result.DiceExprResult;
+import net.rptools.dice.result.DiceResultType;
+
+/**
+ * Keeps track of the work done by the executions of dice expressions against a set of {@link
+ * DiceExecutionLimits}. A budget is usually created for each execution, but several executions can
+ * share one to limit the work they do together, and frames forked to evaluate statements
+ * concurrently share the budget of their parent.
+ *
+ * <p>Dice are charged before they are rolled and strings are checked before they are built, so a
+ * roll or string that would exceed the limits is never allocated. The time limit runs from when the
+ * budget is created and is checked whenever dice are rolled, strings are built or nodes are
+ * charged. When a limit is exceeded a {@link DiceExecutionLimitException} is thrown, which stops
+ * the execution.
+ */
+public final class DiceExecutionBudget {
+
+  /** A budget without limits, which does not keep count of anything. */
+  public static final DiceExecutionBudget UNLIMITED =
+      new DiceExecutionBudget(DiceExecutionLimits.UNLIMITED);
+
+  /** The limits of the budget. */
+  private final DiceExecutionLimits limits;
+
+  /** Whether there are no limits to check. */
+  private final boolean unlimited;
+
+  /** The value of {@link System#nanoTime()} at which the time limit runs out. */
+  private final long deadline;
+
+  /** The number of dice rolled. */
+  private final AtomicLong dice = new AtomicLong();
+
+  /** The number of nodes evaluated. */
+  private final AtomicLong evaluations = new AtomicLong();
+
+  /**
+   * Creates a new <code>DiceExecutionBudget</code>, the time limit starts running now.
+   *
+   * @param limits The limits of the budget.
+   */
+  public DiceExecutionBudget(DiceExecutionLimits limits) {
+    this.limits = limits;
+    unlimited = limits.isUnlimited();
+    var maxTime = limits.getMaxTime();
+    deadline = maxTime == null ? 0 : System.nanoTime() + maxTime.toNanos();
+  }
+
+  /**
+   * Returns the limits of the budget.
+   *
+   * @return the limits of the budget.
+   */
+  public DiceExecutionLimits getLimits() {
+    return limits;
+  }
+
+  /**
+   * Returns the number of dice that have been rolled, which is not counted if there are no limits.
+   *
+   * @return the number of dice rolled.
+   */
+  public long getDiceRolled() {
+    return dice.get();
+  }
+
+  /**
+   * Returns the number of nodes that have been evaluated, which is not counted if there are no
+   * limits.
+   *
+   * @return the number of nodes evaluated.
+   */
+  public long getNodeEvaluations() {
+    return evaluations.get();
+  }
+
+  /**
+   * Charges dice that are about to be rolled.
+   *
+   * @param count The number of dice.
+   * @throws DiceExecutionLimitException if too many dice have been rolled or the time is up.
+   */
+  public void chargeDice(int count) {
+    if (unlimited) {
+      return;
+    }
+    if (dice.addAndGet(Math.max(count, 0)) > limits.getMaxDice()) {
+      throw new DiceExecutionLimitException(Reason.TOO_MANY_DICE, limits.getMaxDice());
+    }
+    checkTime();
+  }
+
+  /**
+   * Charges nodes that are about to be evaluated.
+   *
+   * @param count The number of nodes.
+   * @throws DiceExecutionLimitException if too many nodes have been evaluated or the time is up.
+   */
+  public void chargeEvaluations(long count) {
+    if (unlimited) {
+      return;
+    }
+    if (evaluations.addAndGet(count) > limits.getMaxNodeEvaluations()) {
+      throw new DiceExecutionLimitException(
+          Reason.TOO_MANY_EVALUATIONS, limits.getMaxNodeEvaluations());
+    }
+    checkTime();
+  }
+
+  /**
+   * Checks that a binary operator that is about to be applied does not build a string that is too
+   * long. Only <code>+</code> and <code>*</code> can build strings, other operators are not
+   * checked.
+   *
+   * @param operator The binary operator.
+   * @param left The value to the left of the operator.
+   * @param right The value to the right of the operator.
+   * @throws DiceExecutionLimitException if the string would be too long or the time is up.
+   * @throws IllegalArgumentException if a string would be repeated more times than fit in an
+   *     integer.
+   */
+  public void checkOperation(String operator, DiceExprResult left, DiceExprResult right) {
+    if (unlimited) {
+      return;
+    }
+    boolean leftString = left.getType() == DiceResultType.STRING;
+    boolean rightString = right.getType() == DiceResultType.STRING;
+    if (!leftString && !rightString) {
+      return;
+    }
+    if ("+".equals(operator)) {
+      checkStringLength((long) left.getStringResult().length() + right.getStringResult().length());
+    } else if ("*".equals(operator) && leftString != rightString) {
+      var text = leftString ? left : right;
+      var times = (leftString ? right : left).getExactIntResult();
+      if (times.isPresent()) {
+        checkStringLength((long) text.getStringResult().length() * times.getAsInt());
+      }
+    }
+  }
+
+  /**
+   * Checks that a string that is about to be built is not too long.
+   *
+   * @param length The length of the string.
+   * @throws DiceExecutionLimitException if the string would be too long or the time is up.
+   */
+  public void checkStringLength(long length) {
+    if (unlimited) {
+      return;
+    }
+    if (length > limits.getMaxStringLength()) {
+      throw new DiceExecutionLimitException(Reason.STRING_TOO_LONG, limits.getMaxStringLength());
+    }
+    checkTime();
+  }
+
+  /**
+   * Checks that the time limit has not run out.
+   *
+   * @throws DiceExecutionLimitException if the time is up.
+   */
+  public void checkTime() {
+    var maxTime = limits.getMaxTime();
+    if (maxTime != null && System.nanoTime() - deadline > 0) {
+      throw new DiceExecutionLimitException(Reason.TIME_LIMIT_EXCEEDED, maxTime.toMillis());
+    }
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.expressiontree;
+
+/**
+ * Thrown when the execution of a dice expression is stopped because it exceeds one of the {@link
+ * net.rptools.dice.DiceExecutionLimits} of its {@link DiceExecutionBudget}.
+ */
+public class DiceExecutionLimitException extends RuntimeException {
+
+  /** The reason the execution was stopped. */
+  public enum Reason {
+    /** Too many dice were rolled. */
+    TOO_MANY_DICE,
+    /** A string result would have been too long. */
+    STRING_TOO_LONG,
+    /** Too many nodes were evaluated. */
+    TOO_MANY_EVALUATIONS,
+    /** The execution took too long. */
+    TIME_LIMIT_EXCEEDED
+  }
+
+  /** The reason the execution was stopped. */
+  private final Reason reason;
+
+  /** The limit that was exceeded. */
+  private final long limit;
+
+  /**
+   * Creates a new <code>DiceExecutionLimitException</code>.
+   *
+   * @param reason The reason the execution was stopped.
+   * @param limit The limit that was exceeded.
+   */
+  public DiceExecutionLimitException(Reason reason, long limit) {
+    super(describe(reason, limit));
+    this.reason = reason;
+    this.limit = limit;
+  }
+
+  private static String describe(Reason reason, long limit) {
+    switch (reason) {
+      case TOO_MANY_DICE:
+        return "Expression rolls more than " + limit + " dice";
+      case STRING_TOO_LONG:
+        return "Expression produces a string longer than " + limit + " characters";
+      case TOO_MANY_EVALUATIONS:
+        return "Expression evaluates more than " + limit + " nodes";
+      default:
+        return "Expression takes longer than " + limit + " milliseconds";
+    }
+  }
+
+  /**
+   * Returns the reason the execution was stopped.
+   *
+   * @return the reason the execution was stopped.
+   */
+  public Reason getReason() {
+    return reason;
+  }
+
+  /**
+   * Returns the limit that was exceeded, in milliseconds for {@link Reason#TIME_LIMIT_EXCEEDED}.
+   *
+   * @return the limit that was exceeded.
+   */
+  public long getLimit() {
+    return limit;
+  }
+}
@@ -16,27 +16,34 @@ package net.rptools.dice.expressiontree;
 
 import java.util.Collection;
 import net.rptools.dice.result.DiceExprResult;
-import net.rptools.dice.symbols.DiceExpressionSymbolTable;
 
-/** Nodes used to represent different roll expressions during parsing and execution. */
+/**
+ * Nodes used to represent different roll expressions during parsing and execution.
+ *
+ * <p>Nodes are immutable once built so a tree can be executed by several threads at once, the
+ * results of an execution are held in a {@link DiceEvalFrame}.
+ */
 public interface DiceExpressionNode {
 
   /**
-   * Evaluate the node.
+   * Evaluate the node, recording the result in the frame.
    *
-   * @param symbolTable The symbol table used to resolve symbols.
+   * @param frame The frame for the execution that the node is being evaluated in.
    * @return The evaluated value of the expression.
    * @throws UnsupportedOperationException if the operation attempting to be performed is invalid.
    */
-  DiceExprResult evaluate(DiceExpressionSymbolTable symbolTable)
-      throws UnsupportedOperationException;
+  DiceExprResult evaluate(DiceEvalFrame frame) throws UnsupportedOperationException;
 
   /**
-   * Returns the result of the evaluation, this must always remain the same
+   * Returns the result of the evaluation in the frame, this must always remain the same for the
+   * frame.
    *
-   * @return the result of the evaluation.
+   * @param frame The frame for the execution to get the result from.
+   * @return the result of the evaluation, or <code>null</code> if it has not been evaluated.
    */
-  DiceExprResult getExprResult();
+  default DiceExprResult getExprResult(DiceEvalFrame frame) {
+    return frame.getResult(this);
+  }
 
   /**
    * Returns the children of this node.
@@ -0,0 +1,203 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.expressiontree;
+
+/**
+ * The source text of an expression, shared by all of the nodes parsed from it so that they can
+ * refer to their text by offset rather than each holding a copy of it.
+ *
+ * <p>The text of a node is the text of its tokens joined together without the white space and
+ * comments between them, which is what the parse tree nodes return for their text, and is built
+ * from the source only when it is asked for.
+ */
+public final class DiceExpressionSource {
+
+  /** The source text. */
+  private final String text;
+
+  /** Whether the source contains characters outside of the basic multilingual plane. */
+  private final boolean hasSupplementaryCharacters;
+
+  /**
+   * Creates a new <code>DiceExpressionSource</code>.
+   *
+   * @param text The source text.
+   */
+  public DiceExpressionSource(String text) {
+    this.text = text;
+    hasSupplementaryCharacters = text.codePointCount(0, text.length()) != text.length();
+  }
+
+  /**
+   * Returns the source text.
+   *
+   * @return the source text.
+   */
+  public String getText() {
+    return text;
+  }
+
+  /**
+   * Returns the length of the source text in chars.
+   *
+   * @return the length of the source text.
+   */
+  public int length() {
+    return text.length();
+  }
+
+  /**
+   * Converts an offset counted in code points, as used by the ANTLR char streams, into an offset
+   * counted in chars.
+   *
+   * @param codePointIndex The offset in code points.
+   * @return the offset in chars.
+   */
+  public int charIndex(int codePointIndex) {
+    return charIndex(0, codePointIndex);
+  }
+
+  /**
+   * Converts an offset counted in code points from a position in the source into an offset counted
+   * in chars from the start of the source.
+   *
+   * @param from The offset in chars the code points are counted from.
+   * @param codePointOffset The offset in code points from <code>from</code>.
+   * @return the offset in chars from the start of the source.
+   */
+  public int charIndex(int from, int codePointOffset) {
+    return hasSupplementaryCharacters
+        ? text.offsetByCodePoints(from, codePointOffset)
+        : from + codePointOffset;
+  }
+
+  /**
+   * Returns the text of the tokens between two offsets joined together without the white space and
+   * comments between them.
+   *
+   * @param start The offset of the first char of the first token.
+   * @param end The offset after the last char of the last token.
+   * @return the text of the tokens.
+   */
+  public String getTokenText(int start, int end) {
+    StringBuilder sb = null;
+    int copied = start;
+    int i = start;
+    while (i < end) {
+      char c = text.charAt(i);
+      int skipTo = i;
+      if (c == ' ' || c == '\t' || c == '\r' || c == '\n') {
+        skipTo = i + 1;
+      } else if (c == '/' && i + 1 < end && text.charAt(i + 1) == '*') {
+        int close = skipComment(text, i, end);
+        skipTo = close < 0 ? i : close;
+      } else if (c == '\'' || c == '"') {
+        int close = skipString(text, i, end);
+        i = close < 0 ? end : close;
+        continue;
+      }
+
+      if (skipTo == i) {
+        i++;
+      } else {
+        if (sb == null) {
+          sb = new StringBuilder(end - start);
+        }
+        sb.append(text, copied, i);
+        copied = skipTo;
+        i = skipTo;
+      }
+    }
+
+    if (sb == null) {
+      return text.substring(start, end);
+    }
+    sb.append(text, copied, Math.max(copied, end));
+    return sb.toString();
+  }
+
+  /**
+   * Skips over a string literal the way the lexer does. Inside the string a backslash before the
+   * quote, or two backslashes before one of <code>\/bfnrt</code> or a <code>u</code> and four hex
+   * digits, are escapes. Any other backslash is skipped on its own.
+   *
+   * @param text The source text.
+   * @param start The offset of the opening quote.
+   * @param end The offset to stop at.
+   * @return the offset after the closing quote, or -1 if the string is not closed before <code>
+   *     end</code>.
+   */
+  public static int skipString(String text, int start, int end) {
+    char quote = text.charAt(start);
+    int i = start + 1;
+    while (i < end) {
+      char c = text.charAt(i);
+      if (c == quote) {
+        return i + 1;
+      }
+      i += c == '\\' ? escapeLength(text, i, end, quote) : 1;
+    }
+    return -1;
+  }
+
+  /**
+   * Skips over a <code>/* ... *&#47;</code> comment.
+   *
+   * @param text The source text.
+   * @param start The offset of the <code>/</code> that opens the comment.
+   * @param end The offset to stop at.
+   * @return the offset after the end of the comment, or -1 if the comment is not closed before
+   *     <code>end</code>.
+   */
+  public static int skipComment(String text, int start, int end) {
+    int close = text.indexOf("*/", start + 2);
+    return close < 0 || close + 2 > end ? -1 : close + 2;
+  }
+
+  /**
+   * Returns the length of the escape starting with a backslash in a string literal.
+   *
+   * @param text The source text.
+   * @param i The offset of the backslash.
+   * @param end The offset to stop at.
+   * @param quote The quote the string is delimited by.
+   * @return the length of the escape, or 1 if the backslash does not start one.
+   */
+  private static int escapeLength(String text, int i, int end, char quote) {
+    if (i + 1 < end && text.charAt(i + 1) == quote) {
+      return 2;
+    }
+    if (i + 2 < end && text.charAt(i + 1) == '\\') {
+      char c = text.charAt(i + 2);
+      if ("\\/bfnrt".indexOf(c) >= 0) {
+        return 3;
+      }
+      if (c == 'u' && i + 6 < end) {
+        for (int j = i + 3; j < i + 7; j++) {
+          if ("0123456789abcdefABCDEF".indexOf(text.charAt(j)) < 0) {
+            return 1;
+          }
+        }
+        return 7;
+      }
+    }
+    return 1;
+  }
+
+  @Override
+  public String toString() {
+    return text;
+  }
+}
@@ -14,13 +14,13 @@
  */
 package net.rptools.dice.expressiontree;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import net.rptools.dice.result.DiceExprResult;
 import net.rptools.dice.roller.DiceRollers;
 import net.rptools.dice.roller.arguments.DiceRollerArgument;
-import net.rptools.dice.symbols.DiceExpressionSymbolTable;
 
 /** None that represents rolling of dice */
 public class DiceRollDiceExpressionNode implements DiceExpressionNode {
@@ -34,15 +34,18 @@ public class DiceRollDiceExpressionNode implements DiceExpressionNode {
   /** The name of the dice. */
   private final String diceName;
 
-  /** The input string for the roll. */
-  private final String diceString;
+  /** The source the dice roll was parsed from. */
+  private final DiceExpressionSource source;
+
+  /** The offset in the source of the start of the dice roll. */
+  private final int start;
+
+  /** The offset in the source after the end of the dice roll. */
+  private final int end;
 
   /** The arguments to the dice roller. */
   private final List<DiceRollerArgument> rollerArguments;
 
-  /** The result of evaluating the expression. */
-  private DiceExprResult result;
-
   /**
    * Create a node to hold a dice roll.
    *
@@ -58,37 +61,89 @@ public class DiceRollDiceExpressionNode implements DiceExpressionNode {
       DiceExpressionNode numSides,
       Collection<DiceRollerArgument> args,
       String str) {
-    diceName = name;
+    this(name, numDice, numSides, args, new DiceExpressionSource(str), 0, str.length());
+  }
+
+  /**
+   * Creates a new <code>DiceRollDiceExpressionNode</code> for a dice roll in a source.
+   *
+   * @param name The name of the dice roller.
+   * @param numDice The expression for the number of dice.
+   * @param numSides The expression for the number of sides.
+   * @param args The arguments for the dice roller.
+   * @param src The source the dice roll was parsed from.
+   * @param startOffset The offset in the source of the start of the dice roll.
+   * @param endOffset The offset in the source after the end of the dice roll.
+   */
+  public DiceRollDiceExpressionNode(
+      String name,
+      DiceExpressionNode numDice,
+      DiceExpressionNode numSides,
+      Collection<DiceRollerArgument> args,
+      DiceExpressionSource src,
+      int startOffset,
+      int endOffset) {
+    // Dice names are short and repeated across many expressions, so share them.
+    diceName = name.intern();
     rollerArguments = List.copyOf(args);
-    diceString = str;
+    source = src;
+    start = startOffset;
+    end = endOffset;
     numberOfSides = numSides;
     numberOfDice = numDice;
   }
 
   @Override
-  public DiceExprResult evaluate(DiceExpressionSymbolTable symbolTable)
-      throws UnsupportedOperationException {
-    int dice =
-        numberOfDice
-            .evaluate(symbolTable)
-            .getIntResult()
-            .orElseThrow(() -> new IllegalArgumentException("Number of dice is missing."));
-    int sides =
-        numberOfSides
-            .evaluate(symbolTable)
-            .getIntResult()
-            .orElseThrow(() -> new IllegalArgumentException("Number of sides is missing."));
-    rollerArguments.forEach(a -> a.evaluate(symbolTable));
-
-    result =
-        DiceRollers.getInstance()
-            .getDiceRoller(diceName)
-            .roll(diceName, dice, sides, rollerArguments);
-    return result;
+  public DiceExprResult evaluate(DiceEvalFrame frame) throws UnsupportedOperationException {
+    int dice = toNumberOfDice(numberOfDice.evaluate(frame));
+    int sides = toNumberOfSides(numberOfSides.evaluate(frame));
+    return roll(frame, dice, sides);
   }
 
-  @Override
-  public DiceExprResult getExprResult() {
+  /**
+   * Returns the number of dice to roll.
+   *
+   * @param result The result of evaluating the number of dice.
+   * @return the number of dice.
+   * @throws IllegalArgumentException if the result is not an integer or does not fit in an integer.
+   */
+  static int toNumberOfDice(DiceExprResult result) {
+    return result
+        .getExactIntResult()
+        .orElseThrow(() -> new IllegalArgumentException("Number of dice is missing."));
+  }
+
+  /**
+   * Returns the number of sides of the dice to roll.
+   *
+   * @param result The result of evaluating the number of sides.
+   * @return the number of sides.
+   * @throws IllegalArgumentException if the result is not an integer or does not fit in an integer.
+   */
+  static int toNumberOfSides(DiceExprResult result) {
+    return result
+        .getExactIntResult()
+        .orElseThrow(() -> new IllegalArgumentException("Number of sides is missing."));
+  }
+
+  /**
+   * Rolls the dice once the number of dice and sides have been evaluated.
+   *
+   * @param frame The frame the roll is evaluated in.
+   * @param dice The number of dice.
+   * @param sides The number of sides of the dice.
+   * @return the result of the roll.
+   */
+  DiceExprResult roll(DiceEvalFrame frame, int dice, int sides) {
+    frame.getBudget().chargeDice(dice);
+    List<DiceRollerArgument> args = new ArrayList<>(rollerArguments.size());
+    for (DiceRollerArgument argument : rollerArguments) {
+      args.add(argument.evaluate(frame));
+    }
+
+    DiceExprResult result =
+        DiceRollers.getInstance().getDiceRoller(diceName).roll(diceName, dice, sides, args, frame);
+    frame.setResult(this, result);
     return result;
   }
 
@@ -98,6 +153,69 @@ public class DiceRollDiceExpressionNode implements DiceExpressionNode {
   }
 
   public String getDiceString() {
-    return diceString;
+    return source.getTokenText(start, end);
+  }
+
+  /**
+   * Returns the source the dice roll was parsed from.
+   *
+   * @return the source the dice roll was parsed from.
+   */
+  public DiceExpressionSource getSource() {
+    return source;
+  }
+
+  /**
+   * Returns the offset in the source of the start of the dice roll.
+   *
+   * @return the offset of the start of the dice roll.
+   */
+  public int getStart() {
+    return start;
+  }
+
+  /**
+   * Returns the offset in the source after the end of the dice roll.
+   *
+   * @return the offset after the end of the dice roll.
+   */
+  public int getEnd() {
+    return end;
+  }
+
+  /**
+   * Returns the name of the dice.
+   *
+   * @return the name of the dice.
+   */
+  public String getDiceName() {
+    return diceName;
+  }
+
+  /**
+   * Returns the node for the number of dice to roll.
+   *
+   * @return the node for the number of dice to roll.
+   */
+  public DiceExpressionNode getNumberOfDice() {
+    return numberOfDice;
+  }
+
+  /**
+   * Returns the node for the number of sides on the dice.
+   *
+   * @return the node for the number of sides on the dice.
+   */
+  public DiceExpressionNode getNumberOfSides() {
+    return numberOfSides;
+  }
+
+  /**
+   * Returns the arguments to the dice roller.
+   *
+   * @return the arguments to the dice roller.
+   */
+  public List<DiceRollerArgument> getRollerArguments() {
+    return rollerArguments;
   }
 }
@@ -0,0 +1,147 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.expressiontree;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import net.rptools.dice.symbols.DiceEvalScope;
+
+/**
+ * The layout of the variables referred to by an expression, each variable is given a slot number
+ * that {@link DiceEvalFrame} uses to store or find it without looking it up by name.
+ *
+ * <p>The names of the variables are interned, so a node that has been given a slot can check that
+ * the slot refers to its variable by comparing the names by identity.
+ */
+public final class DiceVariableSlots {
+
+  /** Layout with no variables. */
+  public static final DiceVariableSlots EMPTY = new DiceVariableSlots(List.of(), List.of());
+
+  /** The scope of the variable in each slot. */
+  private final DiceEvalScope[] scopes;
+
+  /** The interned name of the variable in each slot. */
+  private final String[] names;
+
+  /** The slot of each variable by scope and name. */
+  private final Map<DiceEvalScope, Map<String, Integer>> slotsByName =
+      new EnumMap<>(DiceEvalScope.class);
+
+  /**
+   * Creates a new <code>DiceVariableSlots</code>.
+   *
+   * @param scopes The scope of the variable in each slot.
+   * @param names The name of the variable in each slot.
+   */
+  private DiceVariableSlots(List<DiceEvalScope> scopes, List<String> names) {
+    this.scopes = scopes.toArray(new DiceEvalScope[0]);
+    this.names = new String[names.size()];
+    for (int i = 0; i < this.names.length; i++) {
+      this.names[i] = names.get(i).intern();
+      slotsByName.computeIfAbsent(this.scopes[i], s -> new HashMap<>()).put(this.names[i], i);
+    }
+  }
+
+  /**
+   * Returns the number of slots.
+   *
+   * @return the number of slots.
+   */
+  public int size() {
+    return names.length;
+  }
+
+  /**
+   * Returns the scope of the variable in a slot.
+   *
+   * @param slot The slot number.
+   * @return the scope of the variable.
+   */
+  public DiceEvalScope getScope(int slot) {
+    return scopes[slot];
+  }
+
+  /**
+   * Returns the interned name of the variable in a slot.
+   *
+   * @param slot The slot number.
+   * @return the name of the variable.
+   */
+  public String getName(int slot) {
+    return names[slot];
+  }
+
+  /**
+   * Returns the slot of a variable.
+   *
+   * @param scope The scope of the variable.
+   * @param name The name of the variable.
+   * @return the slot of the variable, or <code>-1</code> if it has no slot.
+   */
+  public int getSlot(DiceEvalScope scope, String name) {
+    var byName = slotsByName.get(scope);
+    if (byName == null) {
+      return -1;
+    }
+    Integer slot = byName.get(name);
+    return slot == null ? -1 : slot;
+  }
+
+  /** Builder used to allocate the slots of variables. */
+  static final class Builder {
+
+    /** The scope of the variable in each slot. */
+    private final List<DiceEvalScope> scopes = new ArrayList<>();
+
+    /** The name of the variable in each slot. */
+    private final List<String> names = new ArrayList<>();
+
+    /** The slot of each variable by scope and name. */
+    private final Map<DiceEvalScope, Map<String, Integer>> slots =
+        new EnumMap<>(DiceEvalScope.class);
+
+    /**
+     * Returns the slot for a variable, allocating one if it does not have one yet.
+     *
+     * @param scope The scope of the variable.
+     * @param name The name of the variable.
+     * @return the slot of the variable.
+     */
+    int slotFor(DiceEvalScope scope, String name) {
+      return slots
+          .computeIfAbsent(scope, s -> new HashMap<>())
+          .computeIfAbsent(
+              name,
+              n -> {
+                scopes.add(scope);
+                names.add(n);
+                return names.size() - 1;
+              });
+    }
+
+    /**
+     * Returns the layout of the slots allocated so far.
+     *
+     * @return the layout of the slots.
+     */
+    DiceVariableSlots build() {
+      return names.isEmpty() ? EMPTY : new DiceVariableSlots(scopes, names);
+    }
+  }
+}
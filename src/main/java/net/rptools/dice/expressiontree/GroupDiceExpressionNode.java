@@ -17,7 +17,6 @@ package net.rptools.dice.expressiontree;
 import java.util.Collection;
 import java.util.Collections;
 import net.rptools.dice.result.DiceExprResult;
-import net.rptools.dice.symbols.DiceExpressionSymbolTable;
 
 /** None that represents the grouping operator. */
 public class GroupDiceExpressionNode implements DiceExpressionNode {
@@ -66,11 +65,8 @@ public class GroupDiceExpressionNode implements DiceExpressionNode {
   /** The type of grouping that this is. */
   private final GroupingType groupingType;
 
-  /** The result of this node. */
-  private DiceExprResult result;
-
   /** The child node for this group. */
-  private DiceExpressionNode grouped;
+  private final DiceExpressionNode grouped;
 
   /**
    * Creates a new <code>GroupDiceExpressionNode</code> object.
@@ -84,14 +80,9 @@ public class GroupDiceExpressionNode implements DiceExpressionNode {
   }
 
   @Override
-  public DiceExprResult evaluate(DiceExpressionSymbolTable symbolTable)
-      throws UnsupportedOperationException {
-    result = grouped.evaluate(symbolTable);
-    return result;
-  }
-
-  @Override
-  public DiceExprResult getExprResult() {
+  public DiceExprResult evaluate(DiceEvalFrame frame) throws UnsupportedOperationException {
+    DiceExprResult result = grouped.evaluate(frame);
+    frame.setResult(this, result);
     return result;
   }
 
@@ -99,4 +90,22 @@ public class GroupDiceExpressionNode implements DiceExpressionNode {
   public Collection<DiceExpressionNode> getChildren() {
     return Collections.singletonList(grouped);
   }
+
+  /**
+   * Returns the type of grouping.
+   *
+   * @return the type of grouping.
+   */
+  public GroupingType getGroupingType() {
+    return groupingType;
+  }
+
+  /**
+   * Returns the node that this group contains.
+   *
+   * @return the node that this group contains.
+   */
+  public DiceExpressionNode getGrouped() {
+    return grouped;
+  }
 }
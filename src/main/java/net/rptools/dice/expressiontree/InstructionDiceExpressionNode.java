@@ -18,7 +18,6 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import net.rptools.dice.result.DiceExprResult;
-import net.rptools.dice.symbols.DiceExpressionSymbolTable;
 
 public class InstructionDiceExpressionNode implements DiceExpressionNode {
 
@@ -32,13 +31,7 @@ public class InstructionDiceExpressionNode implements DiceExpressionNode {
   }
 
   @Override
-  public DiceExprResult evaluate(DiceExpressionSymbolTable symbolTable)
-      throws UnsupportedOperationException {
-    return null;
-  }
-
-  @Override
-  public DiceExprResult getExprResult() {
+  public DiceExprResult evaluate(DiceEvalFrame frame) throws UnsupportedOperationException {
     return null;
   }
 
@@ -47,11 +40,21 @@ public class InstructionDiceExpressionNode implements DiceExpressionNode {
     return Collections.emptyList();
   }
 
-  String getInstructionName() {
+  /**
+   * Returns the name of the instruction.
+   *
+   * @return the name of the instruction.
+   */
+  public String getInstructionName() {
     return instructionName;
   }
 
-  List<String> getArguments() {
+  /**
+   * Returns the arguments for the instruction.
+   *
+   * @return the arguments for the instruction.
+   */
+  public List<String> getArguments() {
     return arguments;
   }
 }
@@ -0,0 +1,214 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.expressiontree;
+
+import java.util.Arrays;
+import net.rptools.dice.result.DiceExprResult;
+
+/**
+ * Evaluates expression trees without recursion. The tree is walked in post-order using an explicit
+ * stack of the nodes being evaluated, and the results of the children are kept on an operand stack
+ * until their parent is evaluated, so the depth of the tree is only limited by the heap.
+ *
+ * <p>The nodes are evaluated in the same order, with the same side effects on the {@link
+ * DiceEvalFrame}, as {@link DiceExpressionNode#evaluate(DiceEvalFrame)}, so the results are the
+ * same. Nodes of types that are not known to the evaluator are evaluated by calling their {@link
+ * DiceExpressionNode#evaluate(DiceEvalFrame)} method.
+ */
+public final class IterativeEvaluator {
+
+  /** The frame the nodes are evaluated in. */
+  private final DiceEvalFrame frame;
+
+  /** The nodes being evaluated, the top is the node to work on next. */
+  private DiceExpressionNode[] nodes = new DiceExpressionNode[32];
+
+  /** The number of children of each node being evaluated that have already been evaluated. */
+  private int[] states = new int[32];
+
+  /** The number of nodes being evaluated. */
+  private int nodeCount;
+
+  /** The results of the children that have been evaluated but not yet used by their parent. */
+  private DiceExprResult[] operands = new DiceExprResult[32];
+
+  /** The number of results on the operand stack. */
+  private int operandCount;
+
+  private IterativeEvaluator(DiceEvalFrame frame) {
+    this.frame = frame;
+  }
+
+  /**
+   * Evaluates an expression tree.
+   *
+   * @param root The root of the expression tree.
+   * @param frame The frame to evaluate the tree in.
+   * @return the result of the tree.
+   * @throws UnsupportedOperationException if the tree contains an operation that is not supported.
+   */
+  public static DiceExprResult evaluate(DiceExpressionNode root, DiceEvalFrame frame) {
+    return new IterativeEvaluator(frame).run(root);
+  }
+
+  /**
+   * Evaluates an expression tree.
+   *
+   * @param root The root of the expression tree.
+   * @return the result of the tree.
+   */
+  private DiceExprResult run(DiceExpressionNode root) {
+    pushNode(root);
+    while (nodeCount > 0) {
+      var node = nodes[nodeCount - 1];
+      int state = states[nodeCount - 1]++;
+      if (node instanceof ValueDiceExpressionNode
+          || node instanceof ResolveSymbolDiceExpressionNode) {
+        popNode();
+        pushOperand(node.evaluate(frame));
+      } else if (node instanceof TopLevelExpressionNode) {
+        if (state == 0) {
+          pushNode(((TopLevelExpressionNode) node).getChild());
+        } else {
+          complete(node, popOperand());
+        }
+      } else if (node instanceof GroupDiceExpressionNode) {
+        if (state == 0) {
+          pushNode(((GroupDiceExpressionNode) node).getGrouped());
+        } else {
+          complete(node, popOperand());
+        }
+      } else if (node instanceof AssignmentDiceExpressionNode) {
+        var assignment = (AssignmentDiceExpressionNode) node;
+        if (state == 0) {
+          pushNode(assignment.getRhs());
+        } else {
+          DiceExprResult result = popOperand();
+          frame.setVariableValue(
+              assignment.getScope(), assignment.getName(), assignment.getSlot(), result);
+          complete(node, result);
+        }
+      } else if (node instanceof UnaryDiceExpressionNode) {
+        var unary = (UnaryDiceExpressionNode) node;
+        if (state == 0) {
+          if (!"-".equals(unary.getOperator())) {
+            throw new UnsupportedOperationException(
+                "Unknown unary operator: " + unary.getOperator());
+          }
+          pushNode(unary.getOperand());
+        } else {
+          complete(node, DiceExprResult.negate(popOperand(), frame.getArithmeticMode()));
+        }
+      } else if (node instanceof BinaryDiceExpressionNode) {
+        var binary = (BinaryDiceExpressionNode) node;
+        if (state == 0) {
+          if (!BinaryDiceExpressionNode.isSupported(binary.getOperator())) {
+            throw new UnsupportedOperationException(
+                "Unknown binary operator: " + binary.getOperator());
+          }
+          pushNode(binary.getLeft());
+        } else if (state == 1) {
+          pushNode(binary.getRight());
+        } else {
+          DiceExprResult right = popOperand();
+          DiceExprResult left = popOperand();
+          frame.getBudget().checkOperation(binary.getOperator(), left, right);
+          complete(node, binary.operate(frame.getArithmeticMode(), left, right));
+        }
+      } else if (node instanceof ChainDiceExpressionNode) {
+        evaluateChain((ChainDiceExpressionNode) node, state);
+      } else if (node instanceof DiceRollDiceExpressionNode) {
+        var dice = (DiceRollDiceExpressionNode) node;
+        if (state == 0) {
+          pushNode(dice.getNumberOfDice());
+        } else if (state == 1) {
+          // Check the number of dice before the number of sides is evaluated.
+          DiceRollDiceExpressionNode.toNumberOfDice(operands[operandCount - 1]);
+          pushNode(dice.getNumberOfSides());
+        } else {
+          int sides = DiceRollDiceExpressionNode.toNumberOfSides(popOperand());
+          int number = DiceRollDiceExpressionNode.toNumberOfDice(popOperand());
+          popNode();
+          pushOperand(dice.roll(frame, number, sides));
+        }
+      } else {
+        popNode();
+        pushOperand(node.evaluate(frame));
+      }
+    }
+    return popOperand();
+  }
+
+  /**
+   * Takes the next step in evaluating a chain of binary operations.
+   *
+   * @param chain The chain being evaluated.
+   * @param state The number of operands that have already been evaluated.
+   */
+  private void evaluateChain(ChainDiceExpressionNode chain, int state) {
+    if (state == 0) {
+      chain.checkSupported();
+    } else if (state > 1) {
+      DiceExprResult right = popOperand();
+      DiceExprResult left = popOperand();
+      frame.getBudget().checkOperation(chain.getOperators().get(state - 2), left, right);
+      pushOperand(chain.operate(state - 2, frame.getArithmeticMode(), left, right));
+    }
+    if (state < chain.getOperands().size()) {
+      pushNode(chain.getOperands().get(state));
+    } else {
+      complete(chain, popOperand());
+    }
+  }
+
+  /**
+   * Finishes evaluating a node, recording its result in the frame.
+   *
+   * @param node The node that has been evaluated.
+   * @param result The result of the node.
+   */
+  private void complete(DiceExpressionNode node, DiceExprResult result) {
+    popNode();
+    frame.setResult(node, result);
+    pushOperand(result);
+  }
+
+  private void pushNode(DiceExpressionNode node) {
+    if (nodeCount == nodes.length) {
+      nodes = Arrays.copyOf(nodes, nodeCount * 2);
+      states = Arrays.copyOf(states, nodeCount * 2);
+    }
+    nodes[nodeCount] = node;
+    states[nodeCount] = 0;
+    nodeCount++;
+  }
+
+  private void popNode() {
+    nodes[--nodeCount] = null;
+  }
+
+  private void pushOperand(DiceExprResult result) {
+    if (operandCount == operands.length) {
+      operands = Arrays.copyOf(operands, operandCount * 2);
+    }
+    operands[operandCount++] = result;
+  }
+
+  private DiceExprResult popOperand() {
+    DiceExprResult result = operands[--operandCount];
+    operands[operandCount] = null;
+    return result;
+  }
+}
@@ -18,7 +18,6 @@ import java.util.Collection;
 import java.util.Collections;
 import net.rptools.dice.result.DiceExprResult;
 import net.rptools.dice.symbols.DiceEvalScope;
-import net.rptools.dice.symbols.DiceExpressionSymbolTable;
 
 /** Represents the node used to resolve a symbol from the symbol table. */
 public class ResolveSymbolDiceExpressionNode implements DiceExpressionNode {
@@ -29,8 +28,8 @@ public class ResolveSymbolDiceExpressionNode implements DiceExpressionNode {
   /** The scope of the symbol. */
   private final DiceEvalScope scope;
 
-  /** The evaluated value of this node. */
-  private DiceExprResult result;
+  /** The slot of the symbol in the frame, or <code>-1</code> if it has not been resolved. */
+  private final int slot;
 
   /**
    * Creates a new node used to resolve a symbol from the symbol table.
@@ -39,19 +38,26 @@ public class ResolveSymbolDiceExpressionNode implements DiceExpressionNode {
    * @param symbolScope The scope of the symbol.
    */
   public ResolveSymbolDiceExpressionNode(String symbol, DiceEvalScope symbolScope) {
-    name = symbol;
-    scope = symbolScope;
+    this(symbol, symbolScope, -1);
   }
 
-  @Override
-  public DiceExprResult evaluate(DiceExpressionSymbolTable symbolTable)
-      throws UnsupportedOperationException {
-    result = symbolTable.getVariableValue(scope, name);
-    return result;
+  /**
+   * Creates a new node used to resolve a symbol that has been given a slot in the frame.
+   *
+   * @param symbol The name of the symbol.
+   * @param symbolScope The scope of the symbol.
+   * @param slot The slot of the symbol, see {@link DiceVariableSlots}.
+   */
+  public ResolveSymbolDiceExpressionNode(String symbol, DiceEvalScope symbolScope, int slot) {
+    name = symbol;
+    scope = symbolScope;
+    this.slot = slot;
   }
 
   @Override
-  public DiceExprResult getExprResult() {
+  public DiceExprResult evaluate(DiceEvalFrame frame) throws UnsupportedOperationException {
+    DiceExprResult result = frame.getVariableValue(scope, name, slot);
+    frame.setResult(this, result);
     return result;
   }
 
@@ -60,15 +66,39 @@ public class ResolveSymbolDiceExpressionNode implements DiceExpressionNode {
     return Collections.emptyList();
   }
 
-  String getName() {
+  /**
+   * Returns the name of the symbol.
+   *
+   * @return the name of the symbol.
+   */
+  public String getName() {
     return name;
   }
 
-  DiceEvalScope getScope() {
+  /**
+   * Returns the scope of the symbol.
+   *
+   * @return the scope of the symbol.
+   */
+  public DiceEvalScope getScope() {
     return scope;
   }
 
-  String getVariableName() {
+  /**
+   * Returns the name of the symbol prefixed by its scope.
+   *
+   * @return the name of the symbol prefixed by its scope.
+   */
+  public String getVariableName() {
     return getScope().getScopePrefix() + getName();
   }
+
+  /**
+   * Returns the slot of the symbol in the frame.
+   *
+   * @return the slot of the symbol, or <code>-1</code> if it has not been resolved.
+   */
+  public int getSlot() {
+    return slot;
+  }
 }
@@ -14,21 +14,39 @@
  */
 package net.rptools.dice.expressiontree;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 import net.rptools.dice.result.ResultFormatter;
 
 public class ResultDetails {
 
-  public Optional<String> format(Collection<DiceExpressionNode> roots, ResultFormatter formatter) {
-    roots.forEach(r -> format(r, formatter));
+  /**
+   * Formats the results of the statements of an execution. If the execution was cancelled only the
+   * statements that were completed are formatted.
+   *
+   * @param roots The trees of the statements.
+   * @param frame The frame holding the results of the execution.
+   * @param formatter The formatter used to format the results.
+   * @return the formatted results.
+   */
+  public Optional<String> format(
+      Collection<DiceExpressionNode> roots, DiceEvalFrame frame, ResultFormatter formatter) {
+    for (var root : roots) {
+      if (frame.isCancelled() && !frame.hasResult(root)) {
+        continue;
+      }
+      format(root, frame, formatter);
+    }
 
     return formatter.format();
   }
 
-  private void format(DiceExpressionNode root, ResultFormatter formatter) {
+  private void format(DiceExpressionNode root, DiceEvalFrame frame, ResultFormatter formatter) {
 
     formatter.start();
 
@@ -36,14 +54,14 @@ public class ResultDetails {
 
     visitNode(root, nodeList);
 
-    formatter.setResult(root.getExprResult());
+    formatter.setResult(root.getExprResult(frame));
 
     for (var node : nodeList) {
       if (node instanceof AssignmentDiceExpressionNode) {
         var aNode = (AssignmentDiceExpressionNode) node;
-        formatter.addAssignSymbol(aNode.getVariableName(), aNode.getExprResult());
+        formatter.addAssignSymbol(aNode.getVariableName(), aNode.getExprResult(frame));
       } else if (node instanceof DiceRollDiceExpressionNode) {
-        formatter.addRoll(node.getExprResult().getDiceRolls());
+        formatter.addRoll(node.getExprResult(frame).getDiceRolls());
       } else if (node instanceof InstructionDiceExpressionNode) {
         var iNode = (InstructionDiceExpressionNode) node;
         if ("show".equalsIgnoreCase(iNode.getInstructionName())) {
@@ -53,7 +71,7 @@ public class ResultDetails {
         }
       } else if (node instanceof ResolveSymbolDiceExpressionNode) {
         var rNode = (ResolveSymbolDiceExpressionNode) node;
-        formatter.addResolveSymbol(rNode.getVariableName(), rNode.getExprResult());
+        formatter.addResolveSymbol(rNode.getVariableName(), rNode.getExprResult(frame));
       } else if (node instanceof TopLevelExpressionNode) {
         var tNode = (TopLevelExpressionNode) node;
         formatter.setExpression(tNode.getExpression());
@@ -63,8 +81,28 @@ public class ResultDetails {
     formatter.end();
   }
 
+  /**
+   * Adds the nodes of a tree to a list in post-order. The tree is walked with an explicit stack so
+   * that deep trees can be formatted by threads with small stacks.
+   *
+   * @param root The root of the tree.
+   * @param nodeList The list to add the nodes to.
+   */
   private void visitNode(DiceExpressionNode root, List<DiceExpressionNode> nodeList) {
-    root.getChildren().forEach(r -> visitNode(r, nodeList));
-    nodeList.add(root);
+    Deque<DiceExpressionNode> nodes = new ArrayDeque<>();
+    Deque<Iterator<DiceExpressionNode>> children = new ArrayDeque<>();
+    nodes.push(root);
+    children.push(root.getChildren().iterator());
+    while (!nodes.isEmpty()) {
+      var remaining = children.peek();
+      if (remaining.hasNext()) {
+        var child = remaining.next();
+        nodes.push(child);
+        children.push(child.getChildren().iterator());
+      } else {
+        children.pop();
+        nodeList.add(nodes.pop());
+      }
+    }
   }
 }
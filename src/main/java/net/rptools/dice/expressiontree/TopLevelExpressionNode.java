@@ -17,27 +17,45 @@ package net.rptools.dice.expressiontree;
 import java.util.Collection;
 import java.util.Collections;
 import net.rptools.dice.result.DiceExprResult;
-import net.rptools.dice.symbols.DiceExpressionSymbolTable;
 
 public class TopLevelExpressionNode implements DiceExpressionNode {
 
   private final DiceExpressionNode child;
-  private final String expression;
+
+  /** The source the statement was parsed from. */
+  private final DiceExpressionSource source;
+
+  /** The offset in the source of the start of the statement. */
+  private final int start;
+
+  /** The offset in the source after the end of the statement. */
+  private final int end;
 
   public TopLevelExpressionNode(String expression, DiceExpressionNode child) {
-    this.expression = expression;
-    this.child = child;
+    this(new DiceExpressionSource(expression), 0, expression.length(), child);
   }
 
-  @Override
-  public DiceExprResult evaluate(DiceExpressionSymbolTable symbolTable)
-      throws UnsupportedOperationException {
-    return child.evaluate(symbolTable);
+  /**
+   * Creates a new <code>TopLevelExpressionNode</code> for a statement in a source.
+   *
+   * @param source The source the statement was parsed from.
+   * @param start The offset in the source of the start of the statement.
+   * @param end The offset in the source after the end of the statement.
+   * @param child The expression of the statement.
+   */
+  public TopLevelExpressionNode(
+      DiceExpressionSource source, int start, int end, DiceExpressionNode child) {
+    this.source = source;
+    this.start = start;
+    this.end = end;
+    this.child = child;
   }
 
   @Override
-  public DiceExprResult getExprResult() {
-    return child.getExprResult();
+  public DiceExprResult evaluate(DiceEvalFrame frame) throws UnsupportedOperationException {
+    DiceExprResult result = child.evaluate(frame);
+    frame.setResult(this, result);
+    return result;
   }
 
   @Override
@@ -46,6 +64,42 @@ public class TopLevelExpressionNode implements DiceExpressionNode {
   }
 
   public String getExpression() {
-    return expression;
+    return source.getTokenText(start, end);
+  }
+
+  /**
+   * Returns the source the statement was parsed from.
+   *
+   * @return the source the statement was parsed from.
+   */
+  public DiceExpressionSource getSource() {
+    return source;
+  }
+
+  /**
+   * Returns the offset in the source of the start of the statement.
+   *
+   * @return the offset of the start of the statement.
+   */
+  public int getStart() {
+    return start;
+  }
+
+  /**
+   * Returns the offset in the source after the end of the statement.
+   *
+   * @return the offset after the end of the statement.
+   */
+  public int getEnd() {
+    return end;
+  }
+
+  /**
+   * Returns the expression below this top level node.
+   *
+   * @return the expression below this top level node.
+   */
+  public DiceExpressionNode getChild() {
+    return child;
   }
 }
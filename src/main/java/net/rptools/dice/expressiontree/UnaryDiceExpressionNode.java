@@ -17,7 +17,6 @@ package net.rptools.dice.expressiontree;
 import java.util.Collection;
 import java.util.Collections;
 import net.rptools.dice.result.DiceExprResult;
-import net.rptools.dice.symbols.DiceExpressionSymbolTable;
 
 /** Node that represents a unary operation in the dice roll script. */
 public class UnaryDiceExpressionNode implements DiceExpressionNode {
@@ -25,9 +24,6 @@ public class UnaryDiceExpressionNode implements DiceExpressionNode {
   /** The operator that this represents. */
   private final String operator;
 
-  /** The result of the expression. */
-  private DiceExprResult diceExprResult;
-
   /** The node representing the operand. */
   private final DiceExpressionNode operand;
 
@@ -38,28 +34,43 @@ public class UnaryDiceExpressionNode implements DiceExpressionNode {
    * @param operand The operand for this operator.
    */
   public UnaryDiceExpressionNode(String op, DiceExpressionNode operand) {
-    operator = op;
+    operator = op.intern();
     this.operand = operand;
   }
 
-  @Override
-  public DiceExprResult getExprResult() {
-    return diceExprResult;
-  }
-
   @Override
   public Collection<DiceExpressionNode> getChildren() {
     return Collections.singletonList(operand);
   }
 
-  public DiceExprResult evaluate(DiceExpressionSymbolTable symbolTable)
-      throws UnsupportedOperationException {
+  public DiceExprResult evaluate(DiceEvalFrame frame) throws UnsupportedOperationException {
+    DiceExprResult diceExprResult;
     switch (operator) {
       case "-":
-        diceExprResult = DiceExprResult.negate(operand.evaluate(symbolTable));
-        return diceExprResult;
+        diceExprResult = DiceExprResult.negate(operand.evaluate(frame), frame.getArithmeticMode());
+        break;
       default:
         throw new UnsupportedOperationException("Unknown unary operator: " + operator);
     }
+    frame.setResult(this, diceExprResult);
+    return diceExprResult;
+  }
+
+  /**
+   * Returns the operator that this node represents.
+   *
+   * @return the operator that this node represents.
+   */
+  public String getOperator() {
+    return operator;
+  }
+
+  /**
+   * Returns the operand for the operator.
+   *
+   * @return the operand for the operator.
+   */
+  public DiceExpressionNode getOperand() {
+    return operand;
   }
 }
@@ -17,7 +17,6 @@ package net.rptools.dice.expressiontree;
 import java.util.Collection;
 import java.util.Collections;
 import net.rptools.dice.result.DiceExprResult;
-import net.rptools.dice.symbols.DiceExpressionSymbolTable;
 
 /** Note which represents a value expression */
 public class ValueDiceExpressionNode implements DiceExpressionNode {
@@ -52,14 +51,22 @@ public class ValueDiceExpressionNode implements DiceExpressionNode {
     this.value = DiceExprResult.getStringResult(value);
   }
 
+  /**
+   * Creates a value from an already evaluated result.
+   *
+   * @param value the result.
+   */
+  public ValueDiceExpressionNode(DiceExprResult value) {
+    this.value = value;
+  }
+
   @Override
-  public DiceExprResult evaluate(DiceExpressionSymbolTable symbolTable)
-      throws UnsupportedOperationException {
+  public DiceExprResult evaluate(DiceEvalFrame frame) throws UnsupportedOperationException {
     return value;
   }
 
   @Override
-  public DiceExprResult getExprResult() {
+  public DiceExprResult getExprResult(DiceEvalFrame frame) {
     return value;
   }
 
@@ -67,4 +74,13 @@ public class ValueDiceExpressionNode implements DiceExpressionNode {
   public Collection<DiceExpressionNode> getChildren() {
     return Collections.emptyList();
   }
+
+  /**
+   * Returns the value that this node represents.
+   *
+   * @return the value that this node represents.
+   */
+  public DiceExprResult getValue() {
+    return value;
+  }
 }
@@ -0,0 +1,196 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.expressiontree;
+
+import java.util.ArrayList;
+import java.util.List;
+import net.rptools.dice.roller.arguments.DiceRollerArgument;
+
+/**
+ * Pass that gives every variable referred to by an expression a slot in a {@link DiceVariableSlots}
+ * layout, and rewrites the {@link ResolveSymbolDiceExpressionNode} and {@link
+ * AssignmentDiceExpressionNode} nodes to refer to their slot.
+ *
+ * <p>Variables used by {@link DiceRollerArgument}s are given slots as well, but as the arguments
+ * are not rewritten they find their slot by name when they are evaluated.
+ */
+public final class VariableSlotResolver {
+
+  /** The builder for the layout of the slots. */
+  private final DiceVariableSlots.Builder slotsBuilder = new DiceVariableSlots.Builder();
+
+  /** The rewritten expression trees. */
+  private final List<DiceExpressionNode> roots;
+
+  /** The layout of the slots. */
+  private final DiceVariableSlots slots;
+
+  /**
+   * Creates a new <code>VariableSlotResolver</code> and resolves the slots of the expression trees.
+   *
+   * @param roots The roots of the expression trees.
+   */
+  private VariableSlotResolver(List<DiceExpressionNode> roots) {
+    List<DiceExpressionNode> resolved = new ArrayList<>(roots.size());
+    for (var root : roots) {
+      resolved.add(resolveNode(root));
+    }
+    this.roots = List.copyOf(resolved);
+    slots = slotsBuilder.build();
+  }
+
+  /**
+   * Resolves the slots of the variables referred to by a list of expression trees.
+   *
+   * @param roots The roots of the expression trees.
+   * @return the resolver holding the rewritten trees and the layout of the slots.
+   */
+  public static VariableSlotResolver resolve(List<DiceExpressionNode> roots) {
+    return new VariableSlotResolver(roots);
+  }
+
+  /**
+   * Returns the rewritten expression trees.
+   *
+   * @return the rewritten expression trees.
+   */
+  public List<DiceExpressionNode> getRoots() {
+    return roots;
+  }
+
+  /**
+   * Returns the layout of the slots of the variables.
+   *
+   * @return the layout of the slots.
+   */
+  public DiceVariableSlots getSlots() {
+    return slots;
+  }
+
+  /**
+   * Resolves the slots of the variables referred to by a node and its children.
+   *
+   * @param node The node to resolve.
+   * @return the rewritten node, which is the same node if it does not refer to any variables.
+   */
+  private DiceExpressionNode resolveNode(DiceExpressionNode node) {
+    if (node instanceof ResolveSymbolDiceExpressionNode) {
+      var resolve = (ResolveSymbolDiceExpressionNode) node;
+      int slot = slotsBuilder.slotFor(resolve.getScope(), resolve.getName());
+      if (isResolved(resolve.getName(), resolve.getSlot(), slot)) {
+        return resolve;
+      }
+      return new ResolveSymbolDiceExpressionNode(
+          resolve.getName().intern(), resolve.getScope(), slot);
+    } else if (node instanceof AssignmentDiceExpressionNode) {
+      var assignment = (AssignmentDiceExpressionNode) node;
+      var rhs = resolveNode(assignment.getRhs());
+      int slot = slotsBuilder.slotFor(assignment.getScope(), assignment.getName());
+      if (rhs == assignment.getRhs()
+          && isResolved(assignment.getName(), assignment.getSlot(), slot)) {
+        return assignment;
+      }
+      return new AssignmentDiceExpressionNode(
+          assignment.getName().intern(), assignment.getScope(), rhs, slot);
+    } else if (node instanceof BinaryDiceExpressionNode) {
+      var binary = (BinaryDiceExpressionNode) node;
+      var left = resolveNode(binary.getLeft());
+      var right = resolveNode(binary.getRight());
+      return left == binary.getLeft() && right == binary.getRight()
+          ? binary
+          : new BinaryDiceExpressionNode(binary.getOperator(), left, right);
+    } else if (node instanceof ChainDiceExpressionNode) {
+      var chain = (ChainDiceExpressionNode) node;
+      List<DiceExpressionNode> operands = new ArrayList<>(chain.getOperands().size());
+      boolean changed = false;
+      for (var operand : chain.getOperands()) {
+        var resolved = resolveNode(operand);
+        changed |= resolved != operand;
+        operands.add(resolved);
+      }
+      return changed ? new ChainDiceExpressionNode(operands, chain.getOperators()) : chain;
+    } else if (node instanceof UnaryDiceExpressionNode) {
+      var unary = (UnaryDiceExpressionNode) node;
+      var operand = resolveNode(unary.getOperand());
+      return operand == unary.getOperand()
+          ? unary
+          : new UnaryDiceExpressionNode(unary.getOperator(), operand);
+    } else if (node instanceof GroupDiceExpressionNode) {
+      var group = (GroupDiceExpressionNode) node;
+      var grouped = resolveNode(group.getGrouped());
+      return grouped == group.getGrouped()
+          ? group
+          : new GroupDiceExpressionNode(group.getGroupingType(), grouped);
+    } else if (node instanceof TopLevelExpressionNode) {
+      var topLevel = (TopLevelExpressionNode) node;
+      var child = resolveNode(topLevel.getChild());
+      return child == topLevel.getChild()
+          ? topLevel
+          : new TopLevelExpressionNode(
+              topLevel.getSource(), topLevel.getStart(), topLevel.getEnd(), child);
+    } else if (node instanceof DiceRollDiceExpressionNode) {
+      var dice = (DiceRollDiceExpressionNode) node;
+      for (DiceRollerArgument argument : dice.getRollerArguments()) {
+        argument.getValueNode().ifPresent(this::allocateSlots);
+      }
+      var numberOfDice = resolveNode(dice.getNumberOfDice());
+      var numberOfSides = resolveNode(dice.getNumberOfSides());
+      return numberOfDice == dice.getNumberOfDice() && numberOfSides == dice.getNumberOfSides()
+          ? dice
+          : new DiceRollDiceExpressionNode(
+              dice.getDiceName(),
+              numberOfDice,
+              numberOfSides,
+              dice.getRollerArguments(),
+              dice.getSource(),
+              dice.getStart(),
+              dice.getEnd());
+    } else {
+      return node;
+    }
+  }
+
+  /**
+   * Returns if a node that has already been resolved refers to the same slot, so that it can be
+   * reused.
+   *
+   * @param name The name of the variable of the node.
+   * @param nodeSlot The slot the node refers to.
+   * @param slot The slot of the variable.
+   * @return <code>true</code> if the node can be reused.
+   */
+  private static boolean isResolved(String name, int nodeSlot, int slot) {
+    return nodeSlot == slot && name == name.intern();
+  }
+
+  /**
+   * Allocates slots for the variables referred to by a node and its children without rewriting
+   * them.
+   *
+   * @param node The node to allocate the slots for.
+   */
+  private void allocateSlots(DiceExpressionNode node) {
+    if (node instanceof ResolveSymbolDiceExpressionNode) {
+      var resolve = (ResolveSymbolDiceExpressionNode) node;
+      slotsBuilder.slotFor(resolve.getScope(), resolve.getName());
+    } else if (node instanceof AssignmentDiceExpressionNode) {
+      var assignment = (AssignmentDiceExpressionNode) node;
+      slotsBuilder.slotFor(assignment.getScope(), assignment.getName());
+    }
+    for (var child : node.getChildren()) {
+      allocateSlots(child);
+    }
+  }
+}
@@ -0,0 +1,42 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.parser;
+
+/** Thrown when the source of a dice expression can not be parsed. */
+public class DiceExprSyntaxException extends IllegalArgumentException {
+
+  /** The character offset in the source where the error was found. */
+  private final int position;
+
+  /**
+   * Creates a new <code>DiceExprSyntaxException</code>.
+   *
+   * @param message The description of the error.
+   * @param pos The character offset in the source where the error was found.
+   */
+  public DiceExprSyntaxException(String message, int pos) {
+    super(message + " at position " + pos);
+    position = pos;
+  }
+
+  /**
+   * Returns the character offset in the source where the error was found.
+   *
+   * @return the character offset in the source where the error was found.
+   */
+  public int getPosition() {
+    return position;
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.parser;
+
+import java.util.Arrays;
+import net.rptools.dice.DiceInputLimits;
+import net.rptools.dice.expressiontree.DiceExpressionSource;
+import net.rptools.dice.parser.DiceInputRejectedException.Reason;
+
+/**
+ * Checks the source of a dice expression against {@link DiceInputLimits} with a single linear scan,
+ * so that inputs that are too large are rejected before any parser sees them.
+ *
+ * <p>The scan only splits the source into rough tokens: a string, a variable, a number, a run of
+ * letters or any other single character each count as one token, and whitespace and comments are
+ * skipped. This is close to the tokens the lexer produces and is enough to bound the work done by
+ * the parsers. The nesting depth is the number of open <code>(</code> and <code>{</code> outside
+ * strings and comments, plus the number of unary <code>-</code> operators applied to the operand
+ * being read, as each of these is nested in the expression that follows it. This bounds the depth
+ * of the trees the parsers build, and so the stack used to compile them.
+ */
+public final class DiceInputGuard {
+
+  private DiceInputGuard() {}
+
+  /**
+   * Checks the source of a dice expression against the limits.
+   *
+   * @param text The source of the expression.
+   * @param limits The limits to check against.
+   * @throws DiceInputRejectedException if the source exceeds one of the limits.
+   */
+  public static void check(String text, DiceInputLimits limits) {
+    if (limits.isUnlimited()) {
+      return;
+    }
+    int len = text.length();
+    if (len > limits.getMaxLength()) {
+      throw new DiceInputRejectedException(Reason.INPUT_TOO_LONG, limits.getMaxLength(), 0);
+    }
+
+    int maxTokens = limits.getMaxTokens();
+    int maxDepth = limits.getMaxNestingDepth();
+    int tokens = 0;
+    int depth = 0;
+    // The depth inside each open group, which it goes back to after each operand in the group.
+    int[] groupDepths = new int[16];
+    int groups = 0;
+    // Whether the last token ends an operand, so that a following '-' is a binary operator.
+    boolean operand = false;
+    int i = 0;
+    while (i < len) {
+      char c = text.charAt(i);
+      if (Character.isWhitespace(c)) {
+        i++;
+        continue;
+      }
+      if (c == '/' && i + 1 < len && text.charAt(i + 1) == '*') {
+        int close = DiceExpressionSource.skipComment(text, i, len);
+        i = close < 0 ? len : close;
+        continue;
+      }
+      if (++tokens > maxTokens) {
+        throw new DiceInputRejectedException(Reason.TOO_MANY_TOKENS, maxTokens, i);
+      }
+      if (c == '\'' || c == '"') {
+        int close = DiceExpressionSource.skipString(text, i, len);
+        i = close < 0 ? len : close;
+        operand = true;
+      } else if (c == '$' || c == '#' || c == '@') {
+        i = skip(text, i + 1, true);
+        operand = true;
+      } else if (Character.isDigit(c)) {
+        do {
+          i++;
+        } while (i < len && (Character.isDigit(text.charAt(i)) || text.charAt(i) == '.'));
+        operand = true;
+      } else if (Character.isLetter(c)) {
+        i = skip(text, i + 1, false);
+        operand = true;
+      } else {
+        if (c == '(' || c == '{' || c == '-' && !operand) {
+          if (++depth > maxDepth) {
+            throw new DiceInputRejectedException(Reason.NESTING_TOO_DEEP, maxDepth, i);
+          }
+          if (c != '-') {
+            if (groups == groupDepths.length) {
+              groupDepths = Arrays.copyOf(groupDepths, groups * 2);
+            }
+            groupDepths[groups++] = depth;
+          }
+        } else if ((c == ')' || c == '}') && groups > 0) {
+          groups--;
+        }
+        operand = c == ')' || c == '}';
+        i++;
+      }
+      if (operand) {
+        depth = groups > 0 ? groupDepths[groups - 1] : 0;
+      }
+    }
+  }
+
+  /**
+   * Skips a run of letters, and digits if they are allowed.
+   *
+   * @param text The source of the expression.
+   * @param i The offset to start at.
+   * @param digits Are digits part of the run.
+   * @return the offset after the run.
+   */
+  private static int skip(String text, int i, boolean digits) {
+    while (i < text.length()
+        && (Character.isLetter(text.charAt(i)) || digits && Character.isDigit(text.charAt(i)))) {
+      i++;
+    }
+    return i;
+  }
+}
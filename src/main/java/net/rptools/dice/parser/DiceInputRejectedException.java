@@ -0,0 +1,80 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.parser;
+
+/**
+ * Thrown when the source of a dice expression is rejected before parsing because it exceeds one of
+ * the {@link net.rptools.dice.DiceInputLimits}.
+ */
+public class DiceInputRejectedException extends DiceExprSyntaxException {
+
+  /** The reason the source was rejected. */
+  public enum Reason {
+    /** The source has too many characters. */
+    INPUT_TOO_LONG,
+    /** The source has too many tokens. */
+    TOO_MANY_TOKENS,
+    /** Groups and unary operators in the source are nested too deeply. */
+    NESTING_TOO_DEEP
+  }
+
+  /** The reason the source was rejected. */
+  private final Reason reason;
+
+  /** The limit that was exceeded. */
+  private final int limit;
+
+  /**
+   * Creates a new <code>DiceInputRejectedException</code>.
+   *
+   * @param reason The reason the source was rejected.
+   * @param limit The limit that was exceeded.
+   * @param pos The character offset in the source where the limit was exceeded.
+   */
+  public DiceInputRejectedException(Reason reason, int limit, int pos) {
+    super(describe(reason, limit), pos);
+    this.reason = reason;
+    this.limit = limit;
+  }
+
+  private static String describe(Reason reason, int limit) {
+    switch (reason) {
+      case INPUT_TOO_LONG:
+        return "Expression is longer than " + limit + " characters";
+      case TOO_MANY_TOKENS:
+        return "Expression has more than " + limit + " tokens";
+      default:
+        return "Expression is nested deeper than " + limit + " levels";
+    }
+  }
+
+  /**
+   * Returns the reason the source was rejected.
+   *
+   * @return the reason the source was rejected.
+   */
+  public Reason getReason() {
+    return reason;
+  }
+
+  /**
+   * Returns the limit that was exceeded.
+   *
+   * @return the limit that was exceeded.
+   */
+  public int getLimit() {
+    return limit;
+  }
+}
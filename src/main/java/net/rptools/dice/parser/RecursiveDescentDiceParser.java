@@ -0,0 +1,887 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import net.rptools.dice.expressiontree.AssignmentDiceExpressionNode;
+import net.rptools.dice.expressiontree.ChainDiceExpressionNode;
+import net.rptools.dice.expressiontree.DiceExpressionNode;
+import net.rptools.dice.expressiontree.DiceExpressionSource;
+import net.rptools.dice.expressiontree.DiceRollDiceExpressionNode;
+import net.rptools.dice.expressiontree.GroupDiceExpressionNode;
+import net.rptools.dice.expressiontree.InstructionDiceExpressionNode;
+import net.rptools.dice.expressiontree.ResolveSymbolDiceExpressionNode;
+import net.rptools.dice.expressiontree.TopLevelExpressionNode;
+import net.rptools.dice.expressiontree.UnaryDiceExpressionNode;
+import net.rptools.dice.expressiontree.ValueDiceExpressionNode;
+import net.rptools.dice.roller.arguments.CriticalDiceRollerArgument;
+import net.rptools.dice.roller.arguments.DiceRollerArgument;
+import net.rptools.dice.roller.arguments.FailDiceRollerArgument;
+import net.rptools.dice.roller.arguments.FumbleDiceRollerArgument;
+import net.rptools.dice.roller.arguments.KeepRollerArgument;
+import net.rptools.dice.roller.arguments.SuccessDiceRollerArgument;
+import net.rptools.dice.symbols.DiceEvalScope;
+
+/**
+ * A hand written recursive descent parser for the language described by <code>DiceExpr.g4</code>.
+ *
+ * <p>The parser builds the same {@link DiceExpressionNode} trees as the ANTLR generated parser and
+ * <code>DiceRollVisitor</code>, but works directly on the characters of the source without creating
+ * token objects or a parse tree. Binary operators are parsed by precedence climbing using the same
+ * precedences as the grammar.
+ *
+ * <p>Unlike the ANTLR parser, which stops at the first token it can not match, this parser requires
+ * the whole of the source to be a valid list of statements and throws a {@link
+ * DiceExprSyntaxException} if it is not.
+ */
+public final class RecursiveDescentDiceParser {
+
+  /* Token types. */
+  private static final int EOF = 0;
+  private static final int INTEGER = 1;
+  private static final int DOUBLE = 2;
+  private static final int STRING = 3;
+  private static final int LETTER = 4;
+  private static final int LOCAL_VARIABLE = 5;
+  private static final int GLOBAL_VARIABLE = 6;
+  private static final int PROPERTY_VARIABLE = 7;
+  private static final int INSTRUCTION_LEADER = 8;
+  private static final int SEMI = 9;
+  private static final int ASSIGN = 10;
+  private static final int CARET = 11;
+  private static final int STAR = 12;
+  private static final int SLASH = 13;
+  private static final int PLUS = 14;
+  private static final int MINUS = 15;
+  private static final int LPAREN = 16;
+  private static final int RPAREN = 17;
+  private static final int LBRACE = 18;
+  private static final int RBRACE = 19;
+  private static final int COMMA = 20;
+  private static final int LT = 21;
+  private static final int GT = 22;
+  private static final int LE = 23;
+  private static final int GE = 24;
+  private static final int ARG_CS = 25;
+  private static final int ARG_CF = 26;
+  private static final int ARG_S = 27;
+  private static final int ARG_F = 28;
+  private static final int ARG_KH = 29;
+  private static final int ARG_KL = 30;
+  private static final int ARG_DH = 31;
+  private static final int ARG_DL = 32;
+
+  /** The precedence the operand of a unary minus is parsed with, which is below every operator. */
+  private static final int UNARY_OPERAND_PRECEDENCE = 7;
+
+  /** The source being parsed. */
+  private final String source;
+
+  /** The source shared by the nodes, which refer to their text by offset. */
+  private final DiceExpressionSource expressionSource;
+
+  /** The offset in the source to start parsing at. */
+  private final int begin;
+
+  /** The offset in the source to stop parsing at. */
+  private final int limit;
+
+  /** The types of the tokens. */
+  private int[] types = new int[16];
+
+  /** The offsets of the first character of each token. */
+  private int[] starts = new int[16];
+
+  /** The offsets after the last character of each token. */
+  private int[] ends = new int[16];
+
+  /** The number of tokens, including the end of file token. */
+  private int numTokens;
+
+  /** The index of the current token. */
+  private int pos;
+
+  /**
+   * Creates a new <code>RecursiveDescentDiceParser</code>.
+   *
+   * @param src The source to parse.
+   * @param start The offset in the source to start parsing at.
+   * @param end The offset in the source to stop parsing at.
+   */
+  private RecursiveDescentDiceParser(DiceExpressionSource src, int start, int end) {
+    source = src.getText();
+    expressionSource = src;
+    begin = start;
+    limit = end;
+  }
+
+  /**
+   * Parses the source of a dice expression.
+   *
+   * @param source The source to parse.
+   * @return the expression trees for each of the statements in the source.
+   * @throws DiceExprSyntaxException if the source is not a valid dice expression.
+   */
+  public static List<DiceExpressionNode> parse(String source) {
+    return parse(new DiceExpressionSource(source), 0, source.length());
+  }
+
+  /**
+   * Parses part of the source of a dice expression. The nodes refer to their text by offset in the
+   * whole source.
+   *
+   * @param source The source to parse.
+   * @param start The offset in the source to start parsing at.
+   * @param end The offset in the source to stop parsing at.
+   * @return the expression trees for each of the statements in the part of the source.
+   * @throws DiceExprSyntaxException if the part of the source is not a valid dice expression.
+   */
+  public static List<DiceExpressionNode> parse(DiceExpressionSource source, int start, int end) {
+    if (start < 0 || end > source.length() || start > end) {
+      throw new IndexOutOfBoundsException("Invalid range " + start + " to " + end);
+    }
+    var parser = new RecursiveDescentDiceParser(source, start, end);
+    parser.tokenize();
+    return parser.parseDiceRolls();
+  }
+
+  /*
+   * Lexer.
+   */
+
+  /** Splits the source into tokens, skipping white space and comments. */
+  private void tokenize() {
+    int len = limit;
+    int i = begin;
+    while (i < len) {
+      char c = source.charAt(i);
+      int start = i;
+      switch (c) {
+        case ' ':
+        case '\t':
+        case '\r':
+        case '\n':
+          i++;
+          continue;
+        case ';':
+          addToken(SEMI, start, ++i);
+          continue;
+        case '=':
+          addToken(ASSIGN, start, ++i);
+          continue;
+        case '^':
+          addToken(CARET, start, ++i);
+          continue;
+        case '*':
+          addToken(STAR, start, ++i);
+          continue;
+        case '/':
+          if (i + 1 < len && source.charAt(i + 1) == '*') {
+            int close = source.indexOf("*/", i + 2);
+            if (close >= 0 && close + 2 <= len) {
+              i = close + 2;
+              continue;
+            }
+          }
+          addToken(SLASH, start, ++i);
+          continue;
+        case '+':
+          addToken(PLUS, start, ++i);
+          continue;
+        case '-':
+          addToken(MINUS, start, ++i);
+          continue;
+        case '(':
+          addToken(LPAREN, start, ++i);
+          continue;
+        case ')':
+          addToken(RPAREN, start, ++i);
+          continue;
+        case '{':
+          addToken(LBRACE, start, ++i);
+          continue;
+        case '}':
+          addToken(RBRACE, start, ++i);
+          continue;
+        case ',':
+          addToken(COMMA, start, ++i);
+          continue;
+        case '%':
+          addToken(INSTRUCTION_LEADER, start, ++i);
+          continue;
+        case '<':
+        case '>':
+          if (i + 1 < len && source.charAt(i + 1) == '=') {
+            addToken(c == '<' ? LE : GE, start, i += 2);
+          } else {
+            addToken(c == '<' ? LT : GT, start, ++i);
+          }
+          continue;
+        case '\'':
+        case '"':
+          i = scanString(i);
+          addToken(STRING, start, i);
+          continue;
+        case '$':
+          addToken(LOCAL_VARIABLE, start, i = scanVariableName(i));
+          continue;
+        case '#':
+          addToken(GLOBAL_VARIABLE, start, i = scanVariableName(i));
+          continue;
+        case '@':
+          if (i + 1 < len && (source.charAt(i + 1) == '\'' || source.charAt(i + 1) == '"')) {
+            i = scanString(i + 1);
+          } else {
+            i = scanVariableName(i);
+          }
+          addToken(PROPERTY_VARIABLE, start, i);
+          continue;
+        default:
+          break;
+      }
+
+      if (isDigit(c)) {
+        while (i < len && isDigit(source.charAt(i))) {
+          i++;
+        }
+        if (i + 1 < len && source.charAt(i) == '.' && isDigit(source.charAt(i + 1))) {
+          i++;
+          while (i < len && isDigit(source.charAt(i))) {
+            i++;
+          }
+          addToken(DOUBLE, start, i);
+        } else {
+          addToken(INTEGER, start, i);
+        }
+      } else if (isLetter(c)) {
+        char next = i + 1 < len ? source.charAt(i + 1) : '\0';
+        int type = LETTER;
+        if (c == 'c' && next == 's') {
+          type = ARG_CS;
+        } else if (c == 'c' && next == 'f') {
+          type = ARG_CF;
+        } else if (c == 'k' && next == 'h') {
+          type = ARG_KH;
+        } else if (c == 'k' && next == 'l') {
+          type = ARG_KL;
+        } else if (c == 'd' && next == 'h') {
+          type = ARG_DH;
+        } else if (c == 'd' && next == 'l') {
+          type = ARG_DL;
+        }
+        if (type != LETTER) {
+          addToken(type, start, i += 2);
+        } else if (c == 's') {
+          addToken(ARG_S, start, ++i);
+        } else if (c == 'f') {
+          addToken(ARG_F, start, ++i);
+        } else {
+          addToken(LETTER, start, ++i);
+        }
+      } else {
+        throw new DiceExprSyntaxException("Unexpected character '" + c + "'", i);
+      }
+    }
+    addToken(EOF, len, len);
+  }
+
+  /**
+   * Scans a quoted string, including any escape sequences.
+   *
+   * @param start The offset of the opening quote.
+   * @return the offset after the closing quote.
+   */
+  private int scanString(int start) {
+    char quote = source.charAt(start);
+    int len = limit;
+    int i = start + 1;
+    while (i < len) {
+      char c = source.charAt(i);
+      if (c == quote) {
+        return i + 1;
+      } else if (c == '\\') {
+        i = scanEscape(i, quote);
+      } else {
+        i++;
+      }
+    }
+    throw new DiceExprSyntaxException("Unterminated string", start);
+  }
+
+  /**
+   * Scans an escape sequence inside of a string.
+   *
+   * @param start The offset of the backslash starting the escape sequence.
+   * @param quote The quote character the string was opened with.
+   * @return the offset after the escape sequence.
+   */
+  private int scanEscape(int start, char quote) {
+    int len = limit;
+    int i = start + 1;
+    if (i < len && source.charAt(i) == quote) {
+      return i + 1;
+    }
+    if (i + 1 < len && source.charAt(i) == '\\') {
+      char c = source.charAt(i + 1);
+      if ("\\/bfnrt".indexOf(c) >= 0) {
+        return i + 2;
+      }
+      if (c == 'u' && i + 5 < len) {
+        for (int h = i + 2; h < i + 6; h++) {
+          if (Character.digit(source.charAt(h), 16) < 0) {
+            throw new DiceExprSyntaxException("Invalid unicode escape", start);
+          }
+        }
+        return i + 6;
+      }
+    }
+    throw new DiceExprSyntaxException("Invalid escape sequence", start);
+  }
+
+  /**
+   * Scans the name of a variable after its scope prefix.
+   *
+   * @param start The offset of the scope prefix.
+   * @return the offset after the name.
+   */
+  private int scanVariableName(int start) {
+    int len = limit;
+    int i = start + 1;
+    if (i >= len || !isLetter(source.charAt(i))) {
+      throw new DiceExprSyntaxException("Missing variable name", start);
+    }
+    while (i < len && (isLetter(source.charAt(i)) || isDigit(source.charAt(i)))) {
+      i++;
+    }
+    return i;
+  }
+
+  /**
+   * Adds a token to the end of the token arrays.
+   *
+   * @param type The type of the token.
+   * @param start The offset of the first character of the token.
+   * @param end The offset after the last character of the token.
+   */
+  private void addToken(int type, int start, int end) {
+    if (numTokens == types.length) {
+      types = Arrays.copyOf(types, numTokens * 2);
+      starts = Arrays.copyOf(starts, numTokens * 2);
+      ends = Arrays.copyOf(ends, numTokens * 2);
+    }
+    types[numTokens] = type;
+    starts[numTokens] = start;
+    ends[numTokens] = end;
+    numTokens++;
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private static boolean isLetter(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+  }
+
+  /*
+   * Parser.
+   */
+
+  /**
+   * Returns the type of a token relative to the current one.
+   *
+   * @param offset The offset from the current token.
+   * @return the type of the token, or {@link #EOF} past the end of the source.
+   */
+  private int peek(int offset) {
+    int index = pos + offset;
+    return index < numTokens ? types[index] : EOF;
+  }
+
+  /**
+   * Returns the text of a token.
+   *
+   * @param index The index of the token.
+   * @return the text of the token.
+   */
+  private String text(int index) {
+    return source.substring(starts[index], ends[index]);
+  }
+
+  /**
+   * Returns the text of a range of tokens joined together without the white space or comments
+   * between them, which is the same as the text of the ANTLR parse tree nodes.
+   *
+   * @param from The index of the first token.
+   * @param to The index after the last token.
+   * @return the text of the tokens.
+   */
+  private String text(int from, int to) {
+    if (to - from == 1) {
+      return text(from);
+    }
+    var sb = new StringBuilder();
+    for (int i = from; i < to; i++) {
+      sb.append(source, starts[i], ends[i]);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Consumes the current token, which must be of the expected type.
+   *
+   * @param type The expected type of the token.
+   * @param what The description of what was expected for the error message.
+   * @return the index of the consumed token.
+   */
+  private int expect(int type, String what) {
+    if (types[pos] != type) {
+      throw unexpected(what);
+    }
+    return pos++;
+  }
+
+  /**
+   * Creates the exception thrown for the current token.
+   *
+   * @param what The description of what was expected.
+   * @return the exception.
+   */
+  private DiceExprSyntaxException unexpected(String what) {
+    String found = types[pos] == EOF ? "end of input" : "'" + text(pos) + "'";
+    return new DiceExprSyntaxException("Expected " + what + " but found " + found, starts[pos]);
+  }
+
+  /**
+   * diceRolls : diceExprTopLevel ( ';' diceExprTopLevel)* ';'?
+   *
+   * @return the expression trees for each statement.
+   */
+  private List<DiceExpressionNode> parseDiceRolls() {
+    List<DiceExpressionNode> roots = new ArrayList<>();
+    roots.add(parseTopLevel());
+    while (types[pos] == SEMI) {
+      pos++;
+      if (types[pos] == EOF) {
+        break;
+      }
+      roots.add(parseTopLevel());
+    }
+    expect(EOF, "';' or end of input");
+    return Collections.unmodifiableList(roots);
+  }
+
+  /**
+   * diceExprTopLevel : diceExpr
+   *
+   * @return the node for the statement.
+   */
+  private DiceExpressionNode parseTopLevel() {
+    int start = pos;
+    DiceExpressionNode expr = parseDiceExpr();
+    return new TopLevelExpressionNode(expressionSource, starts[start], ends[pos - 1], expr);
+  }
+
+  /**
+   * diceExpr : assignment | expr | instruction
+   *
+   * @return the node for the expression.
+   */
+  private DiceExpressionNode parseDiceExpr() {
+    if (types[pos] == INSTRUCTION_LEADER) {
+      return parseInstruction();
+    }
+    if (isVariable(types[pos]) && peek(1) == ASSIGN) {
+      String variable = text(pos);
+      pos += 2;
+      return new AssignmentDiceExpressionNode(
+          variable.substring(1),
+          DiceEvalScope.getScopeForPrefix(variable.substring(0, 1)),
+          parseExpr(0));
+    }
+    return parseExpr(0);
+  }
+
+  /**
+   * Parses an expression, consuming binary operators with at least the given precedence.
+   *
+   * @param minPrecedence The lowest precedence of operator to consume.
+   * @return the node for the expression.
+   */
+  private DiceExpressionNode parseExpr(int minPrecedence) {
+    DiceExpressionNode left = parsePrimary();
+    // All binary operators are left associative. Runs of operators with the same precedence are
+    // collected into a single chain, the precedence of the operators can only go down as the loop
+    // goes on as the higher ones are consumed by the recursive call.
+    List<DiceExpressionNode> operands = new ArrayList<>();
+    List<String> operators = new ArrayList<>();
+    int chainPrecedence = -1;
+    while (true) {
+      int precedence = binaryPrecedence(types[pos]);
+      if (precedence != chainPrecedence && !operators.isEmpty()) {
+        left = ChainDiceExpressionNode.of(operands, operators);
+        operands.clear();
+        operators.clear();
+      }
+      if (precedence < minPrecedence) {
+        return left;
+      }
+      if (operators.isEmpty()) {
+        operands.add(left);
+        chainPrecedence = precedence;
+      }
+      operators.add(text(pos++));
+      operands.add(parseExpr(precedence + 1));
+    }
+  }
+
+  /**
+   * Returns the precedence of a binary operator.
+   *
+   * @param type The type of the token.
+   * @return the precedence, or -1 if the token is not a binary operator.
+   */
+  private static int binaryPrecedence(int type) {
+    switch (type) {
+      case CARET:
+        return 10;
+      case STAR:
+      case SLASH:
+        return 9;
+      case PLUS:
+      case MINUS:
+        return 8;
+      default:
+        return -1;
+    }
+  }
+
+  /**
+   * Parses everything in an expression other than binary operators.
+   *
+   * @return the node for the expression.
+   */
+  private DiceExpressionNode parsePrimary() {
+    int start = pos;
+    switch (types[pos]) {
+      case MINUS:
+        pos++;
+        return new UnaryDiceExpressionNode("-", parseExpr(UNARY_OPERAND_PRECEDENCE));
+      case INTEGER:
+        {
+          var value = parseInteger();
+          return types[pos] == LETTER ? parseDice(start, value) : value;
+        }
+      case LPAREN:
+      case LBRACE:
+        {
+          var group = parseGroup();
+          return types[pos] == LETTER ? parseDice(start, group) : group;
+        }
+      case LETTER:
+        return parseDice(start, new ValueDiceExpressionNode(1));
+      case DOUBLE:
+        return new ValueDiceExpressionNode(Double.parseDouble(text(pos++)));
+      case STRING:
+        return new ValueDiceExpressionNode(stripStringQuotes(text(pos++)));
+      case LOCAL_VARIABLE:
+      case GLOBAL_VARIABLE:
+      case PROPERTY_VARIABLE:
+        return parseVariable();
+      default:
+        throw unexpected("expression");
+    }
+  }
+
+  /**
+   * group : '(' diceExpr ')' | '{' diceExpr '}'
+   *
+   * @return the node for the group.
+   */
+  private DiceExpressionNode parseGroup() {
+    if (types[pos] == LPAREN) {
+      pos++;
+      DiceExpressionNode val = parseDiceExpr();
+      expect(RPAREN, "')'");
+      return new GroupDiceExpressionNode(GroupDiceExpressionNode.GroupingType.PAREN, val);
+    } else {
+      pos++;
+      DiceExpressionNode val = parseDiceExpr();
+      expect(RBRACE, "'}'");
+      return new GroupDiceExpressionNode(GroupDiceExpressionNode.GroupingType.BRACE, val);
+    }
+  }
+
+  /**
+   * dice : numDice? diceName diceSides diceArguments?
+   *
+   * <p>The dice name is the longest run of letters and integers, if the run ends in an integer that
+   * is the number of sides, otherwise the number of sides must be a group.
+   *
+   * @param start The index of the first token of the dice roll.
+   * @param numDice The node for the number of dice.
+   * @return the node for the dice roll.
+   */
+  private DiceExpressionNode parseDice(int start, DiceExpressionNode numDice) {
+    int nameStart = pos;
+    int runEnd = pos;
+    while (types[runEnd] == LETTER || types[runEnd] == INTEGER) {
+      runEnd++;
+    }
+
+    DiceExpressionNode sides;
+    int nameEnd;
+    if (types[runEnd - 1] == INTEGER) {
+      nameEnd = runEnd - 1;
+      if (types[nameEnd - 1] != LETTER) {
+        pos = nameEnd;
+        throw unexpected("dice name ending in a letter");
+      }
+      pos = nameEnd;
+      sides = parseInteger();
+    } else {
+      nameEnd = runEnd;
+      pos = runEnd;
+      if (types[pos] != LPAREN && types[pos] != LBRACE) {
+        throw unexpected("number of sides");
+      }
+      sides = parseGroup();
+    }
+    String name = text(nameStart, nameEnd);
+
+    List<DiceRollerArgument> args;
+    if ((types[pos] == LPAREN || types[pos] == LBRACE) && isDiceArgument(peek(1))) {
+      args = parseDiceArguments();
+    } else {
+      args = Collections.emptyList();
+    }
+
+    return new DiceRollDiceExpressionNode(
+        name, numDice, sides, args, expressionSource, starts[start], ends[pos - 1]);
+  }
+
+  /**
+   * diceArgumentList : '{' diceArgument ( ',' diceArgument )* '}' | '(' diceArgument ( ','
+   * diceArgument )* ')'
+   *
+   * @return the dice roller arguments.
+   */
+  private List<DiceRollerArgument> parseDiceArguments() {
+    int close = types[pos] == LPAREN ? RPAREN : RBRACE;
+    pos++;
+    List<DiceRollerArgument> args = new ArrayList<>();
+    args.add(parseDiceArgument());
+    while (types[pos] == COMMA) {
+      pos++;
+      args.add(parseDiceArgument());
+    }
+    expect(close, close == RPAREN ? "')'" : "'}'");
+    return args;
+  }
+
+  /**
+   * diceArgument : ('cs' | 'cf' | 's' | 'f') op? val | ('kh' | 'kl' | 'dh' | 'dl') '='? val
+   *
+   * @return the dice roller argument.
+   */
+  private DiceRollerArgument parseDiceArgument() {
+    int type = types[pos++];
+    switch (type) {
+      case ARG_CS:
+      case ARG_CF:
+      case ARG_S:
+      case ARG_F:
+        {
+          String op = isComparison(types[pos]) ? text(pos++) : null;
+          DiceExpressionNode val;
+          if (type == ARG_CS || type == ARG_CF) {
+            val = isDiceArgumentValue(types[pos]) ? parseDiceArgumentValue() : null;
+          } else {
+            val = parseDiceArgumentValue();
+          }
+          switch (type) {
+            case ARG_CS:
+              return new CriticalDiceRollerArgument(val, op);
+            case ARG_CF:
+              return new FumbleDiceRollerArgument(val, op);
+            case ARG_S:
+              return new SuccessDiceRollerArgument(val, op);
+            default:
+              return new FailDiceRollerArgument(val, op);
+          }
+        }
+      case ARG_KH:
+      case ARG_KL:
+      case ARG_DH:
+      case ARG_DL:
+        {
+          if (types[pos] == ASSIGN) {
+            pos++;
+          }
+          DiceExpressionNode val = parseDiceArgumentValue();
+          switch (type) {
+            case ARG_KH:
+              return KeepRollerArgument.keepHighest(val);
+            case ARG_KL:
+              return KeepRollerArgument.keepLowest(val);
+            case ARG_DH:
+              return KeepRollerArgument.dropHighest(val);
+            default:
+              return KeepRollerArgument.dropLowest(val);
+          }
+        }
+      default:
+        pos--;
+        throw unexpected("dice argument");
+    }
+  }
+
+  /**
+   * diceArgumentVal : identifier | variable | STRING | integerValue | doubleValue
+   *
+   * @return the node for the value, identifiers have no value and return <code>null</code>.
+   */
+  private DiceExpressionNode parseDiceArgumentValue() {
+    switch (types[pos]) {
+      case LETTER:
+        parseIdentifier();
+        return null;
+      case LOCAL_VARIABLE:
+      case GLOBAL_VARIABLE:
+      case PROPERTY_VARIABLE:
+        return parseVariable();
+      case STRING:
+        return new ValueDiceExpressionNode(stripStringQuotes(text(pos++)));
+      case INTEGER:
+        return parseInteger();
+      case DOUBLE:
+        return new ValueDiceExpressionNode(Double.parseDouble(text(pos++)));
+      default:
+        throw unexpected("dice argument value");
+    }
+  }
+
+  /**
+   * instruction : '%' identifier (instructionArgument ',' instructionArgument)*
+   *
+   * @return the node for the instruction.
+   */
+  private DiceExpressionNode parseInstruction() {
+    pos++;
+    String name = parseIdentifier();
+    List<String> args = new ArrayList<>();
+    while (isInstructionArgument(types[pos])) {
+      args.add(parseInstructionArgument());
+      expect(COMMA, "','");
+      args.add(parseInstructionArgument());
+    }
+    return new InstructionDiceExpressionNode(name, args);
+  }
+
+  /**
+   * instructionArgument : identifier | variable | STRING
+   *
+   * @return the text of the argument.
+   */
+  private String parseInstructionArgument() {
+    switch (types[pos]) {
+      case LETTER:
+        return parseIdentifier();
+      case LOCAL_VARIABLE:
+      case GLOBAL_VARIABLE:
+      case PROPERTY_VARIABLE:
+      case STRING:
+        return text(pos++);
+      default:
+        throw unexpected("instruction argument");
+    }
+  }
+
+  /**
+   * identifier : LETTER ( integerValue | LETTER)*
+   *
+   * @return the text of the identifier.
+   */
+  private String parseIdentifier() {
+    int start = expect(LETTER, "identifier");
+    while (types[pos] == LETTER || types[pos] == INTEGER) {
+      pos++;
+    }
+    return text(start, pos);
+  }
+
+  /**
+   * variable : LOCAL_VARIABLE | GLOBAL_VARIABLE | PROPERTY_VARIABLE
+   *
+   * @return the node to resolve the variable.
+   */
+  private DiceExpressionNode parseVariable() {
+    int type = types[pos];
+    String name = text(pos++).substring(1);
+    switch (type) {
+      case LOCAL_VARIABLE:
+        return new ResolveSymbolDiceExpressionNode(name, DiceEvalScope.LOCAL);
+      case GLOBAL_VARIABLE:
+        return new ResolveSymbolDiceExpressionNode(name, DiceEvalScope.GLOBAL);
+      default:
+        return new ResolveSymbolDiceExpressionNode(name, DiceEvalScope.PROPERTY);
+    }
+  }
+
+  /**
+   * integerValue : INTEGER
+   *
+   * @return the node for the value.
+   */
+  private DiceExpressionNode parseInteger() {
+    int index = expect(INTEGER, "integer");
+    try {
+      return new ValueDiceExpressionNode(Integer.parseInt(text(index)));
+    } catch (NumberFormatException e) {
+      throw new DiceExprSyntaxException("Integer out of range", starts[index]);
+    }
+  }
+
+  private static String stripStringQuotes(String str) {
+    return str.substring(1, str.length() - 1);
+  }
+
+  private static boolean isVariable(int type) {
+    return type == LOCAL_VARIABLE || type == GLOBAL_VARIABLE || type == PROPERTY_VARIABLE;
+  }
+
+  private static boolean isComparison(int type) {
+    return type == LT || type == GT || type == LE || type == GE || type == ASSIGN;
+  }
+
+  private static boolean isDiceArgument(int type) {
+    return type >= ARG_CS && type <= ARG_DL;
+  }
+
+  private static boolean isDiceArgumentValue(int type) {
+    return type == LETTER
+        || isVariable(type)
+        || type == STRING
+        || type == INTEGER
+        || type == DOUBLE;
+  }
+
+  private static boolean isInstructionArgument(int type) {
+    return type == LETTER || isVariable(type) || type == STRING;
+  }
+}
@@ -0,0 +1,332 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.result;
+
+import java.math.BigInteger;
+
+/**
+ * The arithmetic used for operations where both operands are integers.
+ *
+ * <p>The operations of this class must only be passed {@link DiceResultType#INTEGER} results, the
+ * operations of {@link DiceExprResult} take care of coercing other types. Integers raised to a
+ * negative power give a {@link DiceResultType#DOUBLE} result in all modes.
+ */
+public enum ArithmeticMode {
+  /** 32 bit integers which wrap around on overflow. */
+  INT {
+    @Override
+    public DiceExprResult add(DiceExprResult left, DiceExprResult right) {
+      return new DiceExprResult(left.getIntValue() + right.getIntValue());
+    }
+
+    @Override
+    public DiceExprResult subtract(DiceExprResult left, DiceExprResult right) {
+      return new DiceExprResult(left.getIntValue() - right.getIntValue());
+    }
+
+    @Override
+    public DiceExprResult multiply(DiceExprResult left, DiceExprResult right) {
+      return new DiceExprResult(left.getIntValue() * right.getIntValue());
+    }
+
+    @Override
+    public DiceExprResult divide(DiceExprResult left, DiceExprResult right) {
+      return new DiceExprResult(left.getIntValue() / right.getIntValue());
+    }
+
+    @Override
+    public DiceExprResult power(DiceExprResult left, DiceExprResult right) {
+      int base = left.getIntValue();
+      int exponent = right.getIntValue();
+      if (exponent < 0) {
+        return DiceExprResult.getDoubleResult(Math.pow(base, exponent));
+      }
+      int result = 1;
+      while (exponent != 0) {
+        if ((exponent & 1) != 0) {
+          result *= base;
+        }
+        exponent >>>= 1;
+        base *= base;
+      }
+      return new DiceExprResult(result);
+    }
+
+    @Override
+    public DiceExprResult negate(DiceExprResult value) {
+      return new DiceExprResult(-value.getIntValue());
+    }
+  },
+
+  /** 64 bit integers, overflow throws an {@link ArithmeticException}. */
+  LONG {
+    @Override
+    public DiceExprResult add(DiceExprResult left, DiceExprResult right) {
+      return DiceExprResult.getLongResult(Math.addExact(exactLong(left), exactLong(right)));
+    }
+
+    @Override
+    public DiceExprResult subtract(DiceExprResult left, DiceExprResult right) {
+      return DiceExprResult.getLongResult(Math.subtractExact(exactLong(left), exactLong(right)));
+    }
+
+    @Override
+    public DiceExprResult multiply(DiceExprResult left, DiceExprResult right) {
+      return DiceExprResult.getLongResult(Math.multiplyExact(exactLong(left), exactLong(right)));
+    }
+
+    @Override
+    public DiceExprResult divide(DiceExprResult left, DiceExprResult right) {
+      long dividend = exactLong(left);
+      long divisor = exactLong(right);
+      if (dividend == Long.MIN_VALUE && divisor == -1) {
+        throw new ArithmeticException("long overflow");
+      }
+      return DiceExprResult.getLongResult(dividend / divisor);
+    }
+
+    @Override
+    public DiceExprResult power(DiceExprResult left, DiceExprResult right) {
+      long exponent = exactLong(right);
+      if (exponent < 0) {
+        return DiceExprResult.getDoubleResult(Math.pow(left.getDoubleValue(), exponent));
+      }
+      return DiceExprResult.getLongResult(powerExact(exactLong(left), exponent));
+    }
+
+    @Override
+    public DiceExprResult negate(DiceExprResult value) {
+      return DiceExprResult.getLongResult(Math.negateExact(exactLong(value)));
+    }
+  },
+
+  /**
+   * 64 bit integers that are promoted to {@link BigInteger}s when they overflow. Results are
+   * limited to {@link #MAX_BIG_INTEGER_BITS} bits, larger results throw an {@link
+   * ArithmeticException}.
+   */
+  BIG_INTEGER {
+    @Override
+    public DiceExprResult add(DiceExprResult left, DiceExprResult right) {
+      if (!left.isBigInteger() && !right.isBigInteger()) {
+        long a = left.getLongValue();
+        long b = right.getLongValue();
+        long sum = a + b;
+        if (((a ^ sum) & (b ^ sum)) >= 0) {
+          return DiceExprResult.getLongResult(sum);
+        }
+      }
+      return DiceExprResult.getBigIntegerResult(big(left).add(big(right)));
+    }
+
+    @Override
+    public DiceExprResult subtract(DiceExprResult left, DiceExprResult right) {
+      if (!left.isBigInteger() && !right.isBigInteger()) {
+        long a = left.getLongValue();
+        long b = right.getLongValue();
+        long difference = a - b;
+        if (((a ^ b) & (a ^ difference)) >= 0) {
+          return DiceExprResult.getLongResult(difference);
+        }
+      }
+      return DiceExprResult.getBigIntegerResult(big(left).subtract(big(right)));
+    }
+
+    @Override
+    public DiceExprResult multiply(DiceExprResult left, DiceExprResult right) {
+      if (!left.isBigInteger() && !right.isBigInteger()) {
+        long a = left.getLongValue();
+        long b = right.getLongValue();
+        long high = Math.multiplyHigh(a, b);
+        long low = a * b;
+        if ((high == 0 && low >= 0) || (high == -1 && low < 0)) {
+          return DiceExprResult.getLongResult(low);
+        }
+      }
+      BigInteger a = big(left);
+      BigInteger b = big(right);
+      checkBits((long) a.bitLength() + b.bitLength());
+      return DiceExprResult.getBigIntegerResult(a.multiply(b));
+    }
+
+    @Override
+    public DiceExprResult divide(DiceExprResult left, DiceExprResult right) {
+      if (!left.isBigInteger() && !right.isBigInteger()) {
+        long dividend = left.getLongValue();
+        long divisor = right.getLongValue();
+        if (dividend != Long.MIN_VALUE || divisor != -1) {
+          return DiceExprResult.getLongResult(dividend / divisor);
+        }
+      }
+      return DiceExprResult.getBigIntegerResult(big(left).divide(big(right)));
+    }
+
+    @Override
+    public DiceExprResult power(DiceExprResult left, DiceExprResult right) {
+      if (!left.isBigInteger() && !right.isBigInteger() && right.getLongValue() >= 0) {
+        try {
+          return DiceExprResult.getLongResult(
+              powerExact(left.getLongValue(), right.getLongValue()));
+        } catch (ArithmeticException e) {
+          // Too large for a long, so calculate it as a BigInteger below.
+        }
+      }
+      BigInteger exponent = big(right);
+      if (exponent.signum() < 0) {
+        return DiceExprResult.getDoubleResult(
+            Math.pow(left.getDoubleValue(), right.getDoubleValue()));
+      }
+      BigInteger base = big(left);
+      if (base.abs().compareTo(BigInteger.ONE) <= 0) {
+        // The powers of 0, 1 and -1 are trivial however large the exponent.
+        return DiceExprResult.getBigIntegerResult(
+            base.signum() < 0 && !exponent.testBit(0) ? BigInteger.ONE : base);
+      }
+      checkBits(exponent.bitLength() < Integer.SIZE ? exponent.longValue() * base.bitLength() : -1);
+      return DiceExprResult.getBigIntegerResult(base.pow(exponent.intValue()));
+    }
+
+    @Override
+    public DiceExprResult negate(DiceExprResult value) {
+      if (!value.isBigInteger() && value.getLongValue() != Long.MIN_VALUE) {
+        return DiceExprResult.getLongResult(-value.getLongValue());
+      }
+      return DiceExprResult.getBigIntegerResult(big(value).negate());
+    }
+  };
+
+  /** The largest number of bits in a {@link #BIG_INTEGER} result. */
+  public static final int MAX_BIG_INTEGER_BITS = 1 << 20;
+
+  /**
+   * Adds two integer results.
+   *
+   * @param left the result to the left of the addition operand.
+   * @param right the result to the right of the addition operand.
+   * @return the result of the addition.
+   * @throws ArithmeticException if the result overflows.
+   */
+  public abstract DiceExprResult add(DiceExprResult left, DiceExprResult right);
+
+  /**
+   * Subtracts one integer result from another.
+   *
+   * @param left the result to the left of the subtraction operand.
+   * @param right the result to the right of the subtraction operand.
+   * @return the result of the subtraction.
+   * @throws ArithmeticException if the result overflows.
+   */
+  public abstract DiceExprResult subtract(DiceExprResult left, DiceExprResult right);
+
+  /**
+   * Multiplies two integer results.
+   *
+   * @param left the result to the left of the multiplication operand.
+   * @param right the result to the right of the multiplication operand.
+   * @return the result of the multiplication.
+   * @throws ArithmeticException if the result overflows.
+   */
+  public abstract DiceExprResult multiply(DiceExprResult left, DiceExprResult right);
+
+  /**
+   * Divides one integer result by another, rounding towards zero.
+   *
+   * @param left the result to the left of the division operand.
+   * @param right the result to the right of the division operand.
+   * @return the result of the division.
+   * @throws ArithmeticException if <code>right</code> is zero or the result overflows.
+   */
+  public abstract DiceExprResult divide(DiceExprResult left, DiceExprResult right);
+
+  /**
+   * Raises one integer result to the power of another using exponentiation by squaring.
+   *
+   * @param left the base to the left of the exponentiation operand.
+   * @param right the exponent to the right of the exponentiation operand.
+   * @return the result of the exponentiation.
+   * @throws ArithmeticException if the result overflows.
+   */
+  public abstract DiceExprResult power(DiceExprResult left, DiceExprResult right);
+
+  /**
+   * Negates an integer result.
+   *
+   * @param value the value to negate.
+   * @return the negative value of the argument.
+   * @throws ArithmeticException if the result overflows.
+   */
+  public abstract DiceExprResult negate(DiceExprResult value);
+
+  /**
+   * Raises a long to a non negative power using exponentiation by squaring.
+   *
+   * @param base The base.
+   * @param exponent The exponent, which must not be negative.
+   * @return the result.
+   * @throws ArithmeticException if the result does not fit in a long.
+   */
+  private static long powerExact(long base, long exponent) {
+    long result = 1;
+    while (true) {
+      if ((exponent & 1) != 0) {
+        result = Math.multiplyExact(result, base);
+      }
+      exponent >>>= 1;
+      if (exponent == 0) {
+        return result;
+      }
+      // Any square that is calculated is also a factor of the result, so if it overflows the
+      // result would too.
+      base = Math.multiplyExact(base, base);
+    }
+  }
+
+  /**
+   * Returns the value of an integer result that must fit in a long.
+   *
+   * @param value The integer result.
+   * @return the value of the result.
+   * @throws ArithmeticException if the value does not fit in a long.
+   */
+  private static long exactLong(DiceExprResult value) {
+    if (value.isBigInteger()) {
+      throw new ArithmeticException("long overflow");
+    }
+    return value.getLongValue();
+  }
+
+  /**
+   * Returns the value of an integer result as a {@link BigInteger}.
+   *
+   * @param value The integer result.
+   * @return the value of the result.
+   */
+  private static BigInteger big(DiceExprResult value) {
+    return value.getBigIntegerResult().orElseThrow();
+  }
+
+  /**
+   * Checks that a result is not too large to be calculated.
+   *
+   * @param bits An upper bound on the number of bits in the result, or a negative number if it is
+   *     too large to be represented.
+   * @throws ArithmeticException if the result would be too large.
+   */
+  private static void checkBits(long bits) {
+    if (bits < 0 || bits > MAX_BIG_INTEGER_BITS) {
+      throw new ArithmeticException("Integer result is too large");
+    }
+  }
+}
@@ -14,8 +14,11 @@
  */
 package net.rptools.dice.result;
 
+import java.math.BigInteger;
+import java.util.Optional;
 import java.util.OptionalDouble;
 import java.util.OptionalInt;
+import java.util.OptionalLong;
 
 /** This class represents the result of an expression in the dice rolling scripting language.. */
 public final class DiceExprResult {
@@ -26,11 +29,20 @@ public final class DiceExprResult {
   /** The result as an integer (if valid). */
   private final int intResult;
 
+  /** The result as a long (if valid). */
+  private final long longResult;
+
+  /** The exact value of integer results that do not fit in a long, otherwise <code>null</code>. */
+  private final BigInteger bigResult;
+
   /** The result as an number (if valid). */
   private final double doubleResult;
 
-  /** The result as an string. */
-  private final String stringResult;
+  /**
+   * The result as an string. This is only built when it is asked for for numeric results, as most
+   * intermediate results are never displayed.
+   */
+  private String stringResult;
 
   /** Can this result be numeric. */
   private final boolean hasNumericRepresentation;
@@ -42,6 +54,8 @@ public final class DiceExprResult {
   private DiceExprResult() {
     type = DiceResultType.UNDEFINED;
     intResult = 0;
+    longResult = 0;
+    bigResult = null;
     doubleResult = 0.0;
     hasNumericRepresentation = false;
     stringResult = null;
@@ -55,15 +69,44 @@ public final class DiceExprResult {
    * @param rolls the rolls that go to make up
    */
   public DiceExprResult(int result, DiceRolls rolls) {
+    this((long) result, rolls);
+  }
+
+  /**
+   * Creates a 64 bit Integer result.
+   *
+   * @param result the long value of the result.
+   * @param rolls the rolls that go to make up
+   */
+  private DiceExprResult(long result, DiceRolls rolls) {
     type = DiceResultType.INTEGER;
-    intResult = result;
+    intResult = (int) result;
+    longResult = result;
+    bigResult = null;
     doubleResult = result;
-    stringResult = Integer.toString(result);
+    stringResult = null;
     hasNumericRepresentation = true;
 
     diceRolls = rolls;
   }
 
+  /**
+   * Creates an Integer result that does not fit in a long.
+   *
+   * @param result the value of the result.
+   */
+  private DiceExprResult(BigInteger result) {
+    type = DiceResultType.INTEGER;
+    intResult = result.intValue();
+    longResult = result.longValue();
+    bigResult = result;
+    doubleResult = result.doubleValue();
+    stringResult = null;
+    hasNumericRepresentation = true;
+
+    diceRolls = DiceRolls.NO_ROLLS;
+  }
+
   /**
    * Creates an Integer result.
    *
@@ -82,8 +125,10 @@ public final class DiceExprResult {
   private DiceExprResult(double result, DiceRolls rolls) {
     type = DiceResultType.DOUBLE;
     intResult = (int) result;
+    longResult = (long) result;
+    bigResult = null;
     doubleResult = result;
-    stringResult = Double.toString(result);
+    stringResult = null;
     hasNumericRepresentation = true;
 
     diceRolls = rolls;
@@ -119,6 +164,8 @@ public final class DiceExprResult {
     hasNumericRepresentation = numeric;
     doubleResult = dres;
     intResult = (int) dres;
+    longResult = (long) dres;
+    bigResult = null;
 
     diceRolls = rolls;
   }
@@ -153,6 +200,57 @@ public final class DiceExprResult {
     return hasNumericRepresentation ? OptionalInt.of(intResult) : OptionalInt.empty();
   }
 
+  /**
+   * Gets the integer representation of the result, checking that it fits in an integer instead of
+   * wrapping it around as {@link #getIntResult()} does. Use this for values that are used as
+   * counts, such as the number of dice, which may have been calculated using {@link
+   * ArithmeticMode#LONG} or {@link ArithmeticMode#BIG_INTEGER}.
+   *
+   * @return the integer representation of the result, or empty if the result is not a number.
+   * @throws IllegalArgumentException if the value does not fit in an integer.
+   */
+  public OptionalInt getExactIntResult() {
+    if (!hasNumericRepresentation) {
+      return OptionalInt.empty();
+    }
+    if (bigResult != null || longResult != intResult) {
+      throw new IllegalArgumentException(
+          getStringResult() + " is too large to be used as a count.");
+    }
+    return OptionalInt.of(intResult);
+  }
+
+  /**
+   * Gets the long representation of the result.
+   *
+   * @return the long representation of the result.
+   */
+  public OptionalLong getLongResult() {
+    return hasNumericRepresentation ? OptionalLong.of(longResult) : OptionalLong.empty();
+  }
+
+  /**
+   * Gets the exact value of an integer result, which may not fit in a long if it was calculated
+   * using {@link ArithmeticMode#BIG_INTEGER}.
+   *
+   * @return the exact value of the result, or empty if the result is not an integer.
+   */
+  public Optional<BigInteger> getBigIntegerResult() {
+    if (type != DiceResultType.INTEGER) {
+      return Optional.empty();
+    }
+    return Optional.of(bigResult != null ? bigResult : BigInteger.valueOf(longResult));
+  }
+
+  /**
+   * Returns if the result is an integer that does not fit in a long.
+   *
+   * @return <code>true</code> if the result is an integer that does not fit in a long.
+   */
+  public boolean isBigInteger() {
+    return bigResult != null;
+  }
+
   /**
    * Gets the double representation of the result.
    *
@@ -169,7 +267,49 @@ public final class DiceExprResult {
    * @return the string representation of the result.
    */
   public String getStringResult() {
-    return stringResult;
+    // Racing threads build equal strings, so the field does not need to be volatile.
+    String result = stringResult;
+    if (result == null && type == DiceResultType.INTEGER) {
+      result = bigResult != null ? bigResult.toString() : Long.toString(longResult);
+      stringResult = result;
+    } else if (result == null && type == DiceResultType.DOUBLE) {
+      result = Double.toString(doubleResult);
+      stringResult = result;
+    }
+    return result;
+  }
+
+  /**
+   * Gets the integer representation of the result without checking that there is one, which avoids
+   * the {@link OptionalInt} of {@link #getIntResult()} on hot paths. Callers must check that the
+   * result is a number first.
+   *
+   * @return the integer representation of the result, or 0 if it is not a number.
+   */
+  public int getIntValue() {
+    return intResult;
+  }
+
+  /**
+   * Gets the long representation of the result without checking that there is one, which avoids the
+   * {@link OptionalLong} of {@link #getLongResult()} on hot paths. Callers must check that the
+   * result is a number first.
+   *
+   * @return the long representation of the result, or 0 if it is not a number.
+   */
+  public long getLongValue() {
+    return longResult;
+  }
+
+  /**
+   * Gets the double representation of the result without checking that there is one, which avoids
+   * the {@link OptionalDouble} of {@link #getDoubleResult()} on hot paths. Callers must check that
+   * the result is a number first.
+   *
+   * @return the double representation of the result, or 0 if it is not a number.
+   */
+  public double getDoubleValue() {
+    return doubleResult;
   }
 
   /**
@@ -211,6 +351,28 @@ public final class DiceExprResult {
     return new DiceExprResult(res);
   }
 
+  /**
+   * Gets a <code>DiceExprResult</code> that is for a long integer value.
+   *
+   * @param res the long value of the result.
+   * @return the <code>DiceExprResult</code> representing the long value.
+   */
+  public static DiceExprResult getLongResult(long res) {
+    return new DiceExprResult(res, DiceRolls.NO_ROLLS);
+  }
+
+  /**
+   * Gets a <code>DiceExprResult</code> that is for an integer value of any size.
+   *
+   * @param res the value of the result.
+   * @return the <code>DiceExprResult</code> representing the value.
+   */
+  public static DiceExprResult getBigIntegerResult(BigInteger res) {
+    return res.bitLength() < Long.SIZE
+        ? new DiceExprResult(res.longValue(), DiceRolls.NO_ROLLS)
+        : new DiceExprResult(res);
+  }
+
   /**
    * Gets a <code>DiceExprResult</code> that is for a double value.
    *
@@ -242,6 +404,21 @@ public final class DiceExprResult {
    */
   public static DiceExprResult add(DiceExprResult left, DiceExprResult right)
       throws IllegalArgumentException {
+    return add(left, right, ArithmeticMode.INT);
+  }
+
+  /**
+   * Add two results together coercing types as needed.
+   *
+   * @param left the result to the left of the addition operand.
+   * @param right the result to the right of the addition operand.
+   * @param mode the arithmetic used when both results are integers.
+   * @return the result of the addition.
+   * @throws IllegalArgumentException when either <code>left</code> or <code>right</code> is {@link
+   *     DiceResultType#UNDEFINED}
+   */
+  public static DiceExprResult add(DiceExprResult left, DiceExprResult right, ArithmeticMode mode)
+      throws IllegalArgumentException {
     if (left.getType() == DiceResultType.UNDEFINED) {
       throw new IllegalArgumentException("Left hand side of addition is undefined.");
     }
@@ -265,17 +442,7 @@ public final class DiceExprResult {
 
       return getDoubleResult(leftVal + rightVal);
     } else {
-      left.getIntResult()
-          .orElseThrow(
-              () -> new IllegalArgumentException("Left hand side of addition is undefined."));
-      int leftVal = left.getIntResult().getAsInt();
-      right
-          .getIntResult()
-          .orElseThrow(
-              () -> new IllegalArgumentException("Right hand side of addition is undefined."));
-      int rightVal = right.getIntResult().getAsInt();
-
-      return getIntResult(leftVal + rightVal);
+      return mode.add(left, right);
     }
   }
 
@@ -290,6 +457,22 @@ public final class DiceExprResult {
    */
   public static DiceExprResult subtract(DiceExprResult left, DiceExprResult right)
       throws IllegalArgumentException {
+    return subtract(left, right, ArithmeticMode.INT);
+  }
+
+  /**
+   * Subtract one result from another coercing types as needed.
+   *
+   * @param left the result to the left of the subtraction operand.
+   * @param right the result to the right of the subtraction operand.
+   * @param mode the arithmetic used when both results are integers.
+   * @return the result of the subtraction.
+   * @throws IllegalArgumentException when either <code>left</code> or <code>right</code> is {@link
+   *     DiceResultType#UNDEFINED} or mixing numbers and strings.
+   */
+  public static DiceExprResult subtract(
+      DiceExprResult left, DiceExprResult right, ArithmeticMode mode)
+      throws IllegalArgumentException {
     if (left.getType() == DiceResultType.UNDEFINED) {
       throw new IllegalArgumentException("Left hand side of subtraction is undefined.");
     }
@@ -317,17 +500,7 @@ public final class DiceExprResult {
 
       return getDoubleResult(leftVal - rightVal);
     } else {
-      left.getIntResult()
-          .orElseThrow(
-              () -> new IllegalArgumentException("Left hand side of subtraction is undefined."));
-      int leftVal = left.getIntResult().getAsInt();
-      right
-          .getIntResult()
-          .orElseThrow(
-              () -> new IllegalArgumentException("Right hand side of subtraction is undefined."));
-      int rightVal = right.getIntResult().getAsInt();
-
-      return getIntResult(leftVal - rightVal);
+      return mode.subtract(left, right);
     }
   }
 
@@ -342,6 +515,22 @@ public final class DiceExprResult {
    */
   public static DiceExprResult multiply(DiceExprResult left, DiceExprResult right)
       throws IllegalArgumentException {
+    return multiply(left, right, ArithmeticMode.INT);
+  }
+
+  /**
+   * Multiply two results together coercing types as needed.
+   *
+   * @param left the result to the left of the multiplication operand.
+   * @param right the result to the right of the multiplication operand.
+   * @param mode the arithmetic used when both results are integers.
+   * @return the result of the multiplication.
+   * @throws IllegalArgumentException when either <code>left</code> or <code>right</code> is {@link
+   *     DiceResultType#UNDEFINED} or both arguments are strings.
+   */
+  public static DiceExprResult multiply(
+      DiceExprResult left, DiceExprResult right, ArithmeticMode mode)
+      throws IllegalArgumentException {
     if (left.getType() == DiceResultType.UNDEFINED) {
       throw new IllegalArgumentException("Left hand side of multiplication is undefined.");
     }
@@ -357,28 +546,24 @@ public final class DiceExprResult {
       String str;
 
       if (left.getType() == DiceResultType.STRING) {
-        right
-            .getIntResult()
-            .orElseThrow(
-                () ->
-                    new IllegalArgumentException(
-                        "Right hand side of multiplication is undefined."));
-        times = right.getIntResult().getAsInt();
+        times =
+            right
+                .getExactIntResult()
+                .orElseThrow(
+                    () ->
+                        new IllegalArgumentException(
+                            "Right hand side of multiplication is undefined."));
         str = left.getStringResult();
       } else {
-        left.getIntResult()
-            .orElseThrow(
-                () ->
-                    new IllegalArgumentException("Left hand side of multiplication is undefined."));
-        times = left.getIntResult().getAsInt();
+        times =
+            left.getExactIntResult()
+                .orElseThrow(
+                    () ->
+                        new IllegalArgumentException(
+                            "Left hand side of multiplication is undefined."));
         str = right.getStringResult();
       }
-      StringBuilder sb = new StringBuilder();
-      sb.ensureCapacity(times * str.length());
-      for (int i = 0; i < times; i++) {
-        sb.append(str);
-      }
-      return getStringResult(sb.toString());
+      return getStringResult(str.repeat(Math.max(times, 0)));
     } else if (left.getType() == DiceResultType.DOUBLE
         || right.getType() == DiceResultType.DOUBLE) {
       left.getDoubleResult()
@@ -394,18 +579,7 @@ public final class DiceExprResult {
 
       return getDoubleResult(leftVal * rightVal);
     } else {
-      left.getIntResult()
-          .orElseThrow(
-              () -> new IllegalArgumentException("Left hand side of multiplication is undefined."));
-      int leftVal = left.getIntResult().getAsInt();
-      right
-          .getIntResult()
-          .orElseThrow(
-              () ->
-                  new IllegalArgumentException("Right hand side of multiplication is undefined."));
-      int rightVal = right.getIntResult().getAsInt();
-
-      return getIntResult(leftVal * rightVal);
+      return mode.multiply(left, right);
     }
   }
 
@@ -420,6 +594,22 @@ public final class DiceExprResult {
    */
   public static DiceExprResult divide(DiceExprResult left, DiceExprResult right)
       throws IllegalArgumentException {
+    return divide(left, right, ArithmeticMode.INT);
+  }
+
+  /**
+   * Divide one result from another coercing types as needed.
+   *
+   * @param left the result to the left of the division operand.
+   * @param right the result to the right of the division operand.
+   * @param mode the arithmetic used when both results are integers.
+   * @return the result of the division.
+   * @throws IllegalArgumentException when either <code>left</code> or <code>right</code> is {@link
+   *     DiceResultType#UNDEFINED} or a String.
+   */
+  public static DiceExprResult divide(
+      DiceExprResult left, DiceExprResult right, ArithmeticMode mode)
+      throws IllegalArgumentException {
     if (left.getType() == DiceResultType.UNDEFINED) {
       throw new IllegalArgumentException("Left hand side of division is undefined.");
     }
@@ -443,17 +633,52 @@ public final class DiceExprResult {
 
       return getDoubleResult(leftVal / rightVal);
     } else {
-      left.getIntResult()
-          .orElseThrow(
-              () -> new IllegalArgumentException("Left hand side of division is undefined."));
-      int leftVal = left.getIntResult().getAsInt();
-      right
-          .getIntResult()
-          .orElseThrow(
-              () -> new IllegalArgumentException("Right hand side of division is undefined."));
-      int rightVal = right.getIntResult().getAsInt();
+      return mode.divide(left, right);
+    }
+  }
 
-      return getIntResult(leftVal / rightVal);
+  /**
+   * Raise one result to the power of another coercing types as needed. Integers raised to a
+   * negative power give a double result.
+   *
+   * @param left the base to the left of the exponentiation operand.
+   * @param right the exponent to the right of the exponentiation operand.
+   * @return the result of the exponentiation.
+   * @throws IllegalArgumentException when either <code>left</code> or <code>right</code> is {@link
+   *     DiceResultType#UNDEFINED} or a String.
+   */
+  public static DiceExprResult power(DiceExprResult left, DiceExprResult right)
+      throws IllegalArgumentException {
+    return power(left, right, ArithmeticMode.INT);
+  }
+
+  /**
+   * Raise one result to the power of another coercing types as needed. Integers raised to a
+   * negative power give a double result.
+   *
+   * @param left the base to the left of the exponentiation operand.
+   * @param right the exponent to the right of the exponentiation operand.
+   * @param mode the arithmetic used when both results are integers.
+   * @return the result of the exponentiation.
+   * @throws IllegalArgumentException when either <code>left</code> or <code>right</code> is {@link
+   *     DiceResultType#UNDEFINED} or a String.
+   */
+  public static DiceExprResult power(DiceExprResult left, DiceExprResult right, ArithmeticMode mode)
+      throws IllegalArgumentException {
+    if (left.getType() == DiceResultType.UNDEFINED) {
+      throw new IllegalArgumentException("Left hand side of exponentiation is undefined.");
+    }
+    if (right.getType() == DiceResultType.UNDEFINED) {
+      throw new IllegalArgumentException("Right hand side of exponentiation is undefined.");
+    }
+
+    if (left.getType() == DiceResultType.STRING || right.getType() == DiceResultType.STRING) {
+      throw new IllegalArgumentException("Strings can not take part in exponentiation.");
+    } else if (left.getType() == DiceResultType.DOUBLE
+        || right.getType() == DiceResultType.DOUBLE) {
+      return getDoubleResult(Math.pow(left.getDoubleValue(), right.getDoubleValue()));
+    } else {
+      return mode.power(left, right);
     }
   }
 
@@ -465,6 +690,19 @@ public final class DiceExprResult {
    * @throws IllegalArgumentException when <code>value</code> is undefined or a string.
    */
   public static DiceExprResult negate(DiceExprResult value) throws IllegalArgumentException {
+    return negate(value, ArithmeticMode.INT);
+  }
+
+  /**
+   * Negates the passed in value.
+   *
+   * @param value the value to negate.
+   * @param mode the arithmetic used when the value is an integer.
+   * @return the negative value of the argument.
+   * @throws IllegalArgumentException when <code>value</code> is undefined or a string.
+   */
+  public static DiceExprResult negate(DiceExprResult value, ArithmeticMode mode)
+      throws IllegalArgumentException {
     if (value.getType() == DiceResultType.UNDEFINED) {
       throw new IllegalArgumentException("Can't negate undefined.");
     }
@@ -479,12 +717,7 @@ public final class DiceExprResult {
 
       return getDoubleResult(-val);
     } else {
-      value
-          .getIntResult()
-          .orElseThrow(() -> new IllegalArgumentException("Can't negate undefined."));
-      int val = value.getIntResult().getAsInt();
-
-      return getIntResult(-val);
+      return mode.negate(value);
     }
   }
 }
@@ -15,6 +15,8 @@
 package net.rptools.dice.roller;
 
 import java.util.Collection;
+import java.util.List;
+import net.rptools.dice.expressiontree.DiceEvalFrame;
 import net.rptools.dice.result.DiceExprResult;
 import net.rptools.dice.roller.arguments.DiceRollerArgument;
 
@@ -31,4 +33,51 @@ public interface DiceRoller {
    */
   DiceExprResult roll(
       String pattern, int numDice, int numSides, Collection<DiceRollerArgument> args);
+
+  /**
+   * Roll the dice for an execution and return the result as a {@link DiceExprResult}. Rollers that
+   * do a lot of work for each die should override this to call {@link
+   * DiceEvalFrame#checkCancelled()} from time to time, so that a cancelled execution stops
+   * promptly. The default implementation only checks before rolling.
+   *
+   * @param pattern The dice pattern that was used.
+   * @param numDice The number of dice to roll.
+   * @param numSides The number of sides for the dice.
+   * @param args The arguments for the dice roll.
+   * @param frame The frame for the execution the dice are rolled in.
+   * @return a {@link DiceExprResult} containing the result and details of the dice roll.
+   * @throws net.rptools.dice.expressiontree.DiceExecutionCancelledException if the execution is
+   *     cancelled.
+   */
+  default DiceExprResult roll(
+      String pattern,
+      int numDice,
+      int numSides,
+      Collection<DiceRollerArgument> args,
+      DiceEvalFrame frame) {
+    frame.checkCancelled();
+    return roll(pattern, numDice, numSides, args);
+  }
+
+  /**
+   * Roll the dice for many iterations of a roll that has no arguments, returning only the total of
+   * each iteration. Rollers should override this to draw the dice of all iterations in bulk, the
+   * default implementation rolls each iteration with {@link #roll(String, int, int, Collection)}.
+   *
+   * @param pattern The dice pattern that was used.
+   * @param numDice The number of dice to roll in each iteration.
+   * @param numSides The number of sides for the dice in each iteration.
+   * @return the total of the dice rolled in each iteration.
+   * @throws IllegalArgumentException if the roller does not give an integer total.
+   */
+  default int[] rollTotals(String pattern, int[] numDice, int[] numSides) {
+    int[] totals = new int[numDice.length];
+    for (int i = 0; i < totals.length; i++) {
+      totals[i] =
+          roll(pattern, numDice[i], numSides[i], List.of())
+              .getIntResult()
+              .orElseThrow(() -> new IllegalArgumentException("Dice total is not an integer."));
+    }
+    return totals;
+  }
 }
@@ -16,6 +16,7 @@ package net.rptools.dice.roller;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import net.rptools.dice.expressiontree.DiceEvalFrame;
 import net.rptools.dice.result.DiceExprResult;
 import net.rptools.dice.result.DiceRolls;
 import net.rptools.dice.result.DiceRolls.DiceRollAggregateMethod;
@@ -29,15 +30,90 @@ import net.rptools.dice.result.DieRoll;
     description = "Just the Standard Dice Roller")
 public class StandardDiceRoller implements DiceRoller {
 
+  /** The number of dice between checks for the cancellation of the execution. */
+  private static final int CANCELLATION_CHECK_INTERVAL = 1024;
+
+  /** The largest number of dice drawn at once when rolling the totals of many iterations. */
+  private static final int BULK_ROLL_SIZE = 1 << 16;
+
   @Override
   public DiceExprResult roll(
       String pattern, int numDice, int numSides, Collection<DiceRollerArgument> args) {
+    return rollDice(pattern, numDice, numSides, args, null);
+  }
+
+  @Override
+  public DiceExprResult roll(
+      String pattern,
+      int numDice,
+      int numSides,
+      Collection<DiceRollerArgument> args,
+      DiceEvalFrame frame) {
+    return rollDice(pattern, numDice, numSides, args, frame);
+  }
+
+  /**
+   * Rolls the totals of many iterations, drawing the dice of consecutive iterations with the same
+   * number of sides together in batches of up to {@link #BULK_ROLL_SIZE} dice.
+   */
+  @Override
+  public int[] rollTotals(String pattern, int[] numDice, int[] numSides) {
+    int[] totals = new int[numDice.length];
+    int start = 0;
+    while (start < numDice.length) {
+      if (numDice[start] < 0) {
+        throw new IllegalArgumentException("Number of dice can not be negative.");
+      }
+      long count = numDice[start];
+      int end = start + 1;
+      while (end < numDice.length && numSides[end] == numSides[start] && numDice[end] >= 0
+          && count + numDice[end] <= BULK_ROLL_SIZE) {
+        count += numDice[end];
+        end++;
+      }
+      int[] rolls = DiceUtil.getInstance().randomDiceRollsArray((int) count, numSides[start]);
+      int next = 0;
+      for (int i = start; i < end; i++) {
+        int sum = 0;
+        for (int j = 0; j < numDice[i]; j++) {
+          sum += rolls[next++];
+        }
+        totals[i] = sum;
+      }
+      start = end;
+    }
+    return totals;
+  }
+
+  /**
+   * Rolls the dice, checking for the cancellation of the execution every {@link
+   * #CANCELLATION_CHECK_INTERVAL} dice and before each argument is applied to all of the rolls.
+   *
+   * @param pattern The dice pattern that was used.
+   * @param numDice The number of dice to roll.
+   * @param numSides The number of sides for the dice.
+   * @param args The arguments for the dice roll.
+   * @param frame The frame for the execution, or <code>null</code> to not check for cancellation.
+   * @return the result and details of the dice roll.
+   */
+  private DiceExprResult rollDice(
+      String pattern,
+      int numDice,
+      int numSides,
+      Collection<DiceRollerArgument> args,
+      DiceEvalFrame frame) {
+    if (frame != null) {
+      frame.checkCancelled();
+    }
     int[] rolls = DiceUtil.getInstance().randomDiceRollsArray(numDice, numSides);
 
     int sum = 0;
 
     var dieRolls = new ArrayList<DieRoll>(rolls.length);
     for (int val : rolls) {
+      if (frame != null && dieRolls.size() % CANCELLATION_CHECK_INTERVAL == 0) {
+        frame.checkCancelled();
+      }
       sum += val;
       DieRoll dr = new DieRoll(val, numSides);
       for (DiceRollerArgument a : args) {
@@ -50,6 +126,9 @@ public class StandardDiceRoller implements DiceRoller {
     DiceRolls diceRolls = new DiceRolls(dieRolls, numSides, pattern, DiceRollAggregateMethod.SUM);
 
     for (DiceRollerArgument a : args) {
+      if (frame != null) {
+        frame.checkCancelled();
+      }
       diceRolls = a.applyToAll(diceRolls);
     }
 
@@ -15,39 +15,77 @@
 package net.rptools.dice.roller.arguments;
 
 import java.util.Optional;
+import net.rptools.dice.expressiontree.DiceEvalFrame;
 import net.rptools.dice.expressiontree.DiceExpressionNode;
+import net.rptools.dice.expressiontree.ValueDiceExpressionNode;
 import net.rptools.dice.result.DiceExprResult;
 import net.rptools.dice.result.DiceRolls;
-import net.rptools.dice.symbols.DiceExpressionSymbolTable;
 import net.rptools.dice.result.DieRoll;
 
 abstract class AbstractDiceRollerArgument implements DiceRollerArgument {
 
   private final DiceExpressionNode valueNode;
   private final String operator;
+  private final DiceExprResult value;
 
   AbstractDiceRollerArgument(DiceExpressionNode valueNode) {
     this.valueNode = valueNode;
     operator = null;
+    value = DiceExprResult.UNDEFINED;
   }
 
   AbstractDiceRollerArgument(String op, DiceExpressionNode valueNode) {
     this.valueNode = valueNode;
     operator = op;
+    value = DiceExprResult.UNDEFINED;
   }
 
-  public void evaluate(DiceExpressionSymbolTable symbolTable) {
-    if (valueNode != null) {
-      valueNode.evaluate(symbolTable);
+  /**
+   * Creates a copy of an argument with its value evaluated.
+   *
+   * @param from The argument to copy.
+   * @param val The evaluated value of the argument.
+   */
+  AbstractDiceRollerArgument(AbstractDiceRollerArgument from, DiceExprResult val) {
+    valueNode = from.valueNode;
+    operator = from.operator;
+    value = val;
+  }
+
+  public DiceRollerArgument evaluate(DiceEvalFrame frame) {
+    if (valueNode == null || value != DiceExprResult.UNDEFINED) {
+      return this;
+    }
+    return withValue(valueNode.evaluate(frame));
+  }
+
+  @Override
+  public DiceRollerArgument resolveConstant() {
+    if (valueNode instanceof ValueDiceExpressionNode && value == DiceExprResult.UNDEFINED) {
+      return withValue(((ValueDiceExpressionNode) valueNode).getValue());
     }
+    return this;
   }
 
+  /**
+   * Returns a copy of this argument with its value evaluated.
+   *
+   * @param val The evaluated value of the argument.
+   * @return the copy of the argument.
+   */
+  abstract AbstractDiceRollerArgument withValue(DiceExprResult val);
+
   public Optional<String> getOperator() {
     return Optional.ofNullable(operator);
   }
 
   public DiceExprResult getValue() {
-    return valueNode == null ? DiceExprResult.UNDEFINED : valueNode.getExprResult();
+    return value;
+  }
+
+  @Override
+  public Optional<DiceExpressionNode> getValueNode() {
+    return Optional.ofNullable(valueNode);
   }
 
   public DieRoll applyToRoll(DieRoll roll) {
@@ -15,6 +15,7 @@
 package net.rptools.dice.roller.arguments;
 
 import net.rptools.dice.expressiontree.DiceExpressionNode;
+import net.rptools.dice.result.DiceExprResult;
 import net.rptools.dice.result.DieRoll;
 
 public class AddDiceRollerArgument extends AbstractDiceRollerArgument {
@@ -23,6 +24,15 @@ public class AddDiceRollerArgument extends AbstractDiceRollerArgument {
     super(value);
   }
 
+  private AddDiceRollerArgument(AddDiceRollerArgument from, DiceExprResult val) {
+    super(from, val);
+  }
+
+  @Override
+  AddDiceRollerArgument withValue(DiceExprResult val) {
+    return new AddDiceRollerArgument(this, val);
+  }
+
   @Override
   public String getArgumentName() {
     return "add";
@@ -17,6 +17,7 @@ package net.rptools.dice.roller.arguments;
 import java.util.Arrays;
 import java.util.Collections;
 import net.rptools.dice.expressiontree.DiceExpressionNode;
+import net.rptools.dice.result.DiceExprResult;
 import net.rptools.dice.result.DieRoll;
 
 public class CriticalDiceRollerArgument extends AbstractDiceRollerArgument {
@@ -30,6 +31,15 @@ public class CriticalDiceRollerArgument extends AbstractDiceRollerArgument {
     super(operator, value);
   }
 
+  private CriticalDiceRollerArgument(CriticalDiceRollerArgument from, DiceExprResult val) {
+    super(from, val);
+  }
+
+  @Override
+  CriticalDiceRollerArgument withValue(DiceExprResult val) {
+    return new CriticalDiceRollerArgument(this, val);
+  }
+
   @Override
   public String getArgumentName() {
     return "critical success";
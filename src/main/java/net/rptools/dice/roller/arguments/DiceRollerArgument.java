@@ -15,10 +15,11 @@
 package net.rptools.dice.roller.arguments;
 
 import java.util.Optional;
+import net.rptools.dice.expressiontree.DiceEvalFrame;
+import net.rptools.dice.expressiontree.DiceExpressionNode;
 import net.rptools.dice.result.DiceExprResult;
 import net.rptools.dice.result.DiceRolls;
 import net.rptools.dice.result.DieRoll;
-import net.rptools.dice.symbols.DiceExpressionSymbolTable;
 
 public interface DiceRollerArgument {
   String getArgumentName();
@@ -27,6 +28,15 @@ public interface DiceRollerArgument {
 
   DiceExprResult getValue();
 
+  /**
+   * Returns the expression that is evaluated to give the value of the argument, if any.
+   *
+   * @return the expression for the value of the argument.
+   */
+  default Optional<DiceExpressionNode> getValueNode() {
+    return Optional.empty();
+  }
+
   default DieRoll applyToRoll(DieRoll roll) {
     return roll;
   }
@@ -35,5 +45,23 @@ public interface DiceRollerArgument {
     return rolls;
   }
 
-  void evaluate(DiceExpressionSymbolTable symbolTable);
+  /**
+   * Evaluates the value of the argument for an execution. Arguments are shared between executions
+   * so this does not change the argument, it returns an argument holding the evaluated value.
+   *
+   * @param frame The frame for the execution that the argument is being evaluated in.
+   * @return the argument with its value evaluated.
+   */
+  DiceRollerArgument evaluate(DiceEvalFrame frame);
+
+  /**
+   * Returns a copy of the argument with its value already evaluated if the value is a constant, so
+   * that it does not need to be evaluated again for every execution.
+   *
+   * @return the argument with its constant value evaluated, or this argument if the value is not a
+   *     constant.
+   */
+  default DiceRollerArgument resolveConstant() {
+    return this;
+  }
 }
@@ -0,0 +1,69 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.roller.arguments;
+
+import java.util.Map;
+import java.util.function.BiFunction;
+import net.rptools.dice.expressiontree.DiceExpressionNode;
+
+/** Creates {@link DiceRollerArgument}s from their argument names. */
+public final class DiceRollerArguments {
+
+  /** The function used to create each argument, by argument name. */
+  private static final Map<String, BiFunction<DiceExpressionNode, String, DiceRollerArgument>>
+      FACTORIES =
+          Map.of(
+              "success", SuccessDiceRollerArgument::new,
+              "failure", FailDiceRollerArgument::new,
+              "critical success", CriticalDiceRollerArgument::new,
+              "fumble", FumbleDiceRollerArgument::new,
+              "keep highest", (val, op) -> KeepRollerArgument.keepHighest(val),
+              "keep lowest", (val, op) -> KeepRollerArgument.keepLowest(val),
+              "drop highest", (val, op) -> KeepRollerArgument.dropHighest(val),
+              "drop lowest", (val, op) -> KeepRollerArgument.dropLowest(val),
+              "add", (val, op) -> new AddDiceRollerArgument(val));
+
+  private DiceRollerArguments() {}
+
+  /**
+   * Returns if an argument can be created by {@link #create(String, String, DiceExpressionNode)}.
+   *
+   * @param argumentName The name of the argument, as returned by {@link
+   *     DiceRollerArgument#getArgumentName()}.
+   * @return <code>true</code> if the argument can be created.
+   */
+  public static boolean isKnown(String argumentName) {
+    return FACTORIES.containsKey(argumentName);
+  }
+
+  /**
+   * Creates a new argument.
+   *
+   * @param argumentName The name of the argument, as returned by {@link
+   *     DiceRollerArgument#getArgumentName()}.
+   * @param operator The comparison operator of the argument, or <code>null</code> if it has none.
+   * @param value The expression for the value of the argument, or <code>null</code> if it has none.
+   * @return the new argument.
+   * @throws IllegalArgumentException if there is no argument with the name.
+   */
+  public static DiceRollerArgument create(
+      String argumentName, String operator, DiceExpressionNode value) {
+    var factory = FACTORIES.get(argumentName);
+    if (factory == null) {
+      throw new IllegalArgumentException("Unknown dice roller argument " + argumentName);
+    }
+    return factory.apply(value, operator);
+  }
+}
@@ -17,6 +17,7 @@ package net.rptools.dice.roller.arguments;
 import java.util.Arrays;
 import java.util.Collections;
 import net.rptools.dice.expressiontree.DiceExpressionNode;
+import net.rptools.dice.result.DiceExprResult;
 import net.rptools.dice.result.DieRoll;
 
 public class FailDiceRollerArgument extends AbstractDiceRollerArgument {
@@ -30,6 +31,15 @@ public class FailDiceRollerArgument extends AbstractDiceRollerArgument {
     super(operator, value);
   }
 
+  private FailDiceRollerArgument(FailDiceRollerArgument from, DiceExprResult val) {
+    super(from, val);
+  }
+
+  @Override
+  FailDiceRollerArgument withValue(DiceExprResult val) {
+    return new FailDiceRollerArgument(this, val);
+  }
+
   @Override
   public String getArgumentName() {
     return "failure";
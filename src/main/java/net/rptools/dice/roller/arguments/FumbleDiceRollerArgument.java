@@ -17,6 +17,7 @@ package net.rptools.dice.roller.arguments;
 import java.util.Arrays;
 import java.util.Collections;
 import net.rptools.dice.expressiontree.DiceExpressionNode;
+import net.rptools.dice.result.DiceExprResult;
 import net.rptools.dice.result.DieRoll;
 
 public class FumbleDiceRollerArgument extends AbstractDiceRollerArgument {
@@ -30,6 +31,15 @@ public class FumbleDiceRollerArgument extends AbstractDiceRollerArgument {
     super(op, val);
   }
 
+  private FumbleDiceRollerArgument(FumbleDiceRollerArgument from, DiceExprResult val) {
+    super(from, val);
+  }
+
+  @Override
+  FumbleDiceRollerArgument withValue(DiceExprResult val) {
+    return new FumbleDiceRollerArgument(this, val);
+  }
+
   @Override
   public String getArgumentName() {
     return "fumble";
@@ -1,7 +1,7 @@
 package net.rptools.dice.roller.arguments;
 
+import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.IntFunction;
@@ -30,13 +30,15 @@ public class KeepRollerArgument extends AbstractDiceRollerArgument {
     // Keep Highest is equivalent to drop lowest (num rolls - to keep) so sort in ascending
     // order to start marking lowest as dropped.
     return new KeepRollerArgument(
+        "keep highest",
         val,
+        true,
         Comparator.comparingInt(
             d -> d.dieRoll.getValue()
         ),
-        (dr, kra) -> {
+        (numRolls, kra) -> {
           int numToKeep = kra.getValue().getIntResult().orElseThrow(() -> new IllegalArgumentException("Expected number of rolls to keep"));
-          return dr.getNumberOfRolls() - numToKeep;
+          return numRolls - numToKeep;
         }
     );
   }
@@ -45,54 +47,77 @@ public class KeepRollerArgument extends AbstractDiceRollerArgument {
     // Keep Lowest is equivalent to drop highest (num rolls - to keep) so sort in descending
     // order to start marking lowest as dropped.
     return new KeepRollerArgument(
+        "keep lowest",
         val,
+        false,
         Comparator.comparing(
             d -> d.dieRoll.getValue(),
             Comparator.reverseOrder()
         ),
-        (dr, kra) -> {
+        (numRolls, kra) -> {
           int numToKeep = kra.getValue().getIntResult().orElseThrow(() -> new IllegalArgumentException("Expected number of rolls to keep"));
-          return dr.getNumberOfRolls() - numToKeep;
+          return numRolls - numToKeep;
         }
     );
   }
 
   public static KeepRollerArgument dropHighest(DiceExpressionNode val) {
     return new KeepRollerArgument(
+        "drop highest",
         val,
+        false,
         Comparator.comparing(
             d -> d.dieRoll.getValue(),
             Comparator.reverseOrder()
         ),
-        (dr, kra) -> kra.getValue().getIntResult().orElseThrow(() -> new IllegalArgumentException("Expected number of rolls to "))
+        (numRolls, kra) -> kra.getValue().getIntResult().orElseThrow(() -> new IllegalArgumentException("Expected number of rolls to "))
     );
   }
 
   public static KeepRollerArgument dropLowest(DiceExpressionNode val) {
     return new KeepRollerArgument(
+        "drop lowest",
         val,
+        true,
         Comparator.comparingInt(
             d -> d.dieRoll.getValue()
         ),
-        (dr, kra) -> kra.getValue().getIntResult().orElseThrow(() -> new IllegalArgumentException("Expected number of rolls to "))
+        (numRolls, kra) -> kra.getValue().getIntResult().orElseThrow(() -> new IllegalArgumentException("Expected number of rolls to "))
     );
   }
 
 
+  private final String argumentName;
+  private final boolean dropsLowest;
   private final Comparator<DiePosition> comparator;
-  private final ToIntBiFunction<DiceRolls, KeepRollerArgument> numberToDrop;
+  private final ToIntBiFunction<Integer, KeepRollerArgument> numberToDrop;
 
 
-  private KeepRollerArgument(DiceExpressionNode val, Comparator<DiePosition> comp, ToIntBiFunction<DiceRolls, KeepRollerArgument> numToDrop) {
+  private KeepRollerArgument(String name, DiceExpressionNode val, boolean lowest, Comparator<DiePosition> comp, ToIntBiFunction<Integer, KeepRollerArgument> numToDrop) {
     super("=", val);
+    argumentName = name;
+    dropsLowest = lowest;
     comparator = comp;
     numberToDrop = numToDrop;
   }
 
+  private KeepRollerArgument(KeepRollerArgument from, DiceExprResult val) {
+    super(from, val);
+    argumentName = from.argumentName;
+    dropsLowest = from.dropsLowest;
+    comparator = from.comparator;
+    numberToDrop = from.numberToDrop;
+  }
+
+  @Override
+  KeepRollerArgument withValue(DiceExprResult val) {
+    return new KeepRollerArgument(this, val);
+  }
+
   @Override
   public DiceRolls applyToAll(DiceRolls rolls) {
 
-    int numToDrop = numberToDrop.applyAsInt(rolls, this);
+    int numToDrop = getNumberToDrop(rolls.getNumberOfRolls());
 
     if (numToDrop >= rolls.getNumberOfRolls()) {
       return DiceRolls.NO_ROLLS;
@@ -101,7 +126,7 @@ public class KeepRollerArgument extends AbstractDiceRollerArgument {
     AtomicInteger counter = new AtomicInteger(0);
     var drop = rolls.getDiceRolls().stream().map(r -> new DiePosition(counter.getAndIncrement(), r)).sorted(comparator).limit(numToDrop).collect(Collectors.toList());
 
-    List<DieRoll> newRolls = new LinkedList<>(rolls.getDiceRolls());
+    List<DieRoll> newRolls = new ArrayList<>(rolls.getDiceRolls());
     for (var d : drop) {
       newRolls.set(d.position, newRolls.get(d.position).withAddedFlag(DieRollFlags.DROPPED));
     }
@@ -109,8 +134,31 @@ public class KeepRollerArgument extends AbstractDiceRollerArgument {
     return rolls.applyNewRolls(newRolls);
   }
 
+  /**
+   * Returns the number of rolls that are dropped, once the value of the argument has been
+   * evaluated.
+   *
+   * @param numberOfRolls The number of rolls the argument is applied to.
+   * @return the number of rolls that are dropped, which is negative if more rolls are to be kept
+   *     than were rolled.
+   * @throws IllegalArgumentException if the value of the argument is not an integer.
+   */
+  public int getNumberToDrop(int numberOfRolls) {
+    return numberToDrop.applyAsInt(numberOfRolls, this);
+  }
+
+  /**
+   * Returns if the lowest rolls are dropped, which is the case when keeping the highest or dropping
+   * the lowest, rather than the highest.
+   *
+   * @return <code>true</code> if the lowest rolls are dropped.
+   */
+  public boolean dropsLowest() {
+    return dropsLowest;
+  }
+
   @Override
   public String getArgumentName() {
-    return "keep highest";
+    return argumentName;
   }
 }
@@ -17,6 +17,7 @@ package net.rptools.dice.roller.arguments;
 import java.util.Arrays;
 import java.util.Collections;
 import net.rptools.dice.expressiontree.DiceExpressionNode;
+import net.rptools.dice.result.DiceExprResult;
 import net.rptools.dice.result.DieRoll;
 
 public class SuccessDiceRollerArgument extends AbstractDiceRollerArgument {
@@ -30,9 +31,18 @@ public class SuccessDiceRollerArgument extends AbstractDiceRollerArgument {
     super(operator, value);
   }
 
+  private SuccessDiceRollerArgument(SuccessDiceRollerArgument from, DiceExprResult val) {
+    super(from, val);
+  }
+
+  @Override
+  SuccessDiceRollerArgument withValue(DiceExprResult val) {
+    return new SuccessDiceRollerArgument(this, val);
+  }
+
   @Override
   public String getArgumentName() {
-    return "failure";
+    return "success";
   }
 
   @Override
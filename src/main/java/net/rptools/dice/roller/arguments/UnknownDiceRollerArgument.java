@@ -15,8 +15,8 @@
 package net.rptools.dice.roller.arguments;
 
 import java.util.Optional;
+import net.rptools.dice.expressiontree.DiceEvalFrame;
 import net.rptools.dice.result.DiceExprResult;
-import net.rptools.dice.symbols.DiceExpressionSymbolTable;
 
 /**
  * This class represents modifier arguments to a dice roll. Arguments are of the form
@@ -95,7 +95,7 @@ public class UnknownDiceRollerArgument implements DiceRollerArgument {
   }
 
   @Override
-  public void evaluate(DiceExpressionSymbolTable symbolTable) {
-    // TODO
+  public DiceRollerArgument evaluate(DiceEvalFrame frame) {
+    return this;
   }
 }
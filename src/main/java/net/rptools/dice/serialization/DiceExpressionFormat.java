@@ -0,0 +1,96 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.serialization;
+
+/**
+ * Constants for the binary format of expression trees written by {@link DiceExpressionWriter}.
+ *
+ * <p>Each expression is written as:
+ *
+ * <ul>
+ *   <li>the two byte {@link #MAGIC} followed by the one byte {@link #VERSION}.
+ *   <li>a string table, a varint count followed by each string as a varint length and its UTF-8
+ *       bytes. Everywhere else strings are written as a varint index into this table, with <code>0
+ *       </code> used for <code>null</code> and <code>n + 1</code> for entry <code>n</code>.
+ *   <li>a varint count of the statements followed by the tree of each statement, written in prefix
+ *       order as a tag byte and the fields of the node.
+ * </ul>
+ *
+ * <p>Integers are written as zigzag encoded varints so that small values of either sign take a
+ * single byte. Integer constants are written in full as zigzag encoded varlongs, and those that do
+ * not fit in a long are written with the type {@link #BIG_INTEGER_VALUE}, followed by the varint
+ * length and the bytes of their two's complement representation.
+ */
+final class DiceExpressionFormat {
+
+  /** The magic number at the start of every encoded expression. */
+  static final int MAGIC = 0x4458;
+
+  /** The version of the format written. */
+  static final int VERSION = 4;
+
+  /** The version of the format before integer constants were written as longs. */
+  static final int VERSION_CHAINS = 3;
+
+  /** The version of the format before chains of binary operations were added. */
+  static final int VERSION_SPANS = 2;
+
+  /** The version of the format that held node text as strings rather than source offsets. */
+  static final int VERSION_TEXT = 1;
+
+  /** Tag for a missing node. */
+  static final int NULL = 0;
+
+  /** Tag for a {@link net.rptools.dice.expressiontree.TopLevelExpressionNode}. */
+  static final int TOP_LEVEL = 1;
+
+  /** Tag for a {@link net.rptools.dice.expressiontree.ValueDiceExpressionNode}. */
+  static final int VALUE = 2;
+
+  /** Tag for a {@link net.rptools.dice.expressiontree.BinaryDiceExpressionNode}. */
+  static final int BINARY = 3;
+
+  /** Tag for a {@link net.rptools.dice.expressiontree.UnaryDiceExpressionNode}. */
+  static final int UNARY = 4;
+
+  /** Tag for a {@link net.rptools.dice.expressiontree.GroupDiceExpressionNode}. */
+  static final int GROUP = 5;
+
+  /** Tag for a {@link net.rptools.dice.expressiontree.ResolveSymbolDiceExpressionNode}. */
+  static final int RESOLVE = 6;
+
+  /** Tag for a {@link net.rptools.dice.expressiontree.AssignmentDiceExpressionNode}. */
+  static final int ASSIGNMENT = 7;
+
+  /** Tag for a {@link net.rptools.dice.expressiontree.DiceRollDiceExpressionNode}. */
+  static final int DICE_ROLL = 8;
+
+  /** Tag for a {@link net.rptools.dice.expressiontree.InstructionDiceExpressionNode}. */
+  static final int INSTRUCTION = 9;
+
+  /** Tag for a {@link net.rptools.dice.expressiontree.ChainDiceExpressionNode}. */
+  static final int CHAIN = 10;
+
+  /**
+   * Type written instead of the ordinal of {@link net.rptools.dice.result.DiceResultType} for
+   * integer constants that do not fit in a long.
+   */
+  static final int BIG_INTEGER_VALUE = 0x80;
+
+  /** Flag set on a roller argument whose value has been resolved ahead of time. */
+  static final int ARGUMENT_RESOLVED = 1;
+
+  private DiceExpressionFormat() {}
+}
@@ -0,0 +1,488 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.serialization;
+
+import static net.rptools.dice.serialization.DiceExpressionFormat.*;
+
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import net.rptools.dice.expressiontree.AssignmentDiceExpressionNode;
+import net.rptools.dice.expressiontree.BinaryDiceExpressionNode;
+import net.rptools.dice.expressiontree.ChainDiceExpressionNode;
+import net.rptools.dice.expressiontree.DiceExpressionNode;
+import net.rptools.dice.expressiontree.DiceExpressionSource;
+import net.rptools.dice.expressiontree.DiceRollDiceExpressionNode;
+import net.rptools.dice.expressiontree.GroupDiceExpressionNode;
+import net.rptools.dice.expressiontree.InstructionDiceExpressionNode;
+import net.rptools.dice.expressiontree.ResolveSymbolDiceExpressionNode;
+import net.rptools.dice.expressiontree.TopLevelExpressionNode;
+import net.rptools.dice.expressiontree.UnaryDiceExpressionNode;
+import net.rptools.dice.expressiontree.ValueDiceExpressionNode;
+import net.rptools.dice.result.DiceExprResult;
+import net.rptools.dice.result.DiceResultType;
+import net.rptools.dice.roller.arguments.DiceRollerArgument;
+import net.rptools.dice.roller.arguments.DiceRollerArguments;
+import net.rptools.dice.symbols.DiceEvalScope;
+
+/**
+ * Reads expression trees written by {@link DiceExpressionWriter}.
+ *
+ * <p>The trees are read from a {@link ByteBuffer} so that a file holding many expressions can be
+ * memory mapped and the expressions read one after another.
+ */
+public final class DiceExpressionReader {
+
+  private static final DiceEvalScope[] SCOPES = DiceEvalScope.values();
+
+  private static final DiceResultType[] RESULT_TYPES = DiceResultType.values();
+
+  private static final GroupDiceExpressionNode.GroupingType[] GROUPING_TYPES =
+      GroupDiceExpressionNode.GroupingType.values();
+
+  /** The comparison operators that dice roller arguments can have. */
+  private static final Set<String> ARGUMENT_OPERATORS = Set.of("<", ">", "<=", ">=", "=");
+
+  /**
+   * The maximum depth of the trees that are read. Reading the trees, and then compiling and
+   * executing them, recurses once for each level, so deeper trees are rejected before they can
+   * overflow the stack. Each level of nesting allowed by the default {@link
+   * net.rptools.dice.DiceInputLimits} adds at most six levels to a tree, so this is deep enough for
+   * any expression compiled with them.
+   */
+  static final int MAX_DEPTH = 2048;
+
+  /** The buffer being read. */
+  private final ByteBuffer buffer;
+
+  /** The string table of the expression being read. */
+  private String[] strings;
+
+  /** The source table of the expression being read. */
+  private DiceExpressionSource[] sources;
+
+  /** The version of the format being read. */
+  private int version;
+
+  /** The depth of the node being read. */
+  private int depth;
+
+  private DiceExpressionReader(ByteBuffer buffer) {
+    this.buffer = buffer;
+  }
+
+  /**
+   * Reads the expression trees for the statements of an expression, starting at the current
+   * position of the buffer. On return the position of the buffer is just after the expression.
+   *
+   * @param buffer The buffer to read from.
+   * @return the roots of the expression trees.
+   * @throws IllegalArgumentException if the buffer does not hold a valid expression.
+   */
+  public static List<DiceExpressionNode> read(ByteBuffer buffer) {
+    try {
+      return new DiceExpressionReader(buffer).readExpression();
+    } catch (BufferUnderflowException e) {
+      throw new IllegalArgumentException("Truncated serialized dice expression", e);
+    }
+  }
+
+  /**
+   * Reads the expression trees for the statements of an expression.
+   *
+   * @param bytes The bytes to read from.
+   * @return the roots of the expression trees.
+   * @throws IllegalArgumentException if the bytes do not hold a valid expression.
+   */
+  public static List<DiceExpressionNode> read(byte[] bytes) {
+    return read(ByteBuffer.wrap(bytes));
+  }
+
+  /**
+   * Reads the header, string table and trees of an expression.
+   *
+   * @return the roots of the expression trees.
+   */
+  private List<DiceExpressionNode> readExpression() {
+    int magic = buffer.getShort() & 0xffff;
+    if (magic != MAGIC) {
+      throw new IllegalArgumentException("Not a serialized dice expression");
+    }
+    version = buffer.get() & 0xff;
+    if (version != VERSION
+        && version != VERSION_CHAINS
+        && version != VERSION_SPANS
+        && version != VERSION_TEXT) {
+      throw new IllegalArgumentException(
+          "Unsupported serialized dice expression version " + version);
+    }
+
+    strings = new String[readCount()];
+    for (int i = 0; i < strings.length; i++) {
+      int length = readCount();
+      byte[] bytes = new byte[length];
+      buffer.get(bytes);
+      strings[i] = new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    if (version == VERSION_TEXT) {
+      sources = new DiceExpressionSource[0];
+    } else {
+      sources = new DiceExpressionSource[readCount()];
+      for (int i = 0; i < sources.length; i++) {
+        String text = readString();
+        if (text == null) {
+          throw new IllegalArgumentException("Missing source text");
+        }
+        sources[i] = new DiceExpressionSource(text);
+      }
+    }
+
+    int count = readCount();
+    List<DiceExpressionNode> roots = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      roots.add(readChild());
+    }
+    return List.copyOf(roots);
+  }
+
+  /**
+   * Reads a node and its children.
+   *
+   * @return the node, which may be <code>null</code>.
+   */
+  private DiceExpressionNode readNode() {
+    if (++depth > MAX_DEPTH) {
+      throw new IllegalArgumentException(
+          "Serialized dice expression is nested deeper than " + MAX_DEPTH + " levels");
+    }
+    var node = readNodeAtDepth();
+    depth--;
+    return node;
+  }
+
+  /**
+   * Reads a node that must be present, and its children.
+   *
+   * @return the node.
+   */
+  private DiceExpressionNode readChild() {
+    var node = readNode();
+    if (node == null) {
+      throw new IllegalArgumentException("Missing child node");
+    }
+    return node;
+  }
+
+  /**
+   * Reads a node and its children once the depth of the node has been checked.
+   *
+   * @return the node, which may be <code>null</code>.
+   */
+  private DiceExpressionNode readNodeAtDepth() {
+    int tag = buffer.get() & 0xff;
+    switch (tag) {
+      case NULL:
+        return null;
+      case TOP_LEVEL:
+        {
+          if (version == VERSION_TEXT) {
+            String expression = readRequiredString();
+            return new TopLevelExpressionNode(expression, readChild());
+          }
+          var source = readSource();
+          int start = readVarInt();
+          int end = readEnd(source, start);
+          return new TopLevelExpressionNode(source, start, end, readChild());
+        }
+      case VALUE:
+        return new ValueDiceExpressionNode(readValue());
+      case BINARY:
+        {
+          String operator = readBinaryOperator();
+          var left = readChild();
+          return new BinaryDiceExpressionNode(operator, left, readChild());
+        }
+      case CHAIN:
+        {
+          if (version < VERSION_CHAINS) {
+            throw new IllegalArgumentException("Unknown node tag " + tag);
+          }
+          int count = readCount();
+          List<DiceExpressionNode> operands = new ArrayList<>(count + 1);
+          List<String> operators = new ArrayList<>(count);
+          operands.add(readChild());
+          for (int i = 0; i < count; i++) {
+            operators.add(readBinaryOperator());
+            operands.add(readChild());
+          }
+          return new ChainDiceExpressionNode(operands, operators);
+        }
+      case UNARY:
+        {
+          String operator = readRequiredString();
+          if (!operator.equals("-")) {
+            throw new IllegalArgumentException("Unknown unary operator " + operator);
+          }
+          return new UnaryDiceExpressionNode(operator, readChild());
+        }
+      case GROUP:
+        {
+          var groupingType = GROUPING_TYPES[readOrdinal(GROUPING_TYPES.length)];
+          return new GroupDiceExpressionNode(groupingType, readChild());
+        }
+      case RESOLVE:
+        {
+          var scope = SCOPES[readOrdinal(SCOPES.length)];
+          return new ResolveSymbolDiceExpressionNode(readRequiredString(), scope);
+        }
+      case ASSIGNMENT:
+        {
+          var scope = SCOPES[readOrdinal(SCOPES.length)];
+          String name = readRequiredString();
+          return new AssignmentDiceExpressionNode(name, scope, readChild());
+        }
+      case DICE_ROLL:
+        {
+          String diceName = readRequiredString();
+          String diceString = null;
+          DiceExpressionSource source = null;
+          int start = 0;
+          int end = 0;
+          if (version == VERSION_TEXT) {
+            diceString = readRequiredString();
+          } else {
+            source = readSource();
+            start = readVarInt();
+            end = readEnd(source, start);
+          }
+          var numberOfDice = readChild();
+          var numberOfSides = readChild();
+          int count = readCount();
+          List<DiceRollerArgument> arguments = new ArrayList<>(count);
+          for (int i = 0; i < count; i++) {
+            arguments.add(readArgument());
+          }
+          return source == null
+              ? new DiceRollDiceExpressionNode(
+                  diceName, numberOfDice, numberOfSides, arguments, diceString)
+              : new DiceRollDiceExpressionNode(
+                  diceName, numberOfDice, numberOfSides, arguments, source, start, end);
+        }
+      case INSTRUCTION:
+        {
+          String name = readRequiredString();
+          int count = readCount();
+          List<String> arguments = new ArrayList<>(count);
+          for (int i = 0; i < count; i++) {
+            arguments.add(readRequiredString());
+          }
+          return new InstructionDiceExpressionNode(name, arguments);
+        }
+      default:
+        throw new IllegalArgumentException("Unknown node tag " + tag);
+    }
+  }
+
+  /**
+   * Reads a dice roller argument.
+   *
+   * @return the argument.
+   */
+  private DiceRollerArgument readArgument() {
+    String name = readRequiredString();
+    if (!DiceRollerArguments.isKnown(name)) {
+      throw new IllegalArgumentException("Unknown dice roller argument " + name);
+    }
+    String operator = readString();
+    if (operator != null && !ARGUMENT_OPERATORS.contains(operator)) {
+      throw new IllegalArgumentException("Unknown comparison operator " + operator);
+    }
+    int flags = buffer.get() & 0xff;
+    var argument = DiceRollerArguments.create(name, operator, readNode());
+    return (flags & ARGUMENT_RESOLVED) != 0 ? argument.resolveConstant() : argument;
+  }
+
+  /**
+   * Reads a constant value.
+   *
+   * @return the value.
+   */
+  private DiceExprResult readValue() {
+    int type = buffer.get() & 0xff;
+    if (type == BIG_INTEGER_VALUE && version > VERSION_CHAINS) {
+      int length = readCount();
+      if (length == 0) {
+        throw new IllegalArgumentException("Empty integer constant");
+      }
+      byte[] bytes = new byte[length];
+      buffer.get(bytes);
+      return DiceExprResult.getBigIntegerResult(new BigInteger(bytes));
+    }
+    if (type >= RESULT_TYPES.length) {
+      throw new IllegalArgumentException("Invalid ordinal " + type);
+    }
+    switch (RESULT_TYPES[type]) {
+      case INTEGER:
+        if (version <= VERSION_CHAINS) {
+          int zigzag = readVarInt();
+          return DiceExprResult.getIntResult((zigzag >>> 1) ^ -(zigzag & 1));
+        }
+        long zigzag = readVarLong();
+        return DiceExprResult.getLongResult((zigzag >>> 1) ^ -(zigzag & 1));
+      case DOUBLE:
+        return DiceExprResult.getDoubleResult(buffer.getDouble());
+      case STRING:
+        return DiceExprResult.getStringResult(readRequiredString());
+      default:
+        return DiceExprResult.UNDEFINED;
+    }
+  }
+
+  /**
+   * Reads a reference to a string in the string table.
+   *
+   * @return the string, or <code>null</code>.
+   */
+  private String readString() {
+    int index = readVarInt();
+    if (index == 0) {
+      return null;
+    }
+    if (index < 0 || index > strings.length) {
+      throw new IllegalArgumentException("Invalid string index " + index);
+    }
+    return strings[index - 1];
+  }
+
+  /**
+   * Reads a reference to a string in the string table that must be present.
+   *
+   * @return the string.
+   */
+  private String readRequiredString() {
+    String string = readString();
+    if (string == null) {
+      throw new IllegalArgumentException("Missing string");
+    }
+    return string;
+  }
+
+  /**
+   * Reads a binary operator.
+   *
+   * @return the operator.
+   */
+  private String readBinaryOperator() {
+    String operator = readRequiredString();
+    if (!BinaryDiceExpressionNode.isSupported(operator)) {
+      throw new IllegalArgumentException("Unknown binary operator " + operator);
+    }
+    return operator;
+  }
+
+  /**
+   * Reads a reference to a source in the source table.
+   *
+   * @return the source.
+   */
+  private DiceExpressionSource readSource() {
+    int index = readVarInt();
+    if (index < 0 || index >= sources.length) {
+      throw new IllegalArgumentException("Invalid source index " + index);
+    }
+    return sources[index];
+  }
+
+  /**
+   * Reads the length of a span of a source and checks that the span is within the source.
+   *
+   * @param source The source.
+   * @param start The offset of the start of the span.
+   * @return the offset after the end of the span.
+   */
+  private int readEnd(DiceExpressionSource source, int start) {
+    int length = readVarInt();
+    if (start < 0 || length < 0 || length > source.length() - start) {
+      throw new IllegalArgumentException("Invalid source span " + start + "+" + length);
+    }
+    return start + length;
+  }
+
+  /**
+   * Reads the ordinal of an enum constant.
+   *
+   * @param count The number of constants in the enum.
+   * @return the ordinal.
+   */
+  private int readOrdinal(int count) {
+    int ordinal = buffer.get() & 0xff;
+    if (ordinal >= count) {
+      throw new IllegalArgumentException("Invalid ordinal " + ordinal);
+    }
+    return ordinal;
+  }
+
+  /**
+   * Reads a count of the items that follow, each of which takes at least one byte.
+   *
+   * @return the count.
+   */
+  private int readCount() {
+    int count = readVarInt();
+    if (count < 0 || count > buffer.remaining()) {
+      throw new IllegalArgumentException("Invalid count " + count);
+    }
+    return count;
+  }
+
+  /**
+   * Reads an unsigned varint.
+   *
+   * @return the value read.
+   */
+  private int readVarInt() {
+    int value = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      int b = buffer.get();
+      value |= (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IllegalArgumentException("Malformed varint");
+  }
+
+  /**
+   * Reads an unsigned varlong.
+   *
+   * @return the value read.
+   */
+  private long readVarLong() {
+    long value = 0;
+    for (int shift = 0; shift < 70; shift += 7) {
+      int b = buffer.get();
+      value |= (long) (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IllegalArgumentException("Malformed varlong");
+  }
+}
@@ -0,0 +1,333 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.serialization;
+
+import static net.rptools.dice.serialization.DiceExpressionFormat.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import net.rptools.dice.expressiontree.AssignmentDiceExpressionNode;
+import net.rptools.dice.expressiontree.BinaryDiceExpressionNode;
+import net.rptools.dice.expressiontree.ChainDiceExpressionNode;
+import net.rptools.dice.expressiontree.DiceExpressionNode;
+import net.rptools.dice.expressiontree.DiceExpressionSource;
+import net.rptools.dice.expressiontree.DiceRollDiceExpressionNode;
+import net.rptools.dice.expressiontree.GroupDiceExpressionNode;
+import net.rptools.dice.expressiontree.InstructionDiceExpressionNode;
+import net.rptools.dice.expressiontree.ResolveSymbolDiceExpressionNode;
+import net.rptools.dice.expressiontree.TopLevelExpressionNode;
+import net.rptools.dice.expressiontree.UnaryDiceExpressionNode;
+import net.rptools.dice.expressiontree.ValueDiceExpressionNode;
+import net.rptools.dice.result.DiceExprResult;
+import net.rptools.dice.roller.arguments.DiceRollerArgument;
+import net.rptools.dice.roller.arguments.DiceRollerArguments;
+
+/**
+ * Writes expression trees in the binary format described by {@link DiceExpressionFormat}, so that
+ * they can be loaded again by {@link DiceExpressionReader} without parsing the source.
+ */
+public final class DiceExpressionWriter {
+
+  /** The index of each string in the string table. */
+  private final Map<String, Integer> stringIndexes = new HashMap<>();
+
+  /** The strings in the string table in the order they were added. */
+  private final List<String> strings = new ArrayList<>();
+
+  /** The index of each source in the source table. */
+  private final Map<DiceExpressionSource, Integer> sourceIndexes = new IdentityHashMap<>();
+
+  /** The string index of each source in the source table in the order they were added. */
+  private final List<Integer> sources = new ArrayList<>();
+
+  /** The buffer the trees are written to before the string table is complete. */
+  private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+  /** Output for the trees. */
+  private final DataOutputStream bodyOut = new DataOutputStream(body);
+
+  private DiceExpressionWriter() {}
+
+  /**
+   * Writes the expression trees for the statements of an expression.
+   *
+   * @param roots The roots of the expression trees.
+   * @param out The output to write to.
+   * @throws IOException if the output can not be written to.
+   * @throws IllegalArgumentException if the trees contain nodes or arguments that can not be
+   *     written.
+   */
+  public static void write(List<DiceExpressionNode> roots, DataOutput out) throws IOException {
+    var writer = new DiceExpressionWriter();
+    writeVarInt(writer.bodyOut, roots.size());
+    for (var root : roots) {
+      writer.writeNode(root);
+    }
+    writer.bodyOut.flush();
+
+    out.writeShort(MAGIC);
+    out.writeByte(VERSION);
+    writeVarInt(out, writer.strings.size());
+    for (String s : writer.strings) {
+      byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+      writeVarInt(out, bytes.length);
+      out.write(bytes);
+    }
+    writeVarInt(out, writer.sources.size());
+    for (int index : writer.sources) {
+      writeVarInt(out, index);
+    }
+    out.write(writer.body.toByteArray());
+  }
+
+  /**
+   * Returns the expression trees for the statements of an expression encoded as bytes.
+   *
+   * @param roots The roots of the expression trees.
+   * @return the encoded trees.
+   * @throws IllegalArgumentException if the trees contain nodes or arguments that can not be
+   *     written.
+   */
+  public static byte[] toBytes(List<DiceExpressionNode> roots) {
+    var bytes = new ByteArrayOutputStream();
+    try {
+      write(roots, new DataOutputStream(bytes));
+    } catch (IOException e) {
+      // Can not happen when writing to memory.
+      throw new IllegalStateException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Writes a node and its children.
+   *
+   * @param node The node to write, may be <code>null</code>.
+   * @throws IOException if the output can not be written to.
+   */
+  private void writeNode(DiceExpressionNode node) throws IOException {
+    if (node == null) {
+      bodyOut.writeByte(NULL);
+    } else if (node instanceof TopLevelExpressionNode) {
+      var topLevel = (TopLevelExpressionNode) node;
+      bodyOut.writeByte(TOP_LEVEL);
+      writeSpan(topLevel.getSource(), topLevel.getStart(), topLevel.getEnd());
+      writeNode(topLevel.getChild());
+    } else if (node instanceof ValueDiceExpressionNode) {
+      bodyOut.writeByte(VALUE);
+      writeValue(((ValueDiceExpressionNode) node).getValue());
+    } else if (node instanceof BinaryDiceExpressionNode) {
+      var binary = (BinaryDiceExpressionNode) node;
+      bodyOut.writeByte(BINARY);
+      writeString(binary.getOperator());
+      writeNode(binary.getLeft());
+      writeNode(binary.getRight());
+    } else if (node instanceof ChainDiceExpressionNode) {
+      var chain = (ChainDiceExpressionNode) node;
+      bodyOut.writeByte(CHAIN);
+      writeVarInt(bodyOut, chain.getOperators().size());
+      writeNode(chain.getOperands().get(0));
+      for (int i = 0; i < chain.getOperators().size(); i++) {
+        writeString(chain.getOperators().get(i));
+        writeNode(chain.getOperands().get(i + 1));
+      }
+    } else if (node instanceof UnaryDiceExpressionNode) {
+      var unary = (UnaryDiceExpressionNode) node;
+      bodyOut.writeByte(UNARY);
+      writeString(unary.getOperator());
+      writeNode(unary.getOperand());
+    } else if (node instanceof GroupDiceExpressionNode) {
+      var group = (GroupDiceExpressionNode) node;
+      bodyOut.writeByte(GROUP);
+      bodyOut.writeByte(group.getGroupingType().ordinal());
+      writeNode(group.getGrouped());
+    } else if (node instanceof ResolveSymbolDiceExpressionNode) {
+      var resolve = (ResolveSymbolDiceExpressionNode) node;
+      bodyOut.writeByte(RESOLVE);
+      bodyOut.writeByte(resolve.getScope().ordinal());
+      writeString(resolve.getName());
+    } else if (node instanceof AssignmentDiceExpressionNode) {
+      var assignment = (AssignmentDiceExpressionNode) node;
+      bodyOut.writeByte(ASSIGNMENT);
+      bodyOut.writeByte(assignment.getScope().ordinal());
+      writeString(assignment.getName());
+      writeNode(assignment.getRhs());
+    } else if (node instanceof DiceRollDiceExpressionNode) {
+      var dice = (DiceRollDiceExpressionNode) node;
+      bodyOut.writeByte(DICE_ROLL);
+      writeString(dice.getDiceName());
+      writeSpan(dice.getSource(), dice.getStart(), dice.getEnd());
+      writeNode(dice.getNumberOfDice());
+      writeNode(dice.getNumberOfSides());
+      writeVarInt(bodyOut, dice.getRollerArguments().size());
+      for (var argument : dice.getRollerArguments()) {
+        writeArgument(argument);
+      }
+    } else if (node instanceof InstructionDiceExpressionNode) {
+      var instruction = (InstructionDiceExpressionNode) node;
+      bodyOut.writeByte(INSTRUCTION);
+      writeString(instruction.getInstructionName());
+      writeVarInt(bodyOut, instruction.getArguments().size());
+      for (String argument : instruction.getArguments()) {
+        writeString(argument);
+      }
+    } else {
+      throw new IllegalArgumentException(
+          "Can not serialize node of type " + node.getClass().getName());
+    }
+  }
+
+  /**
+   * Writes a dice roller argument.
+   *
+   * @param argument The argument to write.
+   * @throws IOException if the output can not be written to.
+   */
+  private void writeArgument(DiceRollerArgument argument) throws IOException {
+    if (!DiceRollerArguments.isKnown(argument.getArgumentName())) {
+      throw new IllegalArgumentException(
+          "Can not serialize dice roller argument " + argument.getArgumentName());
+    }
+    writeString(argument.getArgumentName());
+    writeString(argument.getOperator().orElse(null));
+    bodyOut.writeByte(argument.getValue() != DiceExprResult.UNDEFINED ? ARGUMENT_RESOLVED : 0);
+    writeNode(argument.getValueNode().orElse(null));
+  }
+
+  /**
+   * Writes a constant value.
+   *
+   * @param value The value to write.
+   * @throws IOException if the output can not be written to.
+   */
+  private void writeValue(DiceExprResult value) throws IOException {
+    if (value.hasRolls()) {
+      throw new IllegalArgumentException("Can not serialize values containing dice rolls");
+    }
+    if (value.isBigInteger()) {
+      byte[] bytes = value.getBigIntegerResult().orElseThrow().toByteArray();
+      bodyOut.writeByte(BIG_INTEGER_VALUE);
+      writeVarInt(bodyOut, bytes.length);
+      bodyOut.write(bytes);
+      return;
+    }
+    bodyOut.writeByte(value.getType().ordinal());
+    switch (value.getType()) {
+      case INTEGER:
+        writeVarLong(bodyOut, zigzag(value.getLongValue()));
+        break;
+      case DOUBLE:
+        bodyOut.writeDouble(value.getDoubleResult().getAsDouble());
+        break;
+      case STRING:
+        writeString(value.getStringResult());
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Writes a span of a source, adding the source to the source table if needed.
+   *
+   * @param source The source.
+   * @param start The offset of the start of the span.
+   * @param end The offset after the end of the span.
+   * @throws IOException if the output can not be written to.
+   */
+  private void writeSpan(DiceExpressionSource source, int start, int end) throws IOException {
+    Integer index = sourceIndexes.get(source);
+    if (index == null) {
+      index = sources.size();
+      sources.add(stringIndex(source.getText()));
+      sourceIndexes.put(source, index);
+    }
+    writeVarInt(bodyOut, index);
+    writeVarInt(bodyOut, start);
+    writeVarInt(bodyOut, end - start);
+  }
+
+  /**
+   * Writes a reference to a string in the string table, adding it to the table if needed.
+   *
+   * @param s The string to write, may be <code>null</code>.
+   * @throws IOException if the output can not be written to.
+   */
+  private void writeString(String s) throws IOException {
+    writeVarInt(bodyOut, stringIndex(s));
+  }
+
+  /**
+   * Returns the reference to a string in the string table, adding it to the table if needed.
+   *
+   * @param s The string, may be <code>null</code>.
+   * @return <code>0</code> for <code>null</code>, otherwise one more than the index in the table.
+   */
+  private int stringIndex(String s) {
+    if (s == null) {
+      return 0;
+    }
+    Integer index = stringIndexes.get(s);
+    if (index == null) {
+      index = strings.size();
+      strings.add(s);
+      stringIndexes.put(s, index);
+    }
+    return index + 1;
+  }
+
+  /**
+   * Writes an unsigned varint, seven bits at a time with the high bit set on all but the last byte.
+   *
+   * @param out The output to write to.
+   * @param value The value to write.
+   * @throws IOException if the output can not be written to.
+   */
+  private static void writeVarInt(DataOutput out, int value) throws IOException {
+    while ((value & ~0x7f) != 0) {
+      out.writeByte((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+
+  /**
+   * Writes an unsigned varlong, seven bits at a time with the high bit set on all but the last
+   * byte.
+   *
+   * @param out The output to write to.
+   * @param value The value to write.
+   * @throws IOException if the output can not be written to.
+   */
+  private static void writeVarLong(DataOutput out, long value) throws IOException {
+    while ((value & ~0x7fL) != 0) {
+      out.writeByte((int) (value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte((int) value);
+  }
+
+  private static long zigzag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+}
@@ -23,7 +23,7 @@ import net.rptools.dice.result.DiceExprResult;
 public class DefaultDiceExpressionSymbolTable implements DiceExpressionSymbolTable {
 
   /** The variables that have been set and their scopes. */
-  private final Map<DiceEvalScope, Map<String, DiceExprResult>> variables = new HashMap<>();
+  private final Map<DiceEvalScope, Map<String, Variable>> variables = new HashMap<>();
 
   /** Creates a new {@link DefaultDiceExpressionSymbolTable}. */
   public DefaultDiceExpressionSymbolTable() {
@@ -35,7 +35,8 @@ public class DefaultDiceExpressionSymbolTable implements DiceExpressionSymbolTab
 
   @Override
   public DiceExprResult getVariableValue(DiceEvalScope scope, String name) {
-    return variables.get(scope).get(name);
+    Variable variable = variables.get(scope).get(name);
+    return variable == null ? null : variable.value;
   }
 
   @Override
@@ -45,11 +46,61 @@ public class DefaultDiceExpressionSymbolTable implements DiceExpressionSymbolTab
 
   @Override
   public void setVariableValue(DiceEvalScope scope, String name, DiceExprResult value) {
-    variables.get(scope).put(name, value);
+    variables.get(scope).computeIfAbsent(name, n -> new Variable()).value = value;
   }
 
   @Override
   public Set<String> getVariableNames(DiceEvalScope scope) {
     return variables.get(scope).keySet();
   }
+
+  @Override
+  public DiceVariableHandle getVariableHandle(DiceEvalScope scope, String name) {
+    return new Handle(variables.get(scope), name);
+  }
+
+  /** Holds the value of a variable, so that handles can refer to it directly. */
+  private static final class Variable {
+    private DiceExprResult value;
+  }
+
+  /**
+   * Handle for a variable. Once the variable has been set the handle refers to it directly rather
+   * than looking it up by name.
+   */
+  private static final class Handle implements DiceVariableHandle {
+
+    /** The variables for the scope of the variable. */
+    private final Map<String, Variable> scopeVariables;
+
+    /** The name of the variable. */
+    private final String name;
+
+    /** The variable, <code>null</code> until it has been set. */
+    private Variable variable;
+
+    private Handle(Map<String, Variable> scopeVariables, String name) {
+      this.scopeVariables = scopeVariables;
+      this.name = name;
+    }
+
+    @Override
+    public DiceExprResult get() {
+      if (variable == null) {
+        variable = scopeVariables.get(name);
+        if (variable == null) {
+          return null;
+        }
+      }
+      return variable.value;
+    }
+
+    @Override
+    public void set(DiceExprResult value) {
+      if (variable == null) {
+        variable = scopeVariables.computeIfAbsent(name, n -> new Variable());
+      }
+      variable.value = value;
+    }
+  }
 }
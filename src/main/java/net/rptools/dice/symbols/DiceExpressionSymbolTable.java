@@ -57,4 +57,29 @@ public interface DiceExpressionSymbolTable {
    * @return a {@link Set} containing the names of the variables in the scope.
    */
   Set<String> getVariableNames(DiceEvalScope scope);
+
+  /**
+   * Returns a handle that can be used to read and write a variable. The handle remains valid for as
+   * long as the symbol table, and refers to the variable even if it is not set yet.
+   *
+   * <p>The default implementation looks the variable up by name on every access, symbol tables
+   * should override this if they can do better.
+   *
+   * @param scope The scope of the variable.
+   * @param name The name of the variable.
+   * @return the handle for the variable.
+   */
+  default DiceVariableHandle getVariableHandle(DiceEvalScope scope, String name) {
+    return new DiceVariableHandle() {
+      @Override
+      public DiceExprResult get() {
+        return getVariableValue(scope, name);
+      }
+
+      @Override
+      public void set(DiceExprResult value) {
+        setVariableValue(scope, name, value);
+      }
+    };
+  }
 }
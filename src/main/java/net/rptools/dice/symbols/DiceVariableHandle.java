@@ -0,0 +1,38 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.symbols;
+
+import net.rptools.dice.result.DiceExprResult;
+
+/**
+ * A handle to a single variable in a {@link DiceExpressionSymbolTable}, which can be held on to so
+ * that the variable can be read and written repeatedly without looking it up by name each time.
+ */
+public interface DiceVariableHandle {
+
+  /**
+   * Returns the value stored in the variable.
+   *
+   * @return the value stored in the variable, or <code>null</code> if it has not been set.
+   */
+  DiceExprResult get();
+
+  /**
+   * Sets the value of the variable.
+   *
+   * @param value The value to set the variable to.
+   */
+  void set(DiceExprResult value);
+}
@@ -30,6 +30,7 @@ import net.rptools.dice.DiceExprParser.DiceExprTopLevelContext;
 import net.rptools.dice.DiceExprParser.DiceRollsContext;
 import net.rptools.dice.DiceExprParser.DiceSidesContext;
 import net.rptools.dice.DiceExprParser.DoubleValueContext;
+import net.rptools.dice.DiceExprParser.ExprContext;
 import net.rptools.dice.DiceExprParser.GlobalVariableContext;
 import net.rptools.dice.DiceExprParser.InstructionContext;
 import net.rptools.dice.DiceExprParser.IntegerValueContext;
@@ -41,7 +42,9 @@ import net.rptools.dice.DiceExprParser.StringContext;
 import net.rptools.dice.DiceExprParser.UnaryExprContext;
 import net.rptools.dice.expressiontree.AssignmentDiceExpressionNode;
 import net.rptools.dice.expressiontree.BinaryDiceExpressionNode;
+import net.rptools.dice.expressiontree.ChainDiceExpressionNode;
 import net.rptools.dice.expressiontree.DiceExpressionNode;
+import net.rptools.dice.expressiontree.DiceExpressionSource;
 import net.rptools.dice.expressiontree.DiceRollDiceExpressionNode;
 import net.rptools.dice.expressiontree.GroupDiceExpressionNode;
 import net.rptools.dice.expressiontree.InstructionDiceExpressionNode;
@@ -52,11 +55,23 @@ import net.rptools.dice.expressiontree.ValueDiceExpressionNode;
 import net.rptools.dice.roller.arguments.DiceRollerArgument;
 import net.rptools.dice.DiceExprBaseVisitor;
 import net.rptools.dice.symbols.DiceEvalScope;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
 
 public class DiceRollVisitor extends DiceExprBaseVisitor<DiceExpressionNode> {
 
   private final List<DiceExpressionNode> roots = new ArrayList<>();
 
+  private final DiceArgumentVisitor diceArgVisitor = new DiceArgumentVisitor(this);
+
+  private final InstructionArgumentVisitor instructionArgVisitor = new InstructionArgumentVisitor();
+
+  /** The source being visited, <code>null</code> if the nodes should hold copies of their text. */
+  private DiceExpressionSource source;
+
+  /** The offset in the source of the start of the text that was parsed. */
+  private int sourceOffset;
+
   private String stripStringQuotes(String str) {
     return str.substring(1, str.length() - 1);
   }
@@ -65,6 +80,62 @@ public class DiceRollVisitor extends DiceExprBaseVisitor<DiceExpressionNode> {
     return Collections.unmodifiableList(roots);
   }
 
+  /**
+   * Clears the expression trees so the visitor can be used for another parse tree. Any list
+   * previously returned by {@link #getExpressionTrees()} will be cleared as well.
+   */
+  public void reset() {
+    roots.clear();
+    source = null;
+    sourceOffset = 0;
+  }
+
+  /**
+   * Sets the source the parse tree was parsed from, so that the nodes refer to their text by offset
+   * in the source rather than holding copies of it.
+   *
+   * @param src The source the parse tree was parsed from.
+   */
+  public void setSource(DiceExpressionSource src) {
+    setSource(src, 0);
+  }
+
+  /**
+   * Sets the source that part of which the parse tree was parsed from, so that the nodes refer to
+   * their text by offset in the source rather than holding copies of it.
+   *
+   * @param src The source the parse tree was parsed from.
+   * @param offset The offset in the source of the start of the text that was parsed.
+   */
+  public void setSource(DiceExpressionSource src, int offset) {
+    source = src;
+    sourceOffset = offset;
+  }
+
+  /**
+   * Returns the offset in the source of the start of a parse tree node.
+   *
+   * @param ctx The parse tree node.
+   * @return the offset of the start of the node.
+   */
+  private int startOffset(ParserRuleContext ctx) {
+    return source.charIndex(sourceOffset, ctx.getStart().getStartIndex());
+  }
+
+  /**
+   * Returns the offset in the source after the end of a parse tree node.
+   *
+   * @param ctx The parse tree node.
+   * @return the offset after the end of the node.
+   */
+  private int endOffset(ParserRuleContext ctx) {
+    Token stop = ctx.getStop();
+    if (stop == null || stop.getStopIndex() < ctx.getStart().getStartIndex()) {
+      return startOffset(ctx);
+    }
+    return source.charIndex(sourceOffset, stop.getStopIndex() + 1);
+  }
+
   @Override
   public DiceExpressionNode visitDiceRolls(DiceRollsContext ctx) {
     ctx.diceExprTopLevel().stream().forEach(de -> roots.add(visit(de)));
@@ -98,7 +169,26 @@ public class DiceRollVisitor extends DiceExprBaseVisitor<DiceExpressionNode> {
 
   @Override
   public DiceExpressionNode visitBinaryExpr(BinaryExprContext ctx) {
-    return new BinaryDiceExpressionNode(ctx.op.getText(), visit(ctx.left), visit(ctx.right));
+    // Walk down the left operands of operators with the same precedence instead of recursing, so
+    // that long chains such as 1 + 1 + ... + 1 become a single node using constant stack.
+    int precedence = BinaryDiceExpressionNode.precedence(ctx.op.getText());
+    List<BinaryExprContext> chain = new ArrayList<>();
+    ExprContext expr = ctx;
+    while (expr instanceof BinaryExprContext
+        && BinaryDiceExpressionNode.precedence(((BinaryExprContext) expr).op.getText())
+            == precedence) {
+      chain.add((BinaryExprContext) expr);
+      expr = ((BinaryExprContext) expr).left;
+    }
+
+    List<DiceExpressionNode> operands = new ArrayList<>(chain.size() + 1);
+    List<String> operators = new ArrayList<>(chain.size());
+    operands.add(visit(expr));
+    for (int i = chain.size() - 1; i >= 0; i--) {
+      operators.add(chain.get(i).op.getText());
+      operands.add(visit(chain.get(i).right));
+    }
+    return ChainDiceExpressionNode.of(operands, operators);
   }
 
   @Override
@@ -142,20 +232,21 @@ public class DiceRollVisitor extends DiceExprBaseVisitor<DiceExpressionNode> {
       numDice = visit(ctx.numDice());
     }
 
-    String roll = ctx.getText();
-
     final DiceExpressionNode sides = visit(ctx.diceSides());
     final String name = ctx.diceName().getText();
 
     List<DiceRollerArgument> argList;
     if (ctx.diceArguments() != null) {
-      final var diceArgVisitor = new DiceArgumentVisitor(this);
       argList = diceArgVisitor.visit(ctx.diceArguments());
     } else {
       argList = Collections.emptyList();
     }
 
-    return new DiceRollDiceExpressionNode(name, numDice, sides, argList, ctx.getText());
+    if (source == null) {
+      return new DiceRollDiceExpressionNode(name, numDice, sides, argList, ctx.getText());
+    }
+    return new DiceRollDiceExpressionNode(
+        name, numDice, sides, argList, source, startOffset(ctx), endOffset(ctx));
   }
 
   @Override
@@ -182,7 +273,6 @@ public class DiceRollVisitor extends DiceExprBaseVisitor<DiceExpressionNode> {
 
     List<String> argList;
     if (ctx.instructionArgumentList() != null) {
-      final var instructionArgVisitor = new InstructionArgumentVisitor();
       argList = instructionArgVisitor.visit(ctx.instructionArgumentList());
     } else {
       argList = Collections.emptyList();
@@ -193,7 +283,11 @@ public class DiceRollVisitor extends DiceExprBaseVisitor<DiceExpressionNode> {
 
   @Override
   public DiceExpressionNode visitDiceExprTopLevel(DiceExprTopLevelContext ctx) {
-    return new TopLevelExpressionNode(ctx.getText(), visit(ctx.getChild(0)));
+    if (source == null) {
+      return new TopLevelExpressionNode(ctx.getText(), visit(ctx.getChild(0)));
+    }
+    return new TopLevelExpressionNode(
+        source, startOffset(ctx), endOffset(ctx), visit(ctx.getChild(0)));
   }
 
   @Override
@@ -0,0 +1,96 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.vm;
+
+/**
+ * The instructions of a {@link DiceProgram}. Each instruction is an opcode followed by a fixed
+ * number of int operands, which are register numbers, indexes into the constant pool or small
+ * values, as listed for each opcode.
+ */
+final class DiceOpcodes {
+
+  /** <code>CONST dst, constant</code>: loads a {@code DiceExprResult} constant. */
+  static final int CONST = 0;
+
+  /** <code>NULL dst</code>: loads <code>null</code>, the result of an instruction. */
+  static final int NULL = 1;
+
+  /** <code>ADD dst, left, right</code>. */
+  static final int ADD = 2;
+
+  /** <code>SUB dst, left, right</code>. */
+  static final int SUB = 3;
+
+  /** <code>MUL dst, left, right</code>. */
+  static final int MUL = 4;
+
+  /** <code>DIV dst, left, right</code>. */
+  static final int DIV = 5;
+
+  /** <code>NEG dst, operand</code>. */
+  static final int NEG = 6;
+
+  /** <code>LOAD dst, scope, name, slot</code>: reads a variable, name is a constant. */
+  static final int LOAD = 7;
+
+  /** <code>STORE src, scope, name, slot</code>: writes a variable, name is a constant. */
+  static final int STORE = 8;
+
+  /** <code>RECORD src, node</code>: records the result of a node, which is a constant. */
+  static final int RECORD = 9;
+
+  /** <code>DICE src</code>: checks that the number of dice is an integer. */
+  static final int DICE = 10;
+
+  /**
+   * <code>ROLL dst, dice, sides, roll</code>: rolls dice, roll is a constant holding the {@link
+   * DiceProgram.Roll} with the roller, its name and the arguments.
+   */
+  static final int ROLL = 11;
+
+  /** <code>POW dst, left, right</code>. */
+  static final int POW = 12;
+
+  /** The number of operands of each opcode. */
+  private static final int[] OPERANDS = {2, 1, 3, 3, 3, 3, 2, 4, 4, 2, 1, 4, 3};
+
+  /** The names of each opcode. */
+  private static final String[] NAMES = {
+    "CONST", "NULL", "ADD", "SUB", "MUL", "DIV", "NEG", "LOAD", "STORE", "RECORD", "DICE", "ROLL",
+    "POW"
+  };
+
+  private DiceOpcodes() {}
+
+  /**
+   * Returns the number of operands of an opcode.
+   *
+   * @param opcode The opcode.
+   * @return the number of operands.
+   */
+  static int operands(int opcode) {
+    return OPERANDS[opcode];
+  }
+
+  /**
+   * Returns the name of an opcode.
+   *
+   * @param opcode The opcode.
+   * @return the name of the opcode.
+   */
+  static String name(int opcode) {
+    return NAMES[opcode];
+  }
+}
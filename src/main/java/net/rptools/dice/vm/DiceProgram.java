@@ -0,0 +1,118 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.vm;
+
+import java.util.List;
+import net.rptools.dice.roller.DiceRoller;
+import net.rptools.dice.roller.arguments.DiceRollerArgument;
+
+/**
+ * Expression trees compiled into a flat list of register based instructions by {@link
+ * DiceProgramCompiler}, and executed by {@link DiceVirtualMachine}. The instructions are held in a
+ * single <code>int[]</code>, and everything that is not an int, such as values, variable names,
+ * nodes and dice rolls, is held in a constant pool. A program is immutable and can be executed by
+ * several threads at the same time.
+ */
+public final class DiceProgram {
+
+  /** A dice roll in the constant pool of a program. */
+  static final class Roll {
+
+    /** The roller that rolls the dice. */
+    final DiceRoller roller;
+
+    /** The name of the dice. */
+    final String diceName;
+
+    /** The arguments passed to the roller, before they are evaluated. */
+    final List<DiceRollerArgument> arguments;
+
+    Roll(DiceRoller roller, String diceName, List<DiceRollerArgument> arguments) {
+      this.roller = roller;
+      this.diceName = diceName;
+      this.arguments = arguments;
+    }
+  }
+
+  /** The instructions. */
+  final int[] code;
+
+  /** The constant pool. */
+  final Object[] constants;
+
+  /** The number of registers used by the instructions. */
+  final int registerCount;
+
+  /**
+   * Creates a new <code>DiceProgram</code>.
+   *
+   * @param code The instructions.
+   * @param constants The constant pool.
+   * @param registerCount The number of registers used by the instructions.
+   */
+  DiceProgram(int[] code, Object[] constants, int registerCount) {
+    this.code = code;
+    this.constants = constants;
+    this.registerCount = registerCount;
+  }
+
+  /**
+   * Returns the length of the instructions.
+   *
+   * @return the number of ints in the instructions.
+   */
+  public int getCodeLength() {
+    return code.length;
+  }
+
+  /**
+   * Returns the size of the constant pool.
+   *
+   * @return the number of constants.
+   */
+  public int getConstantCount() {
+    return constants.length;
+  }
+
+  /**
+   * Returns the number of registers used by the instructions.
+   *
+   * @return the number of registers.
+   */
+  public int getRegisterCount() {
+    return registerCount;
+  }
+
+  /**
+   * Returns a listing of the instructions, one per line.
+   *
+   * @return the listing of the instructions.
+   */
+  @Override
+  public String toString() {
+    var builder = new StringBuilder();
+    int pc = 0;
+    while (pc < code.length) {
+      int opcode = code[pc];
+      builder.append(DiceOpcodes.name(opcode));
+      for (int i = 1; i <= DiceOpcodes.operands(opcode); i++) {
+        builder.append(i == 1 ? " " : ", ").append(code[pc + i]);
+      }
+      builder.append('\n');
+      pc += 1 + DiceOpcodes.operands(opcode);
+    }
+    return builder.toString();
+  }
+}
@@ -0,0 +1,245 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.vm;
+
+import static net.rptools.dice.vm.DiceOpcodes.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import net.rptools.dice.expressiontree.AssignmentDiceExpressionNode;
+import net.rptools.dice.expressiontree.BinaryDiceExpressionNode;
+import net.rptools.dice.expressiontree.ChainDiceExpressionNode;
+import net.rptools.dice.expressiontree.DiceExpressionNode;
+import net.rptools.dice.expressiontree.DiceRollDiceExpressionNode;
+import net.rptools.dice.expressiontree.GroupDiceExpressionNode;
+import net.rptools.dice.expressiontree.InstructionDiceExpressionNode;
+import net.rptools.dice.expressiontree.ResolveSymbolDiceExpressionNode;
+import net.rptools.dice.expressiontree.TopLevelExpressionNode;
+import net.rptools.dice.expressiontree.UnaryDiceExpressionNode;
+import net.rptools.dice.expressiontree.ValueDiceExpressionNode;
+import net.rptools.dice.roller.DiceRoller;
+import net.rptools.dice.roller.DiceRollers;
+
+/**
+ * Compiles expression trees into a {@link DiceProgram}.
+ *
+ * <p>Registers are allocated like a stack: the result of a node is written to the register it is
+ * given, and its children use that register and the ones above it, so the number of registers is
+ * the depth of the trees, and a chain of operations needs only two. The result of every node is
+ * recorded in the frame just as the nodes themselves do, so the frame can be formatted in the same
+ * way.
+ */
+public final class DiceProgramCompiler {
+
+  /** The instructions written so far. */
+  private int[] code = new int[64];
+
+  /** The length of the instructions written so far. */
+  private int length;
+
+  /** The constant pool. */
+  private final List<Object> constants = new ArrayList<>();
+
+  /** The index of each node, roll and value in the constant pool. */
+  private final Map<Object, Integer> constantIndexes = new IdentityHashMap<>();
+
+  /** The index of each string in the constant pool. */
+  private final Map<String, Integer> stringIndexes = new HashMap<>();
+
+  /** The number of registers used so far. */
+  private int registerCount;
+
+  private DiceProgramCompiler() {}
+
+  /**
+   * Compiles expression trees into a {@link DiceProgram}.
+   *
+   * @param roots The roots of the expression trees, in the order they are executed.
+   * @return the program, or empty if the trees contain something that can not be compiled, in which
+   *     case they should be evaluated by the tree interpreter.
+   */
+  public static Optional<DiceProgram> compile(Collection<DiceExpressionNode> roots) {
+    var compiler = new DiceProgramCompiler();
+    for (var root : roots) {
+      if (!compiler.emit(root, 0)) {
+        return Optional.empty();
+      }
+    }
+    return Optional.of(
+        new DiceProgram(
+            Arrays.copyOf(compiler.code, compiler.length),
+            compiler.constants.toArray(),
+            compiler.registerCount));
+  }
+
+  /**
+   * Writes the instructions to evaluate a node.
+   *
+   * @param node The node to evaluate.
+   * @param dst The register the result is written to, registers above it are free.
+   * @return <code>false</code> if the node can not be compiled.
+   */
+  private boolean emit(DiceExpressionNode node, int dst) {
+    registerCount = Math.max(registerCount, dst + 1);
+    if (node instanceof ValueDiceExpressionNode) {
+      write(CONST, dst, constant(((ValueDiceExpressionNode) node).getValue()));
+      return true;
+    } else if (node instanceof BinaryDiceExpressionNode) {
+      var binary = (BinaryDiceExpressionNode) node;
+      int opcode = binaryOpcode(binary.getOperator());
+      if (opcode < 0 || !emit(binary.getLeft(), dst) || !emit(binary.getRight(), dst + 1)) {
+        return false;
+      }
+      write(opcode, dst, dst, dst + 1);
+    } else if (node instanceof ChainDiceExpressionNode) {
+      var chain = (ChainDiceExpressionNode) node;
+      var operators = chain.getOperators();
+      int[] opcodes = new int[operators.size()];
+      for (int i = 0; i < opcodes.length; i++) {
+        opcodes[i] = binaryOpcode(operators.get(i));
+        if (opcodes[i] < 0) {
+          return false;
+        }
+      }
+      if (!emit(chain.getOperands().get(0), dst)) {
+        return false;
+      }
+      for (int i = 0; i < opcodes.length; i++) {
+        if (!emit(chain.getOperands().get(i + 1), dst + 1)) {
+          return false;
+        }
+        write(opcodes[i], dst, dst, dst + 1);
+      }
+    } else if (node instanceof UnaryDiceExpressionNode) {
+      var unary = (UnaryDiceExpressionNode) node;
+      if (!"-".equals(unary.getOperator()) || !emit(unary.getOperand(), dst)) {
+        return false;
+      }
+      write(NEG, dst, dst);
+    } else if (node instanceof GroupDiceExpressionNode) {
+      if (!emit(((GroupDiceExpressionNode) node).getGrouped(), dst)) {
+        return false;
+      }
+    } else if (node instanceof TopLevelExpressionNode) {
+      if (!emit(((TopLevelExpressionNode) node).getChild(), dst)) {
+        return false;
+      }
+    } else if (node instanceof ResolveSymbolDiceExpressionNode) {
+      var resolve = (ResolveSymbolDiceExpressionNode) node;
+      write(
+          LOAD, dst, resolve.getScope().ordinal(), constant(resolve.getName()), resolve.getSlot());
+    } else if (node instanceof AssignmentDiceExpressionNode) {
+      var assignment = (AssignmentDiceExpressionNode) node;
+      if (!emit(assignment.getRhs(), dst)) {
+        return false;
+      }
+      write(
+          STORE,
+          dst,
+          assignment.getScope().ordinal(),
+          constant(assignment.getName()),
+          assignment.getSlot());
+    } else if (node instanceof DiceRollDiceExpressionNode) {
+      var dice = (DiceRollDiceExpressionNode) node;
+      DiceRoller roller = DiceRollers.getInstance().getDiceRoller(dice.getDiceName());
+      if (roller == null || !emit(dice.getNumberOfDice(), dst)) {
+        return false;
+      }
+      write(DICE, dst);
+      if (!emit(dice.getNumberOfSides(), dst + 1)) {
+        return false;
+      }
+      var roll = new DiceProgram.Roll(roller, dice.getDiceName(), dice.getRollerArguments());
+      write(ROLL, dst, dst, dst + 1, constant(roll));
+    } else if (node instanceof InstructionDiceExpressionNode) {
+      write(NULL, dst);
+      return true;
+    } else {
+      return false;
+    }
+    write(RECORD, dst, constant(node));
+    return true;
+  }
+
+  /**
+   * Returns the opcode for a binary operator.
+   *
+   * @param operator The binary operator.
+   * @return the opcode, or -1 if the operator can not be compiled.
+   */
+  private static int binaryOpcode(String operator) {
+    switch (operator) {
+      case "+":
+        return ADD;
+      case "-":
+        return SUB;
+      case "*":
+        return MUL;
+      case "/":
+        return DIV;
+      case "^":
+        return POW;
+      default:
+        return -1;
+    }
+  }
+
+  /**
+   * Returns the index of a constant, adding it to the constant pool if needed.
+   *
+   * @param value The constant, which is shared with other uses of the same object.
+   * @return the index of the constant in the constant pool.
+   */
+  private int constant(Object value) {
+    return constantIndexes.computeIfAbsent(value, this::addConstant);
+  }
+
+  /**
+   * Returns the index of a string constant, adding it to the constant pool if needed.
+   *
+   * @param value The string, which is shared with other uses of an equal string.
+   * @return the index of the string in the constant pool.
+   */
+  private int constant(String value) {
+    return stringIndexes.computeIfAbsent(value, this::addConstant);
+  }
+
+  private int addConstant(Object value) {
+    constants.add(value);
+    return constants.size() - 1;
+  }
+
+  /**
+   * Writes an instruction.
+   *
+   * @param opcode The opcode.
+   * @param operands The operands of the instruction.
+   */
+  private void write(int opcode, int... operands) {
+    if (length + operands.length + 1 > code.length) {
+      code = Arrays.copyOf(code, Math.max(code.length * 2, length + operands.length + 1));
+    }
+    code[length++] = opcode;
+    for (int operand : operands) {
+      code[length++] = operand;
+    }
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.vm;
+
+import static net.rptools.dice.vm.DiceOpcodes.*;
+
+import net.rptools.dice.compiler.CompiledExpressionSupport;
+import net.rptools.dice.expressiontree.DiceEvalFrame;
+import net.rptools.dice.expressiontree.DiceExpressionNode;
+import net.rptools.dice.result.ArithmeticMode;
+import net.rptools.dice.result.DiceExprResult;
+import net.rptools.dice.symbols.DiceEvalScope;
+
+/**
+ * Executes {@link DiceProgram}s. The instructions are run by a single loop over a switch on the
+ * opcode, with the intermediate results held in an array of registers, so the execution does not
+ * recurse however deep the original trees were.
+ */
+public final class DiceVirtualMachine {
+
+  /** The scopes of variables, indexed by ordinal. */
+  private static final DiceEvalScope[] SCOPES = DiceEvalScope.values();
+
+  private DiceVirtualMachine() {}
+
+  /**
+   * Executes a program.
+   *
+   * @param program The program to execute.
+   * @param frame The frame for the execution, which receives the results of the nodes.
+   */
+  public static void execute(DiceProgram program, DiceEvalFrame frame) {
+    final int[] code = program.code;
+    final Object[] constants = program.constants;
+    final DiceExprResult[] registers = new DiceExprResult[program.registerCount];
+    final ArithmeticMode mode = frame.getArithmeticMode();
+    int pc = 0;
+    while (pc < code.length) {
+      switch (code[pc]) {
+        case CONST:
+          registers[code[pc + 1]] = (DiceExprResult) constants[code[pc + 2]];
+          pc += 3;
+          break;
+        case NULL:
+          registers[code[pc + 1]] = null;
+          pc += 2;
+          break;
+        case ADD:
+          registers[code[pc + 1]] =
+              CompiledExpressionSupport.add(
+                  registers[code[pc + 2]], registers[code[pc + 3]], frame);
+          pc += 4;
+          break;
+        case SUB:
+          registers[code[pc + 1]] =
+              DiceExprResult.subtract(registers[code[pc + 2]], registers[code[pc + 3]], mode);
+          pc += 4;
+          break;
+        case MUL:
+          registers[code[pc + 1]] =
+              CompiledExpressionSupport.multiply(
+                  registers[code[pc + 2]], registers[code[pc + 3]], frame);
+          pc += 4;
+          break;
+        case DIV:
+          registers[code[pc + 1]] =
+              DiceExprResult.divide(registers[code[pc + 2]], registers[code[pc + 3]], mode);
+          pc += 4;
+          break;
+        case POW:
+          registers[code[pc + 1]] =
+              DiceExprResult.power(registers[code[pc + 2]], registers[code[pc + 3]], mode);
+          pc += 4;
+          break;
+        case NEG:
+          registers[code[pc + 1]] = DiceExprResult.negate(registers[code[pc + 2]], mode);
+          pc += 3;
+          break;
+        case LOAD:
+          registers[code[pc + 1]] =
+              frame.getVariableValue(
+                  SCOPES[code[pc + 2]], (String) constants[code[pc + 3]], code[pc + 4]);
+          pc += 5;
+          break;
+        case STORE:
+          frame.setVariableValue(
+              SCOPES[code[pc + 2]],
+              (String) constants[code[pc + 3]],
+              code[pc + 4],
+              registers[code[pc + 1]]);
+          pc += 5;
+          break;
+        case RECORD:
+          frame.setResult((DiceExpressionNode) constants[code[pc + 2]], registers[code[pc + 1]]);
+          pc += 3;
+          break;
+        case DICE:
+          CompiledExpressionSupport.numberOfDice(registers[code[pc + 1]]);
+          pc += 2;
+          break;
+        case ROLL:
+          {
+            var roll = (DiceProgram.Roll) constants[code[pc + 4]];
+            int dice = CompiledExpressionSupport.numberOfDice(registers[code[pc + 2]]);
+            int sides = CompiledExpressionSupport.chargeRoll(dice, registers[code[pc + 3]], frame);
+            registers[code[pc + 1]] =
+                roll.roller.roll(
+                    roll.diceName,
+                    dice,
+                    sides,
+                    CompiledExpressionSupport.evaluateArguments(roll.arguments, frame),
+                    frame);
+            pc += 5;
+            break;
+          }
+        default:
+          throw new IllegalStateException("Invalid opcode " + code[pc] + " at " + pc);
+      }
+    }
+  }
+}
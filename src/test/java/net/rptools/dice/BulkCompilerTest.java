@@ -0,0 +1,115 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+import net.rptools.dice.result.PlainResultFormatter;
+import net.rptools.dice.symbols.DefaultDiceExpressionSymbolTable;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BulkCompilerTest {
+
+  private static String run(DiceExpression expression) {
+    return expression
+        .format(
+            expression.execute(new DefaultDiceExpressionSymbolTable()), new PlainResultFormatter())
+        .orElseThrow();
+  }
+
+  @Test
+  void compilesInParallelKeepingOrder() {
+    Map<Integer, String> sources = new LinkedHashMap<>();
+    for (int i = 0; i < 500; i++) {
+      sources.put(i, i + " + 2d1(kh1)");
+    }
+
+    var pool = new ForkJoinPool(4);
+    try {
+      for (var options :
+          new CompileOptions[] {
+            CompileOptions.DEFAULT,
+            CompileOptions.DEFAULT.withParserBackend(CompileOptions.ParserBackend.RECURSIVE_DESCENT)
+          }) {
+        var results = BulkCompiler.compile(sources, options, pool);
+
+        assertEquals(sources.keySet(), results.keySet());
+        for (var entry : results.entrySet()) {
+          var result = entry.getValue();
+          assertTrue(result.isSuccess());
+          assertTrue(result.getDiagnostics().isEmpty());
+          assertTrue(run(result.getExpression().orElseThrow()).contains(entry.getKey() + 1 + ""));
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  void reportsDiagnosticsPerEntry() {
+    var results =
+        BulkCompiler.compile(
+            Stream.of("1 + 2", "1 + * 2", "3d1 +", "4"),
+            CompileOptions.DEFAULT,
+            ForkJoinPool.commonPool());
+
+    assertEquals(4, results.size());
+    assertTrue(results.get(0).isSuccess());
+    assertFalse(results.get(1).isSuccess());
+    assertFalse(results.get(1).getDiagnostics().isEmpty());
+    assertFalse(results.get(2).isSuccess());
+    assertTrue(results.get(3).isSuccess());
+
+    var rd =
+        BulkCompiler.compileOne(
+            "1 + * 2",
+            CompileOptions.DEFAULT.withParserBackend(
+                CompileOptions.ParserBackend.RECURSIVE_DESCENT));
+    assertFalse(rd.isSuccess());
+    assertEquals(4, rd.getDiagnostics().get(0).getPosition());
+  }
+
+  @Test
+  void reportsLexerErrorsAtSourceOffsets() {
+    var result = BulkCompiler.compileOne("1 + 2\n+ ` 3", CompileOptions.DEFAULT);
+
+    assertFalse(result.isSuccess());
+    assertEquals(8, result.getDiagnostics().get(0).getPosition());
+    assertEquals(-1, BulkCompiler.offset("1 + 2", 2, 0));
+  }
+
+  @Test
+  void compilesDirectory(@TempDir Path directory) throws Exception {
+    Files.createDirectories(directory.resolve("sub"));
+    Files.writeString(directory.resolve("a.txt"), "2d1 + 1", StandardCharsets.UTF_8);
+    Files.writeString(directory.resolve("sub/b.txt"), "1 + + ", StandardCharsets.UTF_8);
+
+    var results =
+        BulkCompiler.compileDirectory(directory, CompileOptions.DEFAULT, ForkJoinPool.commonPool());
+
+    assertEquals(2, results.size());
+    assertTrue(results.get(directory.resolve("a.txt")).isSuccess());
+    assertFalse(results.get(directory.resolve("sub/b.txt")).isSuccess());
+  }
+}
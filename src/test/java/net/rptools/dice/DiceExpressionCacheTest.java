@@ -0,0 +1,93 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class DiceExpressionCacheTest {
+
+  @Test
+  void hitsDoNotRecompile() {
+    AtomicInteger compiles = new AtomicInteger();
+    var cache =
+        new DiceExpressionCache(
+            10,
+            1000,
+            s -> {
+              compiles.incrementAndGet();
+              return DiceExpression.fromString(s);
+            });
+
+    DiceExpression first = cache.get("2d20(kh1)+5");
+    DiceExpression second = cache.get("2d20(kh1)+5");
+
+    assertSame(first, second);
+    assertEquals(1, compiles.get());
+    assertEquals(1, cache.getStatistics().getHits());
+    assertEquals(1, cache.getStatistics().getMisses());
+    assertEquals(0.5, cache.getStatistics().getHitRate());
+  }
+
+  @Test
+  void evictsLeastRecentlyUsedEntry() {
+    var cache = new DiceExpressionCache(2, 1000);
+
+    cache.get("1d4");
+    cache.get("1d6");
+    cache.get("1d4");
+    cache.get("1d8");
+
+    assertEquals(2, cache.size());
+    assertTrue(cache.getIfPresent("1d4").isPresent());
+    assertFalse(cache.getIfPresent("1d6").isPresent());
+    assertTrue(cache.getIfPresent("1d8").isPresent());
+    assertEquals(1, cache.getStatistics().getEvictions());
+  }
+
+  @Test
+  void evictsWhenOverWeight() {
+    var cache = new DiceExpressionCache(100, 10);
+
+    cache.get("1d20+5");
+    cache.get("1d12+4");
+
+    assertEquals(1, cache.size());
+    assertEquals(6, cache.getStatistics().getWeight());
+    assertTrue(cache.getIfPresent("1d12+4").isPresent());
+
+    cache.get("1d20+1d20+1d20");
+    assertEquals(1, cache.size());
+    assertFalse(cache.getIfPresent("1d20+1d20+1d20").isPresent());
+  }
+
+  @Test
+  void invalidate() {
+    var cache = new DiceExpressionCache(10, 1000);
+
+    cache.get("1d4");
+    cache.get("1d6");
+    cache.invalidate("1d4");
+
+    assertEquals(1, cache.size());
+    assertEquals(3, cache.getStatistics().getWeight());
+
+    cache.invalidateAll();
+    assertEquals(0, cache.size());
+    assertEquals(0, cache.getStatistics().getWeight());
+  }
+}
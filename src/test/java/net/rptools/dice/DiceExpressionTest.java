@@ -0,0 +1,362 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import net.rptools.dice.expressiontree.DiceCancellationToken;
+import net.rptools.dice.expressiontree.DiceExecutionBudget;
+import net.rptools.dice.expressiontree.DiceExecutionLimitException;
+import net.rptools.dice.result.ArithmeticMode;
+import net.rptools.dice.result.DiceExprResult;
+import net.rptools.dice.result.PlainResultFormatter;
+import net.rptools.dice.symbols.DefaultDiceExpressionSymbolTable;
+import net.rptools.dice.symbols.DiceEvalScope;
+import org.junit.jupiter.api.Test;
+
+class DiceExpressionTest {
+
+  @Test
+  void executeReturnsResultsInFrame() {
+    var symbolTable = new DefaultDiceExpressionSymbolTable();
+    var expression = DiceExpression.fromString("$a = 4d1(kh2) + 3; $a * 2");
+
+    var frame = expression.execute(symbolTable);
+
+    assertEquals(
+        5, symbolTable.getVariableValue(DiceEvalScope.LOCAL, "a").getIntResult().getAsInt());
+    String output = expression.format(frame, new PlainResultFormatter()).orElseThrow();
+    assertTrue(output.contains("10"));
+  }
+
+  @Test
+  void framesAreIndependent() {
+    var expression = DiceExpression.fromString("$a * 2");
+
+    var table1 = new DefaultDiceExpressionSymbolTable();
+    table1.setVariableValue(DiceEvalScope.LOCAL, "a", DiceExprResult.getIntResult(1));
+    var table2 = new DefaultDiceExpressionSymbolTable();
+    table2.setVariableValue(DiceEvalScope.LOCAL, "a", DiceExprResult.getIntResult(2));
+
+    var frame1 = expression.execute(table1);
+    var frame2 = expression.execute(table2);
+
+    assertTrue(expression.format(frame1, new PlainResultFormatter()).orElseThrow().contains("2"));
+    assertTrue(expression.format(frame2, new PlainResultFormatter()).orElseThrow().contains("4"));
+  }
+
+  @Test
+  void concurrentExecution() throws Exception {
+    var expression = DiceExpression.fromString("$n = 1d1 * 0 + $x; $r = 5d1(kh$n) + $n");
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<Boolean>> futures = new ArrayList<>();
+      for (int i = 0; i < 200; i++) {
+        final int x = i % 5;
+        futures.add(
+            executor.submit(
+                () -> {
+                  var symbolTable = new DefaultDiceExpressionSymbolTable();
+                  symbolTable.setVariableValue(
+                      DiceEvalScope.LOCAL, "x", DiceExprResult.getIntResult(x));
+                  expression.execute(symbolTable);
+                  var r = symbolTable.getVariableValue(DiceEvalScope.LOCAL, "r");
+                  return r.getIntResult().getAsInt() == 2 * x;
+                }));
+      }
+      for (var future : futures) {
+        assertTrue(future.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  void reusedCompilationContextKeepsEarlierExpressions() {
+    var twoStage =
+        CompileOptions.DEFAULT.withPredictionStrategy(
+            CompileOptions.PredictionStrategy.SLL_THEN_LL);
+    var first = DiceExpression.fromString("1 + 2; 3d1");
+    var second = DiceExpression.fromString("10 * 2", twoStage);
+    var third = DiceExpression.fromString("7");
+
+    var formatter = new PlainResultFormatter();
+    assertTrue(
+        first
+            .format(first.execute(new DefaultDiceExpressionSymbolTable()), formatter)
+            .orElseThrow()
+            .contains("3"));
+    assertTrue(
+        second
+            .format(second.execute(new DefaultDiceExpressionSymbolTable()), formatter)
+            .orElseThrow()
+            .contains("20"));
+    assertTrue(
+        third
+            .format(third.execute(new DefaultDiceExpressionSymbolTable()), formatter)
+            .orElseThrow()
+            .contains("7"));
+  }
+
+  @Test
+  void compilesToBytecodeAfterThreshold() {
+    var source = "$a = 4d1(kh2) + 3; $a * 2";
+    var interpreted =
+        DiceExpression.fromString(source, CompileOptions.DEFAULT.withBytecodeThreshold(-1));
+    var expression =
+        DiceExpression.fromString(source, CompileOptions.DEFAULT.withBytecodeThreshold(2));
+    String expected =
+        interpreted
+            .format(
+                interpreted.execute(new DefaultDiceExpressionSymbolTable()),
+                new PlainResultFormatter())
+            .orElseThrow();
+
+    for (int i = 0; i < 4; i++) {
+      assertEquals(i > 2, expression.isCompiled());
+      var frame = expression.execute(new DefaultDiceExpressionSymbolTable());
+      assertEquals(expected, expression.format(frame, new PlainResultFormatter()).orElseThrow());
+    }
+    assertFalse(interpreted.isCompiled());
+  }
+
+  @Test
+  void runsOnVirtualMachineAfterThreshold() {
+    var source = "$a = 4d1(kh2) + 3; $a * 2 - 1";
+    var interpreted =
+        DiceExpression.fromString(
+            source, CompileOptions.DEFAULT.withBytecodeThreshold(-1).withVmThreshold(-1));
+    var expression =
+        DiceExpression.fromString(
+            source, CompileOptions.DEFAULT.withVmThreshold(1).withBytecodeThreshold(3));
+    String expected =
+        interpreted
+            .format(
+                interpreted.execute(new DefaultDiceExpressionSymbolTable()),
+                new PlainResultFormatter())
+            .orElseThrow();
+
+    for (int i = 0; i < 6; i++) {
+      assertEquals(i > 1, expression.isVmCompiled());
+      assertEquals(i > 3, expression.isCompiled());
+      var frame = expression.execute(new DefaultDiceExpressionSymbolTable());
+      assertEquals(expected, expression.format(frame, new PlainResultFormatter()).orElseThrow());
+    }
+    assertFalse(interpreted.isVmCompiled());
+  }
+
+  @Test
+  void arithmeticModeAppliesToEveryTier() {
+    var source = "$a = 100000d1 * 100000; $a - 2 ^ 33 + -(3 ^ 2)";
+    var interpreted = CompileOptions.DEFAULT.withBytecodeThreshold(-1).withVmThreshold(-1);
+    List<CompileOptions> tiers =
+        List.of(
+            interpreted,
+            interpreted.withEvaluationStrategy(CompileOptions.EvaluationStrategy.ITERATIVE),
+            interpreted.withVmThreshold(0),
+            interpreted.withBytecodeThreshold(0));
+
+    for (var options : tiers) {
+      var symbolTable = new DefaultDiceExpressionSymbolTable();
+      DiceExpression.fromString(source, options.withArithmeticMode(ArithmeticMode.LONG))
+          .execute(symbolTable);
+      assertEquals(
+          10_000_000_000L,
+          symbolTable.getVariableValue(DiceEvalScope.LOCAL, "a").getLongResult().getAsLong());
+
+      var wrapped = new DefaultDiceExpressionSymbolTable();
+      DiceExpression.fromString(source, options).execute(wrapped);
+      assertEquals(
+          1410065408,
+          wrapped.getVariableValue(DiceEvalScope.LOCAL, "a").getLongResult().getAsLong());
+
+      var overflow =
+          DiceExpression.fromString("2 ^ 62 * 4", options.withArithmeticMode(ArithmeticMode.LONG));
+      assertThrows(
+          ArithmeticException.class,
+          () -> overflow.execute(new DefaultDiceExpressionSymbolTable()));
+
+      var big =
+          DiceExpression.fromString(
+              "$b = 2 ^ 62 * 4 - 1", options.withArithmeticMode(ArithmeticMode.BIG_INTEGER));
+      var bigTable = new DefaultDiceExpressionSymbolTable();
+      big.execute(bigTable);
+      assertEquals(
+          "18446744073709551615",
+          bigTable.getVariableValue(DiceEvalScope.LOCAL, "b").getStringResult());
+    }
+  }
+
+  @Test
+  void countsTooLargeForAnIntegerAreRejectedByEveryTier() {
+    var interpreted = CompileOptions.DEFAULT.withBytecodeThreshold(-1).withVmThreshold(-1);
+    List<CompileOptions> tiers =
+        List.of(
+            interpreted,
+            interpreted.withEvaluationStrategy(CompileOptions.EvaluationStrategy.ITERATIVE),
+            interpreted.withVmThreshold(0),
+            interpreted.withBytecodeThreshold(0));
+    var sources =
+        List.of("(2 ^ 32 + 3)d6", "2d(2 ^ 32 + 6)", "'x' * (2 ^ 32 + 1)", "(2 ^ 32 + 1) * 'x'");
+
+    for (var tier : tiers) {
+      for (var limits : List.of(DiceExecutionLimits.UNLIMITED, DiceExecutionLimits.UNTRUSTED)) {
+        for (var mode : List.of(ArithmeticMode.LONG, ArithmeticMode.BIG_INTEGER)) {
+          var options = tier.withArithmeticMode(mode).withExecutionLimits(limits);
+          for (String source : sources) {
+            var expression = DiceExpression.fromString(source, options);
+            assertThrows(
+                IllegalArgumentException.class,
+                () -> expression.execute(new DefaultDiceExpressionSymbolTable()),
+                source);
+          }
+        }
+        var big =
+            DiceExpression.fromString(
+                "(2 ^ 64 + 3)d6",
+                tier.withArithmeticMode(ArithmeticMode.BIG_INTEGER).withExecutionLimits(limits));
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> big.execute(new DefaultDiceExpressionSymbolTable()));
+      }
+    }
+  }
+
+  @Test
+  void executionLimitsApplyToEveryTier() {
+    var interpreted = CompileOptions.DEFAULT.withBytecodeThreshold(-1).withVmThreshold(-1);
+    List<CompileOptions> tiers =
+        List.of(
+            interpreted,
+            interpreted.withEvaluationStrategy(CompileOptions.EvaluationStrategy.ITERATIVE),
+            interpreted.withVmThreshold(0),
+            interpreted.withBytecodeThreshold(0));
+
+    for (var tier : tiers) {
+      var options = tier.withExecutionLimits(DiceExecutionLimits.UNTRUSTED);
+      var dice = DiceExpression.fromString("$a = 2d6; 99999999d99999999", options);
+      var symbolTable = new DefaultDiceExpressionSymbolTable();
+      var e = assertThrows(DiceExecutionLimitException.class, () -> dice.execute(symbolTable));
+      assertEquals(DiceExecutionLimitException.Reason.TOO_MANY_DICE, e.getReason());
+
+      // The number of sides is evaluated and checked before the dice are charged.
+      var sides = DiceExpression.fromString("99999999d($a = 'x')", options);
+      var sidesTable = new DefaultDiceExpressionSymbolTable();
+      assertThrows(IllegalArgumentException.class, () -> sides.execute(sidesTable));
+      assertEquals("x", sidesTable.getVariableValue(DiceEvalScope.LOCAL, "a").getStringResult());
+
+      var text = DiceExpression.fromString("'x' * 2000000000", options);
+      e =
+          assertThrows(
+              DiceExecutionLimitException.class,
+              () -> text.execute(new DefaultDiceExpressionSymbolTable()));
+      assertEquals(DiceExecutionLimitException.Reason.STRING_TOO_LONG, e.getReason());
+
+      var nodes =
+          DiceExpression.fromString(
+              "$a = 1d1; $a + 'b'",
+              tier.withExecutionLimits(DiceExecutionLimits.UNLIMITED.withMaxNodeEvaluations(6)));
+      e =
+          assertThrows(
+              DiceExecutionLimitException.class,
+              () -> nodes.execute(new DefaultDiceExpressionSymbolTable()));
+      assertEquals(DiceExecutionLimitException.Reason.TOO_MANY_EVALUATIONS, e.getReason());
+
+      var shared = new DiceExecutionBudget(DiceExecutionLimits.UNLIMITED.withMaxDice(10));
+      var roll = DiceExpression.fromString("4d1 + 'x'", tier);
+      roll.execute(new DefaultDiceExpressionSymbolTable(), shared);
+      roll.execute(new DefaultDiceExpressionSymbolTable(), shared);
+      assertEquals(8, shared.getDiceRolled());
+      assertThrows(
+          DiceExecutionLimitException.class,
+          () -> roll.execute(new DefaultDiceExpressionSymbolTable(), shared));
+    }
+  }
+
+  @Test
+  void cancelledExecutionKeepsCompletedStatements() {
+    var interpreted = CompileOptions.DEFAULT.withBytecodeThreshold(-1).withVmThreshold(-1);
+    List<CompileOptions> tiers =
+        List.of(
+            interpreted,
+            interpreted.withEvaluationStrategy(CompileOptions.EvaluationStrategy.ITERATIVE),
+            interpreted.withVmThreshold(0),
+            interpreted.withBytecodeThreshold(0));
+
+    for (var options : tiers) {
+      var expression = DiceExpression.fromString("$a = 2d1 + 1; $b = $c + 1; 4", options);
+      var token = new DiceCancellationToken();
+      var symbolTable =
+          new DefaultDiceExpressionSymbolTable() {
+            @Override
+            public DiceExprResult getVariableValue(DiceEvalScope scope, String name) {
+              // Cancels the execution part way through the second statement.
+              token.cancel();
+              return super.getVariableValue(scope, name);
+            }
+          };
+      symbolTable.setVariableValue(DiceEvalScope.LOCAL, "c", DiceExprResult.getIntResult(1));
+
+      var frame = expression.execute(symbolTable, token);
+
+      assertTrue(frame.isCancelled());
+      assertEquals(
+          3, symbolTable.getVariableValue(DiceEvalScope.LOCAL, "a").getIntResult().getAsInt());
+      String output = expression.format(frame, new PlainResultFormatter()).orElseThrow();
+      assertTrue(output.contains("3"), output);
+      assertFalse(output.contains("4"), output);
+
+      var cancelled = DiceCancellationToken.withTimeout(Duration.ZERO);
+      frame = expression.execute(new DefaultDiceExpressionSymbolTable(), cancelled);
+      assertTrue(frame.isCancelled());
+      assertEquals("", expression.format(frame, new PlainResultFormatter()).orElse(""));
+
+      frame = expression.execute(symbolTable, DiceCancellationToken.NONE);
+      assertFalse(frame.isCancelled());
+    }
+  }
+
+  @Test
+  void twoStageParsingMatchesLL() {
+    var twoStage =
+        CompileOptions.DEFAULT.withPredictionStrategy(
+            CompileOptions.PredictionStrategy.SLL_THEN_LL);
+    List<String> expressions =
+        List.of(
+            "2d1(kh1)+5",
+            "$a = (2*3)d1 + 10/2; #b = -$a * 2.5; $a - #b",
+            "'abc' + \"def\" * 2",
+            "{1 + 2} * (3 - 1)d1(cs>=1, cf=1)",
+            "4d1(dl1, s>=1); 3d1(f<2)");
+
+    for (String expr : expressions) {
+      var ll = DiceExpression.fromString(expr);
+      var sll = DiceExpression.fromString(expr, twoStage);
+      assertEquals(
+          ll.format(ll.execute(new DefaultDiceExpressionSymbolTable()), new PlainResultFormatter()),
+          sll.format(
+              sll.execute(new DefaultDiceExpressionSymbolTable()), new PlainResultFormatter()),
+          expr);
+    }
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import net.rptools.dice.CompileOptions.ParserBackend;
+import net.rptools.dice.expressiontree.DiceExpressionNode;
+import net.rptools.dice.expressiontree.DiceExpressionSource;
+import net.rptools.dice.expressiontree.TopLevelExpressionNode;
+import net.rptools.dice.result.PlainResultFormatter;
+import net.rptools.dice.symbols.DefaultDiceExpressionSymbolTable;
+import org.junit.jupiter.api.Test;
+
+class IncrementalParserTest {
+
+  private static IncrementalParser edit(
+      String text, int start, int end, String replacement, CompileOptions options) {
+    var source = new DiceExpressionSource(text);
+    List<DiceExpressionNode> roots = DiceExpression.parse(source, 0, text.length(), options, null);
+    return IncrementalParser.reparse(source, roots, start, end, replacement, options);
+  }
+
+  private static IncrementalParser edit(String text, int start, int end, String replacement) {
+    return edit(text, start, end, replacement, CompileOptions.DEFAULT);
+  }
+
+  private static List<String> statements(IncrementalParser parser) {
+    return parser.getRoots().stream()
+        .map(n -> ((TopLevelExpressionNode) n).getExpression())
+        .collect(Collectors.toList());
+  }
+
+  @Test
+  void parsesOnlyEditedStatement() {
+    String text = "$a = 2d1; $b = $a + 3; $a * $b";
+    var source = new DiceExpressionSource(text);
+    var options = CompileOptions.DEFAULT;
+    var roots = DiceExpression.parse(source, 0, text.length(), options, null);
+
+    var parser = IncrementalParser.reparse(source, roots, 20, 21, "4", options);
+
+    assertEquals(1, parser.getParsedStatements());
+    assertEquals(List.of("$a=2d1", "$b=$a+4", "$a*$b"), statements(parser));
+    assertSame(
+        ((TopLevelExpressionNode) roots.get(0)).getChild(),
+        ((TopLevelExpressionNode) parser.getRoots().get(0)).getChild());
+    assertSame(
+        ((TopLevelExpressionNode) roots.get(2)).getChild(),
+        ((TopLevelExpressionNode) parser.getRoots().get(2)).getChild());
+    assertEquals(23, ((TopLevelExpressionNode) parser.getRoots().get(2)).getStart());
+  }
+
+  @Test
+  void separatorEdits() {
+    var merged = edit("1 + 2; 3", 5, 6, " *");
+    assertEquals(List.of("1+2*3"), statements(merged));
+
+    var split = edit("1 + 2 * 3", 6, 7, ";");
+    assertEquals(List.of("1+2", "3"), statements(split));
+    assertEquals(2, split.getParsedStatements());
+
+    var appended = edit("1; 2;", 5, 5, " 3d1");
+    assertEquals(List.of("1", "2", "3d1"), statements(appended));
+    assertEquals(2, appended.getParsedStatements());
+  }
+
+  @Test
+  void unclosedTextParsesEverything() {
+    var comment = edit("1; 2; 3", 3, 3, "/* ");
+    var fresh = DiceExpression.parse(comment.getSource(), 0, 10, CompileOptions.DEFAULT, null);
+    assertEquals(fresh.size(), comment.getParsedStatements());
+    assertEquals(fresh.size(), comment.getRoots().size());
+
+    var closed = edit("1; 'a;b'; 3", 5, 6, "");
+    assertEquals(List.of("1", "'ab'", "3"), statements(closed));
+    assertEquals(1, closed.getParsedStatements());
+  }
+
+  @Test
+  void editedExpressionMatchesFreshCompile() {
+    String text = "$a = 4d1(kh2) + 3;\n$b = $a * 2;\n{$a + $b} * 2d1";
+    String replacement = "7; $c = 3d1(dl1)";
+    int start = text.indexOf("2;");
+    int end = start + 1;
+    String edited = text.substring(0, start) + replacement + text.substring(end);
+
+    for (var backend : ParserBackend.values()) {
+      var options = CompileOptions.DEFAULT.withParserBackend(backend);
+      var expression = DiceExpression.fromString(text, options).edit(start, end, replacement);
+      var fresh = DiceExpression.fromString(edited, options);
+
+      assertEquals(edited, expression.getSource().orElseThrow());
+      assertEquals(
+          fresh.format(
+              fresh.execute(new DefaultDiceExpressionSymbolTable()), new PlainResultFormatter()),
+          expression.format(
+              expression.execute(new DefaultDiceExpressionSymbolTable()),
+              new PlainResultFormatter()),
+          backend.name());
+    }
+  }
+
+  @Test
+  void invalidRange() {
+    var expression = DiceExpression.fromString("1 + 2");
+    assertThrows(IndexOutOfBoundsException.class, () -> expression.edit(3, 9, ""));
+    assertThrows(IndexOutOfBoundsException.class, () -> expression.edit(3, 2, ""));
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ForkJoinPool;
+import net.rptools.dice.CompileOptions.ParserBackend;
+import net.rptools.dice.expressiontree.DiceExpressionSource;
+import net.rptools.dice.expressiontree.TopLevelExpressionNode;
+import net.rptools.dice.result.PlainResultFormatter;
+import net.rptools.dice.symbols.DefaultDiceExpressionSymbolTable;
+import org.junit.jupiter.api.Test;
+
+class ParallelScriptParserTest {
+
+  private static String script(int statements) {
+    var builder = new StringBuilder("$a = 0;\n");
+    for (int i = 1; i < statements; i++) {
+      switch (i % 4) {
+        case 0:
+          builder.append("$a = $a + ").append(i).append(" /* ; */;\n");
+          break;
+        case 1:
+          builder.append("$b").append(i).append(" = {$a * 2} + (3d1(kh2, cs>=1));\n");
+          break;
+        case 2:
+          builder.append("'a;b' + \"c;\\\"d\";\n");
+          break;
+        default:
+          builder.append("-($a - ").append(i).append(");\n");
+          break;
+      }
+    }
+    return builder.toString();
+  }
+
+  @Test
+  void splitsAtTopLevelSeparators() {
+    String text = "1 + (2); 'x;y'; /* ; */ {3}d1 ;";
+    assertArrayEquals(new int[] {0, 7, 8, 14, 15, 30}, ParallelScriptParser.split(text));
+  }
+
+  @Test
+  void refusesUnsafeSplits() {
+    assertNull(ParallelScriptParser.split("1; 'abc; 2"));
+    assertNull(ParallelScriptParser.split("1; /* 2; 3"));
+    assertNull(ParallelScriptParser.split("(1; 2"));
+    assertNull(ParallelScriptParser.split("1;; 2"));
+  }
+
+  @Test
+  void parallelParseMatchesSequential() {
+    var source = new DiceExpressionSource(script(1000));
+    var pool = new ForkJoinPool(4);
+    try {
+      for (var backend : ParserBackend.values()) {
+        var options = CompileOptions.DEFAULT.withParserBackend(backend);
+        var sequential = DiceExpression.parse(source, 0, source.length(), options, null);
+        var parallel = ParallelScriptParser.parse(source, options, pool);
+
+        assertEquals(sequential.size(), parallel.size());
+        for (int i = 0; i < sequential.size(); i++) {
+          var expected = (TopLevelExpressionNode) sequential.get(i);
+          var actual = (TopLevelExpressionNode) parallel.get(i);
+          assertEquals(expected.getStart(), actual.getStart());
+          assertEquals(expected.getEnd(), actual.getEnd());
+          assertEquals(expected.getExpression(), actual.getExpression());
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  void scriptExecutesInOrder() throws Exception {
+    String text = script(500);
+    var script =
+        DiceExpression.fromInputStream(
+            new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)));
+    var expression = DiceExpression.fromString(text);
+
+    var scriptTable = new DefaultDiceExpressionSymbolTable();
+    var expressionTable = new DefaultDiceExpressionSymbolTable();
+    assertEquals(
+        expression.format(expression.execute(expressionTable), new PlainResultFormatter()),
+        script.format(script.execute(scriptTable), new PlainResultFormatter()));
+  }
+}
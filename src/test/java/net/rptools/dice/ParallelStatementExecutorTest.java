@@ -0,0 +1,276 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+import net.rptools.dice.expressiontree.DiceEvalFrame;
+import net.rptools.dice.parser.RecursiveDescentDiceParser;
+import net.rptools.dice.result.DiceExprResult;
+import net.rptools.dice.result.PlainResultFormatter;
+import net.rptools.dice.symbols.DefaultDiceExpressionSymbolTable;
+import net.rptools.dice.symbols.DiceEvalScope;
+import org.junit.jupiter.api.Test;
+
+class ParallelStatementExecutorTest {
+
+  private static String script(int statements) {
+    var builder = new StringBuilder();
+    for (int i = 0; i < statements; i++) {
+      switch (i % 5) {
+        case 0:
+          builder.append("$a").append(i).append(" = ").append(i + 2).append("d1(kh2) + 1;\n");
+          break;
+        case 1:
+          builder.append("$b").append(i).append(" = $a").append(i - 1).append(" * 2;\n");
+          break;
+        case 2:
+          builder.append("#g = #g + $a").append(i - 2).append(";\n");
+          break;
+        case 3:
+          builder.append("$a").append(i - 3).append(" = #g - 1;\n");
+          break;
+        default:
+          builder.append("'x' + $a").append(i - 4).append(";\n");
+          break;
+      }
+    }
+    return builder.toString();
+  }
+
+  private static List<String> levels(String source) {
+    var schedule = ParallelStatementExecutor.schedule(RecursiveDescentDiceParser.parse(source));
+    if (schedule == null) {
+      return null;
+    }
+    List<String> levels = new ArrayList<>();
+    for (int[] level : schedule) {
+      levels.add(Arrays.toString(level));
+    }
+    return levels;
+  }
+
+  private static DefaultDiceExpressionSymbolTable symbolTable() {
+    var symbolTable = new DefaultDiceExpressionSymbolTable();
+    symbolTable.setVariableValue(DiceEvalScope.GLOBAL, "g", DiceExprResult.getIntResult(0));
+    return symbolTable;
+  }
+
+  private static String variables(DefaultDiceExpressionSymbolTable symbolTable) {
+    var variables = new TreeMap<String, String>();
+    for (var scope : DiceEvalScope.values()) {
+      for (String name : symbolTable.getVariableNames(scope)) {
+        var value = symbolTable.getVariableValue(scope, name);
+        variables.put(
+            scope.getScopePrefix() + name, value.getType() + ":" + value.getStringResult());
+      }
+    }
+    return variables.toString();
+  }
+
+  @Test
+  void schedulesIndependentStatementsTogether() {
+    var builder = new StringBuilder();
+    for (int i = 0; i < 40; i++) {
+      builder.append("$a").append(i).append(" = 1d6;");
+    }
+    builder.append("$b = $a0 + $a39; $a1 = 2; %hide; $c = 3");
+
+    assertEquals(
+        List.of(Arrays.toString(IntStream.range(0, 40).toArray()), "[40, 41]", "[42]", "[43]"),
+        levels(builder.toString()));
+  }
+
+  @Test
+  void ordersConflictingStatements() {
+    var builder = new StringBuilder("$x = 1; $y = $x; $x = 2; #x = $y; $z = #x + $x; $z = 5;");
+    for (int i = 0; i < 40; i++) {
+      builder.append("$a").append(i).append(" = 1d6;");
+    }
+
+    var levels = levels(builder.toString());
+    // Read after write, write after read and write after write each start a new level.
+    assertTrue(levels.get(0).startsWith("[0, 6, 7, "));
+    assertEquals(List.of("[1]", "[2, 3]", "[4]", "[5]"), levels.subList(1, levels.size()));
+  }
+
+  @Test
+  void smallLevelsAreNotScheduled() {
+    assertNull(levels("$a = 1; $b = 2; $c = $a + $b"));
+    assertNull(levels(script(40)));
+  }
+
+  @Test
+  void parallelExecutionMatchesSequential() {
+    String source = script(500);
+    for (var strategy : CompileOptions.EvaluationStrategy.values()) {
+      var options = CompileOptions.DEFAULT.withEvaluationStrategy(strategy);
+      var sequential = DiceExpression.fromString(source, options);
+      var sequentialTable = symbolTable();
+      String expected =
+          sequential.format(sequential.execute(sequentialTable), new PlainResultFormatter()).get();
+
+      var parallel = DiceExpression.fromString(source, options.withParallelThreshold(0));
+      for (int i = 0; i < 3; i++) {
+        var parallelTable = symbolTable();
+        var frame = parallel.execute(parallelTable);
+        assertEquals(expected, parallel.format(frame, new PlainResultFormatter()).get());
+        assertEquals(variables(sequentialTable), variables(parallelTable));
+      }
+    }
+  }
+
+  @Test
+  void executesOnPool() {
+    var roots = RecursiveDescentDiceParser.parse(script(500));
+    var schedule = ParallelStatementExecutor.schedule(roots);
+    assertNotNull(schedule);
+
+    var expected = symbolTable();
+    var frame = new DiceEvalFrame(expected);
+    roots.forEach(root -> root.evaluate(frame));
+
+    var pool = new ForkJoinPool(4);
+    try {
+      var actual = symbolTable();
+      var parallelFrame = new DiceEvalFrame(actual);
+      ParallelStatementExecutor.execute(
+          roots, schedule, parallelFrame, CompileOptions.EvaluationStrategy.RECURSIVE, pool);
+      parallelFrame.flushVariables();
+      assertEquals(variables(expected), variables(actual));
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  void failuresAreReportedInOrder() {
+    var builder = new StringBuilder();
+    for (int i = 0; i < 40; i++) {
+      builder.append("$a").append(i).append(" = ").append(i).append(";");
+    }
+    builder.append("$b = #s ^ 2; $c = 1");
+    var expression =
+        DiceExpression.fromString(
+            builder.toString(), CompileOptions.DEFAULT.withParallelThreshold(0));
+
+    var symbolTable = new DefaultDiceExpressionSymbolTable();
+    symbolTable.setVariableValue(DiceEvalScope.GLOBAL, "s", DiceExprResult.getStringResult("x"));
+    assertThrows(IllegalArgumentException.class, () -> expression.execute(symbolTable));
+
+    assertEquals(
+        39, symbolTable.getVariableValue(DiceEvalScope.LOCAL, "a39").getIntResult().getAsInt());
+    assertNull(symbolTable.getVariableValue(DiceEvalScope.LOCAL, "b"));
+    assertNull(symbolTable.getVariableValue(DiceEvalScope.LOCAL, "c"));
+  }
+
+  @Test
+  void failuresInLaterLevelsAreReportedInOrder() {
+    var independent = new StringBuilder();
+    for (int i = 0; i < 40; i++) {
+      independent.append("$a").append(i).append(" = 1d6;");
+    }
+    // The failure is in the large first level and the assignment of $y before it is in the second.
+    String inFirstLevel = independent + "$x = 1; $y = $x; $z = #s ^ 2";
+    // Both $w and $z fail, $z in an earlier level than $w, which comes before it.
+    String inLaterLevel = "$x = 1; $y = $x; $w = $y - #s; $z = $x + #s ^ 2;" + independent;
+    var limits = DiceExecutionLimits.UNLIMITED.withMaxDice(40);
+
+    for (String source : List.of(inFirstLevel, inLaterLevel)) {
+      for (var strategy : CompileOptions.EvaluationStrategy.values()) {
+        var options =
+            CompileOptions.DEFAULT.withEvaluationStrategy(strategy).withExecutionLimits(limits);
+        var symbolTable = new DefaultDiceExpressionSymbolTable();
+        symbolTable.setVariableValue(
+            DiceEvalScope.GLOBAL, "s", DiceExprResult.getStringResult("x"));
+        var expected =
+            assertThrows(
+                IllegalArgumentException.class,
+                () -> DiceExpression.fromString(source, options).execute(symbolTable));
+
+        var parallel = DiceExpression.fromString(source, options.withParallelThreshold(0));
+        for (int i = 0; i < 3; i++) {
+          var parallelTable = new DefaultDiceExpressionSymbolTable();
+          parallelTable.setVariableValue(
+              DiceEvalScope.GLOBAL, "s", DiceExprResult.getStringResult("x"));
+          // The dice of the first level are only charged once, so the budget is not exceeded.
+          var actual =
+              assertThrows(IllegalArgumentException.class, () -> parallel.execute(parallelTable));
+          assertEquals(expected.getMessage(), actual.getMessage());
+          var y = parallelTable.getVariableValue(DiceEvalScope.LOCAL, "y");
+          assertEquals(1, y.getIntResult().getAsInt());
+          assertNull(parallelTable.getVariableValue(DiceEvalScope.LOCAL, "w"));
+          // The statements after the failed one are not kept, even when they were executed first.
+          for (int j = 0; j < 40; j++) {
+            var a = parallelTable.getVariableValue(DiceEvalScope.LOCAL, "a" + j);
+            if (source.equals(inLaterLevel)) {
+              assertNull(a);
+            } else {
+              assertNotNull(a);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  void forkedFramesBufferAssignments() {
+    var symbolTable = new DefaultDiceExpressionSymbolTable();
+    symbolTable.setVariableValue(DiceEvalScope.GLOBAL, "g", DiceExprResult.getIntResult(1));
+    var frame = new DiceEvalFrame(symbolTable);
+    var fork = frame.fork();
+
+    fork.setVariableValue(DiceEvalScope.GLOBAL, "g", -1, DiceExprResult.getIntResult(2));
+    assertEquals(2, fork.getVariableValue(DiceEvalScope.GLOBAL, "g", -1).getIntResult().getAsInt());
+    assertEquals(
+        1, symbolTable.getVariableValue(DiceEvalScope.GLOBAL, "g").getIntResult().getAsInt());
+    assertThrows(IllegalStateException.class, fork::flushVariables);
+    assertThrows(IllegalStateException.class, fork::fork);
+    assertThrows(IllegalArgumentException.class, () -> new DiceEvalFrame(symbolTable).join(fork));
+
+    frame.join(fork);
+    assertEquals(
+        2, symbolTable.getVariableValue(DiceEvalScope.GLOBAL, "g").getIntResult().getAsInt());
+  }
+
+  @Test
+  void forkedFramesSeeUnjoinedAssignments() {
+    var symbolTable = new DefaultDiceExpressionSymbolTable();
+    symbolTable.setVariableValue(DiceEvalScope.GLOBAL, "g", DiceExprResult.getIntResult(1));
+    var frame = new DiceEvalFrame(symbolTable);
+    var first = frame.fork();
+    var second = frame.fork();
+    first.setVariableValue(DiceEvalScope.GLOBAL, "g", -1, DiceExprResult.getIntResult(2));
+    second.setVariableValue(DiceEvalScope.GLOBAL, "g", -1, DiceExprResult.getIntResult(3));
+
+    var forks = frame.fork(2, List.of(first, second));
+    assertEquals(2, forks.length);
+    assertEquals(
+        3, forks[1].getVariableValue(DiceEvalScope.GLOBAL, "g", -1).getIntResult().getAsInt());
+    assertThrows(IllegalArgumentException.class, () -> frame.fork(1, List.of(forks[0])));
+
+    // The unjoined forks are only seen, so discarding them leaves the variable unchanged.
+    frame.join(forks[0]);
+    assertEquals(
+        1, symbolTable.getVariableValue(DiceEvalScope.GLOBAL, "g").getIntResult().getAsInt());
+  }
+}
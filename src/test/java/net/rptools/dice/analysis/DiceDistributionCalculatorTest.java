@@ -0,0 +1,217 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.analysis;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.DoubleStream;
+import net.rptools.dice.DiceExpression;
+import net.rptools.dice.expressiontree.DiceExpressionNode;
+import net.rptools.dice.expressiontree.DiceRollDiceExpressionNode;
+import net.rptools.dice.parser.RecursiveDescentDiceParser;
+import net.rptools.dice.result.DiceRolls;
+import net.rptools.dice.result.DieRoll;
+import net.rptools.dice.roller.arguments.DiceRollerArgument;
+import net.rptools.dice.symbols.DefaultDiceExpressionSymbolTable;
+import org.junit.jupiter.api.Test;
+
+class DiceDistributionCalculatorTest {
+
+  @Test
+  void calculatesStatements() {
+    var distributions =
+        DiceExpression.fromString("2d6 + 3; -(1d4) * 2; (1d2)d1").getDistributions();
+
+    var list = distributions.orElseThrow();
+    assertEquals(3, list.size());
+    assertEquals(10, list.get(0).getMean(), 1e-12);
+    assertEquals(5, list.get(0).getMin());
+    assertEquals(-8, list.get(1).getMin());
+    assertEquals(0.25, list.get(1).getProbability(-4), 1e-12);
+    assertEquals(0.5, list.get(2).getProbability(2), 1e-12);
+  }
+
+  @Test
+  void matchesSampling() {
+    var expression = DiceExpression.fromString("2d6 * 1d4 - 3d8 + 5");
+    var dist = expression.getDistributions().orElseThrow().get(0);
+    var samples =
+        expression
+            .executeBatch(new DefaultDiceExpressionSymbolTable(), 200_000)
+            .getIntegerResults(0);
+
+    double mean = 0;
+    for (long sample : samples) {
+      assertTrue(sample >= dist.getMin() && sample <= dist.getMax());
+      mean += sample;
+    }
+    mean /= samples.length;
+    assertEquals(dist.getMean(), mean, 5 * dist.getStandardDeviation() / Math.sqrt(samples.length));
+  }
+
+  @Test
+  void unsupportedTrees() {
+    for (String source : List.of("4d6(kh3, kl1)", "$a + 1d6", "1d6 / 2", "'a'", "1.5 + 1d6")) {
+      assertTrue(
+          DiceDistributionCalculator.calculate(RecursiveDescentDiceParser.parse(source).get(0))
+              .isEmpty(),
+          source);
+    }
+    assertTrue(DiceExpression.fromString("1d6; 1d6 ^ 2").getDistributions().isEmpty());
+  }
+
+  @Test
+  void keepAndDropMatchEnumeration() {
+    List<String> rolls =
+        List.of(
+            "4d6(dl1)",
+            "4d6(kh3)",
+            "4d6(kl2)",
+            "5d4(dh2)",
+            "3d6(dl3)",
+            "4d6(dl1, s>=5)",
+            "5d6(kh3, cs>=6, cf=1)",
+            "4d8(s>=6, f<=2)");
+    for (String source : rolls) {
+      var root = RecursiveDescentDiceParser.parse(source).get(0);
+      var roll = findRoll(root);
+      int dice = roll.getNumberOfDice().evaluate(null).getIntValue();
+      int sides = roll.getNumberOfSides().evaluate(null).getIntValue();
+
+      var total = DiceDistributionCalculator.calculate(root).orElseThrow();
+      assertMatches(enumerate(roll, dice, sides, null), total, source);
+      for (var flag : DieRoll.DieRollFlags.values()) {
+        var count = DiceDistributionCalculator.calculateFlagCount(root, flag).orElseThrow();
+        assertMatches(enumerate(roll, dice, sides, flag), count, source + " " + flag);
+      }
+    }
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> DiceExpression.fromString("3d6(kh4)").getDistributions());
+  }
+
+  @Test
+  void successCounts() {
+    var expression = DiceExpression.fromString("8d10(s>=7) + 2d6(s=6)");
+    var successes = expression.getDistributions(DieRoll.DieRollFlags.SUCCESS).orElseThrow().get(0);
+    assertEquals(0, successes.getMin());
+    assertEquals(10, successes.getMax());
+    assertEquals(8 * 0.4 + 2.0 / 6, successes.getMean(), 1e-12);
+    assertEquals(8 * 0.4 * 0.6 + 2 * (1.0 / 6) * (5.0 / 6), successes.getVariance(), 1e-12);
+
+    var large = DiceExpression.fromString("60d20(kh10)").getDistributions().orElseThrow().get(0);
+    assertEquals(10, large.getMin());
+    assertEquals(200, large.getMax());
+    assertEquals(1, DoubleStream.of(large.getProbabilities()).sum(), 1e-9);
+
+    assertTrue(
+        DiceExpression.fromString("(1d4)d6(s>=5)")
+            .getDistributions(DieRoll.DieRollFlags.SUCCESS)
+            .isEmpty());
+    assertEquals(
+        3.5 * 1.5,
+        DiceExpression.fromString("(1d2)d6(s>=5)")
+            .getDistributions()
+            .orElseThrow()
+            .get(0)
+            .getMean(),
+        1e-12);
+  }
+
+  @Test
+  void rollsWithVaryingNumbersOfDice() {
+    // Every number of dice and sides is calculated separately, and they are limited together.
+    var tooLarge = DiceExpression.fromString("(1d100)d(1d100)(kh1)");
+    assertThrows(IllegalArgumentException.class, tooLarge::getDistributions);
+
+    var kept = DiceExpression.fromString("(1d2 + 2)d6(kh2)").getDistributions().orElseThrow();
+    var three = DiceExpression.fromString("3d6(kh2)").getDistributions().orElseThrow();
+    var four = DiceExpression.fromString("4d6(kh2)").getDistributions().orElseThrow();
+    assertEquals(
+        (three.get(0).getMean() + four.get(0).getMean()) / 2, kept.get(0).getMean(), 1e-12);
+
+    // Arguments that only flag dice do not change the total.
+    var flagged = DiceExpression.fromString("(1d4)d(1d6)(s>=4)").getDistributions().orElseThrow();
+    var plain = DiceExpression.fromString("(1d4)d(1d6)").getDistributions().orElseThrow();
+    assertEquals(plain.get(0).getMin(), flagged.get(0).getMin());
+    assertArrayEquals(plain.get(0).getProbabilities(), flagged.get(0).getProbabilities(), 1e-12);
+  }
+
+  private static DiceRollDiceExpressionNode findRoll(DiceExpressionNode node) {
+    if (node instanceof DiceRollDiceExpressionNode) {
+      return (DiceRollDiceExpressionNode) node;
+    }
+    return findRoll(node.getChildren().iterator().next());
+  }
+
+  /**
+   * Works out the distribution of a roll by rolling every combination of faces the way {@link
+   * net.rptools.dice.roller.StandardDiceRoller} does.
+   */
+  private static Map<Long, Double> enumerate(
+      DiceRollDiceExpressionNode roll, int dice, int sides, DieRoll.DieRollFlags flag) {
+    var arguments = new ArrayList<DiceRollerArgument>();
+    roll.getRollerArguments().forEach(a -> arguments.add(a.resolveConstant()));
+    Map<Long, Double> probabilities = new HashMap<>();
+    int[] faces = new int[dice];
+    Arrays.fill(faces, 1);
+    double probability = Math.pow(sides, -dice);
+    while (true) {
+      var dieRolls = new ArrayList<DieRoll>();
+      for (int face : faces) {
+        var dieRoll = new DieRoll(face, sides);
+        for (var argument : arguments) {
+          dieRoll = argument.applyToRoll(dieRoll);
+        }
+        dieRolls.add(dieRoll);
+      }
+      var rolls = new DiceRolls(dieRolls, sides, "d", DiceRolls.DiceRollAggregateMethod.SUM);
+      for (var argument : arguments) {
+        rolls = argument.applyToAll(rolls);
+      }
+      long value =
+          flag == null
+              ? rolls.getResult().getIntValue()
+              : rolls.getDiceRolls().stream()
+                  .filter(r -> r.isKept() && r.getFlags().contains(flag))
+                  .count();
+      probabilities.merge(value, probability, Double::sum);
+
+      int i = 0;
+      while (i < dice && faces[i] == sides) {
+        faces[i++] = 1;
+      }
+      if (i == dice) {
+        return probabilities;
+      }
+      faces[i]++;
+    }
+  }
+
+  private static void assertMatches(
+      Map<Long, Double> expected, DiceDistribution actual, String message) {
+    double total = 0;
+    for (long value = actual.getMin(); value <= actual.getMax(); value++) {
+      assertEquals(expected.getOrDefault(value, 0.0), actual.getProbability(value), 1e-12, message);
+      total += actual.getProbability(value);
+    }
+    assertEquals(1, total, 1e-12, message);
+  }
+}
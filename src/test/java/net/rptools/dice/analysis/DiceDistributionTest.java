@@ -0,0 +1,98 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.analysis;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class DiceDistributionTest {
+
+  private static final double DELTA = 1e-12;
+
+  @Test
+  void twoDice() {
+    var dist = DiceDistribution.roll(DiceDistribution.constant(2), DiceDistribution.constant(6));
+
+    assertEquals(2, dist.getMin());
+    assertEquals(12, dist.getMax());
+    assertEquals(6.0 / 36, dist.getProbability(7), DELTA);
+    assertEquals(1.0 / 36, dist.getProbability(12), DELTA);
+    assertEquals(0, dist.getProbability(13));
+    assertEquals(7, dist.getMean(), DELTA);
+    assertEquals(35.0 / 6, dist.getVariance(), DELTA);
+    assertEquals(21.0 / 36, dist.getCumulativeProbability(7), DELTA);
+    assertEquals(7, dist.getPercentile(0.5));
+    assertEquals(2, dist.getPercentile(0));
+    assertEquals(12, dist.getPercentile(1));
+  }
+
+  @Test
+  void rollMatchesConvolution() {
+    var d6 = DiceDistribution.die(6);
+    var convolved = d6.add(d6).add(d6);
+    var rolled = DiceDistribution.roll(DiceDistribution.constant(3), DiceDistribution.constant(6));
+    assertEquals(convolved.getMin(), rolled.getMin());
+    assertArrayEquals(convolved.getProbabilities(), rolled.getProbabilities(), DELTA);
+
+    // (1d2)d4 is 1d4 or 2d4 with even chances.
+    var varying = DiceDistribution.roll(DiceDistribution.die(2), DiceDistribution.constant(4));
+    var d4 = DiceDistribution.die(4);
+    for (long value = 1; value <= 8; value++) {
+      assertEquals(
+          (d4.getProbability(value) + d4.add(d4).getProbability(value)) / 2,
+          varying.getProbability(value),
+          DELTA);
+    }
+
+    var none = DiceDistribution.roll(DiceDistribution.constant(0), DiceDistribution.constant(6));
+    assertEquals(0, none.getMin());
+    assertEquals(0, none.getMax());
+  }
+
+  @Test
+  void operators() {
+    var d6 = DiceDistribution.die(6);
+    var difference = d6.subtract(d6);
+    assertEquals(-5, difference.getMin());
+    assertEquals(0, difference.getMean(), DELTA);
+    assertEquals(difference.getProbability(-3), difference.getProbability(3), DELTA);
+
+    var d2 = DiceDistribution.die(2);
+    var product = d2.multiply(d2);
+    assertArrayEquals(new double[] {0.25, 0.5, 0, 0.25}, product.getProbabilities(), DELTA);
+    assertEquals(-4, product.negate().getMin());
+    assertEquals(-12, d6.multiply(DiceDistribution.constant(-2)).getMin());
+    assertEquals(1.0 / 6, d6.multiply(DiceDistribution.constant(-2)).getProbability(-6), DELTA);
+  }
+
+  @Test
+  void limits() {
+    assertThrows(IllegalArgumentException.class, () -> DiceDistribution.die(0));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> DiceDistribution.roll(DiceDistribution.constant(-1), DiceDistribution.constant(6)));
+    assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            DiceDistribution.roll(
+                DiceDistribution.constant(100_000), DiceDistribution.constant(100_000)));
+    assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            DiceDistribution.roll(DiceDistribution.constant(50_000), DiceDistribution.constant(2)));
+    assertThrows(IllegalArgumentException.class, () -> DiceDistribution.die(6).getPercentile(2));
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.batch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import net.rptools.dice.CompileOptions;
+import net.rptools.dice.DiceExpression;
+import net.rptools.dice.expressiontree.DiceEvalFrame;
+import net.rptools.dice.expressiontree.DiceExecutionBudget;
+import net.rptools.dice.expressiontree.DiceVariableSlots;
+import net.rptools.dice.parser.RecursiveDescentDiceParser;
+import net.rptools.dice.result.ArithmeticMode;
+import net.rptools.dice.result.DiceExprResult;
+import net.rptools.dice.result.DiceResultType;
+import net.rptools.dice.symbols.DefaultDiceExpressionSymbolTable;
+import net.rptools.dice.symbols.DiceEvalScope;
+import org.junit.jupiter.api.Test;
+
+class DiceBatchEvaluatorTest {
+
+  @Test
+  void matchesExecution() {
+    List<String> expressions =
+        List.of(
+            "$a = 3d1 * 2; $a - $x; -$a / 4",
+            "(2d1)d1 + 10 / 4 * 2.5",
+            "2 ^ 3 ^ 2; 2 ^ (1d1 - 3); 2.5 ^ 2",
+            "2147483647 + 1d1; $x * 1000000000",
+            "$x = $x + 1; $x * $x",
+            "(1.5 * 2)d1 + (2.9)d(1.9); ($x / 2.0)d1");
+
+    for (var mode : List.of(ArithmeticMode.INT, ArithmeticMode.LONG)) {
+      for (String source : expressions) {
+        var roots = RecursiveDescentDiceParser.parse(source);
+        var symbolTable = new DefaultDiceExpressionSymbolTable();
+        symbolTable.setVariableValue(DiceEvalScope.LOCAL, "x", DiceExprResult.getIntResult(7));
+
+        var batch =
+            DiceBatchEvaluator.compile(roots, mode)
+                .orElseThrow()
+                .evaluate(symbolTable, 5, DiceExecutionBudget.UNLIMITED);
+
+        var frame = new DiceEvalFrame(symbolTable, DiceVariableSlots.EMPTY, mode);
+        assertEquals(roots.size(), batch.getStatementCount(), source);
+        for (int i = 0; i < roots.size(); i++) {
+          var expected = roots.get(i).evaluate(frame);
+          assertEquals(expected.getType() == DiceResultType.INTEGER, batch.isInteger(i), source);
+          for (int j = 0; j < batch.getIterations(); j++) {
+            if (batch.isInteger(i)) {
+              assertEquals(expected.getLongValue(), batch.getIntegerResults(i)[j], source);
+            } else {
+              assertEquals(expected.getDoubleValue(), batch.getDoubleResults(i)[j], source);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  void rollsEachIterationIndependently() {
+    var expression = DiceExpression.fromString("$a = 3d6; $a + 1d1");
+    var batch = expression.executeBatch(new DefaultDiceExpressionSymbolTable(), 100_000);
+
+    long[] dice = batch.getIntegerResults(0);
+    long[] plusOne = batch.getIntegerResults(1);
+    double sum = 0;
+    for (int i = 0; i < dice.length; i++) {
+      assertTrue(dice[i] >= 3 && dice[i] <= 18);
+      assertEquals(dice[i] + 1, plusOne[i]);
+      sum += dice[i];
+    }
+    assertEquals(10.5, sum / dice.length, 0.1);
+    assertEquals(
+        0, expression.executeBatch(new DefaultDiceExpressionSymbolTable(), 0).getIterations());
+  }
+
+  @Test
+  void rejectsCountsTooLargeForAnInteger() {
+    var options = CompileOptions.DEFAULT.withArithmeticMode(ArithmeticMode.LONG);
+    for (String source : List.of("(2 ^ 32 + 3)d6", "2d(2 ^ 32 + 6)", "(1.0 * 2 ^ 32)d6")) {
+      var expression = DiceExpression.fromString(source, options);
+      assertTrue(expression.supportsBatchExecution(), source);
+      assertThrows(
+          IllegalArgumentException.class,
+          () -> expression.executeBatch(new DefaultDiceExpressionSymbolTable(), 3),
+          source);
+    }
+  }
+
+  @Test
+  void unsupportedExpressions() {
+    var symbolTable = new DefaultDiceExpressionSymbolTable();
+    for (String source : List.of("'a' + 1", "4d6(kh3)", "1 + 2", "$s * 2")) {
+      var options =
+          source.equals("1 + 2")
+              ? CompileOptions.DEFAULT.withArithmeticMode(ArithmeticMode.BIG_INTEGER)
+              : CompileOptions.DEFAULT;
+      var expression = DiceExpression.fromString(source, options);
+      if (source.equals("$s * 2")) {
+        symbolTable.setVariableValue(DiceEvalScope.LOCAL, "s", DiceExprResult.getStringResult("a"));
+        assertTrue(expression.supportsBatchExecution());
+        assertThrows(IllegalArgumentException.class, () -> expression.executeBatch(symbolTable, 3));
+      } else {
+        assertFalse(expression.supportsBatchExecution(), source);
+        assertThrows(
+            UnsupportedOperationException.class, () -> expression.executeBatch(symbolTable, 3));
+      }
+    }
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.compiler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import net.rptools.dice.expressiontree.BinaryDiceExpressionNode;
+import net.rptools.dice.expressiontree.DiceEvalFrame;
+import net.rptools.dice.expressiontree.DiceExpressionNode;
+import net.rptools.dice.expressiontree.ValueDiceExpressionNode;
+import net.rptools.dice.parser.RecursiveDescentDiceParser;
+import net.rptools.dice.result.DiceExprResult;
+import net.rptools.dice.symbols.DefaultDiceExpressionSymbolTable;
+import net.rptools.dice.symbols.DiceEvalScope;
+import org.junit.jupiter.api.Test;
+
+class DiceExpressionCompilerTest {
+
+  private static String describe(DiceExprResult result) {
+    return result == null ? "null" : result.getType() + ":" + result.getStringResult();
+  }
+
+  private static void collect(DiceExpressionNode node, List<DiceExpressionNode> nodes) {
+    nodes.add(node);
+    node.getChildren().forEach(n -> collect(n, nodes));
+  }
+
+  private static DefaultDiceExpressionSymbolTable symbolTable() {
+    var symbolTable = new DefaultDiceExpressionSymbolTable();
+    symbolTable.setVariableValue(DiceEvalScope.LOCAL, "x", DiceExprResult.getIntResult(3));
+    symbolTable.setVariableValue(DiceEvalScope.GLOBAL, "g", DiceExprResult.getDoubleResult(1.5));
+    return symbolTable;
+  }
+
+  @Test
+  void matchesInterpreter() {
+    for (String source :
+        List.of(
+            "1 + 2 * 3",
+            "-$x / 2",
+            "$a = 4d1(kh2) + $x; #b = $a * #g; $a - #b",
+            "{1 + 2} * (3 - 1)d1(cs>=1, cf=1)",
+            "($x)d1(s>=1) + 'abc'",
+            "%hide; 2d1")) {
+      List<DiceExpressionNode> roots = RecursiveDescentDiceParser.parse(source);
+      var compiled = DiceExpressionCompiler.compile(roots);
+      assertTrue(compiled.isPresent(), source);
+
+      var compiledTable = symbolTable();
+      var compiledFrame = new DiceEvalFrame(compiledTable);
+      compiled.get().execute(compiledFrame);
+
+      var interpretedTable = symbolTable();
+      var interpretedFrame = new DiceEvalFrame(interpretedTable);
+      roots.forEach(r -> r.evaluate(interpretedFrame));
+
+      List<DiceExpressionNode> nodes = new ArrayList<>();
+      roots.forEach(r -> collect(r, nodes));
+      for (var node : nodes) {
+        assertEquals(
+            describe(node.getExprResult(interpretedFrame)),
+            describe(node.getExprResult(compiledFrame)),
+            source + " " + node.getClass().getSimpleName());
+      }
+      for (var scope : DiceEvalScope.values()) {
+        for (var name : interpretedTable.getVariableNames(scope)) {
+          assertEquals(
+              describe(interpretedTable.getVariableValue(scope, name)),
+              describe(compiledTable.getVariableValue(scope, name)),
+              source + " " + name);
+        }
+      }
+    }
+  }
+
+  @Test
+  void reportsErrorsLikeInterpreter() {
+    var compiled = DiceExpressionCompiler.compile(RecursiveDescentDiceParser.parse("'a' - 1"));
+    var frame = new DiceEvalFrame(symbolTable());
+
+    assertThrows(IllegalArgumentException.class, () -> compiled.orElseThrow().execute(frame));
+  }
+
+  @Test
+  void unsupportedTreesAreNotCompiled() {
+    var two = new ValueDiceExpressionNode(DiceExprResult.getIntResult(2));
+    assertFalse(
+        DiceExpressionCompiler.compile(List.of(new BinaryDiceExpressionNode("%", two, two)))
+            .isPresent());
+    assertFalse(
+        DiceExpressionCompiler.compile(RecursiveDescentDiceParser.parse("2x6")).isPresent());
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.expressiontree;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import net.rptools.dice.result.ArithmeticMode;
+import net.rptools.dice.result.DiceExprResult;
+import org.junit.jupiter.api.Test;
+
+class BinarySpecializationTest {
+
+  private static final List<DiceExprResult> VALUES =
+      List.of(
+          DiceExprResult.getIntResult(7),
+          DiceExprResult.getIntResult(-3),
+          DiceExprResult.getDoubleResult(2.5),
+          DiceExprResult.getStringResult("ab"),
+          DiceExprResult.getStringResult("4"));
+
+  @Test
+  void matchesGenericOperations() {
+    for (var mode : ArithmeticMode.values()) {
+      for (String op : List.of("+", "-", "*", "/", "^")) {
+        for (var left : VALUES) {
+          for (var right : VALUES) {
+            // A fresh node for each pair, so that every specialization is tried on every pair.
+            var node = binary(op, left, right);
+            var frame = new DiceEvalFrame(null, DiceVariableSlots.EMPTY, mode);
+            String expected;
+            try {
+              expected = describe(generic(op, left, right, mode));
+            } catch (IllegalArgumentException e) {
+              assertThrows(IllegalArgumentException.class, () -> node.evaluate(frame));
+              continue;
+            }
+            assertEquals(
+                expected, describe(node.evaluate(frame)), describe(left) + op + describe(right));
+            for (var spec : BinarySpecialization.values()) {
+              DiceExprResult result = matches(spec, op) ? spec.apply(mode, left, right) : null;
+              if (result != null) {
+                assertEquals(expected, describe(result), spec.name());
+              }
+            }
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  void specializesOnOperandTypes() {
+    var node = new BinaryDiceExpressionNode("+", valueNode(1), valueNode(1));
+    assertEquals(BinarySpecialization.UNINITIALIZED, node.getSpecialization());
+
+    node.operate(
+        ArithmeticMode.INT, DiceExprResult.getIntResult(1), DiceExprResult.getIntResult(2));
+    assertEquals(BinarySpecialization.INT_ADD, node.getSpecialization());
+
+    var sum =
+        node.operate(
+            ArithmeticMode.INT,
+            DiceExprResult.getDoubleResult(1.5),
+            DiceExprResult.getIntResult(2));
+    assertEquals(3.5, sum.getDoubleResult().getAsDouble());
+    assertEquals(BinarySpecialization.NUMBER_ADD, node.getSpecialization());
+
+    // Integers do not take the node back to the integer specialization.
+    node.operate(
+        ArithmeticMode.INT, DiceExprResult.getIntResult(1), DiceExprResult.getIntResult(2));
+    assertEquals(BinarySpecialization.NUMBER_ADD, node.getSpecialization());
+
+    var text =
+        node.operate(
+            ArithmeticMode.INT,
+            DiceExprResult.getStringResult("a"),
+            DiceExprResult.getIntResult(2));
+    assertEquals("a2", text.getStringResult());
+    assertEquals(BinarySpecialization.GENERIC_ADD, node.getSpecialization());
+  }
+
+  @Test
+  void chainSpecializesEachOperator() {
+    var chain =
+        new ChainDiceExpressionNode(
+            List.of(valueNode(6), valueNode(2), new ValueDiceExpressionNode(half())),
+            List.of("/", "*"));
+    var result = chain.evaluate(new DiceEvalFrame(null));
+
+    assertEquals(1.5, result.getDoubleResult().getAsDouble());
+    assertEquals(BinarySpecialization.INT_DIVIDE, chain.getSpecialization(0));
+    assertEquals(BinarySpecialization.NUMBER_MULTIPLY, chain.getSpecialization(1));
+  }
+
+  private static boolean matches(BinarySpecialization spec, String op) {
+    switch (op) {
+      case "+":
+        return spec.name().endsWith("_ADD");
+      case "-":
+        return spec.name().endsWith("_SUBTRACT");
+      case "*":
+        return spec.name().endsWith("_MULTIPLY");
+      case "/":
+        return spec.name().endsWith("_DIVIDE");
+      default:
+        return spec.name().endsWith("_POWER");
+    }
+  }
+
+  private static DiceExprResult generic(
+      String op, DiceExprResult left, DiceExprResult right, ArithmeticMode mode) {
+    switch (op) {
+      case "+":
+        return DiceExprResult.add(left, right, mode);
+      case "-":
+        return DiceExprResult.subtract(left, right, mode);
+      case "*":
+        return DiceExprResult.multiply(left, right, mode);
+      case "/":
+        return DiceExprResult.divide(left, right, mode);
+      default:
+        return DiceExprResult.power(left, right, mode);
+    }
+  }
+
+  private static BinaryDiceExpressionNode binary(
+      String op, DiceExprResult left, DiceExprResult right) {
+    return new BinaryDiceExpressionNode(
+        op, new ValueDiceExpressionNode(left), new ValueDiceExpressionNode(right));
+  }
+
+  private static ValueDiceExpressionNode valueNode(int value) {
+    return new ValueDiceExpressionNode(DiceExprResult.getIntResult(value));
+  }
+
+  private static DiceExprResult half() {
+    return DiceExprResult.getDoubleResult(0.5);
+  }
+
+  private static String describe(DiceExprResult result) {
+    return result.getType() + ":" + result.getStringResult();
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.expressiontree;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import net.rptools.dice.CompileOptions;
+import net.rptools.dice.CompileOptions.ParserBackend;
+import net.rptools.dice.DiceExpression;
+import net.rptools.dice.parser.RecursiveDescentDiceParser;
+import net.rptools.dice.result.DiceExprResult;
+import net.rptools.dice.symbols.DefaultDiceExpressionSymbolTable;
+import net.rptools.dice.symbols.DiceEvalScope;
+import org.junit.jupiter.api.Test;
+
+class ChainDiceExpressionNodeTest {
+
+  /** Long enough to overflow the stack if anything recursed once per operator. */
+  private static final int LENGTH = 200_000;
+
+  private static DiceExpressionNode parseSingle(String source) {
+    return ((TopLevelExpressionNode) RecursiveDescentDiceParser.parse(source).get(0)).getChild();
+  }
+
+  private static int intValue(DiceExpressionNode node) {
+    return node.evaluate(new DiceEvalFrame(null)).getIntResult().getAsInt();
+  }
+
+  @Test
+  void evaluatesLeftToRight() {
+    var chain = (ChainDiceExpressionNode) parseSingle("10 - 2 - 3 + 4");
+    assertEquals(List.of("-", "-", "+"), chain.getOperators());
+    assertEquals(9, intValue(chain));
+
+    var mixed = (ChainDiceExpressionNode) parseSingle("2 * 3 + 4 * 5 - 6");
+    assertEquals(List.of("+", "-"), mixed.getOperators());
+    assertTrue(mixed.getOperands().get(0) instanceof BinaryDiceExpressionNode);
+    assertEquals(20, intValue(mixed));
+
+    assertTrue(parseSingle("1 + 2") instanceof BinaryDiceExpressionNode);
+  }
+
+  @Test
+  void unsupportedOperatorFailsBeforeEvaluating() {
+    var assignment = parseSingle("($a = 1)");
+    var operand = new ValueDiceExpressionNode(DiceExprResult.getIntResult(2));
+    var chain =
+        new ChainDiceExpressionNode(
+            List.of(assignment, operand, operand, operand), List.of("+", "%", "+"));
+    var symbolTable = new DefaultDiceExpressionSymbolTable();
+    var frame = new DiceEvalFrame(symbolTable);
+    assertThrows(UnsupportedOperationException.class, () -> chain.evaluate(frame));
+    assertThrows(
+        UnsupportedOperationException.class, () -> IterativeEvaluator.evaluate(chain, frame));
+    assertNull(symbolTable.getVariableValue(DiceEvalScope.LOCAL, "a"));
+  }
+
+  @Test
+  void invalidChain() {
+    var one = new ValueDiceExpressionNode(DiceExprResult.getIntResult(1));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> new ChainDiceExpressionNode(List.of(one, one), List.of("+")));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> new ChainDiceExpressionNode(List.of(one, one), List.of("+", "+")));
+  }
+
+  @Test
+  void longChainsUseConstantStack() {
+    var source = new StringBuilder("$r = $a");
+    int expected = 2;
+    for (int i = 1; i < LENGTH; i++) {
+      source.append(i % 2 == 0 ? " + 1" : " + $a");
+      expected += i % 2 == 0 ? 1 : 2;
+    }
+    var constant = new StringBuilder("$r = 0");
+    int expectedConstant = 0;
+    for (int i = 0; i < LENGTH; i++) {
+      constant.append(i % 3 == 0 ? " - 1" : " + 1");
+      expectedConstant += i % 3 == 0 ? -1 : 1;
+    }
+
+    for (var backend : ParserBackend.values()) {
+      var options = CompileOptions.DEFAULT.withParserBackend(backend);
+      for (int threshold : new int[] {-1, 0}) {
+        var expression =
+            DiceExpression.fromString(source.toString(), options.withBytecodeThreshold(threshold));
+        var reloaded =
+            DiceExpression.fromBytes(
+                ByteBuffer.wrap(expression.toBytes()), options.withBytecodeThreshold(threshold));
+        for (var compiled : List.of(expression, reloaded)) {
+          var symbolTable = new DefaultDiceExpressionSymbolTable();
+          symbolTable.setVariableValue(DiceEvalScope.LOCAL, "a", DiceExprResult.getIntResult(2));
+          compiled.execute(symbolTable);
+          assertEquals(
+              expected,
+              symbolTable.getVariableValue(DiceEvalScope.LOCAL, "r").getIntResult().getAsInt(),
+              backend + " " + threshold);
+        }
+      }
+
+      var folded = DiceExpression.fromString(constant.toString(), options);
+      var symbolTable = new DefaultDiceExpressionSymbolTable();
+      folded.execute(symbolTable);
+      assertEquals(
+          expectedConstant,
+          symbolTable.getVariableValue(DiceEvalScope.LOCAL, "r").getIntResult().getAsInt());
+    }
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.expressiontree;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import net.rptools.dice.CompileOptions;
+import net.rptools.dice.DiceExpression;
+import net.rptools.dice.parser.RecursiveDescentDiceParser;
+import net.rptools.dice.result.PlainResultFormatter;
+import net.rptools.dice.symbols.DefaultDiceExpressionSymbolTable;
+import org.junit.jupiter.api.Test;
+
+class ConstantFolderTest {
+
+  private static DiceExpressionNode foldSingle(String source) {
+    var root = ConstantFolder.fold(RecursiveDescentDiceParser.parse(source).get(0));
+    return ((TopLevelExpressionNode) root).getChild();
+  }
+
+  private static int intValue(DiceExpressionNode node) {
+    assertTrue(node instanceof ValueDiceExpressionNode, node.getClass().getSimpleName());
+    return ((ValueDiceExpressionNode) node).getValue().getIntResult().getAsInt();
+  }
+
+  @Test
+  void foldsArithmetic() {
+    assertEquals(11, intValue(foldSingle("1 + 2 * (3 + 2)")));
+    assertEquals(-3, intValue(foldSingle("-{1 + 2}")));
+  }
+
+  @Test
+  void foldsDiceOperands() {
+    var binary = (BinaryDiceExpressionNode) foldSingle("(2*3)d(4+2)+10/2");
+    var dice = (DiceRollDiceExpressionNode) binary.getLeft();
+
+    assertEquals(6, intValue(dice.getNumberOfDice()));
+    assertEquals(6, intValue(dice.getNumberOfSides()));
+    assertEquals("(2*3)d(4+2)", dice.getDiceString());
+    assertEquals(5, intValue(binary.getRight()));
+  }
+
+  @Test
+  void leavesSymbolsAlone() {
+    var binary = (BinaryDiceExpressionNode) foldSingle("$a + 2 * 3");
+
+    assertTrue(binary.getLeft() instanceof ResolveSymbolDiceExpressionNode);
+    assertEquals(6, intValue(binary.getRight()));
+  }
+
+  @Test
+  void leavesErrorsForExecution() {
+    assertTrue(foldSingle("'a' - 1") instanceof BinaryDiceExpressionNode);
+  }
+
+  @Test
+  void resolvesConstantArguments() {
+    var dice = (DiceRollDiceExpressionNode) foldSingle("4d6(kh=2, cs>=$a)");
+
+    assertEquals(2, dice.getRollerArguments().get(0).getValue().getIntResult().getAsInt());
+    assertFalse(dice.getRollerArguments().get(1).getValue().getIntResult().isPresent());
+  }
+
+  @Test
+  void formattedOutputIsUnchanged() {
+    var noFolding = CompileOptions.DEFAULT.withConstantFolding(false);
+    for (String source :
+        List.of(
+            "(2*3)d1 + 10/2",
+            "$a = 2 * 3; $b = 4d1(kh=2) + $a; -(1 + 2)",
+            "{1 + 2} * (3 - 1)d1(cs>=1, cf=1)")) {
+      var folded = DiceExpression.fromString(source);
+      var unfolded = DiceExpression.fromString(source, noFolding);
+      assertEquals(
+          unfolded.format(
+              unfolded.execute(new DefaultDiceExpressionSymbolTable()), new PlainResultFormatter()),
+          folded.format(
+              folded.execute(new DefaultDiceExpressionSymbolTable()), new PlainResultFormatter()),
+          source);
+    }
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.expressiontree;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import net.rptools.dice.DiceExecutionLimits;
+import net.rptools.dice.expressiontree.DiceExecutionLimitException.Reason;
+import net.rptools.dice.result.DiceExprResult;
+import org.junit.jupiter.api.Test;
+
+class DiceExecutionBudgetTest {
+
+  private static DiceExprResult text(String value) {
+    return DiceExprResult.getStringResult(value);
+  }
+
+  private static DiceExprResult number(int value) {
+    return DiceExprResult.getIntResult(value);
+  }
+
+  @Test
+  void chargesDice() {
+    var budget = new DiceExecutionBudget(DiceExecutionLimits.UNLIMITED.withMaxDice(10));
+    budget.chargeDice(6);
+    budget.chargeDice(-3);
+    budget.chargeDice(4);
+    assertEquals(10, budget.getDiceRolled());
+
+    var e = assertThrows(DiceExecutionLimitException.class, () -> budget.chargeDice(1));
+    assertEquals(Reason.TOO_MANY_DICE, e.getReason());
+    assertEquals(10, e.getLimit());
+  }
+
+  @Test
+  void chargesEvaluations() {
+    var budget = new DiceExecutionBudget(DiceExecutionLimits.UNLIMITED.withMaxNodeEvaluations(5));
+    budget.chargeEvaluations(5);
+    var e = assertThrows(DiceExecutionLimitException.class, () -> budget.chargeEvaluations(1));
+    assertEquals(Reason.TOO_MANY_EVALUATIONS, e.getReason());
+  }
+
+  @Test
+  void checksStringsBeforeTheyAreBuilt() {
+    var budget = new DiceExecutionBudget(DiceExecutionLimits.UNLIMITED.withMaxStringLength(5));
+    budget.checkOperation("+", text("ab"), number(123));
+    budget.checkOperation("*", number(2), text("ab"));
+    budget.checkOperation("-", text("abcdef"), number(1));
+    budget.checkOperation("+", number(123456), number(1));
+    budget.checkOperation("*", text("abc"), text("def"));
+
+    var e =
+        assertThrows(
+            DiceExecutionLimitException.class,
+            () -> budget.checkOperation("+", text("abc"), text("def")));
+    assertEquals(Reason.STRING_TOO_LONG, e.getReason());
+    assertEquals(5, e.getLimit());
+    assertThrows(
+        DiceExecutionLimitException.class,
+        () -> budget.checkOperation("*", text("ab"), number(Integer.MAX_VALUE)));
+  }
+
+  @Test
+  void checksTime() throws InterruptedException {
+    var budget = new DiceExecutionBudget(DiceExecutionLimits.UNLIMITED.withMaxTime(Duration.ZERO));
+    Thread.sleep(1);
+    var e = assertThrows(DiceExecutionLimitException.class, () -> budget.chargeDice(1));
+    assertEquals(Reason.TIME_LIMIT_EXCEEDED, e.getReason());
+  }
+
+  @Test
+  void unlimitedBudgetDoesNotCount() {
+    var budget = DiceExecutionBudget.UNLIMITED;
+    budget.chargeDice(Integer.MAX_VALUE);
+    budget.chargeEvaluations(Long.MAX_VALUE);
+    budget.checkOperation("*", text("ab"), number(Integer.MAX_VALUE));
+    assertEquals(0, budget.getDiceRolled());
+    assertEquals(0, budget.getNodeEvaluations());
+  }
+
+  @Test
+  void limitsCanNotBeNegative() {
+    var limits = DiceExecutionLimits.UNLIMITED;
+    assertTrue(limits.isUnlimited());
+    assertFalse(DiceExecutionLimits.UNTRUSTED.isUnlimited());
+    assertThrows(IllegalArgumentException.class, () -> limits.withMaxDice(-1));
+    assertThrows(IllegalArgumentException.class, () -> limits.withMaxStringLength(-1));
+    assertThrows(IllegalArgumentException.class, () -> limits.withMaxNodeEvaluations(-1));
+    assertThrows(IllegalArgumentException.class, () -> limits.withMaxTime(Duration.ofMillis(-1)));
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.expressiontree;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import net.rptools.dice.CompileOptions;
+import net.rptools.dice.DiceExpression;
+import net.rptools.dice.parser.RecursiveDescentDiceParser;
+import net.rptools.dice.result.PlainResultFormatter;
+import net.rptools.dice.symbols.DefaultDiceExpressionSymbolTable;
+import org.junit.jupiter.api.Test;
+
+class DiceExpressionSourceTest {
+
+  @Test
+  void tokenTextSkipsWhiteSpaceAndComments() {
+    var source = new DiceExpressionSource("  1 + /* two */ 2 * 'a b' ; 4 / 2");
+
+    assertEquals("1+2*'a b'", source.getTokenText(2, 25));
+    assertEquals("4/2", source.getTokenText(28, 33));
+    assertEquals("1", source.getTokenText(2, 3));
+  }
+
+  @Test
+  void skipsStringsAndCommentsLikeTheLexer() {
+    assertEquals(6, DiceExpressionSource.skipString("'a\\'b' + 1", 0, 10));
+    assertEquals(6, DiceExpressionSource.skipString("'\\\\n;'", 0, 6));
+    assertEquals(9, DiceExpressionSource.skipString("'\\\\u00e9'", 0, 9));
+    assertEquals(4, DiceExpressionSource.skipString("'\\x'", 0, 4));
+    // A backslash that starts no escape does not escape the quote after the next one.
+    assertEquals(-1, DiceExpressionSource.skipString("'\\\\'", 0, 4));
+    assertEquals(-1, DiceExpressionSource.skipString("'abc' ", 0, 4));
+
+    assertEquals(7, DiceExpressionSource.skipComment("/* a */ 1", 0, 9));
+    assertEquals(-1, DiceExpressionSource.skipComment("/* a */ 1", 0, 6));
+    assertEquals(-1, DiceExpressionSource.skipComment("/* a", 0, 4));
+  }
+
+  @Test
+  void charIndexHandlesSupplementaryCharacters() {
+    var source = new DiceExpressionSource("'\uD83C\uDFB2' + 1");
+
+    assertEquals(0, source.charIndex(0));
+    assertEquals(4, source.charIndex(3));
+    assertEquals(5, new DiceExpressionSource("abcde").charIndex(5));
+  }
+
+  @Test
+  void nodesShareTheSource() {
+    var roots = RecursiveDescentDiceParser.parse("$a = 2d6 + 1; 3d1(kh2)");
+    var first = (TopLevelExpressionNode) roots.get(0);
+    var second = (TopLevelExpressionNode) roots.get(1);
+    var assignment = (AssignmentDiceExpressionNode) first.getChild();
+    var dice =
+        (DiceRollDiceExpressionNode) ((BinaryDiceExpressionNode) assignment.getRhs()).getLeft();
+
+    assertSame(first.getSource(), second.getSource());
+    assertSame(first.getSource(), dice.getSource());
+    assertEquals("$a=2d6+1", first.getExpression());
+    assertEquals(5, dice.getStart());
+    assertEquals(8, dice.getEnd());
+    assertEquals("3d1(kh2)", second.getExpression());
+  }
+
+  @Test
+  void backendsGiveTheSameText() {
+    var rd =
+        CompileOptions.DEFAULT.withParserBackend(CompileOptions.ParserBackend.RECURSIVE_DESCENT);
+    for (String source :
+        List.of(
+            "1 + 2 /* comment */ * 3;  4d1 ( kh 2 )",
+            "'\uD83C\uDFB2 x' + 2d1; $a = 3",
+            "{1 + 2} * (3 - 1)d1(cs>=1, cf=1)")) {
+      var antlr = DiceExpression.fromString(source);
+      var recursiveDescent = DiceExpression.fromString(source, rd);
+      assertEquals(
+          antlr.format(
+              antlr.execute(new DefaultDiceExpressionSymbolTable()), new PlainResultFormatter()),
+          recursiveDescent.format(
+              recursiveDescent.execute(new DefaultDiceExpressionSymbolTable()),
+              new PlainResultFormatter()),
+          source);
+    }
+  }
+}
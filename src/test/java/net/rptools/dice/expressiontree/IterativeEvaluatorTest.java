@@ -0,0 +1,155 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.expressiontree;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import net.rptools.dice.CompileOptions;
+import net.rptools.dice.CompileOptions.EvaluationStrategy;
+import net.rptools.dice.DiceExpression;
+import net.rptools.dice.DiceInputLimits;
+import net.rptools.dice.parser.DiceInputRejectedException;
+import net.rptools.dice.result.DiceExprResult;
+import net.rptools.dice.result.PlainResultFormatter;
+import net.rptools.dice.symbols.DefaultDiceExpressionSymbolTable;
+import net.rptools.dice.symbols.DiceEvalScope;
+import org.junit.jupiter.api.Test;
+
+class IterativeEvaluatorTest {
+
+  private static final CompileOptions RECURSIVE =
+      CompileOptions.DEFAULT.withConstantFolding(false).withBytecodeThreshold(-1);
+
+  private static final CompileOptions ITERATIVE =
+      RECURSIVE.withEvaluationStrategy(EvaluationStrategy.ITERATIVE);
+
+  private static String run(String source, CompileOptions options) {
+    var expression = DiceExpression.fromString(source, options);
+    var symbolTable = new DefaultDiceExpressionSymbolTable();
+    symbolTable.setVariableValue(DiceEvalScope.LOCAL, "n", DiceExprResult.getIntResult(2));
+    try {
+      var frame = expression.execute(symbolTable);
+      var a = symbolTable.getVariableValue(DiceEvalScope.LOCAL, "a");
+      return expression.format(frame, new PlainResultFormatter()).orElse("")
+          + (a == null ? "" : a.getType() + ":" + a.getStringResult());
+    } catch (RuntimeException e) {
+      return e.toString();
+    }
+  }
+
+  @Test
+  void matchesRecursiveEvaluation() {
+    for (String source :
+        List.of(
+            "1 + 2 * 3 - 4 / 2",
+            "$a = 4d1(kh2) + 3; $a * 2; -$a",
+            "{1 + 2} * (3 - 1)d1(cs>=1, cf=1)",
+            "($a = 2)d(1 + 0) + $a + $n + 1 + 1",
+            "5d1(kh$n, s>=1); 3d1(dl1) - -2",
+            "'abc' + \"def\"; 2.5 * 2",
+            "%hide; 1",
+            "$a = 1; 2 ^ ($a = 3)",
+            "$a = 1; -($a = 2) + 1 ^ 2 + 3",
+            "$a = 1; ('x')d($a = 2)",
+            "$a = 1; (2)d('x' + ($a = 3))")) {
+      assertEquals(run(source, RECURSIVE), run(source, ITERATIVE), source);
+    }
+  }
+
+  /**
+   * Runs a task on a new thread with a given stack size.
+   *
+   * @param stackSize The stack size of the thread.
+   * @param task The task to run.
+   * @return the result of the task.
+   */
+  private static <T> T onThread(long stackSize, Supplier<T> task) throws InterruptedException {
+    var result = new AtomicReference<T>();
+    var failure = new AtomicReference<Throwable>();
+    var thread =
+        new Thread(
+            null,
+            () -> {
+              try {
+                result.set(task.get());
+              } catch (Throwable t) {
+                failure.set(t);
+              }
+            },
+            "stack-" + stackSize,
+            stackSize);
+    thread.start();
+    thread.join();
+    if (failure.get() != null) {
+      throw new AssertionError(failure.get());
+    }
+    return result.get();
+  }
+
+  private static String executeAndFormat(DiceExpression expression) {
+    var frame = expression.execute(new DefaultDiceExpressionSymbolTable());
+    return expression.format(frame, new PlainResultFormatter()).orElse("");
+  }
+
+  @Test
+  void executesDeepExpressionsOnSmallStacks() throws InterruptedException {
+    int depth = 400;
+    String source = "1 + -(".repeat(depth) + "1" + ")".repeat(depth);
+    for (var backend : CompileOptions.ParserBackend.values()) {
+      // Compiling recurses, so the nesting is not limited and it is given a large stack.
+      var recursive =
+          RECURSIVE.withParserBackend(backend).withInputLimits(DiceInputLimits.UNLIMITED);
+      var iterative =
+          ITERATIVE.withParserBackend(backend).withInputLimits(DiceInputLimits.UNLIMITED);
+      var deepRecursive = onThread(64 << 20, () -> DiceExpression.fromString(source, recursive));
+      var deepIterative = onThread(64 << 20, () -> DiceExpression.fromString(source, iterative));
+
+      String expected = onThread(64 << 20, () -> executeAndFormat(deepRecursive));
+      assertTrue(expected.startsWith("1"), expected);
+      assertEquals(expected, onThread(256 << 10, () -> executeAndFormat(deepIterative)));
+    }
+  }
+
+  @Test
+  void defaultLimitsRejectExpressionsTooDeepToCompile() throws InterruptedException {
+    int depth = DiceInputLimits.DEFAULT_MAX_NESTING_DEPTH / 2;
+    String deepest = "$a = " + "-(".repeat(depth) + "1d1" + ")".repeat(depth);
+    String tooDeep = "-(".repeat(100_000) + "1" + ")".repeat(100_000);
+    for (var backend : CompileOptions.ParserBackend.values()) {
+      for (var options :
+          List.of(
+              CompileOptions.DEFAULT.withParserBackend(backend).withVmThreshold(0),
+              CompileOptions.DEFAULT.withParserBackend(backend).withBytecodeThreshold(0),
+              ITERATIVE.withParserBackend(backend))) {
+        // The deepest expression the limits allow compiles and runs on a 1MB stack.
+        var symbolTable = new DefaultDiceExpressionSymbolTable();
+        onThread(1 << 20, () -> DiceExpression.fromString(deepest, options).execute(symbolTable));
+        var a = symbolTable.getVariableValue(DiceEvalScope.LOCAL, "a");
+        assertEquals(1, a.getIntResult().getAsInt());
+
+        var e =
+            assertThrows(
+                DiceInputRejectedException.class,
+                () -> DiceExpression.fromString(tooDeep, options));
+        assertEquals(DiceInputRejectedException.Reason.NESTING_TOO_DEEP, e.getReason());
+        assertEquals(DiceInputLimits.DEFAULT_MAX_NESTING_DEPTH, e.getLimit());
+        assertEquals(DiceInputLimits.DEFAULT_MAX_NESTING_DEPTH, e.getPosition());
+      }
+    }
+  }
+}
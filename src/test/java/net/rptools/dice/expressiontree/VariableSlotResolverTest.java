@@ -0,0 +1,103 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.expressiontree;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import net.rptools.dice.DiceExpression;
+import net.rptools.dice.parser.RecursiveDescentDiceParser;
+import net.rptools.dice.result.DiceExprResult;
+import net.rptools.dice.symbols.DefaultDiceExpressionSymbolTable;
+import net.rptools.dice.symbols.DiceEvalScope;
+import org.junit.jupiter.api.Test;
+
+class VariableSlotResolverTest {
+
+  @Test
+  void assignsSlotsPerScopeAndName() {
+    var resolver =
+        VariableSlotResolver.resolve(
+            RecursiveDescentDiceParser.parse("$a = 1; #a = $a + 2; $a * #a; 4d1(kh$n)"));
+    var slots = resolver.getSlots();
+
+    assertEquals(3, slots.size());
+    int local = slots.getSlot(DiceEvalScope.LOCAL, "a");
+    int global = slots.getSlot(DiceEvalScope.GLOBAL, "a");
+    assertNotEquals(local, global);
+    assertTrue(slots.getSlot(DiceEvalScope.LOCAL, "n") >= 0);
+    assertEquals(-1, slots.getSlot(DiceEvalScope.LOCAL, "b"));
+
+    var assignment =
+        (AssignmentDiceExpressionNode)
+            ((TopLevelExpressionNode) resolver.getRoots().get(1)).getChild();
+    var resolve =
+        (ResolveSymbolDiceExpressionNode)
+            ((BinaryDiceExpressionNode) assignment.getRhs()).getLeft();
+    assertEquals(global, assignment.getSlot());
+    assertEquals(local, resolve.getSlot());
+  }
+
+  @Test
+  void localVariablesAreWrittenBackWhenFlushed() {
+    var resolver = VariableSlotResolver.resolve(RecursiveDescentDiceParser.parse("$a = $a + 1"));
+    var table = new DefaultDiceExpressionSymbolTable();
+    table.setVariableValue(DiceEvalScope.LOCAL, "a", DiceExprResult.getIntResult(1));
+    var frame = new DiceEvalFrame(table, resolver.getSlots());
+
+    resolver.getRoots().get(0).evaluate(frame);
+    assertEquals(1, table.getVariableValue(DiceEvalScope.LOCAL, "a").getIntResult().getAsInt());
+
+    frame.flushVariables();
+    assertEquals(2, table.getVariableValue(DiceEvalScope.LOCAL, "a").getIntResult().getAsInt());
+  }
+
+  @Test
+  void globalVariablesAreWrittenImmediately() {
+    var resolver = VariableSlotResolver.resolve(RecursiveDescentDiceParser.parse("#g = 5"));
+    var table = new DefaultDiceExpressionSymbolTable();
+    var frame = new DiceEvalFrame(table, resolver.getSlots());
+
+    resolver.getRoots().get(0).evaluate(frame);
+    assertEquals(5, table.getVariableValue(DiceEvalScope.GLOBAL, "g").getIntResult().getAsInt());
+  }
+
+  @Test
+  void unresolvedNodesUseTheSameSlots() {
+    var resolver = VariableSlotResolver.resolve(RecursiveDescentDiceParser.parse("$a = 3"));
+    var table = new DefaultDiceExpressionSymbolTable();
+    var frame = new DiceEvalFrame(table, resolver.getSlots());
+
+    resolver.getRoots().get(0).evaluate(frame);
+    var unresolved = new ResolveSymbolDiceExpressionNode(new String("a"), DiceEvalScope.LOCAL);
+    assertEquals(3, unresolved.evaluate(frame).getIntResult().getAsInt());
+  }
+
+  @Test
+  void expressionsSeeVariablesSetBeforeExecution() {
+    var expression = DiceExpression.fromString("$n = $x + 1; $r = 5d1(kh$n) + #g; #g = $r");
+    var table = new DefaultDiceExpressionSymbolTable();
+    table.setVariableValue(DiceEvalScope.LOCAL, "x", DiceExprResult.getIntResult(1));
+    table.setVariableValue(DiceEvalScope.GLOBAL, "g", DiceExprResult.getIntResult(10));
+
+    expression.execute(table);
+
+    for (var name : List.of("n", "r")) {
+      assertTrue(table.containsVariable(DiceEvalScope.LOCAL, name), name);
+    }
+    assertEquals(12, table.getVariableValue(DiceEvalScope.LOCAL, "r").getIntResult().getAsInt());
+    assertEquals(12, table.getVariableValue(DiceEvalScope.GLOBAL, "g").getIntResult().getAsInt());
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.parser;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import net.rptools.dice.CompileOptions;
+import net.rptools.dice.DiceExpression;
+import net.rptools.dice.DiceInputLimits;
+import net.rptools.dice.parser.DiceInputRejectedException.Reason;
+import org.junit.jupiter.api.Test;
+
+class DiceInputGuardTest {
+
+  private static Reason rejection(String text, DiceInputLimits limits) {
+    var e =
+        assertThrows(DiceInputRejectedException.class, () -> DiceInputGuard.check(text, limits));
+    return e.getReason();
+  }
+
+  @Test
+  void acceptsInputWithinLimits() {
+    var limits = DiceInputLimits.UNLIMITED.withMaxTokens(11).withMaxNestingDepth(2);
+    DiceInputGuard.check("$abc = {(2)}d6 /* ( ( ( */ + 'x(y'", limits);
+  }
+
+  @Test
+  void rejectsLongInput() {
+    var limits = DiceInputLimits.UNLIMITED.withMaxLength(10);
+    DiceInputGuard.check("1234567890", limits);
+    assertEquals(Reason.INPUT_TOO_LONG, rejection("12345678901", limits));
+  }
+
+  @Test
+  void rejectsTooManyTokens() {
+    var limits = DiceInputLimits.UNLIMITED.withMaxTokens(5);
+    DiceInputGuard.check("4d6 + 1", limits);
+    var e =
+        assertThrows(
+            DiceInputRejectedException.class, () -> DiceInputGuard.check("4d6 + 1 - 2", limits));
+    assertEquals(Reason.TOO_MANY_TOKENS, e.getReason());
+    assertEquals(5, e.getLimit());
+    assertEquals(8, e.getPosition());
+  }
+
+  @Test
+  void rejectsDeepNesting() {
+    var limits = DiceInputLimits.UNLIMITED.withMaxNestingDepth(3);
+    DiceInputGuard.check("((1) + {2}) + ({(3)})", limits);
+    assertEquals(Reason.NESTING_TOO_DEEP, rejection("(((({1}))))d6", limits));
+    DiceInputGuard.check("-(-1) - -1; ---1", limits);
+    assertEquals(Reason.NESTING_TOO_DEEP, rejection("----1", limits));
+    assertEquals(Reason.NESTING_TOO_DEEP, rejection("1 + -(1 + -(1))", limits));
+    DiceInputGuard.check("-1 - -1 + -(-1) - -{-1} - -1", limits);
+  }
+
+  @Test
+  void rejectsBeforeParsing() {
+    var options = CompileOptions.DEFAULT.withInputLimits(DiceInputLimits.UNTRUSTED);
+    String nested = "(".repeat(100_000) + "1" + ")".repeat(100_000);
+
+    var e =
+        assertThrows(
+            DiceInputRejectedException.class, () -> DiceExpression.fromString(nested, options));
+    assertEquals(Reason.INPUT_TOO_LONG, e.getReason());
+    assertThrows(
+        DiceInputRejectedException.class,
+        () ->
+            DiceExpression.fromString(
+                nested,
+                options.withInputLimits(DiceInputLimits.UNTRUSTED.withMaxLength(1_000_000))));
+    assertThrows(
+        DiceInputRejectedException.class,
+        () -> DiceExpression.fromString("1 + 2", options).edit(0, 0, "(".repeat(40)));
+  }
+
+  @Test
+  void negativeLimit() {
+    assertThrows(IllegalArgumentException.class, () -> DiceInputLimits.UNLIMITED.withMaxTokens(-1));
+  }
+}
@@ -0,0 +1,221 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.parser;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import net.rptools.dice.DiceExprLexer;
+import net.rptools.dice.DiceExprParser;
+import net.rptools.dice.expressiontree.AssignmentDiceExpressionNode;
+import net.rptools.dice.expressiontree.BinaryDiceExpressionNode;
+import net.rptools.dice.expressiontree.ChainDiceExpressionNode;
+import net.rptools.dice.expressiontree.DiceExpressionNode;
+import net.rptools.dice.expressiontree.DiceRollDiceExpressionNode;
+import net.rptools.dice.expressiontree.GroupDiceExpressionNode;
+import net.rptools.dice.expressiontree.InstructionDiceExpressionNode;
+import net.rptools.dice.expressiontree.ResolveSymbolDiceExpressionNode;
+import net.rptools.dice.expressiontree.TopLevelExpressionNode;
+import net.rptools.dice.expressiontree.UnaryDiceExpressionNode;
+import net.rptools.dice.expressiontree.ValueDiceExpressionNode;
+import net.rptools.dice.roller.arguments.DiceRollerArgument;
+import net.rptools.dice.visitor.DiceRollVisitor;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.junit.jupiter.api.Test;
+
+class RecursiveDescentDiceParserTest {
+
+  private static final List<String> VALID =
+      List.of(
+          "1",
+          "1.5",
+          "'abc'",
+          "\"a\\\"b\"",
+          "'a\\\\n'",
+          "d6",
+          "2d6",
+          "2 d 6",
+          "(1+1)d6",
+          "{2}d{6}",
+          "2d(3*2)",
+          "3dF6",
+          "2d6d8",
+          "10d10(kh3)",
+          "10d10{kl=3}",
+          "10d10(dh$n, dl2)",
+          "4d6(cs, cf)",
+          "4d6(cs>=6, cf<=1)",
+          "4d6(cs=6, cf=1)",
+          "4d6(s>4, f<2)",
+          "4d6(s=4)",
+          "4d6(kh#n)",
+          "4d6(kh@n)",
+          "4d6(kh 'x')",
+          "4d6(kh 2.5)",
+          "4d6(kh abc)",
+          "1+2*3",
+          "1*2+3",
+          "1-2-3",
+          "8/4/2",
+          "2^3^2",
+          "2^3*4+5",
+          "-1",
+          "-1+2",
+          "2*-3+4",
+          "--1",
+          "1+-2*3",
+          "1+2-3+4*5*6-7/8",
+          "1*2*3^4^5+6",
+          "$a",
+          "#a1",
+          "@prop",
+          "@'a prop'",
+          "$a = 1",
+          "#b = 2d6 + 3",
+          "@p = $a * 2",
+          "($a = 2) + 1",
+          "{1 + 2} * (3 - 1)d6(cs>=1, cf=1)",
+          "%hide",
+          "%roll $a, 'x'",
+          "%roll $a, b $c, 'd'",
+          "1; 2; 3",
+          "1; 2;",
+          "$a = 4d6(kh3); $b = $a * 2; $a + $b",
+          "1 /* a comment */ + 2",
+          "/* leading */ 2d6",
+          "1 +\n\t2\r\n");
+
+  private static final List<String> INVALID =
+      List.of(
+          "",
+          "1 +",
+          "1 2",
+          "(1",
+          "2d",
+          "2d6(kh)",
+          "2d6(s)",
+          "2d6 junk",
+          "$ = 1",
+          "'unterminated",
+          "1 ~ 2",
+          "1;;2",
+          "%show",
+          "99999999999");
+
+  @Test
+  void matchesAntlrParser() {
+    for (String source : VALID) {
+      assertEquals(dump(parseWithAntlr(source)), dump(RecursiveDescentDiceParser.parse(source)));
+    }
+  }
+
+  @Test
+  void rejectsInvalidInput() {
+    for (String source : INVALID) {
+      assertThrows(
+          IllegalArgumentException.class, () -> RecursiveDescentDiceParser.parse(source), source);
+    }
+  }
+
+  @Test
+  void reportsPosition() {
+    var e =
+        assertThrows(
+            DiceExprSyntaxException.class, () -> RecursiveDescentDiceParser.parse("1 + )"));
+    assertEquals(4, e.getPosition());
+  }
+
+  private static List<DiceExpressionNode> parseWithAntlr(String source) {
+    var parser =
+        new DiceExprParser(
+            new CommonTokenStream(new DiceExprLexer(CharStreams.fromString(source))));
+    var visitor = new DiceRollVisitor();
+    visitor.visit(parser.diceRolls());
+    return visitor.getExpressionTrees();
+  }
+
+  private static String dump(List<DiceExpressionNode> roots) {
+    return roots.stream()
+        .map(RecursiveDescentDiceParserTest::dump)
+        .collect(Collectors.joining("; "));
+  }
+
+  private static String dump(DiceExpressionNode node) {
+    if (node == null) {
+      return "null";
+    } else if (node instanceof TopLevelExpressionNode) {
+      var n = (TopLevelExpressionNode) node;
+      return "top[" + n.getExpression() + "](" + dump(n.getChild()) + ")";
+    } else if (node instanceof AssignmentDiceExpressionNode) {
+      var n = (AssignmentDiceExpressionNode) node;
+      return "assign(" + n.getScope() + " " + n.getName() + ", " + dump(n.getRhs()) + ")";
+    } else if (node instanceof BinaryDiceExpressionNode) {
+      var n = (BinaryDiceExpressionNode) node;
+      return "(" + dump(n.getLeft()) + " " + n.getOperator() + " " + dump(n.getRight()) + ")";
+    } else if (node instanceof ChainDiceExpressionNode) {
+      var n = (ChainDiceExpressionNode) node;
+      var builder = new StringBuilder("chain(").append(dump(n.getOperands().get(0)));
+      for (int i = 0; i < n.getOperators().size(); i++) {
+        builder.append(' ').append(n.getOperators().get(i));
+        builder.append(' ').append(dump(n.getOperands().get(i + 1)));
+      }
+      return builder.append(')').toString();
+    } else if (node instanceof UnaryDiceExpressionNode) {
+      var n = (UnaryDiceExpressionNode) node;
+      return "(" + n.getOperator() + dump(n.getOperand()) + ")";
+    } else if (node instanceof GroupDiceExpressionNode) {
+      var n = (GroupDiceExpressionNode) node;
+      return n.getGroupingType() + "(" + dump(n.getGrouped()) + ")";
+    } else if (node instanceof ValueDiceExpressionNode) {
+      var v = ((ValueDiceExpressionNode) node).getValue();
+      return v.getType() + ":" + v.getStringResult();
+    } else if (node instanceof ResolveSymbolDiceExpressionNode) {
+      var n = (ResolveSymbolDiceExpressionNode) node;
+      return "resolve(" + n.getScope() + " " + n.getName() + ")";
+    } else if (node instanceof InstructionDiceExpressionNode) {
+      var n = (InstructionDiceExpressionNode) node;
+      return "instr(" + n.getInstructionName() + " " + n.getArguments() + ")";
+    } else if (node instanceof DiceRollDiceExpressionNode) {
+      var n = (DiceRollDiceExpressionNode) node;
+      return "dice["
+          + n.getDiceString()
+          + "]("
+          + dump(n.getNumberOfDice())
+          + " "
+          + n.getDiceName()
+          + " "
+          + dump(n.getNumberOfSides())
+          + " "
+          + n.getRollerArguments().stream()
+              .map(RecursiveDescentDiceParserTest::dump)
+              .collect(Collectors.joining(", ", "[", "]"))
+          + ")";
+    } else {
+      return fail("Unknown node " + node.getClass());
+    }
+  }
+
+  private static String dump(DiceRollerArgument arg) {
+    return arg.getClass().getSimpleName()
+        + " "
+        + arg.getArgumentName()
+        + " "
+        + arg.getOperator().orElse("")
+        + " "
+        + arg.getValueNode().map(RecursiveDescentDiceParserTest::dump).orElse("none");
+  }
+}
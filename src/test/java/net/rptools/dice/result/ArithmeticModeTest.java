@@ -0,0 +1,108 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.result;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.math.BigInteger;
+import org.junit.jupiter.api.Test;
+
+class ArithmeticModeTest {
+
+  private static DiceExprResult of(long value) {
+    return DiceExprResult.getLongResult(value);
+  }
+
+  @Test
+  void intWrapsAround() {
+    var mode = ArithmeticMode.INT;
+    assertEquals(
+        Integer.MIN_VALUE, mode.add(of(Integer.MAX_VALUE), of(1)).getIntResult().getAsInt());
+    assertEquals(-2, mode.multiply(of(Integer.MAX_VALUE), of(2)).getIntResult().getAsInt());
+    assertEquals(Integer.MIN_VALUE, mode.power(of(2), of(31)).getIntResult().getAsInt());
+    assertEquals(1024, mode.power(of(2), of(10)).getIntResult().getAsInt());
+  }
+
+  @Test
+  void longDetectsOverflow() {
+    var mode = ArithmeticMode.LONG;
+    assertEquals(
+        10_000_000_000L, mode.multiply(of(100_000), of(100_000)).getLongResult().getAsLong());
+    assertEquals("10000000000", mode.multiply(of(100_000), of(100_000)).getStringResult());
+    assertEquals(1L << 62, mode.power(of(2), of(62)).getLongResult().getAsLong());
+    assertEquals(1, mode.power(of(-1), of(Long.MAX_VALUE - 1)).getLongResult().getAsLong());
+
+    assertThrows(ArithmeticException.class, () -> mode.add(of(Long.MAX_VALUE), of(1)));
+    assertThrows(ArithmeticException.class, () -> mode.subtract(of(Long.MIN_VALUE), of(1)));
+    assertThrows(ArithmeticException.class, () -> mode.multiply(of(1L << 32), of(1L << 32)));
+    assertThrows(ArithmeticException.class, () -> mode.divide(of(Long.MIN_VALUE), of(-1)));
+    assertThrows(ArithmeticException.class, () -> mode.negate(of(Long.MIN_VALUE)));
+    assertThrows(ArithmeticException.class, () -> mode.power(of(2), of(63)));
+  }
+
+  @Test
+  void bigIntegerPromotes() {
+    var mode = ArithmeticMode.BIG_INTEGER;
+    var big = mode.add(of(Long.MAX_VALUE), of(1));
+    assertTrue(big.isBigInteger());
+    assertEquals("9223372036854775808", big.getStringResult());
+    assertEquals(DiceResultType.INTEGER, big.getType());
+
+    var back = mode.subtract(big, of(1));
+    assertFalse(back.isBigInteger());
+    assertEquals(Long.MAX_VALUE, back.getLongResult().getAsLong());
+
+    assertEquals(
+        BigInteger.TWO.pow(64),
+        mode.multiply(of(1L << 32), of(1L << 32)).getBigIntegerResult().get());
+    assertEquals(BigInteger.TWO.pow(100), mode.power(of(2), of(100)).getBigIntegerResult().get());
+    assertEquals(
+        BigInteger.valueOf(Long.MIN_VALUE).negate(),
+        mode.negate(of(Long.MIN_VALUE)).getBigIntegerResult().get());
+    assertEquals(
+        BigInteger.valueOf(Long.MIN_VALUE).negate(),
+        mode.divide(of(Long.MIN_VALUE), of(-1)).getBigIntegerResult().get());
+
+    var huge = DiceExprResult.getBigIntegerResult(BigInteger.TWO.pow(70));
+    assertEquals("1", mode.power(of(-1), huge).getStringResult());
+    assertThrows(ArithmeticException.class, () -> mode.power(of(3), huge));
+    assertThrows(ArithmeticException.class, () -> mode.power(of(3), of(1L << 30)));
+  }
+
+  @Test
+  void negativeExponentsGiveDoubles() {
+    for (var mode : ArithmeticMode.values()) {
+      var result = mode.power(of(2), of(-2));
+      assertEquals(DiceResultType.DOUBLE, result.getType());
+      assertEquals(0.25, result.getDoubleResult().getAsDouble());
+    }
+  }
+
+  @Test
+  void power() {
+    assertEquals(8, DiceExprResult.power(of(2), of(3)).getIntResult().getAsInt());
+    assertEquals(
+        2.25,
+        DiceExprResult.power(DiceExprResult.getDoubleResult(1.5), of(2))
+            .getDoubleResult()
+            .getAsDouble());
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> DiceExprResult.power(DiceExprResult.getStringResult("a"), of(2)));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> DiceExprResult.power(of(2), DiceExprResult.UNDEFINED));
+  }
+}
@@ -67,4 +67,30 @@ class StandardDiceRollerTest {
               assertEquals(rolls.getResult().getIntResult().orElse(-1), numDice);
             });
   }
+
+  @Test
+  void rollTotals() {
+    DiceRoller dr = new StandardDiceRoller();
+    int iterations = 100_000;
+    int[] numDice = new int[iterations];
+    int[] numSides = new int[iterations];
+    for (int i = 0; i < iterations; i++) {
+      numDice[i] = i % 4;
+      numSides[i] = i < iterations / 2 ? 1 : 6;
+    }
+
+    int[] totals = dr.rollTotals("d", numDice, numSides);
+
+    assertEquals(iterations, totals.length);
+    for (int i = 0; i < iterations; i++) {
+      if (numSides[i] == 1) {
+        assertEquals(numDice[i], totals[i]);
+      } else {
+        assertTrue(totals[i] >= numDice[i] && totals[i] <= 6 * numDice[i]);
+      }
+    }
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> dr.rollTotals("d", new int[] {1, -1}, new int[] {6, 6}));
+  }
 }
@@ -0,0 +1,242 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.serialization;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import net.rptools.dice.CompileOptions;
+import net.rptools.dice.DiceExpression;
+import net.rptools.dice.result.ArithmeticMode;
+import net.rptools.dice.result.DiceExprResult;
+import net.rptools.dice.result.PlainResultFormatter;
+import net.rptools.dice.symbols.DefaultDiceExpressionSymbolTable;
+import net.rptools.dice.symbols.DiceEvalScope;
+import org.junit.jupiter.api.Test;
+
+class DiceExpressionReaderTest {
+
+  private static final List<String> EXPRESSIONS =
+      List.of(
+          "2d1(kh1)+5",
+          "$a = (2*3)d1 + 10/2; #b = -$a * 2.5; $a - #b",
+          "'abc' + \"def\" * 2",
+          "{1 + 2} * (3 - 1)d1(cs>=1, cf=1)",
+          "4d1(dl1, s>=1); 3d1(f<2)",
+          "$n = $x - 100000; 5d1(kh$n, dh=1) + -7");
+
+  private static String run(DiceExpression expression) {
+    var table = new DefaultDiceExpressionSymbolTable();
+    table.setVariableValue(DiceEvalScope.LOCAL, "x", DiceExprResult.getIntResult(100002));
+    return expression.format(expression.execute(table), new PlainResultFormatter()).orElseThrow();
+  }
+
+  @Test
+  void roundTripGivesSameResults() {
+    for (var options :
+        List.of(CompileOptions.DEFAULT, CompileOptions.DEFAULT.withConstantFolding(false))) {
+      for (String source : EXPRESSIONS) {
+        var expression = DiceExpression.fromString(source, options);
+        byte[] bytes = expression.toBytes();
+        var loaded = DiceExpression.fromBytes(ByteBuffer.wrap(bytes), options);
+
+        assertEquals(run(expression), run(loaded), source);
+        assertArrayEquals(bytes, loaded.toBytes(), source);
+      }
+    }
+  }
+
+  @Test
+  void roundTripKeepsWideIntegerConstants() {
+    var sources =
+        List.of(
+            List.of("2 ^ 40", "-(2 ^ 62) * 2", "$a = 3 ^ 30; $a - 1"),
+            List.of("2 ^ 100", "-(3 ^ 50)", "2 ^ 63 - 1"));
+    var modes = List.of(ArithmeticMode.LONG, ArithmeticMode.BIG_INTEGER);
+    for (int i = 0; i < modes.size(); i++) {
+      var options = CompileOptions.DEFAULT.withArithmeticMode(modes.get(i));
+      for (String source : sources.get(i)) {
+        var expression = DiceExpression.fromString(source, options);
+        byte[] bytes = expression.toBytes();
+        var loaded = DiceExpression.fromBytes(ByteBuffer.wrap(bytes), options);
+
+        assertEquals(run(expression), run(loaded), source);
+        assertArrayEquals(bytes, loaded.toBytes(), source);
+      }
+    }
+
+    var options = CompileOptions.DEFAULT.withArithmeticMode(ArithmeticMode.LONG);
+    byte[] bytes = DiceExpression.fromString("2 ^ 40", options).toBytes();
+    String loaded = run(DiceExpression.fromBytes(ByteBuffer.wrap(bytes), options));
+    assertTrue(loaded.contains("1099511627776"), loaded);
+  }
+
+  @Test
+  void readsConsecutiveExpressions() throws Exception {
+    var bytes = new ByteArrayOutputStream();
+    var out = new DataOutputStream(bytes);
+    for (String source : EXPRESSIONS) {
+      DiceExpression.fromString(source).writeTo(out);
+    }
+
+    var buffer = ByteBuffer.wrap(bytes.toByteArray());
+    for (String source : EXPRESSIONS) {
+      assertEquals(run(DiceExpression.fromString(source)), run(DiceExpression.fromBytes(buffer)));
+    }
+    assertFalse(buffer.hasRemaining());
+  }
+
+  @Test
+  void rejectsInvalidData() {
+    byte[] bytes = DiceExpression.fromString(EXPRESSIONS.get(1)).toBytes();
+
+    byte[] badMagic = bytes.clone();
+    badMagic[0] = 0;
+    assertThrows(IllegalArgumentException.class, () -> DiceExpressionReader.read(badMagic));
+
+    byte[] badVersion = bytes.clone();
+    badVersion[2] = (byte) (DiceExpressionFormat.VERSION + 1);
+    assertThrows(IllegalArgumentException.class, () -> DiceExpressionReader.read(badVersion));
+
+    for (int length = 0; length < bytes.length; length++) {
+      byte[] truncated = Arrays.copyOf(bytes, length);
+      assertThrows(IllegalArgumentException.class, () -> DiceExpressionReader.read(truncated));
+    }
+  }
+
+  /**
+   * Returns the bytes of an expression with a single statement, whose string table holds one
+   * string, which is also the source of the statement.
+   *
+   * @param string The string in the string table, at index 1.
+   * @param body The bytes of the node under the top level node.
+   * @return the bytes of the expression.
+   */
+  private static byte[] expression(String string, int... body) {
+    byte[] header = {
+      0x44,
+      0x58,
+      DiceExpressionFormat.VERSION,
+      1,
+      (byte) string.length(),
+      (byte) string.charAt(0),
+      // Source table, holding the string.
+      1,
+      1,
+      // One statement, a top level node for an empty span of the source.
+      1,
+      DiceExpressionFormat.TOP_LEVEL,
+      0,
+      0,
+      0
+    };
+    byte[] bytes = Arrays.copyOf(header, header.length + body.length);
+    for (int i = 0; i < body.length; i++) {
+      bytes[header.length + i] = (byte) body[i];
+    }
+    return bytes;
+  }
+
+  @Test
+  void rejectsMalformedTrees() {
+    int unary = DiceExpressionFormat.UNARY;
+    int value = DiceExpressionFormat.VALUE;
+    assertEquals(1, DiceExpressionReader.read(expression("-", unary, 1, value, 0, 2)).size());
+
+    // A string index that decodes to a negative number.
+    assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            DiceExpressionReader.read(
+                expression("-", unary, 0xff, 0xff, 0xff, 0xff, 0x0f, value, 0, 2)));
+    // A missing operand.
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> DiceExpressionReader.read(expression("-", unary, 1, DiceExpressionFormat.NULL)));
+    // Unknown operators.
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> DiceExpressionReader.read(expression("%", unary, 1, value, 0, 2)));
+    assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            DiceExpressionReader.read(
+                expression("%", DiceExpressionFormat.BINARY, 1, value, 0, 2, value, 0, 2)));
+
+    // Trees nested too deeply to read without overflowing the stack.
+    int[] deep = new int[DiceExpressionReader.MAX_DEPTH * 2 + 3];
+    for (int i = 0; i < DiceExpressionReader.MAX_DEPTH; i++) {
+      deep[i * 2] = unary;
+      deep[i * 2 + 1] = 1;
+    }
+    deep[deep.length - 3] = value;
+    deep[deep.length - 1] = 2;
+    var e =
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> DiceExpressionReader.read(expression("-", deep)));
+    assertTrue(e.getMessage().contains("nested"), e.getMessage());
+  }
+
+  @Test
+  void corruptDataOnlyFailsWithIllegalArgumentException() {
+    var random = new Random(1);
+    for (String source : EXPRESSIONS) {
+      byte[] bytes = DiceExpression.fromString(source).toBytes();
+      for (int i = 0; i < 2000; i++) {
+        byte[] corrupt = Arrays.copyOf(bytes, 1 + random.nextInt(bytes.length));
+        for (int changes = random.nextInt(4); changes > 0; changes--) {
+          corrupt[random.nextInt(corrupt.length)] = (byte) random.nextInt(256);
+        }
+        try {
+          DiceExpressionReader.read(corrupt);
+        } catch (IllegalArgumentException expected) {
+          // Most corrupt data is rejected, any other exception fails the test.
+        }
+      }
+    }
+  }
+
+  @Test
+  void readsTextFormat() {
+    byte[] bytes = {
+      0x44,
+      0x58,
+      DiceExpressionFormat.VERSION_TEXT,
+      // String table.
+      1,
+      3,
+      '1',
+      '+',
+      '2',
+      // One statement, a top level node holding the value 3.
+      1,
+      DiceExpressionFormat.TOP_LEVEL,
+      1,
+      DiceExpressionFormat.VALUE,
+      0,
+      6
+    };
+
+    var expression = DiceExpression.fromBytes(ByteBuffer.wrap(bytes));
+
+    assertEquals("1+2 = 3\n", run(expression));
+  }
+}
@@ -138,4 +138,24 @@ class DefaultDiceExpressionSymbolTableTest {
     assertTrue(stable.containsVariable(DiceEvalScope.GLOBAL, "test5"));
     assertTrue(stable.containsVariable(DiceEvalScope.PROPERTY, "test3"));
   }
+
+  @Test
+  void variableHandle() {
+    DefaultDiceExpressionSymbolTable stable = new DefaultDiceExpressionSymbolTable();
+    DiceVariableHandle handle = stable.getVariableHandle(DiceEvalScope.GLOBAL, "test1");
+
+    assertNull(handle.get());
+    assertFalse(stable.containsVariable(DiceEvalScope.GLOBAL, "test1"));
+
+    stable.setVariableValue(DiceEvalScope.GLOBAL, "test1", DiceExprResult.getIntResult(1));
+    assertEquals(1, handle.get().getIntResult().getAsInt());
+
+    handle.set(DiceExprResult.getIntResult(2));
+    assertEquals(
+        2, stable.getVariableValue(DiceEvalScope.GLOBAL, "test1").getIntResult().getAsInt());
+    assertNull(stable.getVariableValue(DiceEvalScope.LOCAL, "test1"));
+
+    stable.getVariableHandle(DiceEvalScope.PROPERTY, "test2").set(DiceExprResult.getIntResult(3));
+    assertTrue(stable.getVariableNames(DiceEvalScope.PROPERTY).contains("test2"));
+  }
 }
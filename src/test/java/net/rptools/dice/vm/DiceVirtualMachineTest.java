@@ -0,0 +1,95 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.dice.vm;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import net.rptools.dice.CompileOptions;
+import net.rptools.dice.DiceExpression;
+import net.rptools.dice.expressiontree.BinaryDiceExpressionNode;
+import net.rptools.dice.expressiontree.DiceEvalFrame;
+import net.rptools.dice.expressiontree.ValueDiceExpressionNode;
+import net.rptools.dice.parser.RecursiveDescentDiceParser;
+import net.rptools.dice.result.DiceExprResult;
+import net.rptools.dice.result.PlainResultFormatter;
+import net.rptools.dice.symbols.DefaultDiceExpressionSymbolTable;
+import net.rptools.dice.symbols.DiceEvalScope;
+import org.junit.jupiter.api.Test;
+
+class DiceVirtualMachineTest {
+
+  private static final CompileOptions INTERPRETED =
+      CompileOptions.DEFAULT.withBytecodeThreshold(-1).withVmThreshold(-1);
+
+  private static final CompileOptions VM = INTERPRETED.withVmThreshold(0);
+
+  private static String run(String source, CompileOptions options) {
+    var expression = DiceExpression.fromString(source, options);
+    var symbolTable = new DefaultDiceExpressionSymbolTable();
+    symbolTable.setVariableValue(DiceEvalScope.LOCAL, "n", DiceExprResult.getIntResult(2));
+    symbolTable.setVariableValue(DiceEvalScope.GLOBAL, "g", DiceExprResult.getIntResult(3));
+    try {
+      var frame = expression.execute(symbolTable);
+      var a = symbolTable.getVariableValue(DiceEvalScope.GLOBAL, "a");
+      return expression.format(frame, new PlainResultFormatter()).orElse("")
+          + (a == null ? "" : a.getType() + ":" + a.getStringResult());
+    } catch (RuntimeException e) {
+      return e.toString();
+    }
+  }
+
+  @Test
+  void matchesTreeInterpreter() {
+    for (String source :
+        List.of(
+            "1 + 2 * 3 - 4 / 2",
+            "#a = 4d1(kh2) + 3; #a * 2; -#a",
+            "{1 + 2} * (3 - 1)d1(cs>=1, cf=1)",
+            "(#a = 2)d(1 + 0) + #a + $n + #g + 1 + 1",
+            "5d1(kh$n, s>=1); 3d1(dl#g) - -2",
+            "'abc' + \"def\"; 2.5 * 2",
+            "%hide; 1",
+            "#a = 1; 2 ^ (#a = 3)",
+            "#a = 1; ('x')d(#a = 2)",
+            "#a = 1; (2)d('x' + (#a = 3))")) {
+      assertEquals(run(source, INTERPRETED), run(source, VM), source);
+    }
+  }
+
+  @Test
+  void chainsUseConstantRegisters() {
+    var source = new StringBuilder("1");
+    for (int i = 0; i < 10_000; i++) {
+      source.append(i % 2 == 0 ? " + 2" : " - 1");
+    }
+    var roots = RecursiveDescentDiceParser.parse(source.toString());
+    var program = DiceProgramCompiler.compile(roots).orElseThrow();
+
+    assertEquals(2, program.getRegisterCount());
+    var frame = new DiceEvalFrame(null);
+    DiceVirtualMachine.execute(program, frame);
+    assertEquals(5001, frame.getResult(roots.get(0)).getIntResult().getAsInt());
+  }
+
+  @Test
+  void unsupportedOperatorsAreNotCompiled() {
+    var two = new ValueDiceExpressionNode(DiceExprResult.getIntResult(2));
+    assertTrue(
+        DiceProgramCompiler.compile(List.of(new BinaryDiceExpressionNode("%", two, two)))
+            .isEmpty());
+    assertTrue(DiceProgramCompiler.compile(RecursiveDescentDiceParser.parse("2x6")).isEmpty());
+  }
+}